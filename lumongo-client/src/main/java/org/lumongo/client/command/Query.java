@@ -58,6 +58,7 @@ public class Query extends SimpleCommand<QueryRequest, QueryResult> {
 	private Boolean dismax;
 	private Float dismaxTie;
 	private Boolean dontCache;
+	private Boolean waitForIndexedChanges;
 	private Boolean debug;
 
 	public Query(String index, String query, int amount) {
@@ -355,6 +356,13 @@ public class Query extends SimpleCommand<QueryRequest, QueryResult> {
 	}
 
 	public Query addCountRequest(String label, Integer maxFacets, Integer segmentFacets) {
+		return (addCountRequest(label, maxFacets, segmentFacets, false));
+	}
+
+	/**
+	 * @param exact - segments count the candidate labels again in a second phase so the counts returned are exact
+	 */
+	public Query addCountRequest(String label, Integer maxFacets, Integer segmentFacets, boolean exact) {
 
 		CountRequest.Builder countRequest = CountRequest.newBuilder().setFacetField(LMFacet.newBuilder().setLabel(label).build());
 		if (maxFacets != null) {
@@ -363,6 +371,9 @@ public class Query extends SimpleCommand<QueryRequest, QueryResult> {
 		if (segmentFacets != null) {
 			countRequest.setSegmentFacets(segmentFacets);
 		}
+		if (exact) {
+			countRequest.setExact(true);
+		}
 		if (countRequests.isEmpty()) {
 			this.countRequests = new ArrayList<>();
 		}
@@ -441,6 +452,19 @@ public class Query extends SimpleCommand<QueryRequest, QueryResult> {
 		this.dontCache = dontCache;
 	}
 
+	public Boolean getWaitForIndexedChanges() {
+		return waitForIndexedChanges;
+	}
+
+	/**
+	 * @param waitForIndexedChanges - search only once every change indexed before the query is searchable, false by default
+	 *                              which searches the latest refreshed searcher and can miss changes of the last segment
+	 *                              refresh interval
+	 */
+	public void setWaitForIndexedChanges(Boolean waitForIndexedChanges) {
+		this.waitForIndexedChanges = waitForIndexedChanges;
+	}
+
 	public Boolean getDebug() {
 		return debug;
 	}
@@ -526,6 +550,10 @@ public class Query extends SimpleCommand<QueryRequest, QueryResult> {
 			requestBuilder.setDontCache(dontCache);
 		}
 
+		if (waitForIndexedChanges != null) {
+			requestBuilder.setWaitForIndexedChanges(waitForIndexedChanges);
+		}
+
 		requestBuilder.addAllDocumentFields(documentFields);
 		requestBuilder.addAllDocumentMaskedFields(documentMaskedFields);
 
@@ -24,6 +24,18 @@ public class IndexConfig {
 	private Boolean storeDocumentInMongo;
 	private Boolean storeDocumentInIndex;
 	private Boolean storeIndexOnDisk;
+	private IndexSettings.MongoReadPreference blockReadPreference;
+	private IndexSettings.MongoWriteConcern blockFlushWriteConcern;
+	private IndexSettings.MongoWriteConcern blockCommitWriteConcern;
+	private IndexSettings.MongoWriteConcern documentWriteConcern;
+	private Integer associatedDocumentChunkSize;
+	private IndexSettings.StoredFieldsMode storedFieldsMode;
+	private Boolean storeIndexTiered;
+	private Double segmentRefreshInterval;
+	private Long segmentQueryCacheMaxBytes;
+	private Integer segmentFilterCacheSize;
+	private Long segmentFilterCacheMaxBytes;
+	private IndexSettings.FacetStorage facetStorage;
 
 	private TreeMap<String, FieldConfig> fieldMap;
 	private TreeMap<String, AnalyzerSettings> analyzerSettingsMap;
@@ -199,6 +211,121 @@ public class IndexConfig {
 		this.storeIndexOnDisk = storeIndexOnDisk;
 	}
 
+	public IndexSettings.MongoReadPreference getBlockReadPreference() {
+		return blockReadPreference;
+	}
+
+	public void setBlockReadPreference(IndexSettings.MongoReadPreference blockReadPreference) {
+		this.blockReadPreference = blockReadPreference;
+	}
+
+	public IndexSettings.MongoWriteConcern getBlockFlushWriteConcern() {
+		return blockFlushWriteConcern;
+	}
+
+	/**
+	 * @param blockFlushWriteConcern - write concern of the blocks written behind, must be acknowledged so the commit write concern covers them
+	 */
+	public void setBlockFlushWriteConcern(IndexSettings.MongoWriteConcern blockFlushWriteConcern) {
+		this.blockFlushWriteConcern = blockFlushWriteConcern;
+	}
+
+	public IndexSettings.MongoWriteConcern getBlockCommitWriteConcern() {
+		return blockCommitWriteConcern;
+	}
+
+	public void setBlockCommitWriteConcern(IndexSettings.MongoWriteConcern blockCommitWriteConcern) {
+		this.blockCommitWriteConcern = blockCommitWriteConcern;
+	}
+
+	public IndexSettings.MongoWriteConcern getDocumentWriteConcern() {
+		return documentWriteConcern;
+	}
+
+	public void setDocumentWriteConcern(IndexSettings.MongoWriteConcern documentWriteConcern) {
+		this.documentWriteConcern = documentWriteConcern;
+	}
+
+	public Integer getAssociatedDocumentChunkSize() {
+		return associatedDocumentChunkSize;
+	}
+
+	public void setAssociatedDocumentChunkSize(Integer associatedDocumentChunkSize) {
+		this.associatedDocumentChunkSize = associatedDocumentChunkSize;
+	}
+
+	public IndexSettings.StoredFieldsMode getStoredFieldsMode() {
+		return storedFieldsMode;
+	}
+
+	public void setStoredFieldsMode(IndexSettings.StoredFieldsMode storedFieldsMode) {
+		this.storedFieldsMode = storedFieldsMode;
+	}
+
+	public Boolean getStoreIndexTiered() {
+		return storeIndexTiered;
+	}
+
+	public void setStoreIndexTiered(Boolean storeIndexTiered) {
+		this.storeIndexTiered = storeIndexTiered;
+	}
+
+	public Double getSegmentRefreshInterval() {
+		return segmentRefreshInterval;
+	}
+
+	/**
+	 * @param segmentRefreshInterval - seconds between background refreshes of the searchers of a segment, only queries
+	 *                               that do not wait for indexed changes can be this far behind
+	 */
+	public void setSegmentRefreshInterval(Double segmentRefreshInterval) {
+		this.segmentRefreshInterval = segmentRefreshInterval;
+	}
+
+	public Long getSegmentQueryCacheMaxBytes() {
+		return segmentQueryCacheMaxBytes;
+	}
+
+	/**
+	 * @param segmentQueryCacheMaxBytes - maximum serialized size of the responses cached by each segment
+	 */
+	public void setSegmentQueryCacheMaxBytes(Long segmentQueryCacheMaxBytes) {
+		this.segmentQueryCacheMaxBytes = segmentQueryCacheMaxBytes;
+	}
+
+	public Integer getSegmentFilterCacheSize() {
+		return segmentFilterCacheSize;
+	}
+
+	/**
+	 * @param segmentFilterCacheSize - maximum number of filters cached by each segment, 0 leaves filters to the default lucene query cache of the node
+	 */
+	public void setSegmentFilterCacheSize(Integer segmentFilterCacheSize) {
+		this.segmentFilterCacheSize = segmentFilterCacheSize;
+	}
+
+	public Long getSegmentFilterCacheMaxBytes() {
+		return segmentFilterCacheMaxBytes;
+	}
+
+	/**
+	 * @param segmentFilterCacheMaxBytes - maximum memory used by the filters cached by each segment
+	 */
+	public void setSegmentFilterCacheMaxBytes(Long segmentFilterCacheMaxBytes) {
+		this.segmentFilterCacheMaxBytes = segmentFilterCacheMaxBytes;
+	}
+
+	public IndexSettings.FacetStorage getFacetStorage() {
+		return facetStorage;
+	}
+
+	/**
+	 * @param facetStorage - how facets are indexed, can only be set when the index is created
+	 */
+	public void setFacetStorage(IndexSettings.FacetStorage facetStorage) {
+		this.facetStorage = facetStorage;
+	}
+
 	public IndexSettings getIndexSettings() {
 		IndexSettings.Builder isb = IndexSettings.newBuilder();
 		if (defaultSearchField != null) {
@@ -243,6 +370,54 @@ public class IndexConfig {
 			isb.setStoreIndexOnDisk(storeIndexOnDisk);
 		}
 
+		if (blockReadPreference != null) {
+			isb.setBlockReadPreference(blockReadPreference);
+		}
+
+		if (blockFlushWriteConcern != null) {
+			isb.setBlockFlushWriteConcern(blockFlushWriteConcern);
+		}
+
+		if (blockCommitWriteConcern != null) {
+			isb.setBlockCommitWriteConcern(blockCommitWriteConcern);
+		}
+
+		if (documentWriteConcern != null) {
+			isb.setDocumentWriteConcern(documentWriteConcern);
+		}
+
+		if (associatedDocumentChunkSize != null) {
+			isb.setAssociatedDocumentChunkSize(associatedDocumentChunkSize);
+		}
+
+		if (storedFieldsMode != null) {
+			isb.setStoredFieldsMode(storedFieldsMode);
+		}
+
+		if (storeIndexTiered != null) {
+			isb.setStoreIndexTiered(storeIndexTiered);
+		}
+
+		if (segmentRefreshInterval != null) {
+			isb.setSegmentRefreshInterval(segmentRefreshInterval);
+		}
+
+		if (segmentQueryCacheMaxBytes != null) {
+			isb.setSegmentQueryCacheMaxBytes(segmentQueryCacheMaxBytes);
+		}
+
+		if (segmentFilterCacheSize != null) {
+			isb.setSegmentFilterCacheSize(segmentFilterCacheSize);
+		}
+
+		if (segmentFilterCacheMaxBytes != null) {
+			isb.setSegmentFilterCacheMaxBytes(segmentFilterCacheMaxBytes);
+		}
+
+		if (facetStorage != null) {
+			isb.setFacetStorage(facetStorage);
+		}
+
 		for (String fieldName : fieldMap.keySet()) {
 			FieldConfig fieldConfig = fieldMap.get(fieldName);
 			isb.addFieldConfig(fieldConfig);
@@ -268,6 +443,18 @@ public class IndexConfig {
 		this.storeDocumentInIndex = indexSettings.getStoreDocumentInIndex();
 		this.storeDocumentInMongo = indexSettings.getStoreDocumentInMongo();
 		this.storeIndexOnDisk = indexSettings.getStoreIndexOnDisk();
+		this.blockReadPreference = indexSettings.getBlockReadPreference();
+		this.blockFlushWriteConcern = indexSettings.getBlockFlushWriteConcern();
+		this.blockCommitWriteConcern = indexSettings.getBlockCommitWriteConcern();
+		this.documentWriteConcern = indexSettings.getDocumentWriteConcern();
+		this.associatedDocumentChunkSize = indexSettings.getAssociatedDocumentChunkSize();
+		this.storedFieldsMode = indexSettings.getStoredFieldsMode();
+		this.storeIndexTiered = indexSettings.getStoreIndexTiered();
+		this.segmentRefreshInterval = indexSettings.getSegmentRefreshInterval();
+		this.segmentQueryCacheMaxBytes = indexSettings.getSegmentQueryCacheMaxBytes();
+		this.segmentFilterCacheSize = indexSettings.getSegmentFilterCacheSize();
+		this.segmentFilterCacheMaxBytes = indexSettings.getSegmentFilterCacheMaxBytes();
+		this.facetStorage = indexSettings.getFacetStorage();
 		this.fieldMap = new TreeMap<>();
 
 		for (FieldConfig fc : indexSettings.getFieldConfigList()) {
@@ -140,6 +140,7 @@ public class Mapper<T> {
 		indexConfig.setStoreDocumentInIndex(settings.storeDocumentInIndex());
 		indexConfig.setStoreDocumentInMongo(settings.storeDocumentInMongo());
 		indexConfig.setStoreIndexOnDisk(settings.storeIndexOnDisk());
+		indexConfig.setStoreIndexTiered(settings.storeIndexTiered());
 
 		for (Lumongo.FieldConfig fieldConfig : fieldConfigMapper.getFieldConfigs()) {
 			indexConfig.addFieldConfig(fieldConfig);
@@ -37,5 +37,7 @@ public @interface Settings {
 	boolean storeDocumentInMongo() default false;
 
 	boolean storeIndexOnDisk() default false;
+
+	boolean storeIndexTiered() default false;
 	
 }
@@ -50,7 +50,8 @@ public class LumongoNode {
 
 		log.info("Loaded cluster config: <" + clusterConfig + ">");
 
-		MongoDirectory.setMaxIndexBlocks(clusterConfig.getMaxIndexBlocks());
+		MongoDirectory.setMaxBlockCacheSize(clusterConfig.getIndexBlockCacheBytes(), clusterConfig.getIndexBlockCacheOverflowPercent());
+		MongoDirectory.setMaxDiskBlockCacheSize(clusterConfig.getIndexBlockDiskCacheBytes());
 
 		this.indexManager = new LumongoIndexManager(mongo, mongoConfig, clusterConfig);
 
@@ -1,22 +1,48 @@
 package org.lumongo.server.config;
 
 import org.bson.Document;
+import org.lumongo.storage.lucene.BlockCache;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.util.Compression.CompressionLevel;
 import org.lumongo.util.properties.PropertiesReader;
 import org.lumongo.util.properties.PropertiesReader.PropertyException;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ClusterConfig {
 	
 	public static final String SHARDED = "sharded";
 	public static final String INDEX_BLOCK_SIZE = "indexBlockSize";
 	public static final String MAX_INDEX_BLOCKS = "maxIndexBlocks";
+	public static final String INDEX_BLOCK_CACHE_MB = "indexBlockCacheMB";
+	public static final String INDEX_BLOCK_CACHE_OVERFLOW_PERCENT = "indexBlockCacheOverflowPercent";
+	public static final String INDEX_READ_AHEAD_BLOCKS = "indexReadAheadBlocks";
+	public static final String INDEX_BLOCK_COMPRESSION = "indexBlockCompression";
+	public static final String INDEX_BLOCK_DISK_CACHE = "indexBlockDiskCache";
+	public static final String INDEX_BLOCK_DISK_CACHE_MB = "indexBlockDiskCacheMB";
+	public static final String INDEX_BLOCK_SIZE_BY_FILE_TYPE = "indexBlockSizeByFileType";
+	public static final String INDEX_WARM_UP_MB = "indexWarmUpMB";
+	public static final String INDEX_WARM_UP_THREADS = "indexWarmUpThreads";
+	public static final String INDEX_DATA_DIRECTORIES = "indexDataDirectories";
 	public static final String MAX_INTERNAL_CLIENT_CONNECTIONS = "maxInternalClientConnections";
 	public static final String INTERNAL_WORKERS = "internalWorkers";
 	public static final String EXTERNAL_WORKERS = "externalWorkers";
 	public static final String INTERNAL_SHUTDOWN_TIMEOUT = "internalShutdownTimeout";
 	public static final String EXTERNAL_SHUTDOWN_TIMEOUT = "externalShutdownTimeout";
+
+	private static final long MB = 1024 * 1024;
+
+	private static final String NO_COMPRESSION = "NONE";
+
+	private static final int DEFAULT_INDEX_BLOCK_DISK_CACHE_MB = 10240;
+	private static final int DEFAULT_INDEX_WARM_UP_MB = 64;
+	private static final int DEFAULT_INDEX_WARM_UP_THREADS = 4;
+	private static final String DEFAULT_INDEX_DATA_DIRECTORIES = "indexes";
 	
 	public static ClusterConfig getClusterConfig(File propertiesFile) throws IOException, PropertyException {
 		PropertiesReader propertiesReader = new PropertiesReader(propertiesFile);
@@ -34,6 +60,16 @@ public class ClusterConfig {
 	// general
 	private int indexBlockSize;
 	private int maxIndexBlocks;
+	private int indexBlockCacheMB;
+	private int indexBlockCacheOverflowPercent;
+	private int indexReadAheadBlocks;
+	private String indexBlockCompression;
+	private boolean indexBlockDiskCache;
+	private int indexBlockDiskCacheMB;
+	private boolean indexBlockSizeByFileType;
+	private int indexWarmUpMB;
+	private int indexWarmUpThreads;
+	private String indexDataDirectories;
 	
 	// sockets
 	private int maxInternalClientConnections;
@@ -45,15 +81,56 @@ public class ClusterConfig {
 	private int externalShutdownTimeout;
 	
 	protected ClusterConfig() {
-		
+		indexBlockCacheMB = -1;
+		indexBlockCacheOverflowPercent = BlockCache.DEFAULT_OVERFLOW_PERCENT;
+		indexReadAheadBlocks = MongoDirectory.DEFAULT_READ_AHEAD_BLOCKS;
+		indexBlockCompression = NO_COMPRESSION;
+		indexBlockDiskCacheMB = DEFAULT_INDEX_BLOCK_DISK_CACHE_MB;
+		indexBlockSizeByFileType = true;
+		indexWarmUpMB = DEFAULT_INDEX_WARM_UP_MB;
+		indexWarmUpThreads = DEFAULT_INDEX_WARM_UP_THREADS;
+		indexDataDirectories = DEFAULT_INDEX_DATA_DIRECTORIES;
 	}
 	
 	public ClusterConfig(PropertiesReader propertiesReader) throws PropertyException {
-		
+		this();
+
 		sharded = propertiesReader.getBoolean(SHARDED);
 		
 		indexBlockSize = propertiesReader.getInteger(INDEX_BLOCK_SIZE);
 		maxIndexBlocks = propertiesReader.getInteger(MAX_INDEX_BLOCKS);
+		if (propertiesReader.hasKey(INDEX_BLOCK_CACHE_MB)) {
+			indexBlockCacheMB = propertiesReader.getInteger(INDEX_BLOCK_CACHE_MB);
+		}
+		if (propertiesReader.hasKey(INDEX_BLOCK_CACHE_OVERFLOW_PERCENT)) {
+			indexBlockCacheOverflowPercent = propertiesReader.getInteger(INDEX_BLOCK_CACHE_OVERFLOW_PERCENT);
+		}
+		if (propertiesReader.hasKey(INDEX_READ_AHEAD_BLOCKS)) {
+			indexReadAheadBlocks = propertiesReader.getInteger(INDEX_READ_AHEAD_BLOCKS);
+		}
+		if (propertiesReader.hasKey(INDEX_BLOCK_COMPRESSION)) {
+			indexBlockCompression = propertiesReader.getString(INDEX_BLOCK_COMPRESSION).trim().toUpperCase();
+			getIndexBlockCompression();
+		}
+		if (propertiesReader.hasKey(INDEX_BLOCK_DISK_CACHE)) {
+			indexBlockDiskCache = propertiesReader.getBoolean(INDEX_BLOCK_DISK_CACHE);
+		}
+		if (propertiesReader.hasKey(INDEX_BLOCK_DISK_CACHE_MB)) {
+			indexBlockDiskCacheMB = propertiesReader.getInteger(INDEX_BLOCK_DISK_CACHE_MB);
+		}
+		if (propertiesReader.hasKey(INDEX_BLOCK_SIZE_BY_FILE_TYPE)) {
+			indexBlockSizeByFileType = propertiesReader.getBoolean(INDEX_BLOCK_SIZE_BY_FILE_TYPE);
+		}
+		if (propertiesReader.hasKey(INDEX_WARM_UP_MB)) {
+			indexWarmUpMB = propertiesReader.getInteger(INDEX_WARM_UP_MB);
+		}
+		if (propertiesReader.hasKey(INDEX_WARM_UP_THREADS)) {
+			indexWarmUpThreads = propertiesReader.getInteger(INDEX_WARM_UP_THREADS);
+		}
+		if (propertiesReader.hasKey(INDEX_DATA_DIRECTORIES)) {
+			indexDataDirectories = propertiesReader.getString(INDEX_DATA_DIRECTORIES);
+			getIndexDataDirectories();
+		}
 		
 		maxInternalClientConnections = propertiesReader.getInteger(MAX_INTERNAL_CLIENT_CONNECTIONS);
 		internalWorkers = propertiesReader.getInteger(INTERNAL_WORKERS);
@@ -75,6 +152,81 @@ public class ClusterConfig {
 	public int getMaxIndexBlocks() {
 		return maxIndexBlocks;
 	}
+
+	/**
+	 * @return the byte budget for the index block cache, falls back to maxIndexBlocks blocks of indexBlockSize when indexBlockCacheMB is not set
+	 */
+	public long getIndexBlockCacheBytes() {
+		if (indexBlockCacheMB > 0) {
+			return indexBlockCacheMB * MB;
+		}
+		return (long) maxIndexBlocks * indexBlockSize;
+	}
+
+	public int getIndexBlockCacheOverflowPercent() {
+		return indexBlockCacheOverflowPercent;
+	}
+
+	public int getIndexReadAheadBlocks() {
+		return indexReadAheadBlocks;
+	}
+
+	/**
+	 * @return the compression level for newly stored index blocks or null when blocks are stored uncompressed
+	 */
+	public CompressionLevel getIndexBlockCompression() {
+		if (NO_COMPRESSION.equals(indexBlockCompression)) {
+			return null;
+		}
+		try {
+			return CompressionLevel.valueOf(indexBlockCompression);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid index block compression <" + indexBlockCompression + ">, expected NONE, FASTEST, NORMAL or BEST");
+		}
+	}
+
+	public boolean isIndexBlockDiskCache() {
+		return indexBlockDiskCache;
+	}
+
+	/**
+	 * @return the byte budget of the index block disk cache of the node
+	 */
+	public long getIndexBlockDiskCacheBytes() {
+		return indexBlockDiskCacheMB * MB;
+	}
+
+	public boolean isIndexBlockSizeByFileType() {
+		return indexBlockSizeByFileType;
+	}
+
+	/**
+	 * @return the maximum bytes loaded into the block cache when a segment is opened, 0 disables warm up
+	 */
+	public long getIndexWarmUpBytes() {
+		return indexWarmUpMB * MB;
+	}
+
+	public int getIndexWarmUpThreads() {
+		return indexWarmUpThreads;
+	}
+
+	/**
+	 * @return the directories on disk that indexes stored on disk and block disk caches are spread across, every node uses the same list
+	 */
+	public List<Path> getIndexDataDirectories() {
+		List<Path> dataDirectories = new ArrayList<>();
+		for (String dataDirectory : indexDataDirectories.split(",")) {
+			if (!dataDirectory.trim().isEmpty()) {
+				dataDirectories.add(Paths.get(dataDirectory.trim()));
+			}
+		}
+		if (dataDirectories.isEmpty()) {
+			throw new IllegalArgumentException("Invalid index data directories <" + indexDataDirectories + ">, expected a comma separated list of directories");
+		}
+		return dataDirectories;
+	}
 	
 	public int getMaxInternalClientConnections() {
 		return maxInternalClientConnections;
@@ -101,6 +253,16 @@ public class ClusterConfig {
 		document.put(SHARDED, sharded);
 		document.put(INDEX_BLOCK_SIZE, indexBlockSize);
 		document.put(MAX_INDEX_BLOCKS, maxIndexBlocks);
+		document.put(INDEX_BLOCK_CACHE_MB, indexBlockCacheMB);
+		document.put(INDEX_BLOCK_CACHE_OVERFLOW_PERCENT, indexBlockCacheOverflowPercent);
+		document.put(INDEX_READ_AHEAD_BLOCKS, indexReadAheadBlocks);
+		document.put(INDEX_BLOCK_COMPRESSION, indexBlockCompression);
+		document.put(INDEX_BLOCK_DISK_CACHE, indexBlockDiskCache);
+		document.put(INDEX_BLOCK_DISK_CACHE_MB, indexBlockDiskCacheMB);
+		document.put(INDEX_BLOCK_SIZE_BY_FILE_TYPE, indexBlockSizeByFileType);
+		document.put(INDEX_WARM_UP_MB, indexWarmUpMB);
+		document.put(INDEX_WARM_UP_THREADS, indexWarmUpThreads);
+		document.put(INDEX_DATA_DIRECTORIES, indexDataDirectories);
 		document.put(MAX_INTERNAL_CLIENT_CONNECTIONS, maxInternalClientConnections);
 		document.put(INTERNAL_WORKERS, internalWorkers);
 		document.put(EXTERNAL_WORKERS, externalWorkers);
@@ -115,6 +277,36 @@ public class ClusterConfig {
 		clusterConfig.sharded = (boolean) settings.get(SHARDED);
 		clusterConfig.indexBlockSize = (int) settings.get(INDEX_BLOCK_SIZE);
 		clusterConfig.maxIndexBlocks = (int) settings.get(MAX_INDEX_BLOCKS);
+		if (settings.containsKey(INDEX_BLOCK_CACHE_MB)) {
+			clusterConfig.indexBlockCacheMB = (int) settings.get(INDEX_BLOCK_CACHE_MB);
+		}
+		if (settings.containsKey(INDEX_BLOCK_CACHE_OVERFLOW_PERCENT)) {
+			clusterConfig.indexBlockCacheOverflowPercent = (int) settings.get(INDEX_BLOCK_CACHE_OVERFLOW_PERCENT);
+		}
+		if (settings.containsKey(INDEX_READ_AHEAD_BLOCKS)) {
+			clusterConfig.indexReadAheadBlocks = (int) settings.get(INDEX_READ_AHEAD_BLOCKS);
+		}
+		if (settings.containsKey(INDEX_BLOCK_COMPRESSION)) {
+			clusterConfig.indexBlockCompression = (String) settings.get(INDEX_BLOCK_COMPRESSION);
+		}
+		if (settings.containsKey(INDEX_BLOCK_DISK_CACHE)) {
+			clusterConfig.indexBlockDiskCache = (boolean) settings.get(INDEX_BLOCK_DISK_CACHE);
+		}
+		if (settings.containsKey(INDEX_BLOCK_DISK_CACHE_MB)) {
+			clusterConfig.indexBlockDiskCacheMB = (int) settings.get(INDEX_BLOCK_DISK_CACHE_MB);
+		}
+		if (settings.containsKey(INDEX_BLOCK_SIZE_BY_FILE_TYPE)) {
+			clusterConfig.indexBlockSizeByFileType = (boolean) settings.get(INDEX_BLOCK_SIZE_BY_FILE_TYPE);
+		}
+		if (settings.containsKey(INDEX_WARM_UP_MB)) {
+			clusterConfig.indexWarmUpMB = (int) settings.get(INDEX_WARM_UP_MB);
+		}
+		if (settings.containsKey(INDEX_WARM_UP_THREADS)) {
+			clusterConfig.indexWarmUpThreads = (int) settings.get(INDEX_WARM_UP_THREADS);
+		}
+		if (settings.containsKey(INDEX_DATA_DIRECTORIES)) {
+			clusterConfig.indexDataDirectories = (String) settings.get(INDEX_DATA_DIRECTORIES);
+		}
 		clusterConfig.maxInternalClientConnections = (int) settings.get(MAX_INTERNAL_CLIENT_CONNECTIONS);
 		clusterConfig.internalWorkers = (int) settings.get(INTERNAL_WORKERS);
 		clusterConfig.externalWorkers = (int) settings.get(EXTERNAL_WORKERS);
@@ -125,7 +317,11 @@ public class ClusterConfig {
 	
 	@Override
 	public String toString() {
-		return "ClusterConfig [sharded=" + sharded + ", indexBlockSize=" + indexBlockSize + ", maxIndexBlocks=" + maxIndexBlocks
+		return "ClusterConfig [sharded=" + sharded + ", indexBlockSize=" + indexBlockSize + ", maxIndexBlocks=" + maxIndexBlocks + ", indexBlockCacheMB="
+						+ indexBlockCacheMB + ", indexBlockCacheOverflowPercent=" + indexBlockCacheOverflowPercent + ", indexReadAheadBlocks=" + indexReadAheadBlocks
+						+ ", indexBlockCompression=" + indexBlockCompression + ", indexBlockDiskCache=" + indexBlockDiskCache + ", indexBlockDiskCacheMB=" + indexBlockDiskCacheMB
+						+ ", indexBlockSizeByFileType=" + indexBlockSizeByFileType + ", indexWarmUpMB=" + indexWarmUpMB + ", indexWarmUpThreads=" + indexWarmUpThreads
+						+ ", indexDataDirectories=" + indexDataDirectories
 						+ ", maxInternalClientConnections=" + maxInternalClientConnections + ", internalWorkers=" + internalWorkers + ", externalWorkers="
 						+ externalWorkers + ", internalShutdownTimeout=" + internalShutdownTimeout + ", externalShutdownTimeout=" + externalShutdownTimeout
 						+ "]";
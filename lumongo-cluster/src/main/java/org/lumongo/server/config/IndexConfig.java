@@ -1,6 +1,11 @@
 package org.lumongo.server.config;
 
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import info.debatty.java.lsh.SuperBit;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
 import org.lumongo.DefaultAnalyzers;
 import org.lumongo.cluster.message.Lumongo;
 import org.lumongo.cluster.message.Lumongo.AnalyzerSettings.Filter;
@@ -138,6 +143,63 @@ public class IndexConfig {
 		return indexSettings;
 	}
 
+	public ReadPreference getBlockReadPreference() {
+		switch (indexSettings.getBlockReadPreference()) {
+			case PRIMARY_PREFERRED:
+				return ReadPreference.primaryPreferred();
+			case SECONDARY:
+				return ReadPreference.secondary();
+			case SECONDARY_PREFERRED:
+				return ReadPreference.secondaryPreferred();
+			case NEAREST:
+				return ReadPreference.nearest();
+			default:
+				return ReadPreference.primary();
+		}
+	}
+
+	/**
+	 * The mode is recorded in every segment written so segments written with either mode are read by the default codec
+	 */
+	public Codec getCodec() {
+		if (IndexSettings.StoredFieldsMode.BEST_COMPRESSION.equals(indexSettings.getStoredFieldsMode())) {
+			return new Lucene62Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION);
+		}
+		return new Lucene62Codec(Lucene50StoredFieldsFormat.Mode.BEST_SPEED);
+	}
+
+	/**
+	 * @return true when facets are counted from sorted set doc values of the index instead of a taxonomy index
+	 */
+	public boolean isSortedSetFacets() {
+		return IndexSettings.FacetStorage.SORTED_SET_DOC_VALUES.equals(indexSettings.getFacetStorage());
+	}
+
+	public WriteConcern getBlockFlushWriteConcern() {
+		return getWriteConcern(indexSettings.getBlockFlushWriteConcern());
+	}
+
+	public WriteConcern getBlockCommitWriteConcern() {
+		return getWriteConcern(indexSettings.getBlockCommitWriteConcern());
+	}
+
+	public WriteConcern getDocumentWriteConcern() {
+		return getWriteConcern(indexSettings.getDocumentWriteConcern());
+	}
+
+	private static WriteConcern getWriteConcern(IndexSettings.MongoWriteConcern mongoWriteConcern) {
+		switch (mongoWriteConcern) {
+			case UNACKNOWLEDGED:
+				return WriteConcern.UNACKNOWLEDGED;
+			case JOURNALED:
+				return WriteConcern.JOURNALED;
+			case MAJORITY:
+				return WriteConcern.MAJORITY;
+			default:
+				return WriteConcern.ACKNOWLEDGED;
+		}
+	}
+
 	public Lumongo.AnalyzerSettings getAnalyzerSettingsForIndexField(String fieldName) {
 		IndexAs indexAs = indexAsMap.get(fieldName);
 		if (indexAs != null) {
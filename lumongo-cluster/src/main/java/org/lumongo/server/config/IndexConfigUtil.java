@@ -31,6 +31,18 @@ public class IndexConfigUtil {
 	private static final String STORE_DOCUMENT_IN_MONGO = "storeDocumentInMongo";
 	private static final String STORE_DOCUMENT_IN_INDEX = "storeDocumentInIndex";
 	private static final String STORE_INDEX_ON_DISK = "storeIndexOnDisk";
+	private static final String BLOCK_READ_PREFERENCE = "blockReadPreference";
+	private static final String BLOCK_FLUSH_WRITE_CONCERN = "blockFlushWriteConcern";
+	private static final String BLOCK_COMMIT_WRITE_CONCERN = "blockCommitWriteConcern";
+	private static final String DOCUMENT_WRITE_CONCERN = "documentWriteConcern";
+	private static final String ASSOCIATED_DOCUMENT_CHUNK_SIZE = "associatedDocumentChunkSize";
+	private static final String STORED_FIELDS_MODE = "storedFieldsMode";
+	private static final String STORE_INDEX_TIERED = "storeIndexTiered";
+	private static final String SEGMENT_REFRESH_INTERVAL = "segmentRefreshInterval";
+	private static final String SEGMENT_QUERY_CACHE_MAX_BYTES = "segmentQueryCacheMaxBytes";
+	private static final String SEGMENT_FILTER_CACHE_SIZE = "segmentFilterCacheSize";
+	private static final String SEGMENT_FILTER_CACHE_MAX_BYTES = "segmentFilterCacheMaxBytes";
+	private static final String FACET_STORAGE = "facetStorage";
 	private static final String SEGMENT_TOLERANCE = "segmentTolerance";
 	private static final String FIELD_CONFIGS = "fieldConfigs";
 	private static final String STORED_FIELD_NAME = "storedFieldName";
@@ -102,6 +114,42 @@ public class IndexConfigUtil {
 		indexSettings.setSegmentQueryCacheSize(settings.getInteger(SEGMENT_QUERY_CACHE_SIZE));
 		indexSettings.setSegmentQueryCacheMaxAmount(settings.getInteger(SEGMENT_QUERY_CACHE_MAX_AMOUNT));
 		indexSettings.setStoreIndexOnDisk(settings.getBoolean(STORE_INDEX_ON_DISK));
+		if (settings.containsKey(BLOCK_READ_PREFERENCE)) {
+			indexSettings.setBlockReadPreference(IndexSettings.MongoReadPreference.valueOf(settings.getString(BLOCK_READ_PREFERENCE)));
+		}
+		if (settings.containsKey(BLOCK_FLUSH_WRITE_CONCERN)) {
+			indexSettings.setBlockFlushWriteConcern(IndexSettings.MongoWriteConcern.valueOf(settings.getString(BLOCK_FLUSH_WRITE_CONCERN)));
+		}
+		if (settings.containsKey(BLOCK_COMMIT_WRITE_CONCERN)) {
+			indexSettings.setBlockCommitWriteConcern(IndexSettings.MongoWriteConcern.valueOf(settings.getString(BLOCK_COMMIT_WRITE_CONCERN)));
+		}
+		if (settings.containsKey(DOCUMENT_WRITE_CONCERN)) {
+			indexSettings.setDocumentWriteConcern(IndexSettings.MongoWriteConcern.valueOf(settings.getString(DOCUMENT_WRITE_CONCERN)));
+		}
+		if (settings.containsKey(ASSOCIATED_DOCUMENT_CHUNK_SIZE)) {
+			indexSettings.setAssociatedDocumentChunkSize(settings.getInteger(ASSOCIATED_DOCUMENT_CHUNK_SIZE));
+		}
+		if (settings.containsKey(STORED_FIELDS_MODE)) {
+			indexSettings.setStoredFieldsMode(IndexSettings.StoredFieldsMode.valueOf(settings.getString(STORED_FIELDS_MODE)));
+		}
+		if (settings.containsKey(STORE_INDEX_TIERED)) {
+			indexSettings.setStoreIndexTiered(settings.getBoolean(STORE_INDEX_TIERED));
+		}
+		if (settings.containsKey(SEGMENT_REFRESH_INTERVAL)) {
+			indexSettings.setSegmentRefreshInterval(settings.getDouble(SEGMENT_REFRESH_INTERVAL));
+		}
+		if (settings.containsKey(SEGMENT_QUERY_CACHE_MAX_BYTES)) {
+			indexSettings.setSegmentQueryCacheMaxBytes(settings.getLong(SEGMENT_QUERY_CACHE_MAX_BYTES));
+		}
+		if (settings.containsKey(SEGMENT_FILTER_CACHE_SIZE)) {
+			indexSettings.setSegmentFilterCacheSize(settings.getInteger(SEGMENT_FILTER_CACHE_SIZE));
+		}
+		if (settings.containsKey(SEGMENT_FILTER_CACHE_MAX_BYTES)) {
+			indexSettings.setSegmentFilterCacheMaxBytes(settings.getLong(SEGMENT_FILTER_CACHE_MAX_BYTES));
+		}
+		if (settings.containsKey(FACET_STORAGE)) {
+			indexSettings.setFacetStorage(IndexSettings.FacetStorage.valueOf(settings.getString(FACET_STORAGE)));
+		}
 
 		Document analyzerSettings = settings.get(ANALYZER_SETTINGS, Document.class);
 		for (String key : analyzerSettings.keySet()) {
@@ -245,6 +293,18 @@ public class IndexConfigUtil {
 		document.put(SEGMENT_TOLERANCE, indexSettings.getSegmentTolerance());
 		document.put(SEGMENT_QUERY_CACHE_SIZE, indexSettings.getSegmentQueryCacheSize());
 		document.put(SEGMENT_QUERY_CACHE_MAX_AMOUNT, indexSettings.getSegmentQueryCacheMaxAmount());
+		document.put(BLOCK_READ_PREFERENCE, indexSettings.getBlockReadPreference().name());
+		document.put(BLOCK_FLUSH_WRITE_CONCERN, indexSettings.getBlockFlushWriteConcern().name());
+		document.put(BLOCK_COMMIT_WRITE_CONCERN, indexSettings.getBlockCommitWriteConcern().name());
+		document.put(DOCUMENT_WRITE_CONCERN, indexSettings.getDocumentWriteConcern().name());
+		document.put(ASSOCIATED_DOCUMENT_CHUNK_SIZE, indexSettings.getAssociatedDocumentChunkSize());
+		document.put(STORED_FIELDS_MODE, indexSettings.getStoredFieldsMode().name());
+		document.put(STORE_INDEX_TIERED, indexSettings.getStoreIndexTiered());
+		document.put(SEGMENT_REFRESH_INTERVAL, indexSettings.getSegmentRefreshInterval());
+		document.put(SEGMENT_QUERY_CACHE_MAX_BYTES, indexSettings.getSegmentQueryCacheMaxBytes());
+		document.put(SEGMENT_FILTER_CACHE_SIZE, indexSettings.getSegmentFilterCacheSize());
+		document.put(SEGMENT_FILTER_CACHE_MAX_BYTES, indexSettings.getSegmentFilterCacheMaxBytes());
+		document.put(FACET_STORAGE, indexSettings.getFacetStorage().name());
 
 		Document analyzerSettingsDocs = new Document();
 		for (AnalyzerSettings analyzerSettings : indexSettings.getAnalyzerSettingsList()) {
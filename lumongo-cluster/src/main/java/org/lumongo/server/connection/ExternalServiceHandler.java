@@ -323,12 +323,7 @@ public class ExternalServiceHandler extends ExternalService {
 	@Override
 	public void batchFetch(RpcController controller, BatchFetchRequest request, RpcCallback<BatchFetchResponse> done) {
 		try {
-			BatchFetchResponse.Builder gfrb = BatchFetchResponse.newBuilder();
-			for (FetchRequest fr : request.getFetchRequestList()) {
-				FetchResponse res = indexManger.fetch(fr);
-				gfrb.addFetchResponse(res);
-			}
-			done.run(gfrb.build());
+			done.run(indexManger.batchFetch(request));
 		}
 		catch (Exception e) {
 			log.error("Failed to group fetch: <" + request + ">: " + e.getClass().getSimpleName() + ": ", e);
@@ -0,0 +1,186 @@
+package org.lumongo.server.index;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Places the on disk directories of segments across the data directories of a node.  Every directory of a segment
+ * (index, facets and block caches) is kept in the same data directory.
+ *
+ * A new segment goes to the data directory with the fewest open segments among the ones with enough free space, ties
+ * go to the one with the most free space.  The placement is found again after a restart by looking for the directories
+ * of the segment, so nothing besides the segment directories is stored.
+ */
+public class DataDirectoryPlacement {
+	private final static Logger log = Logger.getLogger(DataDirectoryPlacement.class);
+
+	//data directories with less usable space are only used when every data directory is below it
+	private static final long MIN_FREE_BYTES = 1024L * 1024 * 1024;
+
+	private final List<Path> dataDirectories;
+	private final List<String> directorySuffixes;
+
+	//segment prefix to data directory, guarded by this
+	private final Map<String, Path> placements;
+	//open segment prefixes of each data directory, guarded by this
+	private final Map<Path, Set<String>> openSegments;
+
+	/**
+	 * @param directorySuffixes - suffixes of the names of the directories of a segment after the segment prefix
+	 */
+	public DataDirectoryPlacement(List<Path> dataDirectories, List<String> directorySuffixes) {
+		if (dataDirectories.isEmpty()) {
+			throw new IllegalArgumentException("At least one data directory is required");
+		}
+		this.dataDirectories = Collections.unmodifiableList(new ArrayList<>(dataDirectories));
+		this.directorySuffixes = Collections.unmodifiableList(new ArrayList<>(directorySuffixes));
+		this.placements = new HashMap<>();
+		this.openSegments = new HashMap<>();
+		for (Path dataDirectory : dataDirectories) {
+			openSegments.put(dataDirectory, new HashSet<>());
+		}
+	}
+
+	public List<Path> getDataDirectories() {
+		return dataDirectories;
+	}
+
+	/**
+	 * Returns the data directory of an open segment, placing the segment when it is not in a data directory yet
+	 * @param segmentPrefix - prefix of the names of every directory of the segment
+	 */
+	public synchronized Path open(String segmentPrefix) throws IOException {
+		Path dataDirectory = find(segmentPrefix);
+		if (dataDirectory == null) {
+			dataDirectory = choose();
+			log.info("Placing <" + segmentPrefix + "> in data directory <" + dataDirectory + ">");
+		}
+		placements.put(segmentPrefix, dataDirectory);
+		openSegments.get(dataDirectory).add(segmentPrefix);
+		return dataDirectory;
+	}
+
+	/**
+	 * The segment no longer adds load to its data directory, its placement is kept
+	 */
+	public synchronized void close(String segmentPrefix) {
+		Path dataDirectory = placements.get(segmentPrefix);
+		if (dataDirectory != null) {
+			openSegments.get(dataDirectory).remove(segmentPrefix);
+		}
+	}
+
+	/**
+	 * Forgets the placement of a deleted segment
+	 */
+	public synchronized void remove(String segmentPrefix) {
+		close(segmentPrefix);
+		placements.remove(segmentPrefix);
+	}
+
+	/**
+	 * @return the data directory holding directories of the segment or null if there are none
+	 */
+	public synchronized Path find(String segmentPrefix) {
+		Path dataDirectory = placements.get(segmentPrefix);
+		if (dataDirectory != null) {
+			return dataDirectory;
+		}
+
+		for (Path candidate : dataDirectories) {
+			if (containsSegment(candidate, segmentPrefix)) {
+				if (dataDirectory == null) {
+					dataDirectory = candidate;
+				}
+				else {
+					log.warn("Found <" + segmentPrefix + "> in data directory <" + candidate + "> as well, using <" + dataDirectory + ">");
+				}
+			}
+		}
+
+		if (dataDirectory != null) {
+			placements.put(segmentPrefix, dataDirectory);
+		}
+		return dataDirectory;
+	}
+
+	private boolean containsSegment(Path dataDirectory, String segmentPrefix) {
+		for (String directorySuffix : directorySuffixes) {
+			if (Files.exists(dataDirectory.resolve(segmentPrefix + directorySuffix))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Path choose() throws IOException {
+		Path best = null;
+		boolean bestHasSpace = false;
+		long bestUsable = -1;
+		int bestOpen = Integer.MAX_VALUE;
+
+		for (Path dataDirectory : dataDirectories) {
+			long usable;
+			try {
+				Files.createDirectories(dataDirectory);
+				if (!Files.isWritable(dataDirectory)) {
+					log.warn("Data directory <" + dataDirectory + "> is not writable");
+					continue;
+				}
+				usable = getUsableSpace(dataDirectory);
+			}
+			catch (IOException e) {
+				log.warn("Data directory <" + dataDirectory + "> cannot be used: " + e);
+				continue;
+			}
+
+			boolean hasSpace = usable >= MIN_FREE_BYTES;
+			int open = openSegments.get(dataDirectory).size();
+
+			boolean better;
+			if (best == null || hasSpace != bestHasSpace) {
+				better = best == null || hasSpace;
+			}
+			else if (hasSpace) {
+				better = open < bestOpen || (open == bestOpen && usable > bestUsable);
+			}
+			else {
+				better = usable > bestUsable;
+			}
+
+			if (better) {
+				best = dataDirectory;
+				bestHasSpace = hasSpace;
+				bestUsable = usable;
+				bestOpen = open;
+			}
+		}
+
+		if (best == null) {
+			throw new IOException("None of the data directories <" + dataDirectories + "> can be used");
+		}
+		return best;
+	}
+
+	/**
+	 * @return the bytes available to the node in the file store of the data directory
+	 */
+	protected long getUsableSpace(Path dataDirectory) throws IOException {
+		return Files.getFileStore(dataDirectory).getUsableSpace();
+	}
+
+	@Override
+	public String toString() {
+		return "DataDirectoryPlacement{" + "dataDirectories=" + dataDirectories + '}';
+	}
+}
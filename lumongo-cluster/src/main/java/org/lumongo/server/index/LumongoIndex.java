@@ -36,6 +36,7 @@ import org.lumongo.LumongoConstants;
 import org.lumongo.cluster.message.Lumongo;
 import org.lumongo.cluster.message.Lumongo.AssociatedDocument;
 import org.lumongo.cluster.message.Lumongo.DeleteRequest;
+import org.lumongo.cluster.message.Lumongo.FacetRefinement;
 import org.lumongo.cluster.message.Lumongo.FetchType;
 import org.lumongo.cluster.message.Lumongo.FieldConfig;
 import org.lumongo.cluster.message.Lumongo.FieldSort;
@@ -70,9 +71,11 @@ import org.lumongo.server.search.LumongoMultiFieldQueryParser;
 import org.lumongo.server.search.QueryCacheKey;
 import org.lumongo.server.search.QueryWithFilters;
 import org.lumongo.storage.constants.MongoConstants;
+import org.lumongo.storage.lucene.DiskBlockCache;
 import org.lumongo.storage.lucene.DistributedDirectory;
 import org.lumongo.storage.lucene.MongoDirectory;
-import org.lumongo.storage.rawfiles.DocumentStorage;
+import org.lumongo.storage.lucene.MongoFile;
+import org.lumongo.storage.lucene.TieredDirectory;
 import org.lumongo.storage.rawfiles.MongoDocumentStorage;
 import org.lumongo.util.DeletingFileVisitor;
 import org.lumongo.util.LockHandler;
@@ -85,11 +88,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -102,6 +107,9 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -113,12 +121,24 @@ public class LumongoIndex implements IndexSegmentInterface {
 
 	private static final String RESULT_STORAGE_COLLECTION = "resultStorage";
 
+	private static final String INDEX_COLLECTION_SUFFIX = "_index";
+	private static final String FACETS_COLLECTION_SUFFIX = "_facets";
+
+	private static final String INDEX_DIRECTORY_SUFFIX = "_idx";
+	private static final String FACETS_DIRECTORY_SUFFIX = "_facets";
+	private static final String INDEX_BLOCKS_DIRECTORY_SUFFIX = "_idx_blocks";
+	private static final String FACETS_BLOCKS_DIRECTORY_SUFFIX = "_facets_blocks";
+
+	public static final List<String> SEGMENT_DIRECTORY_SUFFIXES = Collections
+			.unmodifiableList(Arrays.asList(INDEX_DIRECTORY_SUFFIX, FACETS_DIRECTORY_SUFFIX, INDEX_BLOCKS_DIRECTORY_SUFFIX, FACETS_BLOCKS_DIRECTORY_SUFFIX));
+
 	private final static Logger log = Logger.getLogger(LumongoIndex.class);
 	private static final String SETTINGS_ID = "settings";
 
 	private final IndexConfig indexConfig;
 	private final MongoConfig mongoConfig;
 	private final ClusterConfig clusterConfig;
+	private final DataDirectoryPlacement dataDirectoryPlacement;
 
 	private final MongoClient mongo;
 	private final GenericObjectPool<LumongoMultiFieldQueryParser> parsers;
@@ -126,10 +146,12 @@ public class LumongoIndex implements IndexSegmentInterface {
 	private final ConcurrentHashMap<Integer, ILock> hazelLockMap;
 	private final ReadWriteLock indexLock;
 	private final ExecutorService segmentPool;
+	private final ExecutorService warmUpPool;
+	private final Set<Integer> segmentsToWarmUp;
 	private final int numberOfSegments;
 	private final String indexName;
 	private final HazelcastManager hazelcastManager;
-	private final DocumentStorage documentStorage;
+	private final MongoDocumentStorage documentStorage;
 
 	private Map<Member, Set<Integer>> memberToSegmentMap;
 	private Map<Integer, Member> segmentToMemberMap;
@@ -140,7 +162,8 @@ public class LumongoIndex implements IndexSegmentInterface {
 	private LockHandler documentLockHandler;
 	private FacetsConfig facetsConfig;
 
-	private LumongoIndex(HazelcastManager hazelcastManger, MongoConfig mongoConfig, ClusterConfig clusterConfig, IndexConfig indexConfig) throws Exception {
+	private LumongoIndex(HazelcastManager hazelcastManger, MongoConfig mongoConfig, ClusterConfig clusterConfig, DataDirectoryPlacement dataDirectoryPlacement,
+			IndexConfig indexConfig) throws Exception {
 
 		this.documentLockHandler = new LockHandler();
 
@@ -148,6 +171,7 @@ public class LumongoIndex implements IndexSegmentInterface {
 
 		this.mongoConfig = mongoConfig;
 		this.clusterConfig = clusterConfig;
+		this.dataDirectoryPlacement = dataDirectoryPlacement;
 
 		this.indexConfig = indexConfig;
 		this.indexName = indexConfig.getIndexName();
@@ -160,9 +184,19 @@ public class LumongoIndex implements IndexSegmentInterface {
 		String rawStorageDb = mongoConfig.getDatabaseName() + "_" + indexName + STORAGE_DB_SUFFIX;
 
 		this.documentStorage = new MongoDocumentStorage(storageMongoClient, indexName, rawStorageDb, RESULT_STORAGE_COLLECTION, clusterConfig.isSharded());
+		this.documentStorage.setWriteConcern(indexConfig.getDocumentWriteConcern());
+		this.documentStorage.setChunkSize(indexConfig.getIndexSettings().getAssociatedDocumentChunkSize());
 
 		this.segmentPool = Executors.newCachedThreadPool(new LumongoThreadFactory(indexName + "-segments"));
 
+		//shared by the warm ups of all segments, threads are only kept while segments are loading
+		int warmUpThreads = Math.max(1, clusterConfig.getIndexWarmUpThreads());
+		ThreadPoolExecutor warmUpExecutor = new ThreadPoolExecutor(warmUpThreads, warmUpThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				new LumongoThreadFactory(indexName + "-warmUp"));
+		warmUpExecutor.allowCoreThreadTimeOut(true);
+		this.warmUpPool = warmUpExecutor;
+		this.segmentsToWarmUp = ConcurrentHashMap.newKeySet();
+
 		this.parsers = new GenericObjectPool<>(new BasePoolableObjectFactory<LumongoMultiFieldQueryParser>() {
 
 			@Override
@@ -207,17 +241,18 @@ public class LumongoIndex implements IndexSegmentInterface {
 	}
 
 	public static LumongoIndex loadIndex(HazelcastManager hazelcastManager, MongoConfig mongoConfig, MongoClient mongo, ClusterConfig clusterConfig,
-			String indexName) throws Exception {
+			DataDirectoryPlacement dataDirectoryPlacement, String indexName) throws Exception {
 		IndexConfig indexConfig = loadIndexSettings(mongo, mongoConfig.getDatabaseName(), indexName);
 		log.info("Loading index <" + indexName + ">");
 
-		return new LumongoIndex(hazelcastManager, mongoConfig, clusterConfig, indexConfig);
+		return new LumongoIndex(hazelcastManager, mongoConfig, clusterConfig, dataDirectoryPlacement, indexConfig);
 
 	}
 
-	public static LumongoIndex createIndex(HazelcastManager hazelcastManager, MongoConfig mongoConfig, ClusterConfig clusterConfig, IndexConfig indexConfig)
-			throws Exception {
-		LumongoIndex i = new LumongoIndex(hazelcastManager, mongoConfig, clusterConfig, indexConfig);
+	public static LumongoIndex createIndex(HazelcastManager hazelcastManager, MongoConfig mongoConfig, ClusterConfig clusterConfig,
+			DataDirectoryPlacement dataDirectoryPlacement, IndexConfig indexConfig) throws Exception {
+		validateIndexSettings(indexConfig.getIndexName(), indexConfig.getIndexSettings());
+		LumongoIndex i = new LumongoIndex(hazelcastManager, mongoConfig, clusterConfig, dataDirectoryPlacement, indexConfig);
 		i.storeIndexSettings();
 		return i;
 
@@ -260,12 +295,40 @@ public class LumongoIndex implements IndexSegmentInterface {
 		return new BoostQuery(newBq, boost);
 	}
 
-	public void updateIndexSettings(IndexSettings request) {
+	/**
+	 * Rejects settings that cannot be applied to any index
+	 */
+	private static void validateIndexSettings(String indexName, IndexSettings indexSettings) throws InvalidIndexConfig {
+		//the commit write concern only covers blocks the primary acknowledged before the file metadata was stored
+		if (IndexSettings.MongoWriteConcern.UNACKNOWLEDGED.equals(indexSettings.getBlockFlushWriteConcern())) {
+			throw new InvalidIndexConfig(indexName, "Block flush write concern cannot be <" + indexSettings.getBlockFlushWriteConcern() + ">");
+		}
+
+		int chunkSize = indexSettings.getAssociatedDocumentChunkSize();
+		if (chunkSize <= 0 || chunkSize > MongoDocumentStorage.MAX_CHUNK_SIZE) {
+			throw new InvalidIndexConfig(indexName,
+					"Associated document chunk size <" + Integer.toUnsignedString(chunkSize) + "> must be between 1 and <" + MongoDocumentStorage.MAX_CHUNK_SIZE
+							+ "> bytes");
+		}
+	}
+
+	public void updateIndexSettings(IndexSettings request) throws InvalidIndexConfig {
 		indexLock.writeLock().lock();
 		try {
+			validateIndexSettings(indexName, request);
+
+			//facets already indexed can only be counted the way they were indexed
+			if (!indexConfig.getIndexSettings().getFacetStorage().equals(request.getFacetStorage())) {
+				throw new InvalidIndexConfig(indexName,
+						"Facet storage cannot be changed from <" + indexConfig.getIndexSettings().getFacetStorage() + "> to <" + request.getFacetStorage() + ">");
+			}
 
 			indexConfig.configure(request);
 			storeIndexSettings();
+
+			//block settings and the stored fields mode apply when segments are loaded again
+			documentStorage.setWriteConcern(indexConfig.getDocumentWriteConcern());
+			documentStorage.setChunkSize(indexConfig.getIndexSettings().getAssociatedDocumentChunkSize());
 		}
 		finally {
 			indexLock.writeLock().unlock();
@@ -386,6 +449,8 @@ public class LumongoIndex implements IndexSegmentInterface {
 
 			log.info("Shutting segment pool for <" + indexName + ">");
 			segmentPool.shutdownNow();
+			warmUpPool.shutdownNow();
+			documentStorage.close();
 
 			for (Integer segmentNumber : segmentMap.keySet()) {
 				unloadSegment(segmentNumber, terminate);
@@ -414,7 +479,15 @@ public class LumongoIndex implements IndexSegmentInterface {
 				FacetsConfig.DEFAULT_DIM_CONFIG.multiValued = true;
 				facetsConfig = new FacetsConfig();
 
-				LumongoSegment s = new LumongoSegment(segmentNumber, indexSegmentInterface, indexConfig, facetsConfig, documentStorage);
+				//only the writer opened when the segment loads warms up, reopened writers find the blocks already cached
+				segmentsToWarmUp.add(segmentNumber);
+				LumongoSegment s;
+				try {
+					s = new LumongoSegment(segmentNumber, indexSegmentInterface, indexConfig, facetsConfig, documentStorage);
+				}
+				finally {
+					segmentsToWarmUp.remove(segmentNumber);
+				}
 				segmentMap.put(segmentNumber, s);
 
 				log.info("Loaded segment <" + segmentNumber + "> for index <" + indexName + ">");
@@ -430,19 +503,29 @@ public class LumongoIndex implements IndexSegmentInterface {
 	public IndexWriter getIndexWriter(int segmentNumber) throws Exception {
 
 		Directory d;
-		if (indexConfig.getIndexSettings().getStoreIndexOnDisk()) {
-			d = MMapDirectory.open(getPathForIndex(segmentNumber));
+		if (indexConfig.getIndexSettings().getStoreIndexTiered()) {
+			MongoDirectory mongoDirectory = getMongoDirectory(segmentNumber, INDEX_COLLECTION_SUFFIX);
+			d = new TieredDirectory(MMapDirectory.open(getPathForIndex(getDataDirectory(segmentNumber), segmentNumber)), new DistributedDirectory(mongoDirectory));
+		}
+		else if (indexConfig.getIndexSettings().getStoreIndexOnDisk()) {
+			d = MMapDirectory.open(getPathForIndex(getDataDirectory(segmentNumber), segmentNumber));
 		}
 		else {
-			String indexSegmentDbName = getIndexSegmentDbName(segmentNumber);
-			String indexSegmentCollectionName = getIndexSegmentCollectionName(segmentNumber) + "_index";
-			MongoDirectory mongoDirectory = new MongoDirectory(mongo, indexSegmentDbName, indexSegmentCollectionName, clusterConfig.isSharded(),
-					clusterConfig.getIndexBlockSize());
-			d = new DistributedDirectory(mongoDirectory);
+			MongoDirectory mongoDirectory = getMongoDirectory(segmentNumber, INDEX_COLLECTION_SUFFIX);
+			if (clusterConfig.isIndexBlockDiskCache()) {
+				mongoDirectory.enableDiskBlockCache(getPathForIndexBlocks(getDataDirectory(segmentNumber), segmentNumber));
+			}
+			DistributedDirectory distributedDirectory = new DistributedDirectory(mongoDirectory);
+			if (segmentsToWarmUp.remove(segmentNumber)) {
+				warmUp(distributedDirectory, segmentNumber);
+			}
+			d = distributedDirectory;
 		}
 
 		IndexWriterConfig config = new IndexWriterConfig(getPerFieldAnalyzer());
 
+		//the stored fields mode applies to segments written from now on, merges rewrite older segments with it
+		config.setCodec(indexConfig.getCodec());
 		config.setMaxBufferedDocs(Integer.MAX_VALUE);
 		config.setRAMBufferSizeMB(100);
 		config.setIndexDeletionPolicy(new IndexDeletionPolicy() {
@@ -477,26 +560,86 @@ public class LumongoIndex implements IndexSegmentInterface {
 		return new IndexWriter(nrtCachingDirectory, config);
 	}
 
-	private Path getPathForIndex(int segmentNumber) {
-		return Paths.get("indexes", indexName + "_" + segmentNumber + "_idx");
+	/**
+	 * Loads the hot files of the latest commit into the block cache before the segment starts serving queries
+	 */
+	private void warmUp(DistributedDirectory distributedDirectory, int segmentNumber) {
+		//warming up more than the directory can keep cached only evicts what was just loaded
+		long warmUpBytes = Math.min(clusterConfig.getIndexWarmUpBytes(), MongoFile.getCache().getDirectoryQuota());
+		if (warmUpBytes <= 0) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			long bytesLoaded = distributedDirectory.warmUp(warmUpBytes, warmUpPool);
+			log.info("Warmed up <" + bytesLoaded + "> bytes for segment <" + segmentNumber + "> of index <" + indexName + "> in <" + (System.currentTimeMillis()
+					- start) + "ms>");
+		}
+		catch (IOException e) {
+			//queries will load the blocks on demand
+			log.warn("Failed to warm up segment <" + segmentNumber + "> of index <" + indexName + ">: " + e.getMessage());
+		}
+	}
+
+	private MongoDirectory getMongoDirectory(int segmentNumber, String collectionSuffix) throws IOException {
+		String indexSegmentDbName = getIndexSegmentDbName(segmentNumber);
+		String indexSegmentCollectionName = getIndexSegmentCollectionName(segmentNumber) + collectionSuffix;
+		MongoDirectory mongoDirectory = new MongoDirectory(mongo, indexSegmentDbName, indexSegmentCollectionName, clusterConfig.isSharded(),
+				clusterConfig.getIndexBlockSize());
+		mongoDirectory.setReadAheadBlocks(clusterConfig.getIndexReadAheadBlocks());
+		mongoDirectory.setBlockCompression(clusterConfig.getIndexBlockCompression());
+		mongoDirectory.setBlockSizeByFileType(clusterConfig.isIndexBlockSizeByFileType());
+		mongoDirectory.setBlockReadPreference(indexConfig.getBlockReadPreference());
+		mongoDirectory.setBlockFlushWriteConcern(indexConfig.getBlockFlushWriteConcern());
+		mongoDirectory.setBlockCommitWriteConcern(indexConfig.getBlockCommitWriteConcern());
+		return mongoDirectory;
 	}
 
-	private Path getPathForFacetsIndex(int segmentNumber) {
-		return Paths.get("indexes", indexName + "_" + segmentNumber + "_facets");
+	private String getSegmentPrefix(int segmentNumber) {
+		return indexName + "_" + segmentNumber;
+	}
+
+	/**
+	 * @return the data directory holding every directory on disk of the segment, placing the segment if needed
+	 */
+	private Path getDataDirectory(int segmentNumber) throws IOException {
+		return dataDirectoryPlacement.open(getSegmentPrefix(segmentNumber));
+	}
+
+	private Path getPathForIndex(Path dataDirectory, int segmentNumber) {
+		return dataDirectory.resolve(getSegmentPrefix(segmentNumber) + INDEX_DIRECTORY_SUFFIX);
+	}
+
+	private Path getPathForFacetsIndex(Path dataDirectory, int segmentNumber) {
+		return dataDirectory.resolve(getSegmentPrefix(segmentNumber) + FACETS_DIRECTORY_SUFFIX);
+	}
+
+	private Path getPathForIndexBlocks(Path dataDirectory, int segmentNumber) {
+		return dataDirectory.resolve(getSegmentPrefix(segmentNumber) + INDEX_BLOCKS_DIRECTORY_SUFFIX);
+	}
+
+	private Path getPathForFacetsBlocks(Path dataDirectory, int segmentNumber) {
+		return dataDirectory.resolve(getSegmentPrefix(segmentNumber) + FACETS_BLOCKS_DIRECTORY_SUFFIX);
 	}
 
 	public DirectoryTaxonomyWriter getTaxoWriter(int segmentNumber) throws IOException {
 
 		Directory d;
 
-		if (indexConfig.getIndexSettings().getStoreIndexOnDisk()) {
-			d = MMapDirectory.open(getPathForFacetsIndex(segmentNumber));
+		if (indexConfig.getIndexSettings().getStoreIndexTiered()) {
+			MongoDirectory mongoDirectory = getMongoDirectory(segmentNumber, FACETS_COLLECTION_SUFFIX);
+			d = new TieredDirectory(MMapDirectory.open(getPathForFacetsIndex(getDataDirectory(segmentNumber), segmentNumber)),
+					new DistributedDirectory(mongoDirectory));
+		}
+		else if (indexConfig.getIndexSettings().getStoreIndexOnDisk()) {
+			d = MMapDirectory.open(getPathForFacetsIndex(getDataDirectory(segmentNumber), segmentNumber));
 		}
 		else {
-			String indexSegmentDbName = getIndexSegmentDbName(segmentNumber);
-			String indexSegmentCollectionName = getIndexSegmentCollectionName(segmentNumber) + "_facets";
-			MongoDirectory mongoDirectory = new MongoDirectory(mongo, indexSegmentDbName, indexSegmentCollectionName, clusterConfig.isSharded(),
-					clusterConfig.getIndexBlockSize());
+			MongoDirectory mongoDirectory = getMongoDirectory(segmentNumber, FACETS_COLLECTION_SUFFIX);
+			if (clusterConfig.isIndexBlockDiskCache()) {
+				mongoDirectory.enableDiskBlockCache(getPathForFacetsBlocks(getDataDirectory(segmentNumber), segmentNumber));
+			}
 			d = new DistributedDirectory(mongoDirectory);
 		}
 
@@ -527,6 +670,7 @@ public class LumongoIndex implements IndexSegmentInterface {
 					if (s != null) {
 						log.info("Closing segment <" + segmentNumber + "> for index <" + indexName + ">");
 						s.close(terminate);
+						dataDirectoryPlacement.close(getSegmentPrefix(segmentNumber));
 						log.info("Removed segment <" + segmentNumber + "> for index <" + indexName + ">");
 						log.info("Current segments <" + (new TreeSet<>(segmentMap.keySet())) + "> for index <" + indexName + ">");
 					}
@@ -789,16 +933,20 @@ public class LumongoIndex implements IndexSegmentInterface {
 			dbCollection.drop();
 		}
 
-		if (indexConfig.getIndexSettings().getStoreIndexOnDisk()) {
+		if (indexConfig.getIndexSettings().getStoreIndexOnDisk() || indexConfig.getIndexSettings().getStoreIndexTiered()) {
 			for (int i = 0; i < numberOfSegments; i++) {
-				{
-					Path p = getPathForIndex(i);
-					Files.walkFileTree(p, new DeletingFileVisitor());
-				}
-				{
-					Path p = getPathForFacetsIndex(i);
-					Files.walkFileTree(p, new DeletingFileVisitor());
+				Path dataDirectory = dataDirectoryPlacement.find(getSegmentPrefix(i));
+				if (dataDirectory != null) {
+					{
+						Path p = getPathForIndex(dataDirectory, i);
+						Files.walkFileTree(p, new DeletingFileVisitor());
+					}
+					{
+						Path p = getPathForFacetsIndex(dataDirectory, i);
+						Files.walkFileTree(p, new DeletingFileVisitor());
+					}
 				}
+				dataDirectoryPlacement.remove(getSegmentPrefix(i));
 			}
 		}
 		else {
@@ -808,6 +956,12 @@ public class LumongoIndex implements IndexSegmentInterface {
 				String collectionName = getIndexSegmentCollectionName(i);
 				MongoDirectory.dropIndex(mongo, dbName, collectionName);
 
+				Path dataDirectory = dataDirectoryPlacement.find(getSegmentPrefix(i));
+				if (dataDirectory != null) {
+					DiskBlockCache.delete(getPathForIndexBlocks(dataDirectory, i));
+					DiskBlockCache.delete(getPathForFacetsBlocks(dataDirectory, i));
+				}
+				dataDirectoryPlacement.remove(getSegmentPrefix(i));
 			}
 		}
 
@@ -1112,8 +1266,23 @@ public class LumongoIndex implements IndexSegmentInterface {
 
 			List<Future<SegmentResponse>> responses = new ArrayList<>();
 
+			//the second phase of exact facet counts only goes to the segments it refines
+			Set<Integer> refinedSegments = null;
+			if (!queryRequest.getFacetRequest().getFacetRefinementList().isEmpty()) {
+				refinedSegments = new HashSet<>();
+				for (FacetRefinement facetRefinement : queryRequest.getFacetRequest().getFacetRefinementList()) {
+					if (indexName.equals(facetRefinement.getIndexName())) {
+						refinedSegments.add(facetRefinement.getSegmentNumber());
+					}
+				}
+			}
+
 			for (final LumongoSegment segment : segmentMap.values()) {
 
+				if (refinedSegments != null && !refinedSegments.contains(segment.getSegmentNumber())) {
+					continue;
+				}
+
 				Future<SegmentResponse> response = segmentPool.submit(() -> {
 
 					QueryCacheKey queryCacheKey = null;
@@ -1126,7 +1295,7 @@ public class LumongoIndex implements IndexSegmentInterface {
 							.querySegment(queryWithFilters, requestedAmount, lastScoreDocMap.get(segment.getSegmentNumber()), queryRequest.getFacetRequest(),
 									queryRequest.getSortRequest(), queryCacheKey, queryRequest.getResultFetchType(), queryRequest.getDocumentFieldsList(),
 									queryRequest.getDocumentMaskedFieldsList(), queryRequest.getHighlightRequestList(), queryRequest.getAnalysisRequestList(),
-									queryRequest.getDebug());
+									queryRequest.getDebug(), queryRequest.getWaitForIndexedChanges());
 				});
 
 				responses.add(response);
@@ -1446,6 +1615,39 @@ public class LumongoIndex implements IndexSegmentInterface {
 		}
 	}
 
+	/**
+	 * Fetches the documents with one request to the document storage when documents are stored in mongo
+	 * @return the documents in the order of the given unique ids, a document not found has only its unique id and index name
+	 */
+	public Map<String, ResultDocument> getSourceDocuments(Collection<String> uniqueIds, FetchType resultFetchType, List<String> fieldsToReturn,
+			List<String> fieldsToMask) throws Exception {
+		indexLock.readLock().lock();
+		try {
+			if (!indexConfig.getIndexSettings().getStoreDocumentInMongo()) {
+				Map<String, ResultDocument> resultDocuments = new LinkedHashMap<>();
+				for (String uniqueId : uniqueIds) {
+					LumongoSegment s = findSegmentFromUniqueId(uniqueId);
+					resultDocuments.put(uniqueId, s.getSourceDocument(uniqueId, null, resultFetchType, fieldsToReturn, fieldsToMask));
+				}
+				return resultDocuments;
+			}
+
+			Map<String, ResultDocument> found = documentStorage.getSourceDocuments(uniqueIds, resultFetchType, fieldsToReturn, fieldsToMask);
+			Map<String, ResultDocument> resultDocuments = new LinkedHashMap<>();
+			for (String uniqueId : uniqueIds) {
+				ResultDocument rd = found.get(uniqueId);
+				if (rd == null) {
+					rd = ResultDocument.newBuilder().setUniqueId(uniqueId).setIndexName(indexName).build();
+				}
+				resultDocuments.put(uniqueId, rd);
+			}
+			return resultDocuments;
+		}
+		finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
 	public AssociatedDocument getAssociatedDocument(String uniqueId, String fileName, FetchType associatedFetchType) throws Exception {
 		indexLock.readLock().lock();
 		try {
@@ -39,9 +39,12 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -73,6 +76,8 @@ public class LumongoIndexManager {
 
 	private MongoClient mongo;
 
+	private DataDirectoryPlacement dataDirectoryPlacement;
+
 	private AtomicLong queryNumber;
 
 	public LumongoIndexManager(MongoClient mongo, MongoConfig mongoConfig, ClusterConfig clusterConfig) throws UnknownHostException {
@@ -89,6 +94,8 @@ public class LumongoIndexManager {
 
 		this.pool = Executors.newCachedThreadPool(new LumongoThreadFactory("manager"));
 
+		this.dataDirectoryPlacement = new DataDirectoryPlacement(clusterConfig.getIndexDataDirectories(), LumongoIndex.SEGMENT_DIRECTORY_SUFFIXES);
+
 		queryNumber = new AtomicLong();
 
 	}
@@ -198,7 +205,7 @@ public class LumongoIndexManager {
 			if (indexMap.containsKey(indexName)) {
 				throw new Exception("Index <" + indexName + "> already exist");
 			}
-			LumongoIndex i = LumongoIndex.createIndex(hazelcastManager, mongoConfig, clusterConfig, indexConfig);
+			LumongoIndex i = LumongoIndex.createIndex(hazelcastManager, mongoConfig, clusterConfig, dataDirectoryPlacement, indexConfig);
 			indexMap.put(indexConfig.getIndexName(), i);
 			i.loadAllSegments();
 			i.forceBalance(hazelcastManager.getMembers());
@@ -219,7 +226,7 @@ public class LumongoIndexManager {
 	public void loadIndex(String indexName, boolean loadAllSegments) throws Exception {
 		globalLock.writeLock().lock();
 		try {
-			LumongoIndex i = LumongoIndex.loadIndex(hazelcastManager, mongoConfig, mongo, clusterConfig, indexName);
+			LumongoIndex i = LumongoIndex.loadIndex(hazelcastManager, mongoConfig, mongo, clusterConfig, dataDirectoryPlacement, indexName);
 			if (loadAllSegments) {
 				i.loadAllSegments();
 			}
@@ -483,9 +490,7 @@ public class LumongoIndexManager {
 				throw new IndexDoesNotExist(fetchRequest.getIndexName());
 			}
 
-			FetchResponse.Builder frBuilder = FetchResponse.newBuilder();
-
-			String uniqueId = fetchRequest.getUniqueId();
+			ResultDocument resultDoc = null;
 
 			FetchType resultFetchType = fetchRequest.getResultFetchType();
 			if (!FetchType.NONE.equals(resultFetchType)) {
@@ -495,28 +500,11 @@ public class LumongoIndexManager {
 					timestamp = fetchRequest.getTimestamp();
 				}
 
-				ResultDocument resultDoc = i.getSourceDocument(uniqueId, timestamp, resultFetchType, fetchRequest.getDocumentFieldsList(),
+				resultDoc = i.getSourceDocument(fetchRequest.getUniqueId(), timestamp, resultFetchType, fetchRequest.getDocumentFieldsList(),
 						fetchRequest.getDocumentMaskedFieldsList(), Collections.emptyList());
-				if (null != resultDoc) {
-					frBuilder.setResultDocument(resultDoc);
-				}
 			}
 
-			FetchType associatedFetchType = fetchRequest.getAssociatedFetchType();
-			if (!FetchType.NONE.equals(associatedFetchType)) {
-				if (fetchRequest.hasFilename()) {
-					AssociatedDocument ad = i.getAssociatedDocument(uniqueId, fetchRequest.getFilename(), associatedFetchType);
-					if (ad != null) {
-						frBuilder.addAssociatedDocument(ad);
-					}
-				}
-				else {
-					for (AssociatedDocument ad : i.getAssociatedDocuments(uniqueId, associatedFetchType)) {
-						frBuilder.addAssociatedDocument(ad);
-					}
-				}
-			}
-			return frBuilder.build();
+			return getFetchResponse(i, fetchRequest, resultDoc);
 
 		}
 		finally {
@@ -524,6 +512,32 @@ public class LumongoIndexManager {
 		}
 	}
 
+	private FetchResponse getFetchResponse(LumongoIndex i, FetchRequest fetchRequest, ResultDocument resultDoc) throws Exception {
+		FetchResponse.Builder frBuilder = FetchResponse.newBuilder();
+
+		if (null != resultDoc) {
+			frBuilder.setResultDocument(resultDoc);
+		}
+
+		String uniqueId = fetchRequest.getUniqueId();
+
+		FetchType associatedFetchType = fetchRequest.getAssociatedFetchType();
+		if (!FetchType.NONE.equals(associatedFetchType)) {
+			if (fetchRequest.hasFilename()) {
+				AssociatedDocument ad = i.getAssociatedDocument(uniqueId, fetchRequest.getFilename(), associatedFetchType);
+				if (ad != null) {
+					frBuilder.addAssociatedDocument(ad);
+				}
+			}
+			else {
+				for (AssociatedDocument ad : i.getAssociatedDocuments(uniqueId, associatedFetchType)) {
+					frBuilder.addAssociatedDocument(ad);
+				}
+			}
+		}
+		return frBuilder.build();
+	}
+
 	public DeleteResponse deleteDocument(DeleteRequest deleteRequest) throws Exception {
 		globalLock.readLock().lock();
 		try {
@@ -629,6 +643,67 @@ public class LumongoIndexManager {
 		}
 	}
 
+	/**
+	 * Fetches the source documents of the fetches local to this node that share an index and projection with one request per
+	 * index, other fetches are fetched one at a time
+	 */
+	public BatchFetchResponse batchFetch(BatchFetchRequest batchFetchRequest) throws Exception {
+		globalLock.readLock().lock();
+		try {
+
+			List<FetchRequest> fetchRequests = batchFetchRequest.getFetchRequestList();
+			FetchResponse[] fetchResponses = new FetchResponse[fetchRequests.size()];
+
+			Member self = hazelcastManager.getSelf();
+
+			Map<List<Object>, List<Integer>> localFetches = new LinkedHashMap<>();
+			for (int f = 0; f < fetchRequests.size(); f++) {
+				FetchRequest fetchRequest = fetchRequests.get(f);
+
+				String indexName = fetchRequest.getIndexName();
+				LumongoIndex i = indexMap.get(indexName);
+				if (i == null) {
+					throw new IndexDoesNotExist(indexName);
+				}
+
+				Member m = i.findMember(fetchRequest.getUniqueId());
+				if (!self.equals(m)) {
+					fetchResponses[f] = internalClient.executeFetch(m, fetchRequest);
+				}
+				else if (FetchType.NONE.equals(fetchRequest.getResultFetchType())) {
+					fetchResponses[f] = internalFetch(fetchRequest);
+				}
+				else {
+					List<Object> key = Arrays.asList(indexName, fetchRequest.getResultFetchType(), fetchRequest.getDocumentFieldsList(),
+							fetchRequest.getDocumentMaskedFieldsList());
+					localFetches.computeIfAbsent(key, k -> new ArrayList<>()).add(f);
+				}
+			}
+
+			for (List<Integer> group : localFetches.values()) {
+				FetchRequest first = fetchRequests.get(group.get(0));
+				LumongoIndex i = indexMap.get(first.getIndexName());
+
+				Set<String> uniqueIds = new LinkedHashSet<>();
+				for (int f : group) {
+					uniqueIds.add(fetchRequests.get(f).getUniqueId());
+				}
+
+				Map<String, ResultDocument> resultDocuments = i.getSourceDocuments(uniqueIds, first.getResultFetchType(), first.getDocumentFieldsList(),
+						first.getDocumentMaskedFieldsList());
+				for (int f : group) {
+					FetchRequest fetchRequest = fetchRequests.get(f);
+					fetchResponses[f] = getFetchResponse(i, fetchRequest, resultDocuments.get(fetchRequest.getUniqueId()));
+				}
+			}
+
+			return BatchFetchResponse.newBuilder().addAllFetchResponse(Arrays.asList(fetchResponses)).build();
+		}
+		finally {
+			globalLock.readLock().unlock();
+		}
+	}
+
 	private Map<String, QueryWithFilters> getQueryMap(QueryRequest queryRequest) throws Exception {
 		globalLock.readLock().lock();
 		try {
@@ -746,6 +821,15 @@ public class LumongoIndexManager {
 			QueryResponse qr = queryCombiner.getQueryResponse();
 
 			if (!queryCombiner.isShort()) {
+				List<FacetRefinement> facetRefinements = queryCombiner.getFacetRefinements();
+				if (!facetRefinements.isEmpty()) {
+					//second phase of exact facet counts, the segments only count the candidate labels
+					QueryRequest refineRequest = request.toBuilder().setAmount(0).clearStart().clearLastResult().setResultFetchType(FetchType.NONE)
+							.clearHighlightRequest().clearAnalysisRequest().setDontCache(true)
+							.setFacetRequest(request.getFacetRequest().toBuilder().addAllFacetRefinement(facetRefinements)).build();
+					List<InternalQueryResponse> refinedResults = queryFederator.send(refineRequest);
+					qr = queryCombiner.refineFacets(qr, refinedResults);
+				}
 				return qr;
 			}
 			else {
@@ -2,6 +2,7 @@ package org.lumongo.server.index;
 
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import info.debatty.java.lsh.SuperBit;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -21,17 +22,25 @@ import org.apache.lucene.facet.Facets;
 import org.apache.lucene.facet.FacetsCollector;
 import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager.SearcherAndTaxonomy;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -39,13 +48,16 @@ import org.apache.lucene.index.TermsEnum.SeekStatus;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostAttribute;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
 import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.FuzzyTermsEnum;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MaxNonCompetitiveBoostAttribute;
 import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortedNumericSelector;
@@ -79,6 +91,7 @@ import org.lumongo.cluster.message.Lumongo.CountRequest;
 import org.lumongo.cluster.message.Lumongo.FacetAs;
 import org.lumongo.cluster.message.Lumongo.FacetCount;
 import org.lumongo.cluster.message.Lumongo.FacetGroup;
+import org.lumongo.cluster.message.Lumongo.FacetRefinement;
 import org.lumongo.cluster.message.Lumongo.FacetRequest;
 import org.lumongo.cluster.message.Lumongo.FetchType;
 import org.lumongo.cluster.message.Lumongo.FieldConfig;
@@ -114,28 +127,35 @@ import org.lumongo.server.index.field.IntFieldIndexer;
 import org.lumongo.server.index.field.LongFieldIndexer;
 import org.lumongo.server.index.field.StringFieldIndexer;
 import org.lumongo.server.search.QueryCacheKey;
+import org.lumongo.server.search.FilterCache;
 import org.lumongo.server.search.QueryResultCache;
+import org.lumongo.server.search.QueryResultCache.ReaderGeneration;
 import org.lumongo.server.search.QueryWithFilters;
 import org.lumongo.similarity.ConstantSimilarity;
 import org.lumongo.similarity.TFSimilarity;
 import org.lumongo.storage.rawfiles.DocumentStorage;
+import org.lumongo.util.BsonFieldFilter;
 import org.lumongo.util.LumongoUtil;
 import org.lumongo.util.ResultHelper;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -146,6 +166,10 @@ public class LumongoSegment {
 	private final static DateTimeFormatter FORMATTER_YYYY_MM_DD = DateTimeFormatter.ISO_DATE;
 
 	private final static Logger log = Logger.getLogger(LumongoSegment.class);
+	//shortest refresh interval, used while a query waits for the changes indexed before it
+	private final static double MIN_STALE_SEC = 0.025;
+	private final static int MAX_GENERATION_WAIT_MS = 30000;
+
 	private static Pattern sortedDocValuesMessage = Pattern.compile(
 			"unexpected docvalues type NONE for field '(.*)' \\(expected one of \\[SORTED, SORTED_SET\\]\\)\\. Use UninvertingReader or index with docvalues\\.");
 	private final int segmentNumber;
@@ -157,28 +181,34 @@ public class LumongoSegment {
 	private final IndexSegmentInterface indexSegmentInterface;
 	private final DocumentStorage documentStorage;
 	private IndexWriter indexWriter;
-	private DirectoryReader directoryReader;
 	private Long lastCommit;
 	private Long lastChange;
 	private String indexName;
 	private QueryResultCache queryResultCache;
+	private volatile FilterCache filterCache;
 
 	private FacetsConfig facetsConfig;
 	private int segmentQueryCacheMaxAmount;
 	private PerFieldAnalyzerWrapper perFieldAnalyzer;
 
 	private DirectoryTaxonomyWriter taxoWriter;
-	private DirectoryTaxonomyReader taxoReader;
+
+	private volatile ReferenceManager<SearcherAndTaxonomy> searcherManager;
+	private volatile ControlledRealTimeReopenThread<SearcherAndTaxonomy> reopenThread;
+
+	//ordinals of the sorted set facets of each open searcher, removed when the reader of the searcher is closed
+	private final Map<IndexReader, SortedSetDocValuesReaderState> sortedSetStates = new ConcurrentHashMap<>();
 
 	public LumongoSegment(int segmentNumber, IndexSegmentInterface indexSegmentInterface, IndexConfig indexConfig, FacetsConfig facetsConfig,
 			DocumentStorage documentStorage) throws Exception {
-		setupCaches(indexConfig);
-
 		this.segmentNumber = segmentNumber;
 		this.documentStorage = documentStorage;
 
 		this.indexSegmentInterface = indexSegmentInterface;
 		this.indexConfig = indexConfig;
+		this.indexName = indexConfig.getIndexName();
+
+		setupCaches(indexConfig);
 
 		openIndexWriters();
 
@@ -196,7 +226,6 @@ public class LumongoSegment {
 		this.counter = new AtomicLong();
 		this.lastCommit = null;
 		this.lastChange = null;
-		this.indexName = indexConfig.getIndexName();
 
 	}
 
@@ -212,26 +241,32 @@ public class LumongoSegment {
 		if (!indexWriter.isOpen()) {
 			synchronized (this) {
 				if (!indexWriter.isOpen()) {
+					closeSearcherManager();
 					this.indexWriter = this.indexSegmentInterface.getIndexWriter(segmentNumber);
-					this.directoryReader = DirectoryReader.open(indexWriter, indexConfig.getIndexSettings().getApplyUncommittedDeletes(), false);
+					openSearcherManager();
 				}
 			}
 		}
 
 		//TODO: is this a real use case?
-		try {
-			taxoWriter.getSize();
-		}
-		catch (AlreadyClosedException e) {
-			synchronized (this) {
-				this.taxoWriter = this.indexSegmentInterface.getTaxoWriter(segmentNumber);
-				this.taxoReader = new DirectoryTaxonomyReader(taxoWriter);
+		if (taxoWriter != null) {
+			try {
+				taxoWriter.getSize();
+			}
+			catch (AlreadyClosedException e) {
+				synchronized (this) {
+					closeSearcherManager();
+					this.taxoWriter = this.indexSegmentInterface.getTaxoWriter(segmentNumber);
+					openSearcherManager();
+				}
 			}
 		}
 
 	}
 
-	private void openIndexWriters() throws Exception {
+	private synchronized void openIndexWriters() throws Exception {
+		closeSearcherManager();
+
 		if (this.indexWriter != null) {
 			indexWriter.close();
 		}
@@ -242,29 +277,179 @@ public class LumongoSegment {
 		this.perFieldAnalyzer = this.indexSegmentInterface.getPerFieldAnalyzer();
 
 		this.indexWriter = this.indexSegmentInterface.getIndexWriter(segmentNumber);
-		if (this.directoryReader != null) {
-			this.directoryReader.close();
+		//sorted set facets are indexed with the documents, there is no taxonomy index
+		this.taxoWriter = indexConfig.isSortedSetFacets() ? null : this.indexSegmentInterface.getTaxoWriter(segmentNumber);
+
+		openSearcherManager();
+	}
+
+	/**
+	 * Opens the searchers of the current writers and starts refreshing them in the background.  Queries only acquire
+	 * and release the current searcher, a refresh happens every segment refresh interval or sooner when a query waits
+	 * for the changes indexed before it.
+	 */
+	private void openSearcherManager() throws IOException {
+		SearcherFactory searcherFactory = new SearcherFactory() {
+			@Override
+			public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+				IndexSearcher indexSearcher = new IndexSearcher(reader);
+				indexSearcher.setSimilarity(getSimilarity(null));
+				setFilterCache(indexSearcher);
+				if (taxoWriter == null) {
+					//counting facets on a new searcher does not wait for the ordinals to be built
+					getSortedSetState(reader);
+				}
+				return indexSearcher;
+			}
+		};
+
+		boolean applyUncommittedDeletes = indexConfig.getIndexSettings().getApplyUncommittedDeletes();
+		ReferenceManager<SearcherAndTaxonomy> newSearcherManager;
+		if (taxoWriter != null) {
+			newSearcherManager = new SearcherTaxonomyManager(indexWriter, applyUncommittedDeletes, searcherFactory, taxoWriter);
+		}
+		else {
+			newSearcherManager = new SortedSetSearcherManager(indexWriter, applyUncommittedDeletes, searcherFactory);
+		}
+		double maxStaleSec = Math.max(indexConfig.getIndexSettings().getSegmentRefreshInterval(), MIN_STALE_SEC);
+		ControlledRealTimeReopenThread<SearcherAndTaxonomy> newReopenThread = new ControlledRealTimeReopenThread<>(indexWriter, newSearcherManager,
+				maxStaleSec, MIN_STALE_SEC);
+		newReopenThread.setName("segmentRefresh-" + indexName + "-" + segmentNumber);
+		newReopenThread.setDaemon(true);
+		newReopenThread.start();
+
+		this.searcherManager = newSearcherManager;
+		this.reopenThread = newReopenThread;
+	}
+
+	/**
+	 * Stops the refresh thread and closes the searcher manager, searchers already acquired stay open until released
+	 */
+	private void closeSearcherManager() throws IOException {
+		if (reopenThread != null) {
+			reopenThread.close();
+		}
+		if (searcherManager != null) {
+			searcherManager.close();
+		}
+	}
+
+	/**
+	 * Acquires the current searcher, it must be given back with {@link #releaseSearcher(SearcherAndTaxonomy)}
+	 * @param waitForIndexedChanges - waits for a searcher that sees every change indexed on the segment before the call
+	 */
+	private SearcherAndTaxonomy acquireSearcher(boolean waitForIndexedChanges) throws IOException {
+		if (waitForIndexedChanges) {
+			ControlledRealTimeReopenThread<SearcherAndTaxonomy> currentReopenThread = reopenThread;
+			long generation = indexWriter.getMaxCompletedSequenceNumber();
+			try {
+				if (currentReopenThread != null && !currentReopenThread.waitForGeneration(generation, MAX_GENERATION_WAIT_MS)) {
+					log.warn("Searching without changes indexed up to generation <" + generation + "> of segment <" + segmentNumber + "> for index <"
+							+ indexName + "> after waiting <" + MAX_GENERATION_WAIT_MS + "ms>");
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for segment <" + segmentNumber + "> for index <" + indexName + ">");
+			}
+		}
+
+		try {
+			return searcherManager.acquire();
 		}
-		this.directoryReader = DirectoryReader.open(indexWriter, indexConfig.getIndexSettings().getApplyUncommittedDeletes(), false);
+		catch (AlreadyClosedException e) {
+			//the writers are being reopened or were closed by a tragic event, the new manager is in place once the
+			//reopen gives up the lock
+			try {
+				reopenIndexWritersIfNecessary();
+			}
+			catch (Exception reopenException) {
+				e.addSuppressed(reopenException);
+				throw e;
+			}
+			synchronized (this) {
+				return searcherManager.acquire();
+			}
+		}
+	}
 
-		this.taxoWriter = this.indexSegmentInterface.getTaxoWriter(segmentNumber);
-		if (this.taxoReader != null) {
-			this.taxoReader.close();
+	/**
+	 * Gives back the references of {@link SearcherTaxonomyManager#release} directly so it does not matter if the
+	 * manager was replaced since the searcher was acquired
+	 */
+	private void releaseSearcher(SearcherAndTaxonomy searcherAndTaxonomy) throws IOException {
+		searcherAndTaxonomy.searcher.getIndexReader().decRef();
+		if (searcherAndTaxonomy.taxonomyReader != null) {
+			searcherAndTaxonomy.taxonomyReader.decRef();
+		}
+	}
+
+	/**
+	 * Returns the ordinals of the sorted set facets of a searcher, building them once per searcher
+	 * @return null when no document of the reader has a facet
+	 */
+	private SortedSetDocValuesReaderState getSortedSetState(IndexReader reader) throws IOException {
+		SortedSetDocValuesReaderState state = sortedSetStates.get(reader);
+		if (state != null) {
+			return state;
+		}
+
+		FieldInfo facetFieldInfo = MultiFields.getMergedFieldInfos(reader).fieldInfo(FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+		if (facetFieldInfo == null || !DocValuesType.SORTED_SET.equals(facetFieldInfo.getDocValuesType())) {
+			return null;
+		}
+
+		state = new DefaultSortedSetDocValuesReaderState(reader, FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+		SortedSetDocValuesReaderState existing = sortedSetStates.putIfAbsent(reader, state);
+		if (existing != null) {
+			return existing;
+		}
+		reader.addReaderClosedListener(sortedSetStates::remove);
+		return state;
+	}
+
+	/**
+	 * Shares the filter cache of the segment with the searcher, without one the searcher keeps the default lucene query cache
+	 */
+	private void setFilterCache(IndexSearcher indexSearcher) {
+		FilterCache fc = filterCache;
+		if (fc != null) {
+			indexSearcher.setQueryCache(fc);
+			indexSearcher.setQueryCachingPolicy(fc.getQueryCachingPolicy());
 		}
-		this.taxoReader = new DirectoryTaxonomyReader(taxoWriter);
 	}
 
 	private void setupCaches(IndexConfig indexConfig) {
 		segmentQueryCacheMaxAmount = indexConfig.getIndexSettings().getSegmentQueryCacheMaxAmount();
 
+		QueryResultCache previousCache = this.queryResultCache;
+		if (previousCache != null) {
+			previousCache.close();
+		}
+
 		int segmentQueryCacheSize = indexConfig.getIndexSettings().getSegmentQueryCacheSize();
-		if ((segmentQueryCacheSize > 0)) {
-			this.queryResultCache = new QueryResultCache(segmentQueryCacheSize, 8);
+		long segmentQueryCacheMaxBytes = indexConfig.getIndexSettings().getSegmentQueryCacheMaxBytes();
+		if ((segmentQueryCacheSize > 0) && (segmentQueryCacheMaxBytes > 0)) {
+			this.queryResultCache = new QueryResultCache(indexName, segmentNumber, segmentQueryCacheSize, segmentQueryCacheMaxBytes, 8);
 		}
 		else {
 			this.queryResultCache = null;
 		}
 
+		FilterCache previousFilterCache = this.filterCache;
+		if (previousFilterCache != null) {
+			previousFilterCache.close();
+		}
+
+		int segmentFilterCacheSize = indexConfig.getIndexSettings().getSegmentFilterCacheSize();
+		long segmentFilterCacheMaxBytes = indexConfig.getIndexSettings().getSegmentFilterCacheMaxBytes();
+		if ((segmentFilterCacheSize > 0) && (segmentFilterCacheMaxBytes > 0)) {
+			this.filterCache = new FilterCache(indexName, segmentNumber, segmentFilterCacheSize, segmentFilterCacheMaxBytes);
+		}
+		else {
+			this.filterCache = null;
+		}
+
 	}
 
 	public void updateIndexSettings(IndexSettings indexSettings) throws Exception {
@@ -282,17 +467,16 @@ public class LumongoSegment {
 
 	public SegmentResponse querySegment(QueryWithFilters queryWithFilters, int amount, FieldDoc after, FacetRequest facetRequest, SortRequest sortRequest,
 			QueryCacheKey queryCacheKey, FetchType resultFetchType, List<String> fieldsToReturn, List<String> fieldsToMask,
-			List<HighlightRequest> highlightList, List<AnalysisRequest> analysisRequestList, boolean debug) throws Exception {
+			List<HighlightRequest> highlightList, List<AnalysisRequest> analysisRequestList, boolean debug, boolean waitForIndexedChanges) throws Exception {
+		SearcherAndTaxonomy searcherAndTaxonomy = acquireSearcher(waitForIndexedChanges);
 		try {
-			reopenIndexWritersIfNecessary();
-
-			openReaderIfChanges();
-
 			QueryResultCache qrc = queryResultCache;
 
+			ReaderGeneration generation = new ReaderGeneration((DirectoryReader) searcherAndTaxonomy.searcher.getIndexReader());
+
 			boolean useCache = (qrc != null) && ((segmentQueryCacheMaxAmount <= 0) || (segmentQueryCacheMaxAmount >= amount)) && queryCacheKey != null;
 			if (useCache) {
-				SegmentResponse cacheSegmentResponse = qrc.getCacheSegmentResponse(queryCacheKey);
+				SegmentResponse cacheSegmentResponse = qrc.getCacheSegmentResponse(queryCacheKey, generation);
 				if (cacheSegmentResponse != null) {
 					return cacheSegmentResponse;
 				}
@@ -316,10 +500,14 @@ public class LumongoSegment {
 				q = booleanQuery.build();
 			}
 
-			IndexSearcher indexSearcher = new IndexSearcher(directoryReader);
+			IndexSearcher indexSearcher = searcherAndTaxonomy.searcher;
 
 			//similarity is only set query time, indexing time all these similarities are the same
-			indexSearcher.setSimilarity(getSimilarity(queryWithFilters));
+			if (queryWithFilters.hasSimilarityOverrides()) {
+				indexSearcher = new IndexSearcher(indexSearcher.getIndexReader());
+				indexSearcher.setSimilarity(getSimilarity(queryWithFilters));
+				setFilterCache(indexSearcher);
+			}
 
 			if (debug) {
 				log.info("Lucene Query for index <" + indexName + "> segment <" + segmentNumber + ">: " + q);
@@ -343,7 +531,7 @@ public class LumongoSegment {
 
 			if ((facetRequest != null) && !facetRequest.getCountRequestList().isEmpty()) {
 
-				searchWithFacets(facetRequest, q, indexSearcher, collector, segmentReponseBuilder);
+				searchWithFacets(facetRequest, q, indexSearcher, searcherAndTaxonomy.taxonomyReader, collector, segmentReponseBuilder);
 
 			}
 			else {
@@ -362,18 +550,27 @@ public class LumongoSegment {
 
 			List<LumongoHighlighter> highlighterList = getHighlighterList(highlightList, q);
 
-			List<AnalysisHandler> analysisHandlerList = getAnalysisHandlerList(analysisRequestList);
+			List<AnalysisHandler> analysisHandlerList = getAnalysisHandlerList(analysisRequestList, indexSearcher.getIndexReader());
+
+			Document[] docs = new Document[numResults];
+			for (int i = 0; i < numResults; i++) {
+				docs[i] = indexSearcher.doc(results[i].doc, getFieldsToFetch(resultFetchType));
+			}
+
+			Map<String, ResultDocument> sourceDocuments = getSourceDocuments(docs, resultFetchType, fieldsToReturn, fieldsToMask, highlighterList,
+					analysisHandlerList);
 
 			for (int i = 0; i < numResults; i++) {
-				ScoredResult.Builder srBuilder = handleDocResult(indexSearcher, sortRequest, sorting, results, i, resultFetchType, fieldsToReturn, fieldsToMask,
-						highlighterList, analysisHandlerList);
+				ScoredResult.Builder srBuilder = handleDocResult(docs[i], sortRequest, sorting, results, i, resultFetchType, fieldsToReturn, fieldsToMask,
+						highlighterList, analysisHandlerList, sourceDocuments);
 
 				segmentReponseBuilder.addScoredResult(srBuilder.build());
 			}
 
 			if (moreAvailable) {
-				ScoredResult.Builder srBuilder = handleDocResult(indexSearcher, sortRequest, sorting, results, numResults, FetchType.NONE,
-						Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+				Document d = indexSearcher.doc(results[numResults].doc, getFieldsToFetch(FetchType.NONE));
+				ScoredResult.Builder srBuilder = handleDocResult(d, sortRequest, sorting, results, numResults, FetchType.NONE, Collections.emptyList(),
+						Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
 				segmentReponseBuilder.setNext(srBuilder);
 			}
 
@@ -391,7 +588,7 @@ public class LumongoSegment {
 
 			SegmentResponse segmentResponse = segmentReponseBuilder.build();
 			if (useCache) {
-				qrc.storeInCache(queryCacheKey, segmentResponse);
+				qrc.storeInCache(queryCacheKey, generation, segmentResponse);
 			}
 			return segmentResponse;
 		}
@@ -404,9 +601,12 @@ public class LumongoSegment {
 
 			throw e;
 		}
+		finally {
+			releaseSearcher(searcherAndTaxonomy);
+		}
 	}
 
-	private List<AnalysisHandler> getAnalysisHandlerList(List<AnalysisRequest> analysisRequests) throws Exception {
+	private List<AnalysisHandler> getAnalysisHandlerList(List<AnalysisRequest> analysisRequests, IndexReader indexReader) throws Exception {
 		if (analysisRequests.isEmpty()) {
 			return Collections.emptyList();
 		}
@@ -428,7 +628,7 @@ public class LumongoSegment {
 				}
 			}
 			System.out.println(analysisRequest.getAnalyzerOverride());
-			AnalysisHandler analysisHandler = new AnalysisHandler(directoryReader, analyzer, indexConfig, analysisRequest);
+			AnalysisHandler analysisHandler = new AnalysisHandler(indexReader, analyzer, indexConfig, analysisRequest);
 			analysisHandlerList.add(analysisHandler);
 		}
 		return analysisHandlerList;
@@ -455,6 +655,9 @@ public class LumongoSegment {
 		return highlighterList;
 	}
 
+	/**
+	 * @param queryWithFilters - query with the similarity overrides of the request, null for the similarity of the index
+	 */
 	private PerFieldSimilarityWrapper getSimilarity(final QueryWithFilters queryWithFilters) {
 		return new PerFieldSimilarityWrapper() {
 			@Override
@@ -466,7 +669,7 @@ public class LumongoSegment {
 					similarity = analyzerSettings.getSimilarity();
 				}
 
-				AnalyzerSettings.Similarity fieldSimilarityOverride = queryWithFilters.getFieldSimilarityOverride(name);
+				AnalyzerSettings.Similarity fieldSimilarityOverride = queryWithFilters != null ? queryWithFilters.getFieldSimilarityOverride(name) : null;
 				if (fieldSimilarityOverride != null) {
 					similarity = fieldSimilarityOverride;
 				}
@@ -490,12 +693,27 @@ public class LumongoSegment {
 		};
 	}
 
-	private void searchWithFacets(FacetRequest facetRequest, Query q, IndexSearcher indexSearcher, TopDocsCollector<?> collector,
+	private void searchWithFacets(FacetRequest facetRequest, Query q, IndexSearcher indexSearcher, TaxonomyReader taxoReader, TopDocsCollector<?> collector,
 			SegmentResponse.Builder segmentReponseBuilder) throws Exception {
 		FacetsCollector facetsCollector = new FacetsCollector();
 		indexSearcher.search(q, MultiCollector.wrap(collector, facetsCollector));
 
-		Facets facets = new FastTaxonomyFacetCounts(taxoReader, facetsConfig, facetsCollector);
+		Facets facets;
+		int totalFacets;
+		if (taxoReader != null) {
+			facets = new FastTaxonomyFacetCounts(taxoReader, facetsConfig, facetsCollector);
+			totalFacets = taxoReader.getSize();
+		}
+		else {
+			SortedSetDocValuesReaderState state = getSortedSetState(indexSearcher.getIndexReader());
+			facets = state != null ? new SortedSetDocValuesFacetCounts(state, facetsCollector) : null;
+			totalFacets = state != null ? state.getSize() : 0;
+		}
+
+		if (!facetRequest.getFacetRefinementList().isEmpty()) {
+			refineFacets(facetRequest, facets, segmentReponseBuilder);
+			return;
+		}
 
 		for (CountRequest countRequest : facetRequest.getCountRequestList()) {
 
@@ -535,11 +753,13 @@ public class LumongoSegment {
 				if (indexConfig.getNumberOfSegments() > 1) {
 					if (countRequest.hasSegmentFacets() && countRequest.getSegmentFacets() == 0) {
 						//TODO: this not ideal
-						numOfFacets = taxoReader.getSize();
+						numOfFacets = Math.max(totalFacets, 1);
 					}
 				}
 
-				facetResult = facets.getTopChildren(numOfFacets, label);
+				if (facets != null) {
+					facetResult = facets.getTopChildren(numOfFacets, label);
+				}
 			}
 			catch (UncheckedExecutionException e) {
 				Throwable cause = e.getCause();
@@ -550,6 +770,14 @@ public class LumongoSegment {
 					throw e;
 				}
 			}
+			catch (IllegalArgumentException e) {
+				if (taxoReader == null && e.getMessage() != null && e.getMessage().contains(" was not indexed")) {
+					//no document on the segment has the facet
+				}
+				else {
+					throw e;
+				}
+			}
 			FacetGroup.Builder fg = FacetGroup.newBuilder();
 			fg.setCountRequest(countRequest);
 
@@ -561,6 +789,38 @@ public class LumongoSegment {
 					facetCountBuilder.setFacet(subResult.label);
 					fg.addFacetCount(facetCountBuilder);
 				}
+
+				//labels left out by the segment count at most the count of the last label returned
+				if (facetResult.childCount > facetResult.labelValues.length) {
+					fg.setPossibleMissing(true);
+					fg.setMaxValuePossibleMissing(facetResult.labelValues[facetResult.labelValues.length - 1].value.longValue());
+				}
+			}
+			segmentReponseBuilder.addFacetGroup(fg);
+		}
+	}
+
+	/**
+	 * Counts the labels the query combiner asks this segment for to make the counts of its candidate labels exact
+	 */
+	private void refineFacets(FacetRequest facetRequest, Facets facets, SegmentResponse.Builder segmentReponseBuilder) throws IOException {
+		for (FacetRefinement facetRefinement : facetRequest.getFacetRefinementList()) {
+			if (!indexName.equals(facetRefinement.getIndexName()) || (segmentNumber != facetRefinement.getSegmentNumber())) {
+				continue;
+			}
+
+			CountRequest countRequest = facetRefinement.getCountRequest();
+			String label = countRequest.getFacetField().getLabel();
+
+			FacetGroup.Builder fg = FacetGroup.newBuilder();
+			fg.setCountRequest(countRequest);
+			for (String facet : facetRefinement.getFacetList()) {
+				long count = 0;
+				if (facets != null) {
+					//a label that is not indexed on the segment comes back as -1
+					count = Math.max(facets.getSpecificValue(label, facet).longValue(), 0);
+				}
+				fg.addFacetCount(FacetCount.newBuilder().setFacet(facet).setCount(count));
 			}
 			segmentReponseBuilder.addFacetGroup(fg);
 		}
@@ -621,41 +881,44 @@ public class LumongoSegment {
 		return collector;
 	}
 
-	private void openReaderIfChanges() throws IOException {
-		DirectoryReader newDirectoryReader = DirectoryReader
-				.openIfChanged(directoryReader, indexWriter, indexConfig.getIndexSettings().getApplyUncommittedDeletes());
-		if (newDirectoryReader != null) {
-			directoryReader = newDirectoryReader;
-			QueryResultCache qrc = queryResultCache;
-			if (qrc != null) {
-				qrc.clear();
+	private Set<String> getFieldsToFetch(FetchType resultFetchType) {
+		if (indexConfig.getIndexSettings().getStoreDocumentInIndex()) {
+			if (FetchType.FULL.equals(resultFetchType)) {
+				return fetchSetWithDocument;
 			}
+			else if (FetchType.META.equals(resultFetchType)) {
+				return fetchSetWithMeta;
+			}
+		}
+		return fetchSet;
+	}
 
+	/**
+	 * Fetches the source documents of a page of results stored in mongo with one request instead of one per result.  Fields
+	 * are selected by mongo unless highlighting or analysis needs the whole document.
+	 */
+	private Map<String, ResultDocument> getSourceDocuments(Document[] docs, FetchType resultFetchType, List<String> fieldsToReturn,
+			List<String> fieldsToMask, List<LumongoHighlighter> highlighterList, List<AnalysisHandler> analysisHandlerList) throws Exception {
+		if (FetchType.NONE.equals(resultFetchType) || docs.length == 0 || indexConfig.getIndexSettings().getStoreDocumentInIndex() || !indexConfig
+				.getIndexSettings().getStoreDocumentInMongo()) {
+			return Collections.emptyMap();
 		}
 
-		DirectoryTaxonomyReader newone = TaxonomyReader.openIfChanged(taxoReader);
-		if (newone != null) {
-			taxoReader = newone;
+		List<String> uniqueIds = new ArrayList<>(docs.length);
+		for (Document d : docs) {
+			uniqueIds.add(d.get(LumongoConstants.ID_FIELD));
+		}
+		if (highlighterList.isEmpty() && analysisHandlerList.isEmpty()) {
+			return documentStorage.getSourceDocuments(uniqueIds, resultFetchType, fieldsToReturn, fieldsToMask);
 		}
+		return documentStorage.getSourceDocuments(uniqueIds, resultFetchType, Collections.emptyList(), Collections.emptyList());
 	}
 
-	private ScoredResult.Builder handleDocResult(IndexSearcher is, SortRequest sortRequest, boolean sorting, ScoreDoc[] results, int i,
-			FetchType resultFetchType, List<String> fieldsToReturn, List<String> fieldsToMask, List<LumongoHighlighter> highlighterList,
-			List<AnalysisHandler> analysisHandlerList) throws Exception {
+	private ScoredResult.Builder handleDocResult(Document d, SortRequest sortRequest, boolean sorting, ScoreDoc[] results, int i, FetchType resultFetchType,
+			List<String> fieldsToReturn, List<String> fieldsToMask, List<LumongoHighlighter> highlighterList, List<AnalysisHandler> analysisHandlerList,
+			Map<String, ResultDocument> sourceDocuments) throws Exception {
 		int docId = results[i].doc;
 
-		Set<String> fieldsToFetch = fetchSet;
-		if (indexConfig.getIndexSettings().getStoreDocumentInIndex()) {
-			if (FetchType.FULL.equals(resultFetchType)) {
-				fieldsToFetch = fetchSetWithDocument;
-			}
-			else if (FetchType.META.equals(resultFetchType)) {
-				fieldsToFetch = fetchSetWithMeta;
-			}
-		}
-
-		Document d = is.doc(docId, fieldsToFetch);
-
 		IndexableField f = d.getField(LumongoConstants.TIMESTAMP_FIELD);
 		long timestamp = f.numericValue().longValue();
 
@@ -671,7 +934,7 @@ public class LumongoSegment {
 		}
 
 		if (!FetchType.NONE.equals(resultFetchType)) {
-			handleStoredDoc(srBuilder, uniqueId, d, resultFetchType, fieldsToReturn, fieldsToMask, highlighterList, analysisHandlerList);
+			handleStoredDoc(srBuilder, uniqueId, d, resultFetchType, fieldsToReturn, fieldsToMask, highlighterList, analysisHandlerList, sourceDocuments);
 		}
 
 		srBuilder.setScore(results[i].score);
@@ -692,7 +955,8 @@ public class LumongoSegment {
 	}
 
 	private void handleStoredDoc(ScoredResult.Builder srBuilder, String uniqueId, Document d, FetchType resultFetchType, List<String> fieldsToReturn,
-			List<String> fieldsToMask, List<LumongoHighlighter> highlighterList, List<AnalysisHandler> analysisHandlerList) throws Exception {
+			List<String> fieldsToMask, List<LumongoHighlighter> highlighterList, List<AnalysisHandler> analysisHandlerList,
+			Map<String, ResultDocument> sourceDocuments) throws Exception {
 
 		ResultDocument.Builder rdBuilder = ResultDocument.newBuilder();
 		rdBuilder.setUniqueId(uniqueId);
@@ -705,7 +969,7 @@ public class LumongoSegment {
 			if (FetchType.FULL.equals(resultFetchType) || FetchType.META.equals(resultFetchType)) {
 				BytesRef metaRef = d.getBinaryValue(LumongoConstants.STORED_META_FIELD);
 				org.bson.Document metaMongoDoc = new org.bson.Document();
-				metaMongoDoc.putAll(LumongoUtil.byteArrayToMongoDocument(metaRef.bytes));
+				metaMongoDoc.putAll(LumongoUtil.byteBufferToMongoDocument(ByteBuffer.wrap(metaRef.bytes, metaRef.offset, metaRef.length)));
 
 				for (String key : metaMongoDoc.keySet()) {
 					rdBuilder.addMetadata(Metadata.newBuilder().setKey(key).setValue(((String) metaMongoDoc.get(key))));
@@ -715,20 +979,28 @@ public class LumongoSegment {
 			if (FetchType.FULL.equals(resultFetchType)) {
 				BytesRef docRef = d.getBinaryValue(LumongoConstants.STORED_DOC_FIELD);
 				if (docRef != null) {
-					rdBuilder.setDocument(ByteString.copyFrom(docRef.bytes));
+					if (highlighterList.isEmpty() && analysisHandlerList.isEmpty() && (!fieldsToReturn.isEmpty() || !fieldsToMask.isEmpty())) {
+						//only the selected fields are copied out of the stored document
+						byte[] filtered = BsonFieldFilter.filter(docRef.bytes, docRef.offset, docRef.length, fieldsToReturn, fieldsToMask);
+						rdBuilder.setDocument(wrap(filtered, 0, filtered.length));
+					}
+					else {
+						rdBuilder.setDocument(wrap(docRef.bytes, docRef.offset, docRef.length));
+					}
 				}
 			}
 
 		}
 		else if (indexConfig.getIndexSettings().getStoreDocumentInMongo()) {
-			resultDocument = documentStorage.getSourceDocument(uniqueId, resultFetchType);
+			resultDocument = sourceDocuments.get(uniqueId);
 		}
 
 		if (resultDocument == null) {
 			resultDocument = rdBuilder.build();
 		}
 
-		if (!highlighterList.isEmpty() || !analysisHandlerList.isEmpty() || !fieldsToMask.isEmpty() || !fieldsToReturn.isEmpty()) {
+		//without highlighting or analysis the fields were already selected when the document was loaded
+		if (!highlighterList.isEmpty() || !analysisHandlerList.isEmpty()) {
 			org.bson.Document mongoDoc = ResultHelper.getDocumentFromResultDocument(resultDocument);
 			if (mongoDoc != null) {
 				if (!highlighterList.isEmpty()) {
@@ -738,7 +1010,9 @@ public class LumongoSegment {
 					AnalysisHandler.handleDocument(mongoDoc, analysisHandlerList, srBuilder);
 				}
 
-				resultDocument = filterDocument(resultDocument, fieldsToReturn, fieldsToMask, mongoDoc);
+				if (!fieldsToReturn.isEmpty() || !fieldsToMask.isEmpty()) {
+					resultDocument = filterDocument(resultDocument, fieldsToReturn, fieldsToMask);
+				}
 			}
 		}
 
@@ -836,7 +1110,7 @@ public class LumongoSegment {
 		ResultDocument rd = null;
 
 		if (indexConfig.getIndexSettings().getStoreDocumentInMongo()) {
-			rd = documentStorage.getSourceDocument(uniqueId, resultFetchType);
+			rd = documentStorage.getSourceDocument(uniqueId, resultFetchType, fieldsToReturn, fieldsToMask);
 		}
 		else {
 
@@ -846,7 +1120,7 @@ public class LumongoSegment {
 
 			SegmentResponse segmentResponse = this
 					.querySegment(queryWithFilters, 1, null, null, null, null, resultFetchType, fieldsToReturn, fieldsToMask, Collections.emptyList(),
-							Collections.emptyList(), false);
+							Collections.emptyList(), false, false);
 
 			List<ScoredResult> scoredResultList = segmentResponse.getScoredResultList();
 			if (!scoredResultList.isEmpty()) {
@@ -859,12 +1133,6 @@ public class LumongoSegment {
 		}
 
 		if (rd != null) {
-			if (!fieldsToMask.isEmpty() || !fieldsToReturn.isEmpty()) {
-				org.bson.Document mongoDocument = ResultHelper.getDocumentFromResultDocument(rd);
-				if (mongoDocument != null) {
-					rd = filterDocument(rd, fieldsToReturn, fieldsToMask, mongoDocument);
-				}
-			}
 			return rd;
 		}
 
@@ -875,28 +1143,18 @@ public class LumongoSegment {
 
 	}
 
-	private ResultDocument filterDocument(ResultDocument rd, List<String> fieldsToReturn, List<String> fieldsToMask, org.bson.Document mongoDocument) {
-
-		ResultDocument.Builder resultDocBuilder = rd.toBuilder();
-
-		if (!fieldsToReturn.isEmpty()) {
-			for (String key : new ArrayList<>(mongoDocument.keySet())) {
-				if (!fieldsToReturn.contains(key)) {
-					mongoDocument.remove(key);
-				}
-			}
-		}
-		if (!fieldsToMask.isEmpty()) {
-			for (String field : fieldsToMask) {
-				mongoDocument.remove(field);
-			}
-		}
-
-		ByteString document = ByteString.copyFrom(LumongoUtil.mongoDocumentToByteArray(mongoDocument));
-		resultDocBuilder.setDocument(document);
-
-		return resultDocBuilder.build();
+	private ResultDocument filterDocument(ResultDocument rd, List<String> fieldsToReturn, List<String> fieldsToMask) {
+		byte[] bytes = rd.getDocument().toByteArray();
+		byte[] filtered = BsonFieldFilter.filter(bytes, 0, bytes.length, fieldsToReturn, fieldsToMask);
+		return rd.toBuilder().setDocument(wrap(filtered, 0, filtered.length)).build();
+	}
 
+	/**
+	 * Wraps stored bytes without copying them, the bytes must not change afterwards.  Lucene reads every stored binary
+	 * value into a new array so stored values can be wrapped.
+	 */
+	private static ByteString wrap(byte[] bytes, int offset, int length) {
+		return UnsafeByteOperations.unsafeWrap(ByteBuffer.wrap(bytes, offset, length));
 	}
 
 	private void possibleCommit() throws IOException {
@@ -913,10 +1171,15 @@ public class LumongoSegment {
 		log.info("Committing segment <" + segmentNumber + "> for index <" + indexName + ">");
 		long currentTime = System.currentTimeMillis();
 		indexWriter.commit();
-		taxoWriter.commit();
+		if (taxoWriter != null) {
+			taxoWriter.commit();
+		}
 
 		lastCommit = currentTime;
 
+		//searchers see the committed changes without waiting for the refresh interval, queries keep the current searcher meanwhile
+		searcherManager.maybeRefresh();
+
 	}
 
 	public void doCommit() throws IOException {
@@ -940,13 +1203,27 @@ public class LumongoSegment {
 			forceCommit();
 		}
 
+		closeSearcherManager();
+
+		QueryResultCache qrc = queryResultCache;
+		if (qrc != null) {
+			qrc.close();
+		}
+
+		FilterCache fc = filterCache;
+		if (fc != null) {
+			fc.close();
+		}
+
 		Directory directory = indexWriter.getDirectory();
 		indexWriter.close();
 		directory.close();
 
-		directory = taxoWriter.getDirectory();
-		taxoWriter.close();
-		directory.close();
+		if (taxoWriter != null) {
+			directory = taxoWriter.getDirectory();
+			taxoWriter.close();
+			directory.close();
+		}
 	}
 
 	public void index(String uniqueId, long timestamp, org.bson.Document mongoDocument, List<Metadata> metadataList) throws Exception {
@@ -975,7 +1252,12 @@ public class LumongoSegment {
 
 		}
 
-		luceneDocument = facetsConfig.build(taxoWriter, luceneDocument);
+		if (taxoWriter != null) {
+			luceneDocument = facetsConfig.build(taxoWriter, luceneDocument);
+		}
+		else {
+			luceneDocument = facetsConfig.build(luceneDocument);
+		}
 
 		Term term = new Term(LumongoConstants.ID_FIELD, uniqueId);
 
@@ -1219,7 +1501,12 @@ public class LumongoSegment {
 
 	private void addFacet(Document doc, String facetName, String value) {
 		if (!value.isEmpty()) {
-			doc.add(new FacetField(facetName, value));
+			if (indexConfig.isSortedSetFacets()) {
+				doc.add(new SortedSetDocValuesFacetField(facetName, value));
+			}
+			else {
+				doc.add(new FacetField(facetName, value));
+			}
 			doc.add(new StringField(FacetsConfig.DEFAULT_INDEX_FIELD_NAME + "." + facetName, new BytesRef(value), Store.NO));
 		}
 	}
@@ -1239,19 +1526,23 @@ public class LumongoSegment {
 
 	public GetFieldNamesResponse getFieldNames() throws IOException {
 
-		openReaderIfChanges();
-
 		GetFieldNamesResponse.Builder builder = GetFieldNamesResponse.newBuilder();
 
 		Set<String> fields = new HashSet<>();
 
-		for (LeafReaderContext subReaderContext : directoryReader.leaves()) {
-			FieldInfos fieldInfos = subReaderContext.reader().getFieldInfos();
-			for (FieldInfo fi : fieldInfos) {
-				String fieldName = fi.name;
-				fields.add(fieldName);
+		SearcherAndTaxonomy searcherAndTaxonomy = acquireSearcher(false);
+		try {
+			for (LeafReaderContext subReaderContext : searcherAndTaxonomy.searcher.getIndexReader().leaves()) {
+				FieldInfos fieldInfos = subReaderContext.reader().getFieldInfos();
+				for (FieldInfo fi : fieldInfos) {
+					String fieldName = fi.name;
+					fields.add(fieldName);
+				}
 			}
 		}
+		finally {
+			releaseSearcher(searcherAndTaxonomy);
+		}
 
 		fields.forEach(builder::addFieldName);
 
@@ -1265,8 +1556,16 @@ public class LumongoSegment {
 	}
 
 	public GetTermsResponse getTerms(GetTermsRequest request) throws IOException {
-		openReaderIfChanges();
+		SearcherAndTaxonomy searcherAndTaxonomy = acquireSearcher(false);
+		try {
+			return getTerms(request, searcherAndTaxonomy.searcher.getIndexReader());
+		}
+		finally {
+			releaseSearcher(searcherAndTaxonomy);
+		}
+	}
 
+	private GetTermsResponse getTerms(GetTermsRequest request, IndexReader indexReader) throws IOException {
 		GetTermsResponse.Builder builder = GetTermsResponse.newBuilder();
 
 		String fieldName = request.getFieldName();
@@ -1282,7 +1581,7 @@ public class LumongoSegment {
 				termBytesList.add(termBytes);
 			}
 
-			for (LeafReaderContext subReaderContext : directoryReader.leaves()) {
+			for (LeafReaderContext subReaderContext : indexReader.leaves()) {
 				Fields fields = subReaderContext.reader().fields();
 				if (fields != null) {
 
@@ -1334,7 +1633,7 @@ public class LumongoSegment {
 				termMatch = Pattern.compile(request.getTermMatch());
 			}
 
-			for (LeafReaderContext subReaderContext : directoryReader.leaves()) {
+			for (LeafReaderContext subReaderContext : indexReader.leaves()) {
 				Fields fields = subReaderContext.reader().fields();
 				if (fields != null) {
 
@@ -1425,8 +1724,14 @@ public class LumongoSegment {
 
 	public SegmentCountResponse getNumberOfDocs() throws IOException {
 
-		openReaderIfChanges();
-		int count = directoryReader.numDocs();
+		SearcherAndTaxonomy searcherAndTaxonomy = acquireSearcher(false);
+		int count;
+		try {
+			count = searcherAndTaxonomy.searcher.getIndexReader().numDocs();
+		}
+		finally {
+			releaseSearcher(searcherAndTaxonomy);
+		}
 		return SegmentCountResponse.newBuilder().setNumberOfDocs(count).setSegmentNumber(segmentNumber).build();
 
 	}
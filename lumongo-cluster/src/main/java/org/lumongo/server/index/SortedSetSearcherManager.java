@@ -0,0 +1,53 @@
+package org.lumongo.server.index;
+
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager.SearcherAndTaxonomy;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+
+/**
+ * Manages near real time searchers of a segment without a taxonomy index, the searchers come without a taxonomy
+ * reader.  Hands out the same type as {@link SearcherTaxonomyManager} so a segment acquires, refreshes and releases
+ * searchers the same way whichever way its facets are stored.
+ */
+public class SortedSetSearcherManager extends ReferenceManager<SearcherAndTaxonomy> {
+
+	private final SearcherFactory searcherFactory;
+
+	public SortedSetSearcherManager(IndexWriter writer, boolean applyAllDeletes, SearcherFactory searcherFactory) throws IOException {
+		this.searcherFactory = searcherFactory;
+		DirectoryReader reader = DirectoryReader.open(writer, applyAllDeletes, false);
+		current = new SearcherAndTaxonomy(SearcherManager.getSearcher(searcherFactory, reader, null), null);
+	}
+
+	@Override
+	protected void decRef(SearcherAndTaxonomy reference) throws IOException {
+		reference.searcher.getIndexReader().decRef();
+	}
+
+	@Override
+	protected boolean tryIncRef(SearcherAndTaxonomy reference) {
+		return reference.searcher.getIndexReader().tryIncRef();
+	}
+
+	@Override
+	protected SearcherAndTaxonomy refreshIfNeeded(SearcherAndTaxonomy reference) throws IOException {
+		IndexReader reader = reference.searcher.getIndexReader();
+		DirectoryReader newReader = DirectoryReader.openIfChanged((DirectoryReader) reader);
+		if (newReader == null) {
+			return null;
+		}
+		return new SearcherAndTaxonomy(SearcherManager.getSearcher(searcherFactory, newReader, reader), null);
+	}
+
+	@Override
+	protected int getRefCount(SearcherAndTaxonomy reference) {
+		return reference.searcher.getIndexReader().getRefCount();
+	}
+}
@@ -48,9 +48,11 @@ public class QueryResource {
 			@QueryParam(LumongoConstants.FACET) List<String> facet, @QueryParam(LumongoConstants.DRILL_DOWN) List<String> drillDowns,
 			@QueryParam(LumongoConstants.DEFAULT_OP) String defaultOperator, @QueryParam(LumongoConstants.SORT) List<String> sort,
 			@QueryParam(LumongoConstants.PRETTY) boolean pretty, @QueryParam(LumongoConstants.COMPUTE_FACET_ERROR) boolean computeFacetError,
+			@QueryParam(LumongoConstants.EXACT_FACETS) boolean exactFacets,
 			@QueryParam(LumongoConstants.DISMAX) Boolean dismax, @QueryParam(LumongoConstants.DISMAX_TIE) Float dismaxTie,
 			@QueryParam(LumongoConstants.MIN_MATCH) Integer mm, @QueryParam(LumongoConstants.SIMILARITY) List<String> similarity,
 			@QueryParam(LumongoConstants.DEBUG) Boolean debug, @QueryParam(LumongoConstants.DONT_CACHE) Boolean dontCache,
+			@QueryParam(LumongoConstants.WAIT_FOR_INDEXED_CHANGES) Boolean waitForIndexedChanges,
 			@QueryParam(LumongoConstants.START) Integer start, @QueryParam(LumongoConstants.HIGHLIGHT) List<String> highlightList,
 			@QueryParam(LumongoConstants.HIGHLIGHT_JSON) List<String> highlightJsonList,
 			@QueryParam(LumongoConstants.ANALYZE_JSON) List<String> analyzeJsonList, @QueryParam(LumongoConstants.COS_SIM_JSON) List<String> cosineSimJsonList,
@@ -71,6 +73,10 @@ public class QueryResource {
 			qrBuilder.setDontCache(dontCache);
 		}
 
+		if (waitForIndexedChanges != null) {
+			qrBuilder.setWaitForIndexedChanges(waitForIndexedChanges);
+		}
+
 		Lumongo.Query.Builder queryBuilder = Lumongo.Query.newBuilder();
 		if (query != null) {
 			queryBuilder.setQ(query);
@@ -246,6 +252,9 @@ public class QueryResource {
 				facetBuilder.setComputeError(true);
 				facetBuilder.setComputePossibleMissed(true);
 			}
+			if (exactFacets) {
+				facetBuilder.setExact(true);
+			}
 			frBuilder.addCountRequest(facetBuilder);
 		}
 		if (drillDowns != null) {
@@ -498,6 +507,12 @@ public class QueryResource {
 					responseBuilder.append("\"maxPossibleMissing\": ");
 					responseBuilder.append(facetGroup.getMaxValuePossibleMissing());
 				}
+				if (facetGroup.hasAccuracy()) {
+					responseBuilder.append(",");
+					responseBuilder.append("\"accuracy\": \"");
+					responseBuilder.append(facetGroup.getAccuracy());
+					responseBuilder.append("\"");
+				}
 				responseBuilder.append(",");
 				responseBuilder.append("\"values\": [");
 
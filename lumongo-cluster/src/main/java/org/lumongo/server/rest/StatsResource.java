@@ -1,10 +1,13 @@
 package org.lumongo.server.rest;
 
 import com.cedarsoftware.util.io.JsonWriter;
+import com.google.common.primitives.Longs;
 import com.mongodb.util.JSONSerializers;
 import org.bson.Document;
 import org.lumongo.LumongoConstants;
 import org.lumongo.server.index.LumongoIndexManager;
+import org.lumongo.storage.lucene.BlockStats;
+import org.lumongo.storage.lucene.DiskBlockCache;
 import org.lumongo.storage.lucene.MongoFile;
 
 import javax.ws.rs.GET;
@@ -14,6 +17,8 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
 
 @Path(LumongoConstants.STATS_URL)
 public class StatsResource {
@@ -34,9 +39,38 @@ public class StatsResource {
 
 			Document mongoDocument = new Document();
 
+			long currentIndexBlockCount = MongoFile.getCacheSize();
+			long currentIndexBlockCacheBytes = MongoFile.getCacheSizeInBytes();
+
 			mongoDocument.put("blockSize", indexManager.getClusterConfig().getIndexBlockSize());
-			mongoDocument.put("maxIndexBlockCount", indexManager.getClusterConfig().getMaxIndexBlocks());
-			mongoDocument.put("currentIndexBlockCount", MongoFile.getCacheSize());
+			mongoDocument.put("currentIndexBlockCount", currentIndexBlockCount);
+			mongoDocument.put("maxIndexBlockCacheMB", MongoFile.getCache().getMaxSizeInBytes() / MB);
+			mongoDocument.put("indexBlockCacheOverflowMB", MongoFile.getCache().getOverflowSizeInBytes() / MB);
+			mongoDocument.put("currentIndexBlockCacheMB", currentIndexBlockCacheBytes / MB);
+			//files can have different block sizes so the cache is sized in bytes rather than blocks
+			mongoDocument.put("currentIndexAverageBlockSize", currentIndexBlockCount > 0 ? currentIndexBlockCacheBytes / currentIndexBlockCount : 0);
+			mongoDocument.put("maxIndexBlockDiskCacheMB", indexManager.getClusterConfig().getIndexBlockDiskCacheBytes() / MB);
+			mongoDocument.put("currentIndexBlockDiskCacheMB", DiskBlockCache.getTotalSizeInBytes() / MB);
+
+			List<Document> blockStatsList = new ArrayList<>();
+			for (BlockStats blockStats : BlockStats.getAllStats()) {
+				Document blockStatsDocument = new Document();
+				blockStatsDocument.put("directory", blockStats.getDirectoryName());
+				blockStatsDocument.put("fileType", blockStats.getFileType());
+				blockStatsDocument.put("hits", blockStats.getHits());
+				blockStatsDocument.put("misses", blockStats.getMisses());
+				blockStatsDocument.put("hitRatio", blockStats.getHitRatio());
+				blockStatsDocument.put("loads", blockStats.getLoads());
+				blockStatsDocument.put("loadedBytes", blockStats.getLoadedBytes());
+				blockStatsDocument.put("averageLoadTimeMs", blockStats.getAverageLoadTimeMs());
+				blockStatsDocument.put("loadTimeHistogram", Longs.asList(blockStats.getLoadTimeHistogram()));
+				blockStatsDocument.put("evictions", blockStats.getEvictions());
+				blockStatsDocument.put("flushes", blockStats.getFlushes());
+				blockStatsDocument.put("flushedBytes", blockStats.getFlushedBytes());
+				blockStatsDocument.put("averageFlushTimeMs", blockStats.getAverageFlushTimeMs());
+				blockStatsList.add(blockStatsDocument);
+			}
+			mongoDocument.put("indexBlockStats", blockStatsList);
 
 			Runtime runtime = Runtime.getRuntime();
 
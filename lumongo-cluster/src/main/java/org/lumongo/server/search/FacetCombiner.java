@@ -0,0 +1,304 @@
+package org.lumongo.server.search;
+
+import org.apache.lucene.util.FixedBitSet;
+import org.lumongo.cluster.message.Lumongo.CountRequest;
+import org.lumongo.cluster.message.Lumongo.FacetCount;
+import org.lumongo.cluster.message.Lumongo.FacetGroup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Combines the facet counts of one count request from every segment of a query.  A segment returns its top labels and
+ * flags when it left labels out, a label left out counts at most the count of the last label the segment returned.
+ *
+ * For exact counts the labels whose upper bound reaches the lower bound of the last label that would be returned are
+ * the candidates.  Only the segments that left a candidate out with a non zero count of their last label are asked for
+ * the count of the candidate, after that the counts of the candidates are exact.
+ */
+public class FacetCombiner {
+
+	private final CountRequest countRequest;
+	private final int numberOfSegments;
+
+	private final Map<String, AtomicLong> facetCounts;
+	private final Map<String, FixedBitSet> segmentsReturned;
+	private final FixedBitSet fullResults;
+	private final long[] minForSegment;
+
+	private Set<String> candidates;
+
+	public FacetCombiner(CountRequest countRequest, int numberOfSegments) {
+		this.countRequest = countRequest;
+		this.numberOfSegments = numberOfSegments;
+		this.facetCounts = new HashMap<>();
+		this.segmentsReturned = new HashMap<>();
+		this.fullResults = new FixedBitSet(numberOfSegments);
+		this.minForSegment = new long[numberOfSegments];
+	}
+
+	public CountRequest getCountRequest() {
+		return countRequest;
+	}
+
+	/**
+	 * @param segIndex - index of the segment in the responses combined
+	 */
+	public void addSegmentFacets(int segIndex, FacetGroup fg) {
+		for (FacetCount fc : fg.getFacetCountList()) {
+			addCount(segIndex, fc.getFacet(), fc.getCount());
+		}
+
+		if (fg.getPossibleMissing()) {
+			minForSegment[segIndex] = fg.getMaxValuePossibleMissing();
+		}
+		else {
+			fullResults.set(segIndex);
+		}
+	}
+
+	private void addCount(int segIndex, String facet, long count) {
+		AtomicLong facetSum = facetCounts.get(facet);
+		FixedBitSet segmentSet = segmentsReturned.get(facet);
+
+		if (facetSum == null) {
+			facetSum = new AtomicLong();
+			facetCounts.put(facet, facetSum);
+			segmentSet = new FixedBitSet(numberOfSegments);
+			segmentsReturned.put(facet, segmentSet);
+		}
+
+		facetSum.addAndGet(count);
+		segmentSet.set(segIndex);
+	}
+
+	/**
+	 * @return true when every segment returned all of its labels so every count is exact
+	 */
+	public boolean isComplete() {
+		return fullResults.cardinality() == numberOfSegments;
+	}
+
+	/**
+	 * @return the maximum count missing from the count of the facet, from the segments that left it out
+	 */
+	private long getMaxError(String facet) {
+		FixedBitSet segCount = segmentsReturned.get(facet);
+		long maxError = 0;
+		for (int i = 0; i < numberOfSegments; i++) {
+			if (!segCount.get(i) && !fullResults.get(i)) {
+				maxError += minForSegment[i];
+			}
+		}
+		return maxError;
+	}
+
+	/**
+	 * @return the maximum count of a label no segment returned
+	 */
+	private long getMaxValueNotReturned() {
+		long maxValueNotReturned = 0;
+		for (int i = 0; i < numberOfSegments; i++) {
+			if (!fullResults.get(i)) {
+				maxValueNotReturned += minForSegment[i];
+			}
+		}
+		return maxValueNotReturned;
+	}
+
+	private SortedSet<FacetCountResult> getSortedFacetResults(Set<String> facets) {
+		return facets.stream().map(facet -> new FacetCountResult(facet, facetCounts.get(facet).get())).collect(Collectors.toCollection(TreeSet::new));
+	}
+
+	/**
+	 * Combines the counts the segments returned, counts are lower bounds unless no segment that left a label out could
+	 * have counted it.  The result is exact when every count returned is exact and no label left out could count more
+	 * than the last label returned.
+	 */
+	public FacetGroup getFacetGroup() {
+		FacetGroup.Builder fg = FacetGroup.newBuilder();
+		fg.setCountRequest(countRequest);
+
+		long maxValuePossibleMissing = getMaxValueNotReturned();
+
+		boolean computeError = countRequest.getComputeError();
+		boolean computePossibleMissing = countRequest.getComputePossibleMissed() && (maxValuePossibleMissing != 0);
+
+		SortedSet<FacetCountResult> sortedFacetResults = getSortedFacetResults(facetCounts.keySet());
+
+		int maxCount = countRequest.getMaxFacets();
+
+		boolean countsExact = true;
+		long minCountReturned = 0;
+		//maximum count with error of the labels past the last label returned
+		long maxValueCut = 0;
+
+		int count = 0;
+		for (FacetCountResult facet : sortedFacetResults) {
+
+			long maxError = getMaxError(facet.getFacet());
+			long maxWithError = maxError + facet.getCount();
+
+			count++;
+
+			if (maxCount > 0 && count > maxCount) {
+
+				if (maxWithError > maxValueCut) {
+					maxValueCut = maxWithError;
+				}
+
+				//past the cut labels only matter for the possible missing value or to tell whether the result is exact
+				if (!computePossibleMissing && (!countsExact || maxValueCut > minCountReturned)) {
+					break;
+				}
+			}
+			else {
+				FacetCount.Builder facetCountBuilder = FacetCount.newBuilder().setFacet(facet.getFacet()).setCount(facet.getCount());
+				if (computeError) {
+					facetCountBuilder.setMaxError(maxError);
+				}
+				fg.addFacetCount(facetCountBuilder);
+				minCountReturned = facet.getCount();
+				countsExact &= maxError == 0;
+			}
+		}
+
+		if (computePossibleMissing && computeError && maxValueCut > maxValuePossibleMissing) {
+			maxValuePossibleMissing = maxValueCut;
+		}
+
+		if (!sortedFacetResults.isEmpty()) {
+			if (maxValuePossibleMissing > minCountReturned) {
+				fg.setPossibleMissing(true);
+				fg.setMaxValuePossibleMissing(maxValuePossibleMissing);
+			}
+		}
+
+		//with fewer labels than requested any label not returned could be missing
+		long minCountRanked = (maxCount == 0 || fg.getFacetCountCount() < maxCount) ? 0 : minCountReturned;
+		boolean rankingExact = Math.max(getMaxValueNotReturned(), maxValueCut) <= minCountRanked;
+
+		if (countsExact && rankingExact) {
+			fg.setAccuracy(FacetGroup.Accuracy.EXACT);
+		}
+		else if (computeError) {
+			fg.setAccuracy(FacetGroup.Accuracy.BOUNDED);
+		}
+		else {
+			fg.setAccuracy(FacetGroup.Accuracy.ESTIMATED);
+		}
+
+		return fg.build();
+	}
+
+	/**
+	 * Chooses the candidate labels, must be called once before refined counts are added
+	 * @return the candidate labels each segment has to count by index of the segment, empty when the counts are exact already
+	 */
+	public Map<Integer, List<String>> getRefinements() {
+		SortedSet<FacetCountResult> sortedFacetResults = getSortedFacetResults(facetCounts.keySet());
+
+		//lower bound of the last label returned, a label can only be returned if its upper bound reaches it
+		long threshold = 0;
+		int maxCount = countRequest.getMaxFacets();
+		if (maxCount > 0 && sortedFacetResults.size() >= maxCount) {
+			int count = 0;
+			for (FacetCountResult facet : sortedFacetResults) {
+				if (++count == maxCount) {
+					threshold = facet.getCount();
+					break;
+				}
+			}
+		}
+
+		candidates = new HashSet<>();
+		Map<Integer, List<String>> refinements = new TreeMap<>();
+		for (FacetCountResult facet : sortedFacetResults) {
+			long maxError = getMaxError(facet.getFacet());
+			if (facet.getCount() + maxError < threshold) {
+				continue;
+			}
+
+			candidates.add(facet.getFacet());
+			if (maxError != 0) {
+				FixedBitSet segCount = segmentsReturned.get(facet.getFacet());
+				for (int i = 0; i < numberOfSegments; i++) {
+					if (!segCount.get(i) && !fullResults.get(i) && minForSegment[i] != 0) {
+						refinements.computeIfAbsent(i, k -> new ArrayList<>()).add(facet.getFacet());
+					}
+				}
+			}
+		}
+		return refinements;
+	}
+
+	/**
+	 * Adds the exact counts a segment returned for the candidates it was asked for
+	 */
+	public void addRefinedFacets(int segIndex, FacetGroup fg) {
+		for (FacetCount fc : fg.getFacetCountList()) {
+			if (candidates.contains(fc.getFacet()) && !segmentsReturned.get(fc.getFacet()).get(segIndex)) {
+				addCount(segIndex, fc.getFacet(), fc.getCount());
+			}
+		}
+	}
+
+	/**
+	 * Combines the counts of the candidates once the segments counted them.  The counts are exact unless a segment did
+	 * not answer, the ranking is exact unless a label no segment returned could count more than the last label returned.
+	 */
+	public FacetGroup getExactFacetGroup() {
+		FacetGroup.Builder fg = FacetGroup.newBuilder();
+		fg.setCountRequest(countRequest);
+
+		SortedSet<FacetCountResult> sortedFacetResults = getSortedFacetResults(candidates);
+
+		int maxCount = countRequest.getMaxFacets();
+
+		boolean countsExact = true;
+		long minCountReturned = 0;
+
+		int count = 0;
+		for (FacetCountResult facet : sortedFacetResults) {
+			if (maxCount > 0 && ++count > maxCount) {
+				break;
+			}
+
+			long maxError = getMaxError(facet.getFacet());
+			countsExact &= maxError == 0;
+
+			FacetCount.Builder facetCountBuilder = FacetCount.newBuilder().setFacet(facet.getFacet()).setCount(facet.getCount());
+			if (countRequest.getComputeError()) {
+				facetCountBuilder.setMaxError(maxError);
+			}
+			fg.addFacetCount(facetCountBuilder);
+			minCountReturned = facet.getCount();
+		}
+
+		//with fewer labels than requested any label not returned could be missing
+		if (maxCount == 0 || fg.getFacetCountCount() < maxCount) {
+			minCountReturned = 0;
+		}
+
+		long maxValuePossibleMissing = getMaxValueNotReturned();
+		boolean possibleMissing = maxValuePossibleMissing > minCountReturned;
+		if (possibleMissing) {
+			fg.setPossibleMissing(true);
+			fg.setMaxValuePossibleMissing(maxValuePossibleMissing);
+		}
+
+		fg.setAccuracy(countsExact && !possibleMissing ? FacetGroup.Accuracy.EXACT : FacetGroup.Accuracy.BOUNDED);
+
+		return fg.build();
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.lumongo.server.search;
+
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+import org.lumongo.storage.util.JmxUtil;
+
+import javax.management.ObjectName;
+
+/**
+ * Doc id sets of filter clauses cached per leaf of a segment.  Lucene keys the sets on the core of each leaf so they
+ * stay valid across refreshes until the leaf is merged away, and only consults the cache for clauses that do not
+ * score, like the filter queries of a {@link QueryWithFilters}.
+ *
+ * Every searcher of the segment shares the cache and its caching policy, which caches a filter once it has been used
+ * often enough in recent queries.  Stats are registered as an MBean under {@link QueryResultCache#JMX_DOMAIN} until the
+ * cache is closed.
+ */
+public class FilterCache extends LRUQueryCache implements FilterCacheMBean {
+
+	private final String indexName;
+	private final int segmentNumber;
+	private final long maxBytes;
+	private final QueryCachingPolicy queryCachingPolicy;
+
+	private ObjectName objectName;
+
+	/**
+	 * @param maxSize - maximum number of filters kept
+	 * @param maxBytes - maximum memory used by the cached doc id sets
+	 */
+	public FilterCache(String indexName, int segmentNumber, int maxSize, long maxBytes) {
+		super(maxSize, maxBytes);
+		this.indexName = indexName;
+		this.segmentNumber = segmentNumber;
+		this.maxBytes = maxBytes;
+		this.queryCachingPolicy = new UsageTrackingQueryCachingPolicy();
+
+		register();
+	}
+
+	public QueryCachingPolicy getQueryCachingPolicy() {
+		return queryCachingPolicy;
+	}
+
+	/**
+	 * Drops the cached doc id sets and unregisters the stats
+	 */
+	public void close() {
+		clear();
+		unregister();
+	}
+
+	private void register() {
+		objectName = JmxUtil.register(this,
+				QueryResultCache.JMX_DOMAIN + ":type=FilterCache,index=" + ObjectName.quote(indexName) + ",segment=" + segmentNumber);
+	}
+
+	private void unregister() {
+		JmxUtil.unregister(objectName);
+		objectName = null;
+	}
+
+	@Override
+	public String getIndexName() {
+		return indexName;
+	}
+
+	@Override
+	public int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	@Override
+	public long getHits() {
+		return getHitCount();
+	}
+
+	@Override
+	public long getMisses() {
+		return getMissCount();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long total = getTotalCount();
+		return total == 0 ? 0 : (double) getHitCount() / total;
+	}
+
+	@Override
+	public long getCachedDocIdSets() {
+		return getCacheSize();
+	}
+
+	@Override
+	public long getCachedDocIdSetsTotal() {
+		return getCacheCount();
+	}
+
+	@Override
+	public long getEvictions() {
+		return getEvictionCount();
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return ramBytesUsed();
+	}
+
+	@Override
+	public long getMaxSizeInBytes() {
+		return maxBytes;
+	}
+}
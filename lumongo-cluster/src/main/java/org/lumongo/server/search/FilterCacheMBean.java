@@ -0,0 +1,34 @@
+package org.lumongo.server.search;
+
+/**
+ * JMX view of the {@link FilterCache} of one segment
+ */
+public interface FilterCacheMBean {
+
+	String getIndexName();
+
+	int getSegmentNumber();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	/**
+	 * @return number of doc id sets currently cached, one per filter and leaf
+	 */
+	long getCachedDocIdSets();
+
+	/**
+	 * @return number of doc id sets cached since the cache was created
+	 */
+	long getCachedDocIdSetsTotal();
+
+	long getEvictions();
+
+	long getSizeInBytes();
+
+	long getMaxSizeInBytes();
+
+}
@@ -2,12 +2,16 @@ package org.lumongo.server.search;
 
 import org.lumongo.cluster.message.Lumongo.QueryRequest;
 
+/**
+ * Query of a cached segment response, the options of the request that do not change the response are left out so
+ * requests that only differ by them share a response
+ */
 public class QueryCacheKey {
 	
 	private QueryRequest queryRequest;
 	
 	public QueryCacheKey(QueryRequest queryRequest) {
-		this.queryRequest = queryRequest;
+		this.queryRequest = queryRequest.toBuilder().clearDebug().clearDontCache().clearWaitForIndexedChanges().build();
 	}
 	
 	@Override
@@ -1,7 +1,6 @@
 package org.lumongo.server.search;
 
 import org.apache.log4j.Logger;
-import org.apache.lucene.util.FixedBitSet;
 import org.lumongo.cluster.message.Lumongo;
 import org.lumongo.cluster.message.Lumongo.*;
 import org.lumongo.server.index.LumongoIndex;
@@ -12,12 +11,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
 public class QueryCombiner {
 
@@ -44,6 +40,10 @@ public class QueryCombiner {
 
 	private Lumongo.Query query;
 
+	private final Map<CountRequest, FacetCombiner> facetCombinerMap;
+	private final List<FacetCombiner> exactFacetCombiners;
+	private final List<FacetRefinement> facetRefinements;
+
 	public QueryCombiner(Map<String, LumongoIndex> usedIndexMap, QueryRequest request, List<InternalQueryResponse> responses) {
 		this.usedIndexMap = usedIndexMap;
 		this.responses = responses;
@@ -59,6 +59,10 @@ public class QueryCombiner {
 		this.isShort = false;
 		this.results = Collections.emptyList();
 		this.resultsSize = 0;
+
+		this.facetCombinerMap = new LinkedHashMap<>();
+		this.exactFacetCombiners = new ArrayList<>();
+		this.facetRefinements = new ArrayList<>();
 	}
 
 	public void validate() throws Exception {
@@ -141,10 +145,9 @@ public class QueryCombiner {
 			}
 		}
 
-		Map<CountRequest, Map<String, AtomicLong>> facetCountsMap = new HashMap<>();
-		Map<CountRequest, Map<String, FixedBitSet>> segmentsReturnedMap = new HashMap<>();
-		Map<CountRequest, FixedBitSet> fullResultsMap = new HashMap<>();
-		Map<CountRequest, long[]> minForSegmentMap = new HashMap<>();
+		facetCombinerMap.clear();
+		exactFacetCombiners.clear();
+		facetRefinements.clear();
 
 		Map<AnalysisRequest, Map<String, Lumongo.Term.Builder>> analysisRequestToTermMap = new HashMap<>();
 
@@ -153,51 +156,13 @@ public class QueryCombiner {
 		for (SegmentResponse sr : segmentResponses) {
 
 			for (FacetGroup fg : sr.getFacetGroupList()) {
-
 				CountRequest countRequest = fg.getCountRequest();
-				Map<String, AtomicLong> facetCounts = facetCountsMap.get(countRequest);
-				Map<String, FixedBitSet> segmentsReturned = segmentsReturnedMap.get(countRequest);
-				FixedBitSet fullResults = fullResultsMap.get(countRequest);
-				long[] minForSegment = minForSegmentMap.get(countRequest);
-
-				if (facetCounts == null) {
-					facetCounts = new HashMap<>();
-					facetCountsMap.put(countRequest, facetCounts);
-
-					segmentsReturned = new HashMap<>();
-					segmentsReturnedMap.put(countRequest, segmentsReturned);
-
-					fullResults = new FixedBitSet(segmentResponses.size());
-					fullResultsMap.put(countRequest, fullResults);
-
-					minForSegment = new long[segmentResponses.size()];
-					minForSegmentMap.put(countRequest, minForSegment);
-				}
-
-				for (FacetCount fc : fg.getFacetCountList()) {
-					String facet = fc.getFacet();
-					AtomicLong facetSum = facetCounts.get(facet);
-					FixedBitSet segmentSet = segmentsReturned.get(facet);
-
-					if (facetSum == null) {
-						facetSum = new AtomicLong();
-						facetCounts.put(facet, facetSum);
-						segmentSet = new FixedBitSet(segmentResponses.size());
-						segmentsReturned.put(facet, segmentSet);
-					}
-					long count = fc.getCount();
-					facetSum.addAndGet(count);
-					segmentSet.set(segIndex);
-
-					minForSegment[segIndex] = count;
-				}
-
-				int segmentFacets = countRequest.getSegmentFacets();
-				int facetCountCount = fg.getFacetCountCount();
-				if (facetCountCount < segmentFacets || (segmentFacets == 0)) {
-					fullResults.set(segIndex);
-					minForSegment[segIndex] = 0;
+				FacetCombiner facetCombiner = facetCombinerMap.get(countRequest);
+				if (facetCombiner == null) {
+					facetCombiner = new FacetCombiner(countRequest, segmentResponses.size());
+					facetCombinerMap.put(countRequest, facetCombiner);
 				}
+				facetCombiner.addSegmentFacets(segIndex, fg);
 			}
 
 			for (Lumongo.AnalysisResult analysisResult : sr.getAnalysisResultList()) {
@@ -241,80 +206,26 @@ public class QueryCombiner {
 			}
 		}
 
-		for (CountRequest countRequest : facetCountsMap.keySet()) {
-
-			FacetGroup.Builder fg = FacetGroup.newBuilder();
-			fg.setCountRequest(countRequest);
-			Map<String, AtomicLong> facetCounts = facetCountsMap.get(countRequest);
-			Map<String, FixedBitSet> segmentsReturned = segmentsReturnedMap.get(countRequest);
-			FixedBitSet fullResults = fullResultsMap.get(countRequest);
-			long[] minForSegment = minForSegmentMap.get(countRequest);
-
-			int numberOfSegments = segmentResponses.size();
-			long maxValuePossibleMissing = 0;
-			for (int i = 0; i < numberOfSegments; i++) {
-				maxValuePossibleMissing += minForSegment[i];
-			}
-
-			boolean computeError = countRequest.getSegmentFacets() != 0 && countRequest.getComputeError();
-			boolean computePossibleMissing = countRequest.getSegmentFacets() != 0 && countRequest.getComputePossibleMissed() && (maxValuePossibleMissing != 0);
-
-			SortedSet<FacetCountResult> sortedFacetResults = facetCounts.keySet().stream()
-					.map(facet -> new FacetCountResult(facet, facetCounts.get(facet).get())).collect(Collectors.toCollection(TreeSet::new));
-
-			Integer maxCount = countRequest.getMaxFacets();
-
-			long minCountReturned = 0;
-
-			int count = 0;
-			for (FacetCountResult facet : sortedFacetResults) {
-
-				FixedBitSet segCount = segmentsReturned.get(facet.getFacet());
-				segCount.or(fullResults);
-
-				FacetCount.Builder facetCountBuilder = FacetCount.newBuilder().setFacet(facet.getFacet()).setCount(facet.getCount());
-
-				long maxWithError = 0;
-				if (computeError) {
-					long maxError = 0;
-					if (segCount.cardinality() < numberOfSegments) {
-						for (int i = 0; i < numberOfSegments; i++) {
-							if (!segCount.get(i)) {
-								maxError += minForSegment[i];
-							}
-						}
-					}
-					facetCountBuilder.setMaxError(maxError);
-					maxWithError = maxError + facet.getCount();
-				}
-
-				count++;
-
-				if (maxCount > 0 && count > maxCount) {
-
-					if (computePossibleMissing) {
-						if (maxWithError > maxValuePossibleMissing) {
-							maxValuePossibleMissing = maxWithError;
-						}
-					}
-					else {
-						break;
-					}
+		for (FacetCombiner facetCombiner : facetCombinerMap.values()) {
+			CountRequest countRequest = facetCombiner.getCountRequest();
+			if (countRequest.getExact() && !facetCombiner.isComplete()) {
+				Map<Integer, List<String>> refinements = facetCombiner.getRefinements();
+				if (refinements.isEmpty()) {
+					builder.addFacetGroup(facetCombiner.getExactFacetGroup());
 				}
 				else {
-					fg.addFacetCount(facetCountBuilder);
-					minCountReturned = facet.getCount();
+					//counted again by the segments in a second phase, see refineFacets
+					exactFacetCombiners.add(facetCombiner);
+					for (Map.Entry<Integer, List<String>> refinement : refinements.entrySet()) {
+						SegmentResponse sr = segmentResponses.get(refinement.getKey());
+						facetRefinements.add(FacetRefinement.newBuilder().setIndexName(sr.getIndexName()).setSegmentNumber(sr.getSegmentNumber())
+								.setCountRequest(countRequest).addAllFacet(refinement.getValue()).build());
+					}
 				}
 			}
-
-			if (!sortedFacetResults.isEmpty()) {
-				if (maxValuePossibleMissing > minCountReturned) {
-					fg.setPossibleMissing(true);
-					fg.setMaxValuePossibleMissing(maxValuePossibleMissing);
-				}
+			else {
+				builder.addFacetGroup(facetCombiner.getFacetGroup());
 			}
-
-			builder.addFacetGroup(fg);
 		}
 
 		List<ScoredResult> mergedResults = new ArrayList<>((int) returnedHits);
@@ -538,6 +449,49 @@ public class QueryCombiner {
 		return builder.build();
 	}
 
+	/**
+	 * @return the labels segments have to count for the exact facet counts requested, empty when the response is complete
+	 */
+	public List<FacetRefinement> getFacetRefinements() {
+		return facetRefinements;
+	}
+
+	/**
+	 * Adds the facet groups of the exact count requests once the segments returned the counts of their candidate labels
+	 * @param refinedResponses - responses to the query with the facet refinements
+	 */
+	public QueryResponse refineFacets(QueryResponse queryResponse, List<InternalQueryResponse> refinedResponses) {
+		Map<String, Map<Integer, Integer>> segIndexMap = new HashMap<>();
+		for (int segIndex = 0; segIndex < segmentResponses.size(); segIndex++) {
+			SegmentResponse sr = segmentResponses.get(segIndex);
+			segIndexMap.computeIfAbsent(sr.getIndexName(), k -> new HashMap<>()).put(sr.getSegmentNumber(), segIndex);
+		}
+
+		for (InternalQueryResponse iqr : refinedResponses) {
+			for (IndexSegmentResponse isr : iqr.getIndexSegmentResponseList()) {
+				Map<Integer, Integer> segmentToSegIndex = segIndexMap.get(isr.getIndexName());
+				for (SegmentResponse sr : isr.getSegmentReponseList()) {
+					Integer segIndex = segmentToSegIndex != null ? segmentToSegIndex.get(sr.getSegmentNumber()) : null;
+					if (segIndex == null) {
+						continue;
+					}
+					for (FacetGroup fg : sr.getFacetGroupList()) {
+						FacetCombiner facetCombiner = facetCombinerMap.get(fg.getCountRequest());
+						if (facetCombiner != null && exactFacetCombiners.contains(facetCombiner)) {
+							facetCombiner.addRefinedFacets(segIndex, fg);
+						}
+					}
+				}
+			}
+		}
+
+		QueryResponse.Builder builder = queryResponse.toBuilder();
+		for (FacetCombiner facetCombiner : exactFacetCombiners) {
+			builder.addFacetGroup(facetCombiner.getExactFacetGroup());
+		}
+		return builder.build();
+	}
+
 	public boolean isShort() {
 		return isShort;
 	}
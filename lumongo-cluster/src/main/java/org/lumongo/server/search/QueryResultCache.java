@@ -2,24 +2,221 @@ package org.lumongo.server.search;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.lumongo.cluster.message.Lumongo.SegmentResponse;
+import org.lumongo.storage.util.JmxUtil;
 
-public class QueryResultCache {
-	private Cache<QueryCacheKey, SegmentResponse> queryResultCache;
-	
-	public QueryResultCache(int maxSize, int concurrency) {
-		queryResultCache = CacheBuilder.newBuilder().concurrencyLevel(concurrency).maximumSize(maxSize).build();
+import javax.management.ObjectName;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Segment responses cached by query and by the leaves of the segment reader they were computed on.  A response is
+ * returned for any reader with the same leaves and the same deletions, such as a reader reopened without changes to
+ * the documents.  A response depends on every leaf, so any document flushed, deleted or merged in the segment makes the
+ * responses cached before it stale.  Stale responses are dropped when they are looked up or evicted instead of
+ * flushing the cache on every change.
+ *
+ * Responses are weighed by their serialized size.  Every response weighs at least its share of the maximum number of
+ * responses so the cache holds neither more bytes nor more responses than configured.  Stats are registered as an
+ * MBean under {@link #JMX_DOMAIN} until the cache is closed.
+ */
+public class QueryResultCache implements QueryResultCacheMBean {
+
+	public static final String JMX_DOMAIN = "org.lumongo.server";
+
+	private final String indexName;
+	private final int segmentNumber;
+	private final long maxBytes;
+
+	private final Cache<QueryCacheKey, CachedResponse> queryResultCache;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder staleMisses;
+	private final LongAdder evictions;
+
+	private ObjectName objectName;
+
+	/**
+	 * @param maxSize - maximum number of responses kept
+	 * @param maxBytes - maximum serialized size of the responses kept
+	 */
+	public QueryResultCache(String indexName, int segmentNumber, int maxSize, long maxBytes, int concurrency) {
+		this.indexName = indexName;
+		this.segmentNumber = segmentNumber;
+		this.maxBytes = maxBytes;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.staleMisses = new LongAdder();
+		this.evictions = new LongAdder();
+
+		int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / Math.max(1, maxSize)));
+		queryResultCache = CacheBuilder.newBuilder().concurrencyLevel(concurrency).maximumWeight(maxBytes)
+				.weigher((QueryCacheKey key, CachedResponse value) -> Math.max(value.size, minWeight))
+				.removalListener((RemovalNotification<QueryCacheKey, CachedResponse> notification) -> {
+					if (notification.wasEvicted()) {
+						evictions.increment();
+					}
+				}).build();
+
+		register();
 	}
-	
-	public SegmentResponse getCacheSegmentResponse(QueryCacheKey queryCacheKey) {
-		return queryResultCache.getIfPresent(queryCacheKey);
+
+	/**
+	 * @param generation - generation of the segment reader the query runs on
+	 * @return the response cached for the leaves of the generation or null
+	 */
+	public SegmentResponse getCacheSegmentResponse(QueryCacheKey queryCacheKey, ReaderGeneration generation) {
+		CachedResponse cachedResponse = queryResultCache.getIfPresent(queryCacheKey);
+		if (cachedResponse != null) {
+			if (cachedResponse.generation.hasSameLeaves(generation)) {
+				hits.increment();
+				return cachedResponse.segmentResponse;
+			}
+			if (cachedResponse.generation.version < generation.version) {
+				queryResultCache.asMap().remove(queryCacheKey, cachedResponse);
+				staleMisses.increment();
+			}
+		}
+		misses.increment();
+		return null;
 	}
-	
-	public void storeInCache(QueryCacheKey queryCacheKey, SegmentResponse segmentResponse) {
-		queryResultCache.put(queryCacheKey, segmentResponse);
+
+	/**
+	 * Caches the response unless a response of a newer generation is already cached for the query
+	 * @param generation - generation of the segment reader the response was computed on
+	 */
+	public void storeInCache(QueryCacheKey queryCacheKey, ReaderGeneration generation, SegmentResponse segmentResponse) {
+		CachedResponse cachedResponse = new CachedResponse(generation, segmentResponse);
+		queryResultCache.asMap()
+				.merge(queryCacheKey, cachedResponse, (existing, added) -> existing.generation.version > added.generation.version ? existing : added);
 	}
-	
+
 	public void clear() {
 		queryResultCache.invalidateAll();
 	}
+
+	/**
+	 * Drops the cached responses and unregisters the stats
+	 */
+	public void close() {
+		clear();
+		unregister();
+	}
+
+	private void register() {
+		objectName = JmxUtil.register(this,
+				JMX_DOMAIN + ":type=QueryResultCache,index=" + ObjectName.quote(indexName) + ",segment=" + segmentNumber);
+	}
+
+	private void unregister() {
+		JmxUtil.unregister(objectName);
+		objectName = null;
+	}
+
+	@Override
+	public String getIndexName() {
+		return indexName;
+	}
+
+	@Override
+	public int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getStaleMisses() {
+		return staleMisses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getEntries() {
+		return queryResultCache.size();
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		long sizeInBytes = 0;
+		for (CachedResponse cachedResponse : queryResultCache.asMap().values()) {
+			sizeInBytes += cachedResponse.size;
+		}
+		return sizeInBytes;
+	}
+
+	@Override
+	public long getMaxSizeInBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * The version of a segment reader and the keys of its leaves, a leaf key changes when the documents or deletions
+	 * of the leaf change.  The keys are the leaf readers themselves so they are held weakly, a cached response does
+	 * not keep closed readers from being collected.
+	 */
+	public static class ReaderGeneration {
+		private final long version;
+		private final List<WeakReference<Object>> leafKeys;
+
+		public ReaderGeneration(DirectoryReader reader) {
+			this.version = reader.getVersion();
+			this.leafKeys = new ArrayList<>(reader.leaves().size());
+			for (LeafReaderContext leaf : reader.leaves()) {
+				leafKeys.add(new WeakReference<>(leaf.reader().getCombinedCoreAndDeletesKey()));
+			}
+		}
+
+		/**
+		 * Compares the leaves in order, doc ids of a response are only valid when every leaf has the same doc base
+		 */
+		private boolean hasSameLeaves(ReaderGeneration other) {
+			if (leafKeys.size() != other.leafKeys.size()) {
+				return false;
+			}
+			for (int i = 0; i < leafKeys.size(); i++) {
+				if (leafKeys.get(i).get() != other.leafKeys.get(i).get()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class CachedResponse {
+		private final ReaderGeneration generation;
+		private final SegmentResponse segmentResponse;
+		private final int size;
+
+		private CachedResponse(ReaderGeneration generation, SegmentResponse segmentResponse) {
+			this.generation = generation;
+			this.segmentResponse = segmentResponse;
+			this.size = segmentResponse.getSerializedSize();
+		}
+	}
 }
@@ -0,0 +1,31 @@
+package org.lumongo.server.search;
+
+/**
+ * JMX view of the {@link QueryResultCache} of one segment
+ */
+public interface QueryResultCacheMBean {
+
+	String getIndexName();
+
+	int getSegmentNumber();
+
+	long getHits();
+
+	long getMisses();
+
+	/**
+	 * @return misses on a response cached for older leaves of the segment, counted in the misses as well
+	 */
+	long getStaleMisses();
+
+	double getHitRatio();
+
+	long getEvictions();
+
+	long getEntries();
+
+	long getSizeInBytes();
+
+	long getMaxSizeInBytes();
+
+}
@@ -68,6 +68,10 @@ public class QueryWithFilters {
 		similarityOverrideMap.put(fieldSimilarity.getField(), fieldSimilarity.getSimilarity());
 	}
 
+	public boolean hasSimilarityOverrides() {
+		return !similarityOverrideMap.isEmpty();
+	}
+
 	public AnalyzerSettings.Similarity getFieldSimilarityOverride(String field) {
 		AnalyzerSettings.Similarity similarity = similarityOverrideMap.get(field);
 		if (similarity == null) {
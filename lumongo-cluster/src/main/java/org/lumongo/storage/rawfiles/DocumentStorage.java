@@ -9,11 +9,18 @@ import org.lumongo.cluster.message.Lumongo.Metadata;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 public interface DocumentStorage {
 	void storeSourceDocument(String uniqueId, long timeStamp, Document document, List<Metadata> metaDataList) throws Exception;
+
+	/**
+	 * Stores the documents in one unordered request, when a unique id is given more than once the last one is stored
+	 * @return the result of every unique id in the order they were first given, a document that fails does not stop the others
+	 */
+	Map<String, SourceDocumentResult> storeSourceDocuments(List<SourceDocument> sourceDocuments) throws Exception;
 	
 	void storeAssociatedDocument(AssociatedDocument docs) throws Exception;
 	
@@ -41,4 +48,21 @@ public interface DocumentStorage {
 	void deleteAllDocuments();
 
 	Lumongo.ResultDocument getSourceDocument(String uniqueId, FetchType fetchType) throws Exception;
+
+	/**
+	 * Fetches the document with only the selected top level fields, unselected fields are not loaded
+	 * @param fieldsToReturn - fields to return, empty returns every field not masked
+	 * @param fieldsToMask - fields not to return
+	 */
+	Lumongo.ResultDocument getSourceDocument(String uniqueId, FetchType fetchType, Collection<String> fieldsToReturn, Collection<String> fieldsToMask)
+			throws Exception;
+
+	/**
+	 * Fetches the documents in as few requests as possible with only the selected top level fields
+	 * @param fieldsToReturn - fields to return, empty returns every field not masked
+	 * @param fieldsToMask - fields not to return
+	 * @return the documents found in the order of the given unique ids, unique ids not found are not in the map
+	 */
+	Map<String, Lumongo.ResultDocument> getSourceDocuments(Collection<String> uniqueIds, FetchType fetchType, Collection<String> fieldsToReturn,
+			Collection<String> fieldsToMask) throws Exception;
 }
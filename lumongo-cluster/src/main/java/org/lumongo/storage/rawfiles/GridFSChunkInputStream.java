@@ -0,0 +1,192 @@
+package org.lumongo.storage.rawfiles;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.lumongo.storage.constants.MongoConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the chunks of a GridFS file with range queries that run in parallel ahead of the reader.  Every query loads
+ * as many chunks as fit in a read size so files stored with small chunks are not read one chunk per round trip.  The
+ * chunk size is taken from the file so files stored with any chunk size read the same.
+ */
+public class GridFSChunkInputStream extends InputStream {
+
+	private static final String FILES_ID = "files_id";
+	private static final String N = "n";
+	private static final String DATA = "data";
+
+	private final MongoCollection<Document> chunksCollection;
+	private final ExecutorService executor;
+	private final Object filesId;
+	private final long length;
+	private final int chunkSize;
+	private final int numberOfChunks;
+	private final int chunksPerRead;
+	private final int readsAhead;
+
+	private final ArrayDeque<Future<List<byte[]>>> pendingReads;
+	private int nextChunkToRead;
+
+	private List<byte[]> currentChunks;
+	private int currentChunkIndex;
+	private byte[] buffer;
+	private int bufferOffset;
+	private long position;
+	private boolean closed;
+
+	/**
+	 * @param filesId - id of the file in the files collection
+	 * @param length - length of the file
+	 * @param chunkSize - chunk size the file was stored with
+	 * @param readSize - bytes loaded by one query, at least one chunk is loaded
+	 * @param readsAhead - number of queries running ahead of the reader
+	 */
+	public GridFSChunkInputStream(MongoCollection<Document> chunksCollection, ExecutorService executor, Object filesId, long length, int chunkSize,
+			int readSize, int readsAhead) {
+		this.chunksCollection = chunksCollection;
+		this.executor = executor;
+		this.filesId = filesId;
+		this.length = length;
+		this.chunkSize = chunkSize;
+		this.numberOfChunks = (int) ((length + chunkSize - 1) / chunkSize);
+		this.chunksPerRead = Math.max(1, readSize / chunkSize);
+		this.readsAhead = Math.max(1, readsAhead);
+		this.pendingReads = new ArrayDeque<>();
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int read = read(b, 0, 1);
+		return read == -1 ? -1 : (b[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream for file <" + filesId + "> is closed");
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= length) {
+			return -1;
+		}
+
+		if (buffer == null || bufferOffset == buffer.length) {
+			nextChunk();
+		}
+
+		int read = Math.min(len, buffer.length - bufferOffset);
+		System.arraycopy(buffer, bufferOffset, b, off, read);
+		bufferOffset += read;
+		position += read;
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && position < length) {
+			if (buffer == null || bufferOffset == buffer.length) {
+				nextChunk();
+			}
+			int skip = (int) Math.min(n - skipped, buffer.length - bufferOffset);
+			bufferOffset += skip;
+			position += skip;
+			skipped += skip;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer == null ? 0 : buffer.length - bufferOffset;
+	}
+
+	private void nextChunk() throws IOException {
+		if (currentChunks == null || currentChunkIndex == currentChunks.size()) {
+			startReads();
+			Future<List<byte[]>> read = pendingReads.poll();
+			try {
+				currentChunks = read.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted reading file <" + filesId + ">");
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException("Failed to read chunks of file <" + filesId + ">", cause);
+			}
+			currentChunkIndex = 0;
+			startReads();
+		}
+		buffer = currentChunks.get(currentChunkIndex++);
+		bufferOffset = 0;
+	}
+
+	private void startReads() {
+		while (pendingReads.size() < readsAhead && nextChunkToRead < numberOfChunks) {
+			int start = nextChunkToRead;
+			int end = Math.min(start + chunksPerRead, numberOfChunks);
+			pendingReads.add(executor.submit(() -> readChunks(start, end)));
+			nextChunkToRead = end;
+		}
+	}
+
+	private List<byte[]> readChunks(int start, int end) throws IOException {
+		Document range = new Document(MongoConstants.Operators.GTE, start).append(MongoConstants.Operators.LT, end);
+		Document query = new Document(FILES_ID, filesId).append(N, range);
+
+		List<byte[]> chunks = new ArrayList<>(end - start);
+		int expected = start;
+		for (Document chunk : chunksCollection.find(query).sort(new Document(N, 1)).batchSize(end - start)) {
+			int n = chunk.getInteger(N);
+			if (n != expected) {
+				throw new IOException("Chunk <" + expected + "> of file <" + filesId + "> is missing, found <" + n + ">");
+			}
+
+			byte[] data = ((Binary) chunk.get(DATA)).getData();
+			int expectedSize = (n == numberOfChunks - 1) ? (int) (length - (long) n * chunkSize) : chunkSize;
+			if (data.length != expectedSize) {
+				throw new IOException("Chunk <" + n + "> of file <" + filesId + "> has size <" + data.length + "> expected <" + expectedSize + ">");
+			}
+			chunks.add(data);
+			expected++;
+		}
+
+		if (expected != end) {
+			throw new IOException("Chunk <" + expected + "> of file <" + filesId + "> is missing");
+		}
+		return chunks;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			for (Future<List<byte[]>> pendingRead : pendingReads) {
+				pendingRead.cancel(true);
+			}
+			pendingReads.clear();
+			currentChunks = null;
+			buffer = null;
+		}
+	}
+
+}
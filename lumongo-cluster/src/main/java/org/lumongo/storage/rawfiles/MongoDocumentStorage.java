@@ -3,7 +3,12 @@ package org.lumongo.storage.rawfiles;
 import com.google.protobuf.ByteString;
 import com.mongodb.BasicDBObject;
 import com.mongodb.Block;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
@@ -11,6 +16,8 @@ import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.GridFSFindIterable;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import org.apache.log4j.Logger;
 import org.bson.BSON;
@@ -22,6 +29,8 @@ import org.lumongo.cluster.message.Lumongo.Metadata;
 import org.lumongo.cluster.message.Lumongo.ResultDocument;
 import org.lumongo.storage.constants.MongoConstants;
 import org.lumongo.util.CommonCompression;
+import org.lumongo.util.LumongoThreadFactory;
+import org.lumongo.util.StreamHelper;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -30,10 +39,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.zip.DeflaterInputStream;
 import java.util.zip.InflaterInputStream;
@@ -53,19 +68,41 @@ public class MongoDocumentStorage implements DocumentStorage {
 	private static final String DOCUMENT_UNIQUE_ID_KEY = "_uid_";
 	private static final String FILE_UNIQUE_ID_KEY = "_fid_";
 
+	//keeps the $in queries of a batch fetch to a reasonable size
+	private static final int MAX_IDS_PER_FETCH = 1000;
+
+	public static final int DEFAULT_CHUNK_SIZE = 255 * 1024;
+
+	//a chunk is stored as one document so its data has to fit in the 16MB document limit with room for the other fields
+	public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024 - 1024;
+
+	//associated documents are read with queries of this many bytes of chunks running ahead of the reader
+	private static final int CHUNK_READ_SIZE = 1024 * 1024;
+	private static final int CHUNK_READS_AHEAD = 4;
+
 	private MongoClient mongoClient;
 	private String database;
 	private String indexName;
 
 	private String rawCollectionName;
 
+	private volatile WriteConcern writeConcern;
+	private volatile GridFSBucket gridFSBucket;
+	private volatile int chunkSize;
+
+	private final ExecutorService chunkReadPool;
+
 	public MongoDocumentStorage(MongoClient mongoClient, String indexName, String dbName, String rawCollectionName, boolean sharded) {
 		this.mongoClient = mongoClient;
 		this.indexName = indexName;
 		this.database = dbName;
 		this.rawCollectionName = rawCollectionName;
+		this.writeConcern = WriteConcern.ACKNOWLEDGED;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+		this.chunkReadPool = Executors.newCachedThreadPool(new LumongoThreadFactory(indexName + "-gridfs"));
 
 		MongoDatabase storageDb = mongoClient.getDatabase(database);
+		this.gridFSBucket = createGridFSBucket();
 		MongoCollection<Document> coll = storageDb.getCollection(ASSOCIATED_FILES + "." + FILES);
 		coll.createIndex(new Document(ASSOCIATED_METADATA + "." + DOCUMENT_UNIQUE_ID_KEY, 1));
 		coll.createIndex(new Document(ASSOCIATED_METADATA + "." + FILE_UNIQUE_ID_KEY, 1));
@@ -90,15 +127,140 @@ public class MongoDocumentStorage implements DocumentStorage {
 		adminDb.runCommand(shardCommand);
 	}
 
-	private GridFSBucket createGridFSConnection() {
+	public WriteConcern getWriteConcern() {
+		return writeConcern;
+	}
+
+	/**
+	 * Sets the write concern used to store and delete source and associated documents
+	 */
+	public void setWriteConcern(WriteConcern writeConcern) {
+		this.writeConcern = writeConcern;
+		this.gridFSBucket = gridFSBucket.withWriteConcern(writeConcern);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the chunk size of associated documents stored from now on, stored documents keep the chunk size they were stored with
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("Chunk size <" + chunkSize + "> must be between 1 and <" + MAX_CHUNK_SIZE + "> bytes");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Stops the threads reading associated documents
+	 */
+	public void close() {
+		chunkReadPool.shutdownNow();
+	}
+
+	private MongoCollection<Document> getSourceCollection() {
 		MongoDatabase db = mongoClient.getDatabase(database);
-		return GridFSBuckets.create(db, ASSOCIATED_FILES);
+		return db.getCollection(rawCollectionName).withWriteConcern(writeConcern);
+	}
+
+	private GridFSBucket getGridFSBucket() {
+		return gridFSBucket;
+	}
+
+	/**
+	 * A bucket creates the GridFS indexes on its first upload so a new one is needed after the collections are dropped
+	 */
+	private GridFSBucket createGridFSBucket() {
+		MongoDatabase db = mongoClient.getDatabase(database);
+		return GridFSBuckets.create(db, ASSOCIATED_FILES).withWriteConcern(writeConcern);
+	}
+
+	private InputStream openChunkStream(GridFSFile file) {
+		MongoCollection<Document> chunks = mongoClient.getDatabase(database).getCollection(ASSOCIATED_FILES + "." + CHUNKS);
+		return new GridFSChunkInputStream(chunks, chunkReadPool, file.getObjectId(), file.getLength(), file.getChunkSize(), CHUNK_READ_SIZE,
+				CHUNK_READS_AHEAD);
 	}
 
 	@Override
 	public void storeSourceDocument(String uniqueId, long timeStamp, Document document, List<Metadata> metaDataList) throws Exception {
-		MongoDatabase db = mongoClient.getDatabase(database);
-		MongoCollection<Document> coll = db.getCollection(rawCollectionName);
+		MongoCollection<Document> coll = getSourceCollection();
+		Document mongoDocument = toMongoDocument(uniqueId, timeStamp, document, metaDataList);
+
+		Document query = new Document(MongoConstants.StandardFields._ID, uniqueId);
+
+		coll.replaceOne(query, mongoDocument, new UpdateOptions().upsert(true));
+	}
+
+	@Override
+	public Map<String, SourceDocumentResult> storeSourceDocuments(List<SourceDocument> sourceDocuments) throws Exception {
+		if (sourceDocuments.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		//an unordered bulk write does not apply writes to the same id in order so only the last one is sent
+		LinkedHashMap<String, SourceDocument> uniqueIdToDocument = new LinkedHashMap<>();
+		for (SourceDocument sourceDocument : sourceDocuments) {
+			uniqueIdToDocument.put(sourceDocument.getUniqueId(), sourceDocument);
+		}
+
+		List<String> uniqueIds = new ArrayList<>(uniqueIdToDocument.size());
+		List<ReplaceOneModel<Document>> writes = new ArrayList<>(uniqueIdToDocument.size());
+		for (SourceDocument sourceDocument : uniqueIdToDocument.values()) {
+			String uniqueId = sourceDocument.getUniqueId();
+			Document mongoDocument = toMongoDocument(uniqueId, sourceDocument.getTimestamp(), sourceDocument.getDocument(), sourceDocument.getMetadataList());
+			Document query = new Document(MongoConstants.StandardFields._ID, uniqueId);
+
+			uniqueIds.add(uniqueId);
+			writes.add(new ReplaceOneModel<>(query, mongoDocument, new UpdateOptions().upsert(true)));
+		}
+
+		BulkWriteResult bulkWriteResult;
+		Map<Integer, String> writeErrors = new HashMap<>();
+		try {
+			bulkWriteResult = getSourceCollection().bulkWrite(writes, new BulkWriteOptions().ordered(false));
+		}
+		catch (MongoBulkWriteException e) {
+			//a write concern error is not tied to a document so it fails the batch the same way it fails a single store
+			if (e.getWriteConcernError() != null) {
+				throw e;
+			}
+			bulkWriteResult = e.getWriteResult();
+			for (BulkWriteError writeError : e.getWriteErrors()) {
+				writeErrors.put(writeError.getIndex(), writeError.getMessage());
+			}
+		}
+
+		Map<Integer, BulkWriteUpsert> upserts = new HashMap<>();
+		if (bulkWriteResult.wasAcknowledged()) {
+			for (BulkWriteUpsert upsert : bulkWriteResult.getUpserts()) {
+				upserts.put(upsert.getIndex(), upsert);
+			}
+		}
+
+		Map<String, SourceDocumentResult> results = new LinkedHashMap<>();
+		for (int i = 0; i < uniqueIds.size(); i++) {
+			String uniqueId = uniqueIds.get(i);
+			SourceDocumentResult.Status status;
+			if (writeErrors.containsKey(i)) {
+				status = SourceDocumentResult.Status.FAILED;
+			}
+			else if (!bulkWriteResult.wasAcknowledged()) {
+				status = SourceDocumentResult.Status.UNACKNOWLEDGED;
+			}
+			else if (upserts.containsKey(i)) {
+				status = SourceDocumentResult.Status.INSERTED;
+			}
+			else {
+				status = SourceDocumentResult.Status.REPLACED;
+			}
+			results.put(uniqueId, new SourceDocumentResult(uniqueId, status, writeErrors.get(i)));
+		}
+		return results;
+	}
+
+	private Document toMongoDocument(String uniqueId, long timeStamp, Document document, List<Metadata> metaDataList) {
 		Document mongoDocument = new Document();
 		mongoDocument.putAll(document);
 
@@ -112,68 +274,150 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 		mongoDocument.put(TIMESTAMP, timeStamp);
 		mongoDocument.put(MongoConstants.StandardFields._ID, uniqueId);
-
-		Document query = new Document(MongoConstants.StandardFields._ID, uniqueId);
-
-		coll.replaceOne(query, mongoDocument, new UpdateOptions().upsert(true));
+		return mongoDocument;
 	}
 
 	@Override
 	public Lumongo.ResultDocument getSourceDocument(String uniqueId, FetchType fetchType) throws Exception {
+		return getSourceDocument(uniqueId, fetchType, Collections.emptyList(), Collections.emptyList());
+	}
+
+	@Override
+	public ResultDocument getSourceDocument(String uniqueId, FetchType fetchType, Collection<String> fieldsToReturn, Collection<String> fieldsToMask)
+			throws Exception {
 		if (!FetchType.NONE.equals(fetchType)) {
 			MongoDatabase db = mongoClient.getDatabase(database);
 			MongoCollection<Document> coll = db.getCollection(rawCollectionName);
 			Document search = new Document(MongoConstants.StandardFields._ID, uniqueId);
 
-			Document result = coll.find(search).first();
+			Document result = coll.find(search).projection(getProjection(fetchType, fieldsToReturn, fieldsToMask)).first();
 
 			if (null != result) {
+				return toResultDocument(uniqueId, result, fetchType, fieldsToReturn, fieldsToMask);
+			}
+		}
+		return null;
+	}
 
-				long timestamp = (long) result.remove(TIMESTAMP);
+	@Override
+	public Map<String, ResultDocument> getSourceDocuments(Collection<String> uniqueIds, FetchType fetchType, Collection<String> fieldsToReturn,
+			Collection<String> fieldsToMask) throws Exception {
+		if (FetchType.NONE.equals(fetchType) || uniqueIds.isEmpty()) {
+			return Collections.emptyMap();
+		}
 
-				ResultDocument.Builder dBuilder = ResultDocument.newBuilder();
-				dBuilder.setUniqueId(uniqueId);
-				dBuilder.setTimestamp(timestamp);
+		MongoDatabase db = mongoClient.getDatabase(database);
+		MongoCollection<Document> coll = db.getCollection(rawCollectionName);
+		Document projection = getProjection(fetchType, fieldsToReturn, fieldsToMask);
 
-				if (result.containsKey(METADATA)) {
-					Document metadata = (Document) result.remove(METADATA);
-					for (String key : metadata.keySet()) {
-						dBuilder.addMetadata(Metadata.newBuilder().setKey(key).setValue((String) metadata.get(key)));
-					}
-				}
+		List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(uniqueIds));
 
-				if (FetchType.FULL.equals(fetchType)) {
-					BasicDBObject resultObj = new BasicDBObject();
-					resultObj.putAll(result);
+		Map<String, Document> found = new HashMap<>();
+		for (int start = 0; start < distinctIds.size(); start += MAX_IDS_PER_FETCH) {
+			List<String> batch = distinctIds.subList(start, Math.min(start + MAX_IDS_PER_FETCH, distinctIds.size()));
+			Document search = new Document(MongoConstants.StandardFields._ID, new Document(MongoConstants.Operators.IN, batch));
+			for (Document result : coll.find(search).projection(projection)) {
+				found.put((String) result.get(MongoConstants.StandardFields._ID), result);
+			}
+		}
 
-					ByteString document = ByteString.copyFrom(BSON.encode(resultObj));
-					dBuilder.setDocument(document);
+		Map<String, ResultDocument> resultDocuments = new LinkedHashMap<>();
+		for (String uniqueId : distinctIds) {
+			Document result = found.get(uniqueId);
+			if (result != null) {
+				resultDocuments.put(uniqueId, toResultDocument(uniqueId, result, fetchType, fieldsToReturn, fieldsToMask));
+			}
+		}
+		return resultDocuments;
+	}
 
-				}
+	/**
+	 * Builds the projection that leaves unselected fields on the server.  The id is always returned to match results to
+	 * the requested unique ids and is removed from the document afterwards when it was not selected.
+	 * @return the projection or null to return every field
+	 */
+	private Document getProjection(FetchType fetchType, Collection<String> fieldsToReturn, Collection<String> fieldsToMask) {
+		if (!FetchType.FULL.equals(fetchType)) {
+			Document projection = new Document();
+			projection.put(TIMESTAMP, 1);
+			projection.put(METADATA, 1);
+			return projection;
+		}
 
-				dBuilder.setIndexName(indexName);
+		if (!fieldsToReturn.isEmpty()) {
+			Document projection = new Document();
+			projection.put(TIMESTAMP, 1);
+			projection.put(METADATA, 1);
+			for (String field : fieldsToReturn) {
+				//fields are selected by top level name, a dotted name never matches one
+				if (!field.contains(".") && !fieldsToMask.contains(field)) {
+					projection.put(field, 1);
+				}
+			}
+			return projection;
+		}
 
-				return dBuilder.build();
+		if (!fieldsToMask.isEmpty()) {
+			Document projection = new Document();
+			for (String field : fieldsToMask) {
+				if (!field.contains(".") && !MongoConstants.StandardFields._ID.equals(field) && !TIMESTAMP.equals(field) && !METADATA.equals(field)) {
+					projection.put(field, 0);
+				}
 			}
+			return projection.isEmpty() ? null : projection;
 		}
+
 		return null;
 	}
 
+	private ResultDocument toResultDocument(String uniqueId, Document result, FetchType fetchType, Collection<String> fieldsToReturn,
+			Collection<String> fieldsToMask) {
+		long timestamp = (long) result.remove(TIMESTAMP);
+
+		String idField = MongoConstants.StandardFields._ID;
+		if ((!fieldsToReturn.isEmpty() && !fieldsToReturn.contains(idField)) || fieldsToMask.contains(idField)) {
+			result.remove(idField);
+		}
+
+		ResultDocument.Builder dBuilder = ResultDocument.newBuilder();
+		dBuilder.setUniqueId(uniqueId);
+		dBuilder.setTimestamp(timestamp);
+
+		if (result.containsKey(METADATA)) {
+			Document metadata = (Document) result.remove(METADATA);
+			for (String key : metadata.keySet()) {
+				dBuilder.addMetadata(Metadata.newBuilder().setKey(key).setValue((String) metadata.get(key)));
+			}
+		}
+
+		if (FetchType.FULL.equals(fetchType)) {
+			BasicDBObject resultObj = new BasicDBObject();
+			resultObj.putAll(result);
+
+			ByteString document = ByteString.copyFrom(BSON.encode(resultObj));
+			dBuilder.setDocument(document);
+
+		}
+
+		dBuilder.setIndexName(indexName);
+
+		return dBuilder.build();
+	}
+
 	@Override
 	public void deleteSourceDocument(String uniqueId) throws Exception {
-		MongoDatabase db = mongoClient.getDatabase(database);
-		MongoCollection<Document> coll = db.getCollection(rawCollectionName);
+		MongoCollection<Document> coll = getSourceCollection();
 		Document search = new Document(MongoConstants.StandardFields._ID, uniqueId);
 		coll.deleteOne(search);
 	}
 
 	@Override
 	public void deleteAllDocuments() {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		gridFS.drop();
+		gridFSBucket = createGridFSBucket();
 
-		MongoDatabase db = mongoClient.getDatabase(database);
-		MongoCollection<Document> coll = db.getCollection(rawCollectionName);
+		MongoCollection<Document> coll = getSourceCollection();
 		coll.deleteMany(new Document());
 	}
 
@@ -181,12 +425,13 @@ public class MongoDocumentStorage implements DocumentStorage {
 	public void drop() {
 		MongoDatabase db = mongoClient.getDatabase(database);
 		db.drop();
+		gridFSBucket = createGridFSBucket();
 	}
 
 	@Override
 	public void storeAssociatedDocument(String uniqueId, String fileName, InputStream is, boolean compress, long timestamp, Map<String, String> metadataMap)
 			throws Exception {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 
 		if (compress) {
 			is = new DeflaterInputStream(is);
@@ -210,7 +455,7 @@ public class MongoDocumentStorage implements DocumentStorage {
 		metadata.put(DOCUMENT_UNIQUE_ID_KEY, uniqueId);
 		metadata.put(FILE_UNIQUE_ID_KEY, getGridFsId(uniqueId, fileName));
 
-		return new GridFSUploadOptions().chunkSizeBytes(1024).metadata(metadata);
+		return new GridFSUploadOptions().chunkSizeBytes(chunkSize).metadata(metadata);
 	}
 
 	@Override
@@ -230,12 +475,12 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 	@Override
 	public List<AssociatedDocument> getAssociatedDocuments(String uniqueId, FetchType fetchType) throws Exception {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		List<AssociatedDocument> assocDocs = new ArrayList<>();
 		if (!FetchType.NONE.equals(fetchType)) {
 			GridFSFindIterable files = gridFS.find(new Document(ASSOCIATED_METADATA + "." + DOCUMENT_UNIQUE_ID_KEY, uniqueId));
 			for (GridFSFile file : files) {
-				AssociatedDocument ad = loadGridFSToAssociatedDocument(gridFS, file, fetchType);
+				AssociatedDocument ad = loadGridFSToAssociatedDocument(file, fetchType);
 				assocDocs.add(ad);
 			}
 
@@ -249,15 +494,14 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 	@Override
 	public InputStream getAssociatedDocumentStream(String uniqueId, String fileName) {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		GridFSFile file = gridFS.find(new Document(ASSOCIATED_METADATA + "." + FILE_UNIQUE_ID_KEY, getGridFsId(uniqueId, fileName))).first();
 
 		if (file == null) {
 			return null;
 		}
 
-		InputStream is = gridFS.openDownloadStream(file.getObjectId());
-		;
+		InputStream is = openChunkStream(file);
 
 		Document metadata = file.getMetadata();
 		if (metadata.containsKey(COMPRESSED_FLAG)) {
@@ -272,17 +516,17 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 	@Override
 	public AssociatedDocument getAssociatedDocument(String uniqueId, String fileName, FetchType fetchType) throws Exception {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		if (!FetchType.NONE.equals(fetchType)) {
 			GridFSFile file = gridFS.find(new Document(ASSOCIATED_METADATA + "." + FILE_UNIQUE_ID_KEY, getGridFsId(uniqueId, fileName))).first();
 			if (null != file) {
-				return loadGridFSToAssociatedDocument(gridFS, file, fetchType);
+				return loadGridFSToAssociatedDocument(file, fetchType);
 			}
 		}
 		return null;
 	}
 
-	private AssociatedDocument loadGridFSToAssociatedDocument(GridFSBucket gridFS, GridFSFile file, FetchType fetchType) throws IOException {
+	private AssociatedDocument loadGridFSToAssociatedDocument(GridFSFile file, FetchType fetchType) throws IOException {
 		AssociatedDocument.Builder aBuilder = AssociatedDocument.newBuilder();
 		aBuilder.setFilename(file.getFilename());
 		Document metadata = file.getMetadata();
@@ -304,8 +548,10 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 		if (FetchType.FULL.equals(fetchType)) {
 
-			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-			gridFS.downloadToStream(file.getObjectId(), byteArrayOutputStream);
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream((int) file.getLength());
+			try (InputStream is = openChunkStream(file)) {
+				StreamHelper.copyStream(is, byteArrayOutputStream);
+			}
 			byte[] bytes = byteArrayOutputStream.toByteArray();
 			if (null != bytes) {
 				if (compressed) {
@@ -321,7 +567,7 @@ public class MongoDocumentStorage implements DocumentStorage {
 	public void getAssociatedDocuments(OutputStream outputstream, Document filter) throws IOException {
 		Charset charset = Charset.forName("UTF-8");
 
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		GridFSFindIterable gridFSFiles = gridFS.find(filter);
 		outputstream.write("{\n".getBytes(charset));
 		outputstream.write(" \"associatedDocs\": [\n".getBytes(charset));
@@ -368,7 +614,7 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 	@Override
 	public List<String> getAssociatedFilenames(String uniqueId) throws Exception {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		ArrayList<String> fileNames = new ArrayList<>();
 		gridFS.find(new Document(ASSOCIATED_METADATA + "." + DOCUMENT_UNIQUE_ID_KEY, uniqueId))
 				.forEach((Consumer<com.mongodb.client.gridfs.model.GridFSFile>) gridFSFile -> fileNames.add(gridFSFile.getFilename()));
@@ -378,7 +624,7 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 	@Override
 	public void deleteAssociatedDocument(String uniqueId, String fileName) {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		gridFS.find(new Document(ASSOCIATED_METADATA + "." + FILE_UNIQUE_ID_KEY, getGridFsId(uniqueId, fileName)))
 				.forEach((Block<com.mongodb.client.gridfs.model.GridFSFile>) gridFSFile -> gridFS.delete(gridFSFile.getObjectId()));
 
@@ -386,7 +632,7 @@ public class MongoDocumentStorage implements DocumentStorage {
 
 	@Override
 	public void deleteAssociatedDocuments(String uniqueId) {
-		GridFSBucket gridFS = createGridFSConnection();
+		GridFSBucket gridFS = getGridFSBucket();
 		gridFS.find(new Document(ASSOCIATED_METADATA + "." + DOCUMENT_UNIQUE_ID_KEY, uniqueId))
 				.forEach((Block<com.mongodb.client.gridfs.model.GridFSFile>) gridFSFile -> gridFS.delete(gridFSFile.getObjectId()));
 	}
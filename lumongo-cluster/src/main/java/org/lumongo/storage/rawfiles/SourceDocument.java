@@ -0,0 +1,44 @@
+package org.lumongo.storage.rawfiles;
+
+import org.bson.Document;
+import org.lumongo.cluster.message.Lumongo.Metadata;
+
+import java.util.List;
+
+/**
+ * Source document to store with {@link DocumentStorage#storeSourceDocuments(List)}
+ */
+public class SourceDocument {
+	private final String uniqueId;
+	private final long timestamp;
+	private final Document document;
+	private final List<Metadata> metadataList;
+
+	public SourceDocument(String uniqueId, long timestamp, Document document, List<Metadata> metadataList) {
+		this.uniqueId = uniqueId;
+		this.timestamp = timestamp;
+		this.document = document;
+		this.metadataList = metadataList;
+	}
+
+	public String getUniqueId() {
+		return uniqueId;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Document getDocument() {
+		return document;
+	}
+
+	public List<Metadata> getMetadataList() {
+		return metadataList;
+	}
+
+	@Override
+	public String toString() {
+		return "SourceDocument{" + "uniqueId='" + uniqueId + '\'' + ", timestamp=" + timestamp + '}';
+	}
+}
@@ -0,0 +1,53 @@
+package org.lumongo.storage.rawfiles;
+
+import java.util.List;
+
+/**
+ * Result of one unique id stored with {@link DocumentStorage#storeSourceDocuments(List)}
+ */
+public class SourceDocumentResult {
+
+	public enum Status {
+		INSERTED,
+		REPLACED,
+		/**
+		 * The write was sent with an unacknowledged write concern so it is not known if it was stored
+		 */
+		UNACKNOWLEDGED,
+		FAILED
+	}
+
+	private final String uniqueId;
+	private final Status status;
+	private final String errorMessage;
+
+	public SourceDocumentResult(String uniqueId, Status status, String errorMessage) {
+		this.uniqueId = uniqueId;
+		this.status = status;
+		this.errorMessage = errorMessage;
+	}
+
+	public String getUniqueId() {
+		return uniqueId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isFailed() {
+		return Status.FAILED.equals(status);
+	}
+
+	/**
+	 * @return the error message of a failed store, null otherwise
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	@Override
+	public String toString() {
+		return "SourceDocumentResult{" + "uniqueId='" + uniqueId + '\'' + ", status=" + status + ", errorMessage='" + errorMessage + '\'' + '}';
+	}
+}
@@ -0,0 +1,145 @@
+package org.lumongo.test.cluster;
+
+import org.lumongo.server.index.DataDirectoryPlacement;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * Places segments in temporary data directories with simulated free space
+ */
+public class DataDirectoryPlacementTest {
+
+	private static final List<String> SUFFIXES = Arrays.asList("_idx", "_facets");
+
+	private static final long PLENTY = 100L * 1024 * 1024 * 1024;
+	private static final long MORE = 200L * 1024 * 1024 * 1024;
+	private static final long LITTLE = 1024 * 1024;
+
+	/**
+	 * Reports the usable space set for each data directory instead of the space of the file store
+	 */
+	private static class TestPlacement extends DataDirectoryPlacement {
+		private final Map<Path, Long> usableSpace = new HashMap<>();
+
+		TestPlacement(List<Path> dataDirectories) {
+			super(dataDirectories, SUFFIXES);
+		}
+
+		TestPlacement setUsableSpace(Path dataDirectory, long usable) {
+			usableSpace.put(dataDirectory, usable);
+			return this;
+		}
+
+		@Override
+		protected long getUsableSpace(Path dataDirectory) {
+			return usableSpace.getOrDefault(dataDirectory, PLENTY);
+		}
+	}
+
+	private Path root;
+	private Path first;
+	private Path second;
+
+	@BeforeMethod
+	public void createDirectories() throws IOException {
+		root = Files.createTempDirectory("dataDirectoryPlacementTest");
+		first = Files.createDirectory(root.resolve("first"));
+		second = Files.createDirectory(root.resolve("second"));
+	}
+
+	@AfterMethod
+	public void deleteDirectories() throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void chooseByFreeSpace() throws IOException {
+		TestPlacement placement = new TestPlacement(Arrays.asList(first, second)).setUsableSpace(first, PLENTY).setUsableSpace(second, MORE);
+
+		//no segments open yet so the one with the most free space wins
+		assertEquals(second, placement.open("index_0"));
+		//fewest open segments among the ones with enough space
+		assertEquals(first, placement.open("index_1"));
+		assertEquals(second, placement.open("index_2"));
+
+		//a closed segment no longer counts
+		placement.close("index_0");
+		placement.close("index_2");
+		assertEquals(second, placement.open("index_3"));
+
+		//low on space is only used when every data directory is
+		placement.setUsableSpace(second, LITTLE);
+		assertEquals(first, placement.open("index_4"));
+		assertEquals(first, placement.open("index_5"));
+
+		placement.setUsableSpace(first, LITTLE / 2);
+		assertEquals(second, placement.open("index_6"));
+	}
+
+	@Test
+	public void existingSegmentStaysPut() throws IOException {
+		Files.createDirectory(first.resolve("index_0" + SUFFIXES.get(1)));
+
+		//found again after a restart even though the other data directory has more space and fewer segments
+		TestPlacement placement = new TestPlacement(Arrays.asList(first, second)).setUsableSpace(first, LITTLE).setUsableSpace(second, MORE);
+		assertEquals(first, placement.find("index_0"));
+		assertEquals(first, placement.open("index_0"));
+		assertEquals(second, placement.open("index_1"));
+
+		//a closed segment keeps its placement, a removed one is placed again
+		placement.close("index_0");
+		assertEquals(first, placement.open("index_0"));
+		placement.remove("index_1");
+		placement.setUsableSpace(first, MORE).setUsableSpace(second, LITTLE);
+		assertEquals(first, placement.open("index_1"));
+	}
+
+	@Test
+	public void missingDirectoryIsCreated() throws IOException {
+		Path missing = root.resolve("missing").resolve("data");
+
+		TestPlacement placement = new TestPlacement(Arrays.asList(first, missing)).setUsableSpace(missing, MORE);
+		assertEquals(missing, placement.open("index_0"));
+		assertTrue("Expected the data directory to be created", Files.isDirectory(missing));
+	}
+
+	@Test
+	public void unusableDirectoryIsSkipped() throws IOException {
+		//a file where the data directory should be cannot hold segments
+		Path file = Files.createFile(root.resolve("file"));
+		Path underFile = file.resolve("data");
+
+		TestPlacement placement = new TestPlacement(Arrays.asList(file, underFile, second)).setUsableSpace(file, MORE).setUsableSpace(underFile, MORE);
+		assertEquals(second, placement.open("index_0"));
+
+		placement = new TestPlacement(Arrays.asList(file, underFile));
+		try {
+			placement.open("index_0");
+			fail("Expected no data directory to be usable");
+		}
+		catch (IOException e) {
+			//expected
+		}
+	}
+
+}
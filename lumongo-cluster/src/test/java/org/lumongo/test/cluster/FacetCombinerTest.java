@@ -0,0 +1,244 @@
+package org.lumongo.test.cluster;
+
+import org.lumongo.cluster.message.Lumongo.CountRequest;
+import org.lumongo.cluster.message.Lumongo.FacetCount;
+import org.lumongo.cluster.message.Lumongo.FacetGroup;
+import org.lumongo.cluster.message.Lumongo.LMFacet;
+import org.lumongo.server.search.FacetCombiner;
+import org.lumongo.server.search.FacetCountResult;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Combines facet counts of segments simulated the way a segment returns them, its top labels and the count of the last
+ * label returned when it left labels out, and checks the combined counts against the true counts
+ */
+public class FacetCombinerTest {
+
+	private static CountRequest getCountRequest(int maxFacets, int segmentFacets) {
+		return CountRequest.newBuilder().setFacetField(LMFacet.newBuilder().setLabel("journal")).setMaxFacets(maxFacets).setSegmentFacets(segmentFacets)
+				.build();
+	}
+
+	private static Map<String, Long> counts(Object... labelsAndCounts) {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (int i = 0; i < labelsAndCounts.length; i += 2) {
+			counts.put((String) labelsAndCounts[i], ((Number) labelsAndCounts[i + 1]).longValue());
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the top segment facets labels of a segment, all of them for segment facets of 0
+	 */
+	private static FacetGroup getSegmentFacets(CountRequest countRequest, Map<String, Long> segmentCounts) {
+		List<FacetCountResult> sorted = new ArrayList<>();
+		segmentCounts.forEach((facet, count) -> sorted.add(new FacetCountResult(facet, count)));
+		sorted.sort(null);
+
+		int numOfFacets = countRequest.getSegmentFacets() == 0 ? sorted.size() : countRequest.getSegmentFacets();
+
+		FacetGroup.Builder fg = FacetGroup.newBuilder().setCountRequest(countRequest);
+		for (FacetCountResult facet : sorted.subList(0, Math.min(numOfFacets, sorted.size()))) {
+			fg.addFacetCount(FacetCount.newBuilder().setFacet(facet.getFacet()).setCount(facet.getCount()));
+		}
+		if (sorted.size() > numOfFacets) {
+			fg.setPossibleMissing(true);
+			fg.setMaxValuePossibleMissing(sorted.get(numOfFacets - 1).getCount());
+		}
+		return fg.build();
+	}
+
+	private static FacetCombiner combine(CountRequest countRequest, List<Map<String, Long>> segments) {
+		FacetCombiner facetCombiner = new FacetCombiner(countRequest, segments.size());
+		for (int i = 0; i < segments.size(); i++) {
+			facetCombiner.addSegmentFacets(i, getSegmentFacets(countRequest, segments.get(i)));
+		}
+		return facetCombiner;
+	}
+
+	/**
+	 * Answers the refinements from the counts of the segments the way a segment counts the labels it is asked for
+	 */
+	private static FacetGroup refine(FacetCombiner facetCombiner, List<Map<String, Long>> segments) {
+		for (Map.Entry<Integer, List<String>> refinement : facetCombiner.getRefinements().entrySet()) {
+			Map<String, Long> segmentCounts = segments.get(refinement.getKey());
+			FacetGroup.Builder fg = FacetGroup.newBuilder().setCountRequest(facetCombiner.getCountRequest());
+			for (String facet : refinement.getValue()) {
+				fg.addFacetCount(FacetCount.newBuilder().setFacet(facet).setCount(segmentCounts.getOrDefault(facet, 0L)));
+			}
+			facetCombiner.addRefinedFacets(refinement.getKey(), fg.build());
+		}
+		return facetCombiner.getExactFacetGroup();
+	}
+
+	private static Map<String, Long> getTotals(List<Map<String, Long>> segments) {
+		Map<String, Long> totals = new HashMap<>();
+		for (Map<String, Long> segment : segments) {
+			segment.forEach((facet, count) -> totals.merge(facet, count, Long::sum));
+		}
+		return totals;
+	}
+
+	/**
+	 * Checks the bounds of a combined facet group hold for the true counts, an exact group must hold the true top labels
+	 */
+	private static void assertBounds(FacetGroup fg, Map<String, Long> totals) {
+		Set<String> returned = new HashSet<>();
+		for (FacetCount fc : fg.getFacetCountList()) {
+			long total = totals.get(fc.getFacet());
+			assertTrue("Expected count of <" + fc.getFacet() + "> to be a lower bound of <" + total + ">", fc.getCount() <= total);
+			assertTrue("Expected count with error of <" + fc.getFacet() + "> to be an upper bound of <" + total + ">", fc.getCount() + fc.getMaxError() >= total);
+			returned.add(fc.getFacet());
+		}
+
+		int maxFacets = fg.getCountRequest().getMaxFacets();
+		long minCountReturned = fg.getFacetCount(fg.getFacetCountCount() - 1).getCount();
+		for (Map.Entry<String, Long> total : totals.entrySet()) {
+			if (returned.contains(total.getKey())) {
+				continue;
+			}
+			if (fg.getPossibleMissing()) {
+				assertTrue("Expected <" + total.getKey() + "> to count at most the max value possible missing", total.getValue() <= fg.getMaxValuePossibleMissing());
+			}
+			else {
+				assertEquals("Expected only labels left out by max facets to be missing", maxFacets, fg.getFacetCountCount());
+				assertTrue("Expected <" + total.getKey() + "> to count at most the last label returned", total.getValue() <= minCountReturned);
+			}
+		}
+
+		if (fg.getAccuracy() == FacetGroup.Accuracy.EXACT) {
+			assertFalse("Expected no label possibly missing from an exact group", fg.getPossibleMissing());
+			for (FacetCount fc : fg.getFacetCountList()) {
+				assertEquals("Expected the true count of <" + fc.getFacet() + ">", (long) totals.get(fc.getFacet()), fc.getCount());
+			}
+		}
+	}
+
+	@Test
+	public void skewedSegments() {
+		CountRequest countRequest = getCountRequest(2, 2);
+		//d is the top label but never in the top labels of a segment
+		List<Map<String, Long>> segments = new ArrayList<>();
+		segments.add(counts("a", 50, "b", 40, "d", 30, "e", 1));
+		segments.add(counts("x", 50, "y", 45, "d", 30, "e", 1));
+		segments.add(counts("z", 50, "w", 45, "d", 30, "e", 1));
+		Map<String, Long> totals = getTotals(segments);
+
+		FacetCombiner facetCombiner = combine(countRequest, segments);
+		FacetGroup fg = facetCombiner.getFacetGroup();
+		assertBounds(fg, totals);
+		assertTrue("Expected a label to be possibly missing", fg.getPossibleMissing());
+		assertEquals(FacetGroup.Accuracy.BOUNDED, fg.getAccuracy());
+
+		FacetGroup exact = refine(facetCombiner, segments);
+		assertBounds(exact, totals);
+		assertTrue("Expected the label no segment returned to be possibly missing", exact.getPossibleMissing());
+		assertEquals(FacetGroup.Accuracy.BOUNDED, exact.getAccuracy());
+	}
+
+	@Test
+	public void tiesAtCutoff() {
+		CountRequest countRequest = getCountRequest(2, 3);
+		List<Map<String, Long>> segments = new ArrayList<>();
+		segments.add(counts("a", 10, "b", 5, "c", 4, "d", 1));
+		segments.add(counts("a", 10, "c", 5, "b", 4, "d", 1));
+		Map<String, Long> totals = getTotals(segments);
+
+		FacetCombiner facetCombiner = combine(countRequest, segments);
+		FacetGroup fg = facetCombiner.getFacetGroup();
+		assertBounds(fg, totals);
+		//b and c tie at the cutoff, d can count at most the sum of the last counts returned which is less
+		assertEquals(FacetGroup.Accuracy.EXACT, fg.getAccuracy());
+		assertEquals("b", fg.getFacetCount(1).getFacet());
+		assertEquals(9, fg.getFacetCount(1).getCount());
+		assertTrue("Expected no refinements", facetCombiner.getRefinements().isEmpty());
+
+		FacetGroup exact = facetCombiner.getExactFacetGroup();
+		assertBounds(exact, totals);
+		assertEquals(FacetGroup.Accuracy.EXACT, exact.getAccuracy());
+		assertEquals("b", exact.getFacetCount(1).getFacet());
+	}
+
+	@Test
+	public void allSegmentFacets() {
+		CountRequest countRequest = getCountRequest(2, 0);
+		List<Map<String, Long>> segments = new ArrayList<>();
+		segments.add(counts("a", 5, "b", 4, "c", 3));
+		segments.add(counts("c", 6, "b", 2, "d", 1));
+		Map<String, Long> totals = getTotals(segments);
+
+		FacetCombiner facetCombiner = combine(countRequest, segments);
+		assertTrue("Expected every segment to return all of its labels", facetCombiner.isComplete());
+		FacetGroup fg = facetCombiner.getFacetGroup();
+		assertBounds(fg, totals);
+		assertEquals(FacetGroup.Accuracy.EXACT, fg.getAccuracy());
+		assertEquals("c", fg.getFacetCount(0).getFacet());
+		assertEquals(9, fg.getFacetCount(0).getCount());
+		assertTrue("Expected no refinements", facetCombiner.getRefinements().isEmpty());
+	}
+
+	@Test
+	public void segmentWithCutoffZero() {
+		CountRequest countRequest = getCountRequest(2, 2);
+		FacetCombiner facetCombiner = new FacetCombiner(countRequest, 2);
+		facetCombiner.addSegmentFacets(0, getSegmentFacets(countRequest, counts("a", 3, "b", 2)));
+		//left labels out but none of them can have a count
+		facetCombiner.addSegmentFacets(1, FacetGroup.newBuilder().setCountRequest(countRequest)
+				.addFacetCount(FacetCount.newBuilder().setFacet("a").setCount(1)).setPossibleMissing(true).setMaxValuePossibleMissing(0).build());
+
+		FacetGroup fg = facetCombiner.getFacetGroup();
+		assertFalse("Expected no label possibly missing", fg.getPossibleMissing());
+		assertEquals(FacetGroup.Accuracy.EXACT, fg.getAccuracy());
+		assertEquals(4, fg.getFacetCount(0).getCount());
+		assertEquals(0, fg.getFacetCount(1).getMaxError());
+		assertTrue("Expected the segment with cutoff 0 not to be asked", facetCombiner.getRefinements().isEmpty());
+	}
+
+	@Test
+	public void singleTruncatedSegment() {
+		CountRequest countRequest = getCountRequest(2, 2);
+		List<Map<String, Long>> segments = new ArrayList<>();
+		segments.add(counts("a", 5, "b", 4, "c", 3, "d", 3));
+		Map<String, Long> totals = getTotals(segments);
+
+		FacetCombiner facetCombiner = combine(countRequest, segments);
+		assertFalse("Expected the segment to leave labels out", facetCombiner.isComplete());
+		FacetGroup fg = facetCombiner.getFacetGroup();
+		assertBounds(fg, totals);
+		assertEquals(FacetGroup.Accuracy.EXACT, fg.getAccuracy());
+	}
+
+	@Test
+	public void refinementReordersTopLabels() {
+		CountRequest countRequest = getCountRequest(1, 1);
+		List<Map<String, Long>> segments = new ArrayList<>();
+		segments.add(counts("a", 10, "b", 1));
+		segments.add(counts("b", 9, "a", 8));
+		segments.add(counts("b", 9, "a", 2));
+		Map<String, Long> totals = getTotals(segments);
+
+		FacetCombiner facetCombiner = combine(countRequest, segments);
+		FacetGroup fg = facetCombiner.getFacetGroup();
+		assertBounds(fg, totals);
+		assertEquals("b", fg.getFacetCount(0).getFacet());
+
+		FacetGroup exact = refine(facetCombiner, segments);
+		assertBounds(exact, totals);
+		assertEquals("a", exact.getFacetCount(0).getFacet());
+		assertEquals(20, exact.getFacetCount(0).getCount());
+		assertEquals(0, exact.getFacetCount(0).getMaxError());
+	}
+
+}
@@ -0,0 +1,132 @@
+package org.lumongo.test.cluster;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.lumongo.server.search.FilterCache;
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Searches with a filter clause the way a segment does and checks when the filter cache stores, serves and releases the
+ * doc id sets of the filter
+ */
+public class FilterCacheTest {
+
+	//lucene only caches leaves with at least 10000 docs
+	private static final int DOC_COUNT = 12000;
+	private static final int CATEGORIES = 10;
+
+	/**
+	 * Readers are opened from the directory rather than the writer so the leaf is closed with its last reader
+	 */
+	private static Directory createIndex() throws Exception {
+		Directory directory = new RAMDirectory();
+		try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (int i = 0; i < DOC_COUNT; i++) {
+				Document doc = new Document();
+				doc.add(new StringField("category", "c" + (i % CATEGORIES), Field.Store.NO));
+				w.addDocument(doc);
+			}
+			w.forceMerge(1);
+		}
+		return directory;
+	}
+
+	private static IndexSearcher getSearcher(DirectoryReader reader, FilterCache filterCache) {
+		IndexSearcher indexSearcher = new IndexSearcher(reader);
+		indexSearcher.setQueryCache(filterCache);
+		indexSearcher.setQueryCachingPolicy(filterCache.getQueryCachingPolicy());
+		return indexSearcher;
+	}
+
+	private static Query getFilteredQuery() {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		builder.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+		builder.add(TermRangeQuery.newStringRange("category", "c0", "c4", true, true), BooleanClause.Occur.FILTER);
+		return builder.build();
+	}
+
+	private static void search(IndexSearcher indexSearcher) throws Exception {
+		assertEquals("Expected half of the docs", DOC_COUNT / 2, indexSearcher.search(getFilteredQuery(), 10).totalHits);
+	}
+
+	@Test
+	public void cachedOnceUsedOftenEnough() throws Exception {
+		FilterCache filterCache = new FilterCache("filterCacheTest", 0, 100, 1024 * 1024);
+		try (Directory directory = createIndex(); DirectoryReader reader = DirectoryReader.open(directory)) {
+			IndexSearcher indexSearcher = getSearcher(reader, filterCache);
+
+			//a range filter is costly so the usage tracking policy caches it from its second use
+			search(indexSearcher);
+			assertEquals("Expected a miss", 1, filterCache.getMisses());
+			assertEquals("Expected nothing cached after the first use", 0, filterCache.getCachedDocIdSets());
+
+			search(indexSearcher);
+			assertEquals("Expected a second miss", 2, filterCache.getMisses());
+			assertEquals("Expected the filter to be cached", 1, filterCache.getCachedDocIdSets());
+			assertEquals("Expected no hits yet", 0, filterCache.getHits());
+
+			for (int i = 0; i < 3; i++) {
+				search(indexSearcher);
+			}
+			assertEquals("Expected every later use to hit", 3, filterCache.getHits());
+			assertEquals("Expected no more misses", 2, filterCache.getMisses());
+			assertEquals("Expected the filter to be cached once", 1, filterCache.getCachedDocIdSetsTotal());
+
+			//every searcher of the leaf shares the cached doc id set
+			search(getSearcher(reader, filterCache));
+			assertEquals("Expected a hit from a new searcher", 4, filterCache.getHits());
+			assertTrue("Expected the cached doc id set to use memory", filterCache.getSizeInBytes() > 0);
+		}
+		finally {
+			filterCache.close();
+		}
+	}
+
+	@Test
+	public void releasedWhenSegmentCloses() throws Exception {
+		FilterCache filterCache = new FilterCache("filterCacheTest", 1, 100, 1024 * 1024);
+		try (Directory directory = createIndex()) {
+			DirectoryReader reader = DirectoryReader.open(directory);
+			IndexSearcher indexSearcher = getSearcher(reader, filterCache);
+			search(indexSearcher);
+			search(indexSearcher);
+			assertEquals("Expected the filter to be cached", 1, filterCache.getCachedDocIdSets());
+			long sizeInBytes = filterCache.getSizeInBytes();
+
+			//closing the last reader of the leaf drops its doc id sets
+			reader.close();
+			assertEquals("Expected the doc id set of the closed leaf to be released", 0, filterCache.getCachedDocIdSets());
+			assertTrue("Expected the memory of the doc id set to be released", filterCache.getSizeInBytes() < sizeInBytes);
+
+			//closing the cache drops the doc id sets of leaves that are still open
+			reader = DirectoryReader.open(directory);
+			indexSearcher = getSearcher(reader, filterCache);
+			search(indexSearcher);
+			search(indexSearcher);
+			assertEquals("Expected the filter to be cached again", 1, filterCache.getCachedDocIdSets());
+
+			filterCache.close();
+			assertEquals("Expected the cache to be empty once closed", 0, filterCache.getCachedDocIdSets());
+			reader.close();
+		}
+		finally {
+			filterCache.close();
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package org.lumongo.test.cluster;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.Document;
+import org.lumongo.cluster.message.Lumongo.AssociatedDocument;
+import org.lumongo.cluster.message.Lumongo.FetchType;
+import org.lumongo.cluster.message.Lumongo.Metadata;
+import org.lumongo.cluster.message.Lumongo.ResultDocument;
+import org.lumongo.storage.rawfiles.MongoDocumentStorage;
+import org.lumongo.storage.rawfiles.SourceDocument;
+import org.lumongo.storage.rawfiles.SourceDocumentResult;
+import org.lumongo.util.TestHelper;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Stores source documents one at a time and in batches and associated documents with several chunk sizes and fetches them back one at a time and in batches with projections
+ */
+public class MongoDocumentStorageTest {
+	private static final String INDEX_NAME = "documentStorageTest";
+	private static final String RAW_COLLECTION_NAME = "resultStorage";
+
+	private MongoClient mongo;
+	private MongoDocumentStorage documentStorage;
+
+	@BeforeClass
+	public void init() throws Exception {
+		mongo = TestHelper.getMongo();
+		mongo.dropDatabase(TestHelper.TEST_DATABASE_NAME);
+		documentStorage = new MongoDocumentStorage(mongo, INDEX_NAME, TestHelper.TEST_DATABASE_NAME, RAW_COLLECTION_NAME, false);
+
+		for (int i = 0; i < 5; i++) {
+			Document document = new Document("title", "title " + i).append("abstract", "abstract " + i).append("year", 2000 + i);
+			List<Metadata> metadata = Collections.singletonList(Metadata.newBuilder().setKey("source").setValue("source " + i).build());
+			documentStorage.storeSourceDocument("id-" + i, i, document, metadata);
+		}
+	}
+
+	@AfterClass
+	public void cleanUp() throws Exception {
+		documentStorage.drop();
+		documentStorage.close();
+		mongo.close();
+	}
+
+	private static BSONObject getDocument(ResultDocument rd) {
+		return BSON.decode(rd.getDocument().toByteArray());
+	}
+
+	@Test
+	public void batchMatchesSingleFetches() throws Exception {
+		List<String> uniqueIds = Arrays.asList("id-3", "missing", "id-0", "id-3", "id-4");
+		Map<String, ResultDocument> resultDocuments = documentStorage
+				.getSourceDocuments(uniqueIds, FetchType.FULL, Collections.emptyList(), Collections.emptyList());
+
+		assertEquals(Arrays.asList("id-3", "id-0", "id-4"), new ArrayList<>(resultDocuments.keySet()));
+		assertFalse("Expected a missing document to be left out", resultDocuments.containsKey("missing"));
+		assertNull(documentStorage.getSourceDocument("missing", FetchType.FULL));
+
+		for (Map.Entry<String, ResultDocument> entry : resultDocuments.entrySet()) {
+			ResultDocument single = documentStorage.getSourceDocument(entry.getKey(), FetchType.FULL);
+			assertEquals(single, entry.getValue());
+			assertEquals(INDEX_NAME, entry.getValue().getIndexName());
+		}
+
+		ResultDocument rd = resultDocuments.get("id-3");
+		assertEquals(3, rd.getTimestamp());
+		assertEquals("source 3", rd.getMetadata(0).getValue());
+		BSONObject document = getDocument(rd);
+		assertEquals("title 3", document.get("title"));
+		assertEquals(2003, document.get("year"));
+	}
+
+	@Test
+	public void batchWithProjection() throws Exception {
+		List<String> uniqueIds = Arrays.asList("id-1", "id-2", "missing");
+
+		Map<String, ResultDocument> returned = documentStorage.getSourceDocuments(uniqueIds, FetchType.FULL, Arrays.asList("title", "year"),
+				Collections.singletonList("year"));
+		assertEquals(2, returned.size());
+		for (ResultDocument rd : returned.values()) {
+			assertEquals(rd, documentStorage.getSourceDocument(rd.getUniqueId(), FetchType.FULL, Arrays.asList("title", "year"),
+					Collections.singletonList("year")));
+			BSONObject document = getDocument(rd);
+			assertEquals(Collections.singleton("title"), document.keySet());
+			assertEquals(1, rd.getMetadataCount());
+		}
+
+		Map<String, ResultDocument> masked = documentStorage
+				.getSourceDocuments(uniqueIds, FetchType.FULL, Collections.emptyList(), Collections.singletonList("abstract"));
+		BSONObject document = getDocument(masked.get("id-2"));
+		assertFalse("Expected the masked field to be left out", document.containsField("abstract"));
+		assertTrue("Expected the fields not masked to be returned", document.containsField("title") && document.containsField("year"));
+
+		Map<String, ResultDocument> meta = documentStorage.getSourceDocuments(uniqueIds, FetchType.META, Collections.emptyList(), Collections.emptyList());
+		assertEquals(2, meta.size());
+		ResultDocument rd = meta.get("id-1");
+		assertFalse("Expected no document for a meta fetch", rd.hasDocument());
+		assertEquals(1, rd.getTimestamp());
+		assertEquals("source 1", rd.getMetadata(0).getValue());
+
+		assertTrue(documentStorage.getSourceDocuments(uniqueIds, FetchType.NONE, Collections.emptyList(), Collections.emptyList()).isEmpty());
+	}
+
+	@Test
+	public void batchStore() throws Exception {
+		//a unique field gives a write error for one document of the batch
+		mongo.getDatabase(TestHelper.TEST_DATABASE_NAME).getCollection(RAW_COLLECTION_NAME)
+				.createIndex(new Document("isbn", 1), new IndexOptions().unique(true).sparse(true));
+		documentStorage.storeSourceDocument("isbn-holder", 0, new Document("isbn", "1234"), Collections.emptyList());
+
+		List<Metadata> noMetadata = Collections.emptyList();
+		List<SourceDocument> sourceDocuments = Arrays.asList(new SourceDocument("batch-0", 10, new Document("title", "first"), noMetadata),
+				new SourceDocument("id-0", 0, new Document("title", "title 0").append("abstract", "abstract 0").append("year", 2000),
+						Collections.singletonList(Metadata.newBuilder().setKey("source").setValue("source 0").build())),
+				new SourceDocument("batch-1", 11, new Document("title", "duplicate isbn").append("isbn", "1234"), noMetadata),
+				new SourceDocument("batch-0", 12, new Document("title", "second"), noMetadata),
+				new SourceDocument("batch-2", 13, new Document("title", "third"), noMetadata));
+
+		Map<String, SourceDocumentResult> results = documentStorage.storeSourceDocuments(sourceDocuments);
+		assertEquals(Arrays.asList("batch-0", "id-0", "batch-1", "batch-2"), new ArrayList<>(results.keySet()));
+		assertEquals(SourceDocumentResult.Status.INSERTED, results.get("batch-0").getStatus());
+		assertEquals(SourceDocumentResult.Status.REPLACED, results.get("id-0").getStatus());
+		assertEquals(SourceDocumentResult.Status.INSERTED, results.get("batch-2").getStatus());
+		assertTrue("Expected the duplicate isbn to fail", results.get("batch-1").isFailed());
+		assertTrue("Expected the write error message", results.get("batch-1").getErrorMessage() != null);
+		assertNull(results.get("batch-2").getErrorMessage());
+
+		Map<String, ResultDocument> stored = documentStorage
+				.getSourceDocuments(results.keySet(), FetchType.FULL, Collections.emptyList(), Collections.emptyList());
+		assertEquals(Arrays.asList("batch-0", "id-0", "batch-2"), new ArrayList<>(stored.keySet()));
+		assertEquals("Expected the last document of a unique id to be stored", "second", getDocument(stored.get("batch-0")).get("title"));
+		assertEquals(12, stored.get("batch-0").getTimestamp());
+		assertEquals("title 0", getDocument(stored.get("id-0")).get("title"));
+
+		assertTrue(documentStorage.storeSourceDocuments(Collections.emptyList()).isEmpty());
+	}
+
+	@Test
+	public void associatedDocumentChunkSizes() throws Exception {
+		//1KB chunks were the old default, files larger than a read of chunks are read with several queries in parallel
+		int[] oldChunkSizes = { 0, 1, 1000, 1024, 1025, 3 * 1024 * 1024 + 123 };
+		int[] defaultChunkSizes = { 0, 17, 255 * 1024, 255 * 1024 + 1, 5 * 255 * 1024 + 77 };
+
+		try {
+			assertAssociatedReadBack(1024, oldChunkSizes);
+			assertAssociatedReadBack(MongoDocumentStorage.DEFAULT_CHUNK_SIZE, defaultChunkSizes);
+		}
+		finally {
+			documentStorage.setChunkSize(MongoDocumentStorage.DEFAULT_CHUNK_SIZE);
+		}
+	}
+
+	private void assertAssociatedReadBack(int chunkSize, int[] lengths) throws Exception {
+		documentStorage.setChunkSize(chunkSize);
+		Random random = new Random(chunkSize);
+		for (int length : lengths) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+
+			String uniqueId = "associated-" + chunkSize + "-" + length;
+			for (boolean compress : new boolean[] { false, true }) {
+				String fileName = compress ? "compressed.bin" : "file.bin";
+				documentStorage.storeAssociatedDocument(uniqueId, fileName, new ByteArrayInputStream(bytes), compress, length, null);
+
+				AssociatedDocument ad = documentStorage.getAssociatedDocument(uniqueId, fileName, FetchType.FULL);
+				assertTrue("Expected the bytes of <" + uniqueId + "/" + fileName + ">", Arrays.equals(bytes, ad.getDocument().toByteArray()));
+				assertEquals(compress, ad.getCompressed());
+				assertEquals(length, ad.getTimestamp());
+			}
+
+			ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+			try (InputStream is = documentStorage.getAssociatedDocumentStream(uniqueId, "file.bin")) {
+				byte[] buffer = new byte[777];
+				int read;
+				while ((read = is.read(buffer)) != -1) {
+					streamed.write(buffer, 0, read);
+				}
+			}
+			assertTrue("Expected the streamed bytes of <" + uniqueId + ">", Arrays.equals(bytes, streamed.toByteArray()));
+
+			documentStorage.deleteAssociatedDocuments(uniqueId);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void chunkSizeMustBePositive() {
+		documentStorage.setChunkSize(0);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void chunkSizeMustFitInADocument() {
+		documentStorage.setChunkSize(MongoDocumentStorage.MAX_CHUNK_SIZE + 1);
+	}
+
+}
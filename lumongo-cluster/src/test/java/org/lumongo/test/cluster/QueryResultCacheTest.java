@@ -0,0 +1,83 @@
+package org.lumongo.test.cluster;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.lumongo.cluster.message.Lumongo;
+import org.lumongo.cluster.message.Lumongo.QueryRequest;
+import org.lumongo.cluster.message.Lumongo.SegmentResponse;
+import org.lumongo.server.search.QueryCacheKey;
+import org.lumongo.server.search.QueryResultCache;
+import org.lumongo.server.search.QueryResultCache.ReaderGeneration;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+
+/**
+ * Checks a cached response is returned for readers with the same leaves and is stale once the documents change
+ */
+public class QueryResultCacheTest {
+
+	private static void addDoc(IndexWriter w, String id) throws Exception {
+		Document doc = new Document();
+		doc.add(new StringField("id", id, Field.Store.NO));
+		w.addDocument(doc);
+	}
+
+	private static DirectoryReader reopen(DirectoryReader reader, IndexWriter w) throws Exception {
+		DirectoryReader newReader = DirectoryReader.openIfChanged(reader, w);
+		assertNotSame("Expected the writer to have changes", null, newReader);
+		reader.close();
+		return newReader;
+	}
+
+	@Test
+	public void staleOnlyWhenLeavesChange() throws Exception {
+		QueryResultCache queryResultCache = new QueryResultCache("queryResultCacheTest", 0, 10, 1024 * 1024, 1);
+		try (IndexWriter w = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(new StandardAnalyzer()))) {
+			addDoc(w, "1");
+			addDoc(w, "2");
+			DirectoryReader reader = DirectoryReader.open(w);
+
+			QueryCacheKey queryCacheKey = new QueryCacheKey(
+					QueryRequest.newBuilder().addIndex("queryResultCacheTest").setQuery(Lumongo.Query.newBuilder().setQ("id:1")).setAmount(10).build());
+			SegmentResponse segmentResponse = SegmentResponse.newBuilder().setIndexName("queryResultCacheTest").setSegmentNumber(0).setTotalHits(1).build();
+
+			queryResultCache.storeInCache(queryCacheKey, new ReaderGeneration(reader), segmentResponse);
+			assertEquals(segmentResponse, queryResultCache.getCacheSegmentResponse(queryCacheKey, new ReaderGeneration(reader)));
+
+			//a new version of the reader without changes to the documents reads the same leaves
+			w.setLiveCommitData(Collections.singletonMap("key", "value").entrySet());
+			reader = reopen(reader, w);
+			assertEquals(segmentResponse, queryResultCache.getCacheSegmentResponse(queryCacheKey, new ReaderGeneration(reader)));
+
+			w.deleteDocuments(new Term("id", "2"));
+			reader = reopen(reader, w);
+			assertNull(queryResultCache.getCacheSegmentResponse(queryCacheKey, new ReaderGeneration(reader)));
+			assertEquals(1, queryResultCache.getStaleMisses());
+
+			queryResultCache.storeInCache(queryCacheKey, new ReaderGeneration(reader), segmentResponse);
+			addDoc(w, "3");
+			reader = reopen(reader, w);
+			assertNull(queryResultCache.getCacheSegmentResponse(queryCacheKey, new ReaderGeneration(reader)));
+			assertEquals(2, queryResultCache.getStaleMisses());
+			assertEquals(2, queryResultCache.getHits());
+
+			reader.close();
+		}
+		finally {
+			queryResultCache.close();
+		}
+	}
+
+}
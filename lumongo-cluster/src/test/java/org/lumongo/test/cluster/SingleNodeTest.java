@@ -33,6 +33,8 @@ import java.time.LocalDate;
 import java.time.Month;
 import java.time.ZoneId;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertTrue;
@@ -42,6 +44,8 @@ public class SingleNodeTest extends ServerTestBase {
 
 	public static final String FACET_TEST_INDEX = "facetTestIndex";
 
+	public static final String SORTED_SET_FACET_TEST_INDEX = "sortedSetFacetTestIndex";
+
 	@BeforeClass
 	public void test01Start() throws Exception {
 		startSuite(1);
@@ -70,63 +74,68 @@ public class SingleNodeTest extends ServerTestBase {
 		lumongoWorkPool.createIndex(FACET_TEST_INDEX, 1, indexConfig);
 	}
 
-	@Test
-	public void test03Facet() throws Exception {
-		LumongoWorkPool lumongoWorkPool = getLumongoWorkPool();
+	private static final int COUNT_PER_ISSN = 10;
 
-		final int COUNT_PER_ISSN = 10;
-		final String uniqueIdPrefix = "myId-";
+	private static final String[] ISSNS = new String[] { "1234-1234", "3333-1234", "1234-5555", "1234-4444", "2222-2222" };
 
-		final String[] issns = new String[] { "1234-1234", "3333-1234", "1234-5555", "1234-4444", "2222-2222" };
-		int totalRecords = COUNT_PER_ISSN * issns.length;
+	private void storeFacetDocuments(LumongoWorkPool lumongoWorkPool, String indexName) throws Exception {
+		final String uniqueIdPrefix = "myId-";
 
 		int id = 0;
-		{
-			for (String issn : issns) {
-				for (int i = 0; i < COUNT_PER_ISSN; i++) {
-					boolean half = (i % 2 == 0);
-					boolean tenth = (i % 10 == 0);
-
-					id++;
-
-					String uniqueId = uniqueIdPrefix + id;
-
-					Document document = new Document();
-					document.put("uid", uniqueId);
-					document.put("issn", issn);
-					document.put("title", "Facet Userguide");
-
-					if (half) { // 1/2 of input
-						document.put("country", "US");
-					}
-					else { // 1/2 of input
-						document.put("country", "France");
-					}
-
-					if (tenth) { // 1/10 of input
-
-						Date d = Date.from(LocalDate.of(2014, Month.OCTOBER, 4).atStartOfDay(ZoneId.of("UTC")).toInstant());
-						document.put("date", d);
-					}
-					else if (half) { // 2/5 of input
-						Date d = Date.from(LocalDate.of(2013, Month.SEPTEMBER, 4).atStartOfDay(ZoneId.of("UTC")).toInstant());
-						document.put("date", d);
-					}
-					else { // 1/2 of input
-						Date d = Date.from(LocalDate.of(2013, 8, 4).atStartOfDay(ZoneId.of("UTC")).toInstant());
-						document.put("date", d);
-					}
-
-					Store s = new Store(uniqueId, FACET_TEST_INDEX);
-					s.setResultDocument(ResultDocBuilder.newBuilder().setDocument(document));
-
-					lumongoWorkPool.store(s);
+		for (String issn : ISSNS) {
+			for (int i = 0; i < COUNT_PER_ISSN; i++) {
+				boolean half = (i % 2 == 0);
+				boolean tenth = (i % 10 == 0);
+
+				id++;
+
+				String uniqueId = uniqueIdPrefix + id;
+
+				Document document = new Document();
+				document.put("uid", uniqueId);
+				document.put("issn", issn);
+				document.put("title", "Facet Userguide");
+
+				if (half) { // 1/2 of input
+					document.put("country", "US");
+				}
+				else { // 1/2 of input
+					document.put("country", "France");
+				}
+
+				if (tenth) { // 1/10 of input
+
+					Date d = Date.from(LocalDate.of(2014, Month.OCTOBER, 4).atStartOfDay(ZoneId.of("UTC")).toInstant());
+					document.put("date", d);
 				}
+				else if (half) { // 2/5 of input
+					Date d = Date.from(LocalDate.of(2013, Month.SEPTEMBER, 4).atStartOfDay(ZoneId.of("UTC")).toInstant());
+					document.put("date", d);
+				}
+				else { // 1/2 of input
+					Date d = Date.from(LocalDate.of(2013, 8, 4).atStartOfDay(ZoneId.of("UTC")).toInstant());
+					document.put("date", d);
+				}
+
+				Store s = new Store(uniqueId, indexName);
+				s.setResultDocument(ResultDocBuilder.newBuilder().setDocument(document));
+
+				lumongoWorkPool.store(s);
 			}
 		}
+	}
+
+	@Test
+	public void test03Facet() throws Exception {
+		LumongoWorkPool lumongoWorkPool = getLumongoWorkPool();
+
+		int totalRecords = COUNT_PER_ISSN * ISSNS.length;
+
+		storeFacetDocuments(lumongoWorkPool, FACET_TEST_INDEX);
 
 		{
 			Query q = new Query(FACET_TEST_INDEX, "title:userguide", 10).addCountRequest("keyword", 30);
+			q.setWaitForIndexedChanges(true);
 			QueryResult qr = lumongoWorkPool.query(q);
 
 			assertEquals("Facets should be 0 for keyword", qr.getFacetCounts("keyword").size(), 0);
@@ -134,6 +143,7 @@ public class SingleNodeTest extends ServerTestBase {
 
 		{
 			Query q = new Query(FACET_TEST_INDEX, "title:userguide", 10).addCountRequest("keyword", 30);
+			q.setWaitForIndexedChanges(true);
 			QueryResult qr = lumongoWorkPool.query(q);
 
 			assertEquals("Facets should be 0 for keyword", qr.getFacetCounts("keyword").size(), 0);
@@ -145,7 +155,7 @@ public class SingleNodeTest extends ServerTestBase {
 
 			assertEquals("Total record count not " + totalRecords, totalRecords, qr.getTotalHits());
 
-			assertEquals("Total facets not " + issns.length, issns.length, qr.getFacetCounts("issn").size());
+			assertEquals("Total facets not " + ISSNS.length, ISSNS.length, qr.getFacetCounts("issn").size());
 			for (FacetCount fc : qr.getFacetCounts("issn")) {
 				assertEquals("Count for facet <" + fc.getFacet() + "> not <" + COUNT_PER_ISSN + ">", COUNT_PER_ISSN, fc.getCount());
 			}
@@ -233,6 +243,89 @@ public class SingleNodeTest extends ServerTestBase {
 
 	}
 
+	@Test
+	public void test03SortedSetFacet() throws Exception {
+		LumongoWorkPool lumongoWorkPool = getLumongoWorkPool();
+
+		IndexConfig indexConfig = new IndexConfig("title");
+		indexConfig.addFieldConfig(FieldConfigBuilder.create("title", FieldType.STRING).indexAs(DefaultAnalyzers.STANDARD));
+		indexConfig.addFieldConfig(FieldConfigBuilder.create("uid", FieldType.STRING).indexAs(DefaultAnalyzers.LC_KEYWORD));
+		indexConfig.addFieldConfig(FieldConfigBuilder.create("issn", FieldType.STRING).indexAs(DefaultAnalyzers.LC_KEYWORD).facet());
+		indexConfig.addFieldConfig(FieldConfigBuilder.create("country", FieldType.STRING).indexAs(DefaultAnalyzers.LC_KEYWORD).facet());
+		indexConfig.addFieldConfig(FieldConfigBuilder.create("date", FieldType.DATE).index().facetAs(Lumongo.FacetAs.DateHandling.DATE_YYYY_MM_DD));
+		indexConfig.addFieldConfig(FieldConfigBuilder.create("keyword", FieldType.STRING).indexAs(DefaultAnalyzers.LC_KEYWORD).facet());
+		indexConfig.setFacetStorage(Lumongo.IndexSettings.FacetStorage.SORTED_SET_DOC_VALUES);
+
+		lumongoWorkPool.createIndex(SORTED_SET_FACET_TEST_INDEX, 2, indexConfig);
+		try {
+			storeFacetDocuments(lumongoWorkPool, SORTED_SET_FACET_TEST_INDEX);
+
+			int totalRecords = COUNT_PER_ISSN * ISSNS.length;
+
+			{
+				Query q = new Query(SORTED_SET_FACET_TEST_INDEX, "title:userguide", 10).addCountRequest("issn", 30);
+				q.setWaitForIndexedChanges(true);
+				QueryResult qr = lumongoWorkPool.query(q);
+
+				assertEquals("Total record count not " + totalRecords, totalRecords, qr.getTotalHits());
+				assertEquals("Total facets not " + ISSNS.length, ISSNS.length, qr.getFacetCounts("issn").size());
+				for (FacetCount fc : qr.getFacetCounts("issn")) {
+					assertEquals("Count for facet <" + fc.getFacet() + "> not <" + COUNT_PER_ISSN + ">", COUNT_PER_ISSN, fc.getCount());
+				}
+			}
+
+			{
+				Query q = new Query(SORTED_SET_FACET_TEST_INDEX, "title:userguide", 10).addCountRequest("keyword", 30);
+				QueryResult qr = lumongoWorkPool.query(q);
+
+				assertEquals("Facets should be 0 for keyword", 0, qr.getFacetCounts("keyword").size());
+			}
+
+			//every count and drill down matches the index with the same documents and taxonomy facets
+			for (String facet : new String[] { "issn", "country", "date" }) {
+				Map<String, Long> taxonomyCounts = getFacetCounts(lumongoWorkPool, FACET_TEST_INDEX, facet);
+				Map<String, Long> sortedSetCounts = getFacetCounts(lumongoWorkPool, SORTED_SET_FACET_TEST_INDEX, facet);
+				assertEquals("Facet counts for <" + facet + "> differ from the taxonomy index", taxonomyCounts, sortedSetCounts);
+
+				for (Map.Entry<String, Long> facetCount : sortedSetCounts.entrySet()) {
+					Query q = new Query(SORTED_SET_FACET_TEST_INDEX, "title:userguide", 10).addDrillDown(facet, facetCount.getKey());
+					QueryResult qr = lumongoWorkPool.query(q);
+
+					assertEquals("Total record count after drill down on <" + facet + ":" + facetCount.getKey() + "> not " + facetCount.getValue(),
+							facetCount.getValue().longValue(), qr.getTotalHits());
+				}
+			}
+
+			{
+				Query q = new Query(SORTED_SET_FACET_TEST_INDEX, "title:userguide", 10);
+				q.addDrillDown("issn", "1234-1234").addDrillDown("country", "France");
+				q.addCountRequest("issn").addCountRequest("date");
+
+				QueryResult qr = lumongoWorkPool.query(q);
+
+				assertEquals("Total record count after drill down not " + (COUNT_PER_ISSN / 2), COUNT_PER_ISSN / 2, qr.getTotalHits());
+				assertEquals("Number of issn facets not equal " + 1, 1, qr.getFacetCounts("issn").size());
+				assertEquals("Count for facet <1234-1234> not <" + (COUNT_PER_ISSN / 2) + ">", COUNT_PER_ISSN / 2, qr.getFacetCounts("issn").get(0).getCount());
+				assertEquals("Number of date facets not equal " + 1, 1, qr.getFacetCounts("date").size());
+				assertEquals("Expected only the odd documents of 2013-08-04", "2013-08-04", qr.getFacetCounts("date").get(0).getFacet());
+			}
+		}
+		finally {
+			lumongoWorkPool.deleteIndex(SORTED_SET_FACET_TEST_INDEX);
+		}
+	}
+
+	private Map<String, Long> getFacetCounts(LumongoWorkPool lumongoWorkPool, String indexName, String facet) throws Exception {
+		Query q = new Query(indexName, "title:userguide", 10).addCountRequest(facet, 30);
+		QueryResult qr = lumongoWorkPool.query(q);
+
+		Map<String, Long> facetCounts = new HashMap<>();
+		for (FacetCount fc : qr.getFacetCounts(facet)) {
+			facetCounts.put(fc.getFacet(), fc.getCount());
+		}
+		return facetCounts;
+	}
+
 	@Test
 	public void test04Bulk() throws Exception {
 		LumongoWorkPool lumongoWorkPool = getLumongoWorkPool();
@@ -270,7 +363,9 @@ public class SingleNodeTest extends ServerTestBase {
 		{
 			QueryResult qr;
 
-			qr = lumongoWorkPool.query(new Query(MY_TEST_INDEX, "an:3", 10));
+			Query waitQuery = new Query(MY_TEST_INDEX, "an:3", 10);
+			waitQuery.setWaitForIndexedChanges(true);
+			qr = lumongoWorkPool.query(waitQuery);
 			assertEquals("Total hits is not 1", 1, qr.getTotalHits());
 
 			qr = lumongoWorkPool.query(new Query(MY_TEST_INDEX, "an:[1 TO 3]", 10));
@@ -509,7 +604,9 @@ public class SingleNodeTest extends ServerTestBase {
 			fr = lumongoWorkPool.fetch(new FetchDocument(uniqueIdToDelete, MY_TEST_INDEX));
 			assertTrue("Document has raw document after delete", !fr.hasResultDocument());
 
-			qr = lumongoWorkPool.query(new Query(MY_TEST_INDEX, "uid" + ":" + uniqueIdToDelete, 10));
+			Query waitQuery = new Query(MY_TEST_INDEX, "uid" + ":" + uniqueIdToDelete, 10);
+			waitQuery.setWaitForIndexedChanges(true);
+			qr = lumongoWorkPool.query(waitQuery);
 			assertEquals("Total hits is not 0 after delete", 0, qr.getTotalHits());
 		}
 
@@ -569,6 +666,7 @@ public class SingleNodeTest extends ServerTestBase {
 			String normalLuceneQuery = "issn:1234-1234 AND title:special";
 
 			Query q = new Query(MY_TEST_INDEX, normalLuceneQuery, numberOfResults);
+			q.setWaitForIndexedChanges(true);
 			QueryResult qr = lumongoWorkPool.query(q);
 			@SuppressWarnings("unused") long totalHits = qr.getTotalHits();
 
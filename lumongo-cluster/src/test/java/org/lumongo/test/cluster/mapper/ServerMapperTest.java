@@ -82,6 +82,7 @@ public class ServerMapperTest extends ServerTestBase {
 
 		{
 			Query query = new Query("person", "firstName:Bob", 10);
+			query.setWaitForIndexedChanges(true);
 			QueryResult qr = lumongoWorkPool.query(query);
 			assertEquals(1, qr.getTotalHits());
 		}
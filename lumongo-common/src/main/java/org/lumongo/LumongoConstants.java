@@ -42,6 +42,7 @@ public class LumongoConstants {
 	public static final String FIELDS = "fl";
 	public static final String PRETTY = "pretty";
 	public static final String COMPUTE_FACET_ERROR = "computeFacetError";
+	public static final String EXACT_FACETS = "exactFacets";
 	public static final String MIN_MATCH = "mm";
 	public static final String DEBUG = "debug";
 	public static final String AMOUNT = "amount";
@@ -81,6 +82,7 @@ public class LumongoConstants {
 	public static final String COS_SIM_JSON = "cosSimJson";
 
 	public static final String DONT_CACHE = "dontCache";
+	public static final String WAIT_FOR_INDEXED_CHANGES = "waitForIndexedChanges";
 	public static final String BATCH = "batch";
 	public static final String BATCH_SIZE = "batchSize";
 }
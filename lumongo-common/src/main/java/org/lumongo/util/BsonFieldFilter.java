@@ -0,0 +1,126 @@
+package org.lumongo.util;
+
+import org.bson.BsonSerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Selects top level fields of an encoded BSON document without decoding it.  Only the field names are read, the values
+ * of the fields kept are copied as they are and the values of the other fields are skipped.
+ */
+public class BsonFieldFilter {
+
+	private BsonFieldFilter() {
+
+	}
+
+	/**
+	 * @param bson - bytes holding the encoded document
+	 * @param offset - start of the document in bson
+	 * @param length - length of the document
+	 * @param fieldsToReturn - top level fields to keep, empty keeps every field not masked
+	 * @param fieldsToMask - top level fields to drop
+	 * @return an encoded document with the selected fields
+	 */
+	public static byte[] filter(byte[] bson, int offset, int length, Collection<String> fieldsToReturn, Collection<String> fieldsToMask) {
+		int end = offset + length;
+		int documentSize = readInt(bson, offset, end);
+		if (documentSize != length || bson[end - 1] != 0) {
+			throw new BsonSerializationException("Invalid document size <" + documentSize + "> for length <" + length + ">");
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+		//size is filled in once the fields are copied
+		out.write(0);
+		out.write(0);
+		out.write(0);
+		out.write(0);
+
+		int position = offset + 4;
+		while (bson[position] != 0) {
+			int elementStart = position;
+			byte type = bson[position++];
+
+			int nameStart = position;
+			position = skipCString(bson, position, end);
+			String name = new String(bson, nameStart, position - nameStart - 1, StandardCharsets.UTF_8);
+
+			position = skipValue(bson, type, position, end);
+
+			if ((fieldsToReturn.isEmpty() || fieldsToReturn.contains(name)) && !fieldsToMask.contains(name)) {
+				out.write(bson, elementStart, position - elementStart);
+			}
+		}
+		out.write(0);
+
+		byte[] filtered = out.toByteArray();
+		int size = filtered.length;
+		filtered[0] = (byte) size;
+		filtered[1] = (byte) (size >>> 8);
+		filtered[2] = (byte) (size >>> 16);
+		filtered[3] = (byte) (size >>> 24);
+		return filtered;
+	}
+
+	private static int skipValue(byte[] bson, byte type, int position, int end) {
+		switch (type) {
+			case 0x01: //double
+			case 0x09: //date time
+			case 0x11: //timestamp
+			case 0x12: //int64
+				return checkBounds(position + 8, end);
+			case 0x02: //string
+			case 0x0D: //javascript
+			case 0x0E: //symbol
+				return checkBounds(position + 4 + readInt(bson, position, end), end);
+			case 0x03: //document
+			case 0x04: //array
+			case 0x0F: //javascript with scope
+				return checkBounds(position + readInt(bson, position, end), end);
+			case 0x05: //binary, length does not include the subtype
+				return checkBounds(position + 5 + readInt(bson, position, end), end);
+			case 0x06: //undefined
+			case 0x0A: //null
+			case (byte) 0xFF: //min key
+			case 0x7F: //max key
+				return position;
+			case 0x07: //object id
+				return checkBounds(position + 12, end);
+			case 0x08: //boolean
+				return checkBounds(position + 1, end);
+			case 0x0B: //regular expression, pattern and options
+				return skipCString(bson, skipCString(bson, position, end), end);
+			case 0x0C: //db pointer
+				return checkBounds(position + 4 + readInt(bson, position, end) + 12, end);
+			case 0x10: //int32
+				return checkBounds(position + 4, end);
+			case 0x13: //decimal128
+				return checkBounds(position + 16, end);
+			default:
+				throw new BsonSerializationException("Unknown BSON type <" + type + "> at position <" + position + ">");
+		}
+	}
+
+	private static int skipCString(byte[] bson, int position, int end) {
+		while (position < end && bson[position] != 0) {
+			position++;
+		}
+		return checkBounds(position + 1, end);
+	}
+
+	private static int readInt(byte[] bson, int position, int end) {
+		checkBounds(position + 4, end);
+		return (bson[position] & 0xFF) | ((bson[position + 1] & 0xFF) << 8) | ((bson[position + 2] & 0xFF) << 16) | ((bson[position + 3] & 0xFF) << 24);
+	}
+
+	private static int checkBounds(int position, int end) {
+		//the last byte of the document is its terminator so a value can never reach it
+		if (position > end - 1 || position < 0) {
+			throw new BsonSerializationException("BSON value runs past the end of the document");
+		}
+		return position;
+	}
+
+}
@@ -45,7 +45,11 @@ public class LumongoUtil {
 
 
 	public static Document byteArrayToMongoDocument(byte[] byteArray) {
-		BsonBinaryReader bsonReader = new BsonBinaryReader(ByteBuffer.wrap(byteArray));
+		return byteBufferToMongoDocument(ByteBuffer.wrap(byteArray));
+	}
+
+	public static Document byteBufferToMongoDocument(ByteBuffer byteBuffer) {
+		BsonBinaryReader bsonReader = new BsonBinaryReader(byteBuffer);
 		return new DocumentCodec().decode(bsonReader, DecoderContext.builder().build());
 	}
 }
@@ -22,7 +22,7 @@ public class ResultHelper {
 
 	public static Document getDocumentFromResultDocument(Lumongo.ResultDocumentOrBuilder rd) {
 		if (rd.hasDocument()) {
-			return LumongoUtil.byteArrayToMongoDocument(rd.getDocument().toByteArray());
+			return LumongoUtil.byteBufferToMongoDocument(rd.getDocument().asReadOnlyByteBuffer());
 		}
 		return null;
 	}
@@ -0,0 +1,170 @@
+package org.lumongo.test.util;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDbPointer;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonJavaScript;
+import org.bson.BsonJavaScriptWithScope;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonSerializationException;
+import org.bson.BsonString;
+import org.bson.BsonSymbol;
+import org.bson.BsonTimestamp;
+import org.bson.BsonUndefined;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.lumongo.util.BsonFieldFilter;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Filters documents holding every BSON type and compares the result with filtering the decoded document
+ */
+public class BsonFieldFilterTest {
+
+	private static BsonDocument createDocument() {
+		BsonDocument nested = new BsonDocument("title", new BsonString("nested title")).append("count", new BsonInt32(3))
+				.append("inner", new BsonDocument("deep", new BsonArray(Arrays.asList(new BsonInt64(1), new BsonString("two")))));
+
+		BsonDocument document = new BsonDocument();
+		document.append("double", new BsonDouble(1.5));
+		document.append("string", new BsonString("a string with unicode é中"));
+		document.append("document", nested);
+		document.append("array", new BsonArray(Arrays.asList(new BsonInt32(1), nested, new BsonArray(Collections.singletonList(new BsonNull())))));
+		document.append("binary", new BsonBinary(new byte[] { 1, 2, 3, 4, 5 }));
+		document.append("binarySubtype", new BsonBinary((byte) 0x80, new byte[] { 9, 8, 7 }));
+		document.append("undefined", new BsonUndefined());
+		document.append("objectId", new BsonObjectId(new ObjectId()));
+		document.append("boolean", BsonBoolean.TRUE);
+		document.append("dateTime", new BsonDateTime(1234567890123L));
+		document.append("null", new BsonNull());
+		document.append("regularExpression", new BsonRegularExpression("^a.*b$", "im"));
+		document.append("dbPointer", new BsonDbPointer("some.collection", new ObjectId()));
+		document.append("javaScript", new BsonJavaScript("function() { return 1; }"));
+		document.append("symbol", new BsonSymbol("symbol"));
+		document.append("javaScriptWithScope", new BsonJavaScriptWithScope("function() { return x; }", new BsonDocument("x", new BsonInt32(7))));
+		document.append("int32", new BsonInt32(-42));
+		document.append("timestamp", new BsonTimestamp(1000, 7));
+		document.append("int64", new BsonInt64(Long.MIN_VALUE));
+		document.append("decimal128", new BsonDecimal128(Decimal128.parse("3.14159265358979323846")));
+		document.append("maxKey", new BsonMaxKey());
+		document.append("minKey", new BsonMinKey());
+		document.append("last", new BsonString("last"));
+		return document;
+	}
+
+	private static byte[] encode(BsonDocument document) {
+		BasicOutputBuffer buffer = new BasicOutputBuffer();
+		new BsonDocumentCodec().encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+		return buffer.toByteArray();
+	}
+
+	private static BsonDocument decode(byte[] bson) {
+		return new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+	}
+
+	/**
+	 * Selects the fields from the decoded document the way the fields of a fetched document were filtered before
+	 */
+	private static BsonDocument filterDecoded(BsonDocument document, Collection<String> fieldsToReturn, Collection<String> fieldsToMask) {
+		BsonDocument filtered = new BsonDocument();
+		for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+			String name = entry.getKey();
+			if ((fieldsToReturn.isEmpty() || fieldsToReturn.contains(name)) && !fieldsToMask.contains(name)) {
+				filtered.append(name, entry.getValue());
+			}
+		}
+		return filtered;
+	}
+
+	private static void assertFilter(BsonDocument document, Collection<String> fieldsToReturn, Collection<String> fieldsToMask) {
+		byte[] bson = encode(document);
+
+		//the document is placed inside a larger buffer the way a stored field references it
+		byte[] buffer = new byte[bson.length + 20];
+		System.arraycopy(bson, 0, buffer, 7, bson.length);
+
+		byte[] filtered = BsonFieldFilter.filter(buffer, 7, bson.length, fieldsToReturn, fieldsToMask);
+		BsonDocument expected = filterDecoded(document, fieldsToReturn, fieldsToMask);
+
+		assertTrue("Expected the encoded fields to match for return <" + fieldsToReturn + "> and mask <" + fieldsToMask + ">",
+				Arrays.equals(encode(expected), filtered));
+		assertEquals(expected, decode(filtered));
+	}
+
+	@Test
+	public void everyTypeAlone() {
+		BsonDocument document = createDocument();
+		for (String name : document.keySet()) {
+			assertFilter(document, Collections.singletonList(name), Collections.emptyList());
+			assertFilter(document, Collections.emptyList(), Collections.singletonList(name));
+		}
+	}
+
+	@Test
+	public void includeAndExclude() {
+		BsonDocument document = createDocument();
+		List<String> names = new ArrayList<>(document.keySet());
+
+		assertFilter(document, Collections.emptyList(), Collections.emptyList());
+		assertFilter(document, names, Collections.emptyList());
+		assertFilter(document, Collections.emptyList(), names);
+		assertFilter(document, Arrays.asList("document", "array", "javaScriptWithScope", "last"), Collections.emptyList());
+		assertFilter(document, Arrays.asList("document", "array", "decimal128"), Collections.singletonList("array"));
+		assertFilter(document, Collections.emptyList(), Arrays.asList("string", "binary", "regularExpression", "dbPointer", "minKey"));
+		assertFilter(document, Collections.singletonList("missing"), Collections.emptyList());
+		assertFilter(document, Collections.singletonList("title"), Collections.emptyList());
+
+		assertFilter(new BsonDocument(), Collections.singletonList("document"), Collections.emptyList());
+	}
+
+	@Test(expectedExceptions = BsonSerializationException.class)
+	public void unknownType() {
+		byte[] bson = encode(new BsonDocument("int32", new BsonInt32(1)));
+		bson[4] = 0x20;
+		BsonFieldFilter.filter(bson, 0, bson.length, Collections.singletonList("int32"), Collections.emptyList());
+	}
+
+	@Test(expectedExceptions = BsonSerializationException.class)
+	public void truncatedValue() {
+		byte[] bson = encode(new BsonDocument("string", new BsonString("a longer string value")));
+		//the string length points past the end of the document
+		bson[4 + 1 + "string".length() + 1] = 100;
+		BsonFieldFilter.filter(bson, 0, bson.length, Collections.emptyList(), Collections.emptyList());
+	}
+
+	@Test(expectedExceptions = BsonSerializationException.class)
+	public void wrongLength() {
+		byte[] bson = encode(createDocument());
+		BsonFieldFilter.filter(bson, 0, bson.length - 1, Collections.emptyList(), Collections.emptyList());
+	}
+
+}
@@ -17,6 +17,7 @@ public interface MongoConstants {
 	public static interface Operators {
 		public static final String LT = "$lt";
 		public static final String GT = "$gt";
+		public static final String GTE = "$gte";
 		public static final String AND = "$and";
 		public static final String OR = "$or";
 		public static final String NOR = "$nor";
@@ -27,6 +28,7 @@ public interface MongoConstants {
 		public static final String ADD_SET = "$addToSet";
 		public static final String EACH = "$each";
 		public static final String EXISTS = "$exists";
+		public static final String IN = "$in";
 		public static final String SEARCH_HIT = "$";
 	}
 
@@ -0,0 +1,364 @@
+package org.lumongo.storage.lucene;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * Byte budgeted cache of {@link MongoBlock}s shared by all {@link MongoDirectory} instances on a node.
+ *
+ * The cache is partitioned by directory (index number).  The budget minus the overflow pool is split evenly between the
+ * open directories as their dedicated quota.  A directory may grow past its quota only by borrowing from the shared
+ * overflow pool, and when the pool is exhausted the least recently used block among the borrowing directories is
+ * evicted.  A busy directory can therefore never evict blocks another directory holds inside its own quota.
+ *
+ * Block payloads are held in direct buffers (see {@link MongoBlock}) so the cache does not add to the heap the garbage
+ * collector has to scan.  Evicted buffers are released when the last reader drops its reference.
+ */
+public class BlockCache {
+
+	public static final int DEFAULT_OVERFLOW_PERCENT = 20;
+
+	private final ConcurrentHashMap<Short, Partition> partitions;
+	private final ConcurrentHashMap<Long, FutureTask<MongoBlock>> loading;
+	private final AtomicLong accessClock;
+	private final Object evictionLock;
+
+	private volatile long maxSizeInBytes;
+	private volatile long overflowSizeInBytes;
+
+	public BlockCache(long maxSizeInBytes, int overflowPercent) {
+		this.partitions = new ConcurrentHashMap<>();
+		this.loading = new ConcurrentHashMap<>();
+		this.accessClock = new AtomicLong();
+		this.evictionLock = new Object();
+		setMaxSize(maxSizeInBytes, overflowPercent);
+	}
+
+	public void setMaxSize(long maxSizeInBytes, int overflowPercent) {
+		if (maxSizeInBytes < 0) {
+			throw new IllegalArgumentException("Block cache size must be positive");
+		}
+		if (overflowPercent < 0 || overflowPercent > 100) {
+			throw new IllegalArgumentException("Block cache overflow percent must be between 0 and 100");
+		}
+		this.maxSizeInBytes = maxSizeInBytes;
+		this.overflowSizeInBytes = (maxSizeInBytes * overflowPercent) / 100;
+		evictIfNecessary();
+	}
+
+	public long getMaxSizeInBytes() {
+		return maxSizeInBytes;
+	}
+
+	public long getOverflowSizeInBytes() {
+		return overflowSizeInBytes;
+	}
+
+	/**
+	 * @return the dedicated quota of each open directory
+	 */
+	public long getDirectoryQuota() {
+		return (maxSizeInBytes - overflowSizeInBytes) / Math.max(1, partitions.size());
+	}
+
+	public void registerDirectory(short indexNumber) {
+		partitions.computeIfAbsent(indexNumber, k -> new Partition());
+		evictIfNecessary();
+	}
+
+	/**
+	 * Removes all blocks of a directory from the cache, flushing any that are still dirty
+	 * @param indexNumber - in memory number of the directory
+	 */
+	public void unregisterDirectory(short indexNumber) {
+		Partition partition = partitions.remove(indexNumber);
+		if (partition != null) {
+			for (MongoBlock mongoBlock : partition.clear()) {
+				mongoBlock.flushIfDirty();
+			}
+		}
+	}
+
+	/**
+	 * Removes the blocks of a deleted file without flushing so a file that reuses its number does not read them
+	 * @param firstBlockKey - key of the first block of the file
+	 * @param blockCount - number of blocks of the file
+	 */
+	public void removeFile(long firstBlockKey, int blockCount) {
+		Partition partition = partitions.get(getIndexNumber(firstBlockKey));
+		if (partition != null) {
+			partition.remove(firstBlockKey, blockCount);
+		}
+	}
+
+	public MongoBlock getIfPresent(long blockKey) {
+		Partition partition = partitions.get(getIndexNumber(blockKey));
+		if (partition != null) {
+			return partition.get(blockKey, accessClock.incrementAndGet());
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if a block is cached without counting it as an access
+	 */
+	public boolean containsKey(long blockKey) {
+		Partition partition = partitions.get(getIndexNumber(blockKey));
+		return partition != null && partition.containsKey(blockKey);
+	}
+
+	public MongoBlock get(long blockKey, Callable<MongoBlock> loader) throws ExecutionException {
+		MongoBlock mongoBlock = getIfPresent(blockKey);
+		if (mongoBlock != null) {
+			return mongoBlock;
+		}
+
+		FutureTask<MongoBlock> loadTask = new FutureTask<>(loader);
+		FutureTask<MongoBlock> existingTask = loading.putIfAbsent(blockKey, loadTask);
+		if (existingTask != null) {
+			return getUninterruptibly(existingTask);
+		}
+
+		try {
+			//another thread may have finished loading between the first check and registering the load
+			mongoBlock = getIfPresent(blockKey);
+			if (mongoBlock != null) {
+				return mongoBlock;
+			}
+
+			loadTask.run();
+			return putIfAbsent(getUninterruptibly(loadTask));
+		}
+		finally {
+			loading.remove(blockKey, loadTask);
+		}
+	}
+
+	/**
+	 * Adds or replaces a block in the cache and evicts other blocks if the budget is exceeded
+	 */
+	public void put(MongoBlock mongoBlock) {
+		getPartition(mongoBlock.blockKey).put(mongoBlock, accessClock.incrementAndGet(), true);
+		evictIfNecessary();
+	}
+
+	/**
+	 * Adds a block to the cache unless a block with the same key is already cached
+	 * @return the cached block
+	 */
+	public MongoBlock putIfAbsent(MongoBlock mongoBlock) {
+		MongoBlock cached = getPartition(mongoBlock.blockKey).put(mongoBlock, accessClock.incrementAndGet(), false);
+		evictIfNecessary();
+		return cached;
+	}
+
+	/**
+	 * Drops every block without flushing
+	 */
+	public void clear() {
+		for (Partition partition : partitions.values()) {
+			partition.clear();
+		}
+	}
+
+	public long getBlockCount() {
+		long count = 0;
+		for (Partition partition : partitions.values()) {
+			count += partition.getBlockCount();
+		}
+		return count;
+	}
+
+	public long getSizeInBytes() {
+		long size = 0;
+		for (Partition partition : partitions.values()) {
+			size += partition.sizeInBytes;
+		}
+		return size;
+	}
+
+	public long getSizeInBytes(short indexNumber) {
+		Partition partition = partitions.get(indexNumber);
+		return partition != null ? partition.sizeInBytes : 0;
+	}
+
+	private Partition getPartition(long blockKey) {
+		return partitions.computeIfAbsent(getIndexNumber(blockKey), k -> new Partition());
+	}
+
+	/**
+	 * @return the bytes of the overflow pool borrowed by directories over their quota
+	 */
+	private long getOverflowUsed(long quota) {
+		long overflowUsed = 0;
+		for (Partition partition : partitions.values()) {
+			overflowUsed += Math.max(0, partition.sizeInBytes - quota);
+		}
+		return overflowUsed;
+	}
+
+	private void evictIfNecessary() {
+		//partition sizes are volatile so the common case of a cache within its budget never takes the eviction lock
+		if (getOverflowUsed(getDirectoryQuota()) <= overflowSizeInBytes) {
+			return;
+		}
+
+		List<MongoBlock> evicted = new ArrayList<>();
+
+		synchronized (evictionLock) {
+			while (true) {
+				long quota = getDirectoryQuota();
+				long overflowUsed = 0;
+				Partition victim = null;
+				long oldestAccess = Long.MAX_VALUE;
+
+				for (Partition partition : partitions.values()) {
+					long overQuota = partition.sizeInBytes - quota;
+					if (overQuota > 0) {
+						overflowUsed += overQuota;
+						long eldestAccess = partition.getEldestAccess();
+						if (eldestAccess < oldestAccess) {
+							oldestAccess = eldestAccess;
+							victim = partition;
+						}
+					}
+				}
+
+				if (victim == null || overflowUsed <= overflowSizeInBytes) {
+					break;
+				}
+
+				MongoBlock mongoBlock = victim.evictEldest(quota);
+				if (mongoBlock != null) {
+					evicted.add(mongoBlock);
+				}
+			}
+		}
+
+		for (MongoBlock mongoBlock : evicted) {
+			mongoBlock.mongoFile.getBlockStats().recordEviction();
+			mongoBlock.flushIfDirty();
+		}
+	}
+
+	private static MongoBlock getUninterruptibly(FutureTask<MongoBlock> task) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static short getIndexNumber(long blockKey) {
+		return (short) (blockKey >>> 48);
+	}
+
+	private static class Partition {
+
+		private final LinkedHashMap<Long, MongoBlock> blocks;
+		private volatile long sizeInBytes;
+
+		Partition() {
+			this.blocks = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		synchronized MongoBlock get(long blockKey, long accessTime) {
+			MongoBlock mongoBlock = blocks.get(blockKey);
+			if (mongoBlock != null) {
+				mongoBlock.lastAccess = accessTime;
+			}
+			return mongoBlock;
+		}
+
+		synchronized boolean containsKey(long blockKey) {
+			return blocks.containsKey(blockKey);
+		}
+
+		synchronized MongoBlock put(MongoBlock mongoBlock, long accessTime, boolean replace) {
+			MongoBlock existing = blocks.get(mongoBlock.blockKey);
+			if (existing != null && !replace) {
+				return existing;
+			}
+			if (existing != null) {
+				sizeInBytes -= existing.getSizeInBytes();
+			}
+			mongoBlock.lastAccess = accessTime;
+			blocks.put(mongoBlock.blockKey, mongoBlock);
+			sizeInBytes += mongoBlock.getSizeInBytes();
+			return mongoBlock;
+		}
+
+		synchronized long getEldestAccess() {
+			Iterator<MongoBlock> iterator = blocks.values().iterator();
+			return iterator.hasNext() ? iterator.next().lastAccess : Long.MAX_VALUE;
+		}
+
+		synchronized MongoBlock evictEldest(long quota) {
+			if (sizeInBytes <= quota) {
+				return null;
+			}
+			Iterator<Map.Entry<Long, MongoBlock>> iterator = blocks.entrySet().iterator();
+			if (!iterator.hasNext()) {
+				return null;
+			}
+			MongoBlock eldest = iterator.next().getValue();
+			iterator.remove();
+			sizeInBytes -= eldest.getSizeInBytes();
+			return eldest;
+		}
+
+		synchronized void remove(long firstBlockKey, int blockCount) {
+			for (int i = 0; i < blockCount; i++) {
+				MongoBlock removed = blocks.remove(firstBlockKey + i);
+				if (removed != null) {
+					sizeInBytes -= removed.getSizeInBytes();
+				}
+			}
+		}
+
+		synchronized List<MongoBlock> clear() {
+			List<MongoBlock> removed = new ArrayList<>(blocks.values());
+			blocks.clear();
+			sizeInBytes = 0;
+			return removed;
+		}
+
+		synchronized int getBlockCount() {
+			return blocks.size();
+		}
+
+	}
+
+}
@@ -0,0 +1,276 @@
+package org.lumongo.storage.lucene;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * Write behind queue of dirty {@link MongoBlock}s for a {@link MongoDirectory}.
+ *
+ * Queued blocks are coalesced by block key and written in the background as unordered bulk upserts.  Callers that queue
+ * blocks faster than they can be written wait once the queued bytes exceed the limit.  Blocks are only guaranteed to
+ * be stored once {@link #awaitFile(short)} or {@link #awaitAll()} returns, which is done when the directory is synced.
+ */
+public class BlockFlusher {
+
+	public static final long DEFAULT_MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+	private static final long MAX_BATCH_BYTES = 8L * 1024 * 1024;
+
+	private static final int FLUSHER_THREADS = 4;
+
+	private static final ExecutorService flusherPool = Executors
+			.newFixedThreadPool(FLUSHER_THREADS, new ThreadFactoryBuilder().setNameFormat("mongoBlockFlusher-%d").setDaemon(true).build());
+
+	private final MongoDirectory mongoDirectory;
+	private final long maxPendingBytes;
+
+	private final ConcurrentHashMap<Long, MongoBlock> pending;
+	private final AtomicLong pendingBytes;
+	private final AtomicBoolean scheduled;
+
+	//held while a batch is written so discarded blocks can not be written after they are removed
+	private final Object writeLock;
+	private final Object monitor;
+
+	private volatile Exception failure;
+
+	public BlockFlusher(MongoDirectory mongoDirectory, long maxPendingBytes) {
+		this.mongoDirectory = mongoDirectory;
+		this.maxPendingBytes = maxPendingBytes;
+		this.pending = new ConcurrentHashMap<>();
+		this.pendingBytes = new AtomicLong();
+		this.scheduled = new AtomicBoolean();
+		this.writeLock = new Object();
+		this.monitor = new Object();
+	}
+
+	/**
+	 * @return a block that is queued to be written, reads must use it instead of the stored copy
+	 */
+	public MongoBlock getPending(long blockKey) {
+		return pending.get(blockKey);
+	}
+
+	public boolean isPending(long blockKey) {
+		return pending.containsKey(blockKey);
+	}
+
+	public long getPendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/**
+	 * Queues a block to be written in the background, waits if too many bytes are already queued
+	 */
+	public void queue(MongoBlock mongoBlock) {
+		if (pending.put(mongoBlock.blockKey, mongoBlock) == null) {
+			pendingBytes.addAndGet(mongoBlock.getSizeInBytes());
+		}
+		schedule();
+
+		if (pendingBytes.get() > maxPendingBytes) {
+			synchronized (monitor) {
+				try {
+					while (pendingBytes.get() > maxPendingBytes && failure == null) {
+						monitor.wait(100);
+					}
+				}
+				catch (InterruptedException e) {
+					//the block is already queued so it is safe to stop waiting
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until all blocks of a file queued before the call are stored
+	 */
+	public void awaitFile(short fileNumber) throws IOException {
+		schedule();
+		synchronized (monitor) {
+			while (hasPending(fileNumber)) {
+				throwIfFailed();
+				waitForProgress();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all blocks queued before the call are stored
+	 */
+	public void awaitAll() throws IOException {
+		schedule();
+		synchronized (monitor) {
+			while (!pending.isEmpty()) {
+				throwIfFailed();
+				waitForProgress();
+			}
+		}
+	}
+
+	/**
+	 * Drops the queued blocks of a deleted file
+	 */
+	public void discardFile(short fileNumber) {
+		synchronized (writeLock) {
+			Iterator<MongoBlock> iterator = pending.values().iterator();
+			while (iterator.hasNext()) {
+				MongoBlock mongoBlock = iterator.next();
+				if (mongoBlock.mongoFile.fileNumber == fileNumber) {
+					mongoBlock.markClean();
+					iterator.remove();
+					pendingBytes.addAndGet(-mongoBlock.getSizeInBytes());
+				}
+			}
+		}
+		signalProgress();
+	}
+
+	private boolean hasPending(short fileNumber) {
+		for (MongoBlock mongoBlock : pending.values()) {
+			if (mongoBlock.mongoFile.fileNumber == fileNumber) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void throwIfFailed() throws IOException {
+		Exception e = failure;
+		if (e != null) {
+			//blocks are still queued and are retried by the next drain, which clears the failure when it starts, so every
+			//waiter sees the failure instead of waiting for a drain that is not running
+			throw new IOException("Failed to store blocks for <" + mongoDirectory + ">", e);
+		}
+	}
+
+	private void waitForProgress() throws InterruptedIOException {
+		try {
+			monitor.wait(100);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for blocks to be stored for <" + mongoDirectory + ">");
+		}
+	}
+
+	private void signalProgress() {
+		synchronized (monitor) {
+			monitor.notifyAll();
+		}
+	}
+
+	private void schedule() {
+		if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+			failure = null;
+			flusherPool.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		try {
+			while (writeBatch()) {
+				signalProgress();
+			}
+		}
+		finally {
+			scheduled.set(false);
+			signalProgress();
+		}
+
+		if (failure == null) {
+			//blocks queued after the last batch was taken
+			schedule();
+		}
+	}
+
+	private boolean writeBatch() {
+		synchronized (writeLock) {
+			List<MongoBlock> batch = new ArrayList<>();
+			List<Integer> batchSizes = new ArrayList<>();
+			List<Document> writes = new ArrayList<>();
+			long batchBytes = 0;
+
+			long start;
+			try {
+				for (MongoBlock mongoBlock : pending.values()) {
+					byte[] bytes = mongoBlock.takeSnapshotIfDirty();
+					if (bytes == null) {
+						//already stored by a previous batch
+						removeIfClean(mongoBlock);
+						continue;
+					}
+
+					//the block is clean once its snapshot is taken so it is part of the batch before it is converted
+					batch.add(mongoBlock);
+					Document document = MongoFile.toDocument(mongoBlock, bytes);
+					batchSizes.add(((Binary) document.get(MongoDirectory.BYTES)).length());
+					writes.add(document);
+
+					batchBytes += bytes.length;
+					if (batchBytes >= MAX_BATCH_BYTES) {
+						break;
+					}
+				}
+
+				if (writes.isEmpty()) {
+					return false;
+				}
+
+				start = System.nanoTime();
+				mongoDirectory.getBlockStore().storeBlocks(writes, mongoDirectory.getBlockFlushWriteConcern());
+			}
+			catch (IOException | RuntimeException e) {
+				//any failure leaves the blocks queued and dirty, otherwise a later wait would drop them as stored
+				for (MongoBlock mongoBlock : batch) {
+					mongoBlock.markDirty();
+				}
+				failure = e;
+				return false;
+			}
+
+			//the bulk write is timed as a whole so each block is charged an even share
+			long nanosPerBlock = (System.nanoTime() - start) / batch.size();
+			for (int i = 0; i < batch.size(); i++) {
+				MongoBlock mongoBlock = batch.get(i);
+				mongoBlock.mongoFile.getBlockStats().recordFlush(batchSizes.get(i), nanosPerBlock);
+				removeIfClean(mongoBlock);
+			}
+			return true;
+		}
+	}
+
+	private void removeIfClean(MongoBlock mongoBlock) {
+		//a block written to again after its snapshot was taken stays queued
+		if (!mongoBlock.isDirty() && pending.remove(mongoBlock.blockKey, mongoBlock)) {
+			pendingBytes.addAndGet(-mongoBlock.getSizeInBytes());
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+package org.lumongo.storage.lucene;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.lumongo.storage.util.JmxUtil;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * Block cache counters for the files of one type (extension) in one {@link MongoDirectory}.
+ *
+ * Stats are registered as MBeans under {@link #JMX_DOMAIN} while the directory is open.  Flush time is measured per bulk
+ * write and split evenly between the blocks of the batch.
+ */
+public class BlockStats implements BlockStatsMBean {
+
+	public static final String JMX_DOMAIN = "org.lumongo.storage";
+
+	private static final int HISTOGRAM_BUCKETS = 12;
+
+	private static final ConcurrentHashMap<String, BlockStats> statsMap = new ConcurrentHashMap<>();
+
+	private final String directoryName;
+	private final String fileType;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder loads;
+	private final LongAdder loadedBytes;
+	private final LongAdder loadNanos;
+	private final LongAdder[] loadTimeHistogram;
+	private final LongAdder evictions;
+	private final LongAdder flushes;
+	private final LongAdder flushedBytes;
+	private final LongAdder flushNanos;
+
+	private ObjectName objectName;
+
+	/**
+	 * @return the stats for the type of the file, created and registered on first use
+	 */
+	public static BlockStats getStats(String directoryName, String fileName) {
+		String fileType = getFileType(fileName);
+		return statsMap.computeIfAbsent(directoryName + "/" + fileType, k -> {
+			BlockStats blockStats = new BlockStats(directoryName, fileType);
+			blockStats.register();
+			return blockStats;
+		});
+	}
+
+	public static List<BlockStats> getAllStats() {
+		return new ArrayList<>(statsMap.values());
+	}
+
+	/**
+	 * Drops and unregisters the stats of a closed directory
+	 */
+	public static void removeStats(String directoryName) {
+		for (BlockStats blockStats : statsMap.values()) {
+			if (blockStats.directoryName.equals(directoryName) && statsMap.remove(directoryName + "/" + blockStats.fileType, blockStats)) {
+				blockStats.unregister();
+			}
+		}
+	}
+
+	private static String getFileType(String fileName) {
+		if (fileName.startsWith(IndexFileNames.SEGMENTS) || fileName.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+			return IndexFileNames.SEGMENTS;
+		}
+		String extension = IndexFileNames.getExtension(fileName);
+		return extension != null ? extension : "none";
+	}
+
+	private BlockStats(String directoryName, String fileType) {
+		this.directoryName = directoryName;
+		this.fileType = fileType;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.loads = new LongAdder();
+		this.loadedBytes = new LongAdder();
+		this.loadNanos = new LongAdder();
+		this.loadTimeHistogram = new LongAdder[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			loadTimeHistogram[i] = new LongAdder();
+		}
+		this.evictions = new LongAdder();
+		this.flushes = new LongAdder();
+		this.flushedBytes = new LongAdder();
+		this.flushNanos = new LongAdder();
+	}
+
+	private void register() {
+		objectName = JmxUtil.register(this,
+				JMX_DOMAIN + ":type=BlockCache,directory=" + ObjectName.quote(directoryName) + ",fileType=" + ObjectName.quote(fileType));
+	}
+
+	private void unregister() {
+		JmxUtil.unregister(objectName);
+		objectName = null;
+	}
+
+	public void recordHit() {
+		hits.increment();
+	}
+
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	/**
+	 * Records a fetch of one or more blocks from mongo or the disk tier
+	 */
+	public void recordLoad(int blocks, long bytes, long nanos) {
+		loads.add(blocks);
+		loadedBytes.add(bytes);
+		loadNanos.add(nanos);
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+		loadTimeHistogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)].increment();
+	}
+
+	public void recordEviction() {
+		evictions.increment();
+	}
+
+	public void recordFlush(long bytes, long nanos) {
+		flushes.increment();
+		flushedBytes.add(bytes);
+		flushNanos.add(nanos);
+	}
+
+	@Override
+	public String getDirectoryName() {
+		return directoryName;
+	}
+
+	@Override
+	public String getFileType() {
+		return fileType;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total > 0 ? (double) hits / total : 0;
+	}
+
+	@Override
+	public long getLoads() {
+		return loads.sum();
+	}
+
+	@Override
+	public long getLoadedBytes() {
+		return loadedBytes.sum();
+	}
+
+	@Override
+	public double getAverageLoadTimeMs() {
+		long fetches = 0;
+		for (LongAdder bucket : loadTimeHistogram) {
+			fetches += bucket.sum();
+		}
+		return fetches > 0 ? loadNanos.sum() / (fetches * 1000000.0) : 0;
+	}
+
+	@Override
+	public long[] getLoadTimeHistogram() {
+		long[] histogram = new long[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			histogram[i] = loadTimeHistogram[i].sum();
+		}
+		return histogram;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	@Override
+	public long getFlushedBytes() {
+		return flushedBytes.sum();
+	}
+
+	@Override
+	public double getAverageFlushTimeMs() {
+		long flushes = getFlushes();
+		return flushes > 0 ? flushNanos.sum() / (flushes * 1000000.0) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "BlockStats{" + "directoryName='" + directoryName + '\'' + ", fileType='" + fileType + '\'' + ", hits=" + hits + ", misses=" + misses + ", loads="
+				+ loads + ", loadedBytes=" + loadedBytes + ", evictions=" + evictions + ", flushes=" + flushes + ", flushedBytes=" + flushedBytes + '}';
+	}
+}
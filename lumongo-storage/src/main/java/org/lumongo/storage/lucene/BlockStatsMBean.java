@@ -0,0 +1,50 @@
+package org.lumongo.storage.lucene;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * JMX view of the {@link BlockStats} of one directory and file type
+ */
+public interface BlockStatsMBean {
+
+	String getDirectoryName();
+
+	String getFileType();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	long getLoads();
+
+	long getLoadedBytes();
+
+	double getAverageLoadTimeMs();
+
+	/**
+	 * @return count of loads per bucket, bucket i counts loads under 2^i ms and the last bucket counts the rest
+	 */
+	long[] getLoadTimeHistogram();
+
+	long getEvictions();
+
+	long getFlushes();
+
+	long getFlushedBytes();
+
+	double getAverageFlushTimeMs();
+
+}
@@ -0,0 +1,69 @@
+package org.lumongo.storage.lucene;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * Stores the file table and the blocks of a {@link MongoDirectory}.  Files and blocks are passed as the documents of the
+ * files and blocks collections, a block is identified by its file number and block number.
+ */
+public interface BlockStore {
+
+	/**
+	 * @return the name of the database holding the index, directories of the same database and index share an index number
+	 */
+	String getDatabaseName();
+
+	String getIndexName();
+
+	List<Document> getFiles() throws IOException;
+
+	/**
+	 * Adds or replaces the document of a file, fails if the file number is used by a file with another id
+	 * @param writeConcern - write concern of the store or null for its default
+	 */
+	void storeFile(Document file, WriteConcern writeConcern) throws IOException;
+
+	/**
+	 * Removes the document and the blocks of a file
+	 */
+	void deleteFile(short fileNumber) throws IOException;
+
+	/**
+	 * @return the stored block or null if it was never stored
+	 */
+	Document getBlock(short fileNumber, int blockNumber, ReadPreference readPreference) throws IOException;
+
+	/**
+	 * @return the stored blocks in any order, blocks never stored are left out
+	 */
+	Iterable<Document> getBlocks(short fileNumber, List<Integer> blockNumbers, ReadPreference readPreference) throws IOException;
+
+	/**
+	 * Adds or replaces blocks in one request
+	 */
+	void storeBlocks(List<Document> blocks, WriteConcern writeConcern) throws IOException;
+
+	/**
+	 * @return the number of stored blocks of all files
+	 */
+	long getBlockCount() throws IOException;
+
+}
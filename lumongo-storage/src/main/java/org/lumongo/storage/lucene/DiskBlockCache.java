@@ -0,0 +1,576 @@
+package org.lumongo.storage.lucene;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * Local disk tier below the {@link BlockCache} for the blocks of one {@link MongoDirectory}.
+ *
+ * Each file of the directory has a sparse, memory mapped data file holding the blocks fetched from mongo at their block
+ * offset.  Which blocks are present is kept in memory and written to a meta file with the file name, length, last
+ * modified and block size when the directory is closed.  When the directory is opened again, on this node or after the
+ * segment comes back to it, the stored blocks of a file are reused only if its meta file matches the file metadata in
+ * mongo, including the file id so a file recreated with the same name and number is never matched.  The meta file is
+ * removed while the directory is open so blocks of a node that did not shut down cleanly are never trusted.
+ *
+ * Only blocks fetched from mongo are added.  A block queued to be written is removed from the tier until it is fetched
+ * again.
+ *
+ * The blocks of all open directories share one byte budget.  A sparse file only gives back disk space when it is
+ * deleted, so when a block does not fit the least recently used local files of any open directory are evicted whole.
+ * Mappings are released when a local file is evicted, removed or closed.
+ */
+public class DiskBlockCache {
+
+	private static final String DATA_SUFFIX = ".data";
+	private static final String META_SUFFIX = ".meta";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final int META_VERSION = 2;
+
+	private static final long MAX_CHUNK_BYTES = 256L * 1024 * 1024;
+
+	private static final Set<DiskBlockCache> openCaches = ConcurrentHashMap.newKeySet();
+	private static final AtomicLong usedBytes = new AtomicLong();
+	private static final AtomicLong useClock = new AtomicLong();
+	private static volatile long maxBytes = Long.MAX_VALUE;
+
+	private final Path directory;
+	private final ConcurrentHashMap<Short, LocalFile> localFiles;
+
+	private volatile boolean closed;
+
+	/**
+	 * Opens the local copy of a directory, keeping only the files that match the current file metadata
+	 * @param directory - local path used only by this directory
+	 * @param mongoFiles - the files currently stored for the directory
+	 */
+	public DiskBlockCache(Path directory, Collection<MongoFile> mongoFiles) throws IOException {
+		this.directory = directory;
+		this.localFiles = new ConcurrentHashMap<>();
+
+		Files.createDirectories(directory);
+
+		Map<Short, MongoFile> fileNumberToFile = new HashMap<>();
+		for (MongoFile mongoFile : mongoFiles) {
+			fileNumberToFile.put(mongoFile.fileNumber, mongoFile);
+		}
+
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			directoryStream.forEach(paths::add);
+		}
+
+		for (Path path : paths) {
+			String name = path.getFileName().toString();
+			if (!name.endsWith(DATA_SUFFIX)) {
+				if (!name.endsWith(META_SUFFIX) || !Files.exists(getDataPath(name.substring(0, name.length() - META_SUFFIX.length())))) {
+					Files.deleteIfExists(path);
+				}
+				continue;
+			}
+
+			String fileNumberString = name.substring(0, name.length() - DATA_SUFFIX.length());
+			Path metaPath = getMetaPath(fileNumberString);
+
+			BitSet present = null;
+			try {
+				MongoFile mongoFile = fileNumberToFile.get(Short.parseShort(fileNumberString));
+				if (mongoFile != null && Files.exists(metaPath)) {
+					present = readMeta(metaPath, mongoFile);
+				}
+				if (present != null) {
+					localFiles.put(mongoFile.fileNumber, new LocalFile(path, mongoFile.fileId, mongoFile.getBlockSize(), present));
+				}
+			}
+			catch (NumberFormatException | IOException e) {
+				present = null;
+			}
+			finally {
+				//the meta file is written again on close, until then the blocks are only trusted in memory
+				Files.deleteIfExists(metaPath);
+			}
+
+			if (present == null) {
+				Files.deleteIfExists(path);
+			}
+		}
+
+		openCaches.add(this);
+		makeRoom(0, null);
+	}
+
+	/**
+	 * Sets the byte budget shared by the blocks of all open directories, evicting local files until it is met
+	 */
+	public static void setMaxSize(long maxSizeInBytes) {
+		maxBytes = maxSizeInBytes;
+		makeRoom(0, null);
+	}
+
+	public static long getMaxSize() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the bytes of the blocks stored for all open directories
+	 */
+	public static long getTotalSizeInBytes() {
+		return usedBytes.get();
+	}
+
+	/**
+	 * Evicts the least recently used local files of the open directories until the bytes fit in the budget
+	 * @param keep - the file the bytes are added to, it is not evicted
+	 * @return false if the bytes do not fit even with every other file evicted
+	 */
+	private static synchronized boolean makeRoom(long bytes, LocalFile keep) {
+		while (usedBytes.get() + bytes > maxBytes) {
+			DiskBlockCache lruCache = null;
+			LocalFile lruFile = null;
+			for (DiskBlockCache cache : openCaches) {
+				for (LocalFile localFile : cache.localFiles.values()) {
+					if (localFile != keep && localFile.getBlockCount() > 0 && (lruFile == null || localFile.lastUsed < lruFile.lastUsed)) {
+						lruCache = cache;
+						lruFile = localFile;
+					}
+				}
+			}
+			if (lruFile == null) {
+				return false;
+			}
+			lruCache.evict(lruFile);
+		}
+		return true;
+	}
+
+	private void evict(LocalFile localFile) {
+		if (localFiles.remove(localFile.fileNumber, localFile)) {
+			try {
+				localFile.close();
+				Files.deleteIfExists(localFile.path);
+			}
+			catch (IOException e) {
+				//the file is no longer used, its blocks are not counted and it is removed on the next open
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the block or null if the block is not stored locally
+	 */
+	public MongoBlock getBlock(MongoFile mongoFile, int blockNumber) throws IOException {
+		LocalFile localFile = localFiles.get(mongoFile.fileNumber);
+		if (localFile == null || !localFile.isFor(mongoFile)) {
+			return null;
+		}
+		return localFile.read(mongoFile, blockNumber);
+	}
+
+	/**
+	 * Stores a block fetched from mongo
+	 */
+	public void putBlock(MongoBlock mongoBlock) throws IOException {
+		if (closed) {
+			return;
+		}
+		MongoFile mongoFile = mongoBlock.mongoFile;
+		LocalFile localFile = localFiles.get(mongoFile.fileNumber);
+		if (localFile != null && !localFile.isFor(mongoFile)) {
+			//left by an earlier file with the same number
+			evict(localFile);
+			localFile = null;
+		}
+		if (localFile == null) {
+			localFile = localFiles.computeIfAbsent(mongoFile.fileNumber, k -> {
+				try {
+					return new LocalFile(getDataPath(Short.toString(k)), mongoFile.fileId, mongoFile.getBlockSize(), new BitSet());
+				}
+				catch (IOException e) {
+					return null;
+				}
+			});
+			if (localFile == null || !localFile.isFor(mongoFile)) {
+				return;
+			}
+		}
+		if (makeRoom(localFile.blockSize, localFile)) {
+			localFile.write(mongoBlock);
+		}
+	}
+
+	/**
+	 * Removes a block that has changed since it was fetched
+	 */
+	public void invalidateBlock(MongoFile mongoFile, int blockNumber) {
+		LocalFile localFile = localFiles.get(mongoFile.fileNumber);
+		if (localFile != null) {
+			localFile.invalidate(blockNumber);
+		}
+	}
+
+	/**
+	 * Removes the local copy of a deleted file
+	 */
+	public void removeFile(short fileNumber) throws IOException {
+		LocalFile localFile = localFiles.remove(fileNumber);
+		if (localFile != null) {
+			localFile.close();
+			Files.deleteIfExists(localFile.path);
+		}
+		Files.deleteIfExists(getMetaPath(Short.toString(fileNumber)));
+	}
+
+	/**
+	 * Forces the blocks to disk and records the metadata of the files they belong to so they can be reused on the next open
+	 * @param mongoFiles - the files of the directory with their final metadata
+	 */
+	public void close(Collection<MongoFile> mongoFiles) throws IOException {
+		closed = true;
+		openCaches.remove(this);
+
+		Map<Short, MongoFile> fileNumberToFile = new HashMap<>();
+		for (MongoFile mongoFile : mongoFiles) {
+			fileNumberToFile.put(mongoFile.fileNumber, mongoFile);
+		}
+
+		IOException exception = null;
+		for (LocalFile localFile : localFiles.values()) {
+			MongoFile mongoFile = fileNumberToFile.get(localFile.fileNumber);
+			try {
+				localFile.force();
+				localFile.close();
+				if (mongoFile != null && localFile.isFor(mongoFile)) {
+					writeMeta(getMetaPath(Short.toString(localFile.fileNumber)), mongoFile, localFile.getPresent());
+				}
+				else {
+					Files.deleteIfExists(localFile.path);
+				}
+			}
+			catch (IOException e) {
+				exception = e;
+			}
+		}
+		localFiles.clear();
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Removes the local copies of every file of a directory
+	 */
+	public static void delete(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path path : directoryStream) {
+				Files.deleteIfExists(path);
+			}
+		}
+		Files.deleteIfExists(directory);
+	}
+
+	public long getSizeInBytes() {
+		long size = 0;
+		for (LocalFile localFile : localFiles.values()) {
+			size += (long) localFile.getBlockCount() * localFile.blockSize;
+		}
+		return size;
+	}
+
+	private Path getDataPath(String fileNumber) {
+		return directory.resolve(fileNumber + DATA_SUFFIX);
+	}
+
+	private Path getMetaPath(String fileNumber) {
+		return directory.resolve(fileNumber + META_SUFFIX);
+	}
+
+	private static BitSet readMeta(Path metaPath, MongoFile mongoFile) throws IOException {
+		try (InputStream is = Files.newInputStream(metaPath); DataInputStream dis = new DataInputStream(is)) {
+			if (dis.readInt() != META_VERSION) {
+				return null;
+			}
+			String fileName = dis.readUTF();
+			long fileId = dis.readLong();
+			long fileLength = dis.readLong();
+			long lastModified = dis.readLong();
+			int blockSize = dis.readInt();
+			if (!fileName.equals(mongoFile.getFileName()) || fileId != mongoFile.fileId || fileLength != mongoFile.getFileLength()
+					|| lastModified != mongoFile.getLastModified() || blockSize != mongoFile.getBlockSize()) {
+				return null;
+			}
+			long[] words = new long[dis.readInt()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = dis.readLong();
+			}
+			return BitSet.valueOf(words);
+		}
+	}
+
+	private static void writeMeta(Path metaPath, MongoFile mongoFile, BitSet present) throws IOException {
+		Path tempPath = metaPath.resolveSibling(metaPath.getFileName() + TEMP_SUFFIX);
+		try (OutputStream os = Files.newOutputStream(tempPath); DataOutputStream dos = new DataOutputStream(os)) {
+			dos.writeInt(META_VERSION);
+			dos.writeUTF(mongoFile.getFileName());
+			dos.writeLong(mongoFile.fileId);
+			dos.writeLong(mongoFile.getFileLength());
+			dos.writeLong(mongoFile.getLastModified());
+			dos.writeInt(mongoFile.getBlockSize());
+			long[] words = present.toLongArray();
+			dos.writeInt(words.length);
+			for (long word : words) {
+				dos.writeLong(word);
+			}
+		}
+		Files.move(tempPath, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Releases a mapping now instead of when it is garbage collected, the mapping must not be used afterwards
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			try {
+				//java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			}
+			catch (NoSuchMethodException e) {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		}
+		catch (Exception e) {
+			//left to be released when the buffer is garbage collected
+		}
+	}
+
+	private static class LocalFile {
+
+		private final Path path;
+		private final short fileNumber;
+		private final long fileId;
+		private final int blockSize;
+		private final int blocksPerChunk;
+		private final FileChannel channel;
+		private final BitSet present;
+		private final List<MappedByteBuffer> chunks;
+		//mappings replaced by larger ones, readers may still be copying from them until the file is closed
+		private final List<MappedByteBuffer> replacedChunks;
+		//held while a mapping is used so the mappings are only released when nothing reads or writes them
+		private final ReadWriteLock mappingLock;
+
+		private boolean closed;
+		private volatile long lastUsed;
+
+		LocalFile(Path path, long fileId, int blockSize, BitSet present) throws IOException {
+			String name = path.getFileName().toString();
+			this.path = path;
+			this.fileNumber = Short.parseShort(name.substring(0, name.length() - DATA_SUFFIX.length()));
+			this.fileId = fileId;
+			this.blockSize = blockSize;
+			this.blocksPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / blockSize);
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.present = present;
+			this.chunks = new ArrayList<>();
+			this.replacedChunks = new ArrayList<>();
+			this.mappingLock = new ReentrantReadWriteLock();
+			usedBytes.addAndGet((long) present.cardinality() * blockSize);
+		}
+
+		boolean isFor(MongoFile mongoFile) {
+			return fileId == mongoFile.fileId && blockSize == mongoFile.getBlockSize();
+		}
+
+		MongoBlock read(MongoFile mongoFile, int blockNumber) throws IOException {
+			mappingLock.readLock().lock();
+			try {
+				ByteBuffer chunk;
+				synchronized (this) {
+					if (closed || !present.get(blockNumber)) {
+						return null;
+					}
+					chunk = getChunk(blockNumber, mongoFile.getFileLength());
+				}
+
+				ByteBuffer source = chunk.duplicate();
+				int offset = (blockNumber % blocksPerChunk) * blockSize;
+				source.limit(offset + blockSize);
+				source.position(offset);
+
+				MongoBlock mongoBlock = new MongoBlock(mongoFile, blockNumber, blockSize);
+				mongoBlock.buffer.duplicate().put(source);
+				lastUsed = useClock.incrementAndGet();
+
+				synchronized (this) {
+					//the block may have been replaced while it was copied
+					return present.get(blockNumber) ? mongoBlock : null;
+				}
+			}
+			finally {
+				mappingLock.readLock().unlock();
+			}
+		}
+
+		void write(MongoBlock mongoBlock) throws IOException {
+			mappingLock.readLock().lock();
+			try {
+				ByteBuffer target;
+				synchronized (this) {
+					if (closed) {
+						return;
+					}
+					setPresent(mongoBlock.blockNumber, false);
+					target = getChunk(mongoBlock.blockNumber, mongoBlock.mongoFile.getFileLength()).duplicate();
+				}
+
+				int offset = (mongoBlock.blockNumber % blocksPerChunk) * blockSize;
+				target.position(offset);
+				ByteBuffer source = mongoBlock.buffer.duplicate();
+				source.clear();
+				target.put(source);
+				lastUsed = useClock.incrementAndGet();
+
+				synchronized (this) {
+					if (!closed) {
+						setPresent(mongoBlock.blockNumber, true);
+					}
+				}
+			}
+			finally {
+				mappingLock.readLock().unlock();
+			}
+		}
+
+		synchronized void invalidate(int blockNumber) {
+			if (!closed) {
+				setPresent(blockNumber, false);
+			}
+		}
+
+		private void setPresent(int blockNumber, boolean value) {
+			if (present.get(blockNumber) != value) {
+				present.set(blockNumber, value);
+				usedBytes.addAndGet(value ? blockSize : -blockSize);
+			}
+		}
+
+		synchronized BitSet getPresent() {
+			return (BitSet) present.clone();
+		}
+
+		synchronized int getBlockCount() {
+			return present.cardinality();
+		}
+
+		synchronized void force() {
+			for (MappedByteBuffer chunk : chunks) {
+				if (chunk != null) {
+					chunk.force();
+				}
+			}
+		}
+
+		/**
+		 * Releases the mappings once no block is being read or written, the present blocks are kept for the meta file
+		 * but no longer count against the budget
+		 */
+		void close() throws IOException {
+			mappingLock.writeLock().lock();
+			try {
+				synchronized (this) {
+					if (closed) {
+						return;
+					}
+					closed = true;
+					usedBytes.addAndGet(-(long) present.cardinality() * blockSize);
+					for (MappedByteBuffer chunk : chunks) {
+						if (chunk != null) {
+							unmap(chunk);
+						}
+					}
+					for (MappedByteBuffer chunk : replacedChunks) {
+						unmap(chunk);
+					}
+					chunks.clear();
+					replacedChunks.clear();
+				}
+				channel.close();
+			}
+			finally {
+				mappingLock.writeLock().unlock();
+			}
+		}
+
+		private MappedByteBuffer getChunk(int blockNumber, long fileLength) throws IOException {
+			int chunkNumber = blockNumber / blocksPerChunk;
+			int blockInChunk = blockNumber % blocksPerChunk;
+			while (chunks.size() <= chunkNumber) {
+				chunks.add(null);
+			}
+
+			MappedByteBuffer chunk = chunks.get(chunkNumber);
+			if (chunk == null || chunk.capacity() < (blockInChunk + 1) * blockSize) {
+				if (chunk != null) {
+					replacedChunks.add(chunk);
+				}
+				//map only as far as the file currently goes, mapping past the end grows the data file sparsely
+				long fileBlocks = (fileLength + blockSize - 1) / blockSize;
+				long chunkBlocks = Math.min(blocksPerChunk, Math.max(blockInChunk + 1, fileBlocks - (long) chunkNumber * blocksPerChunk));
+				chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkNumber * blocksPerChunk * blockSize, chunkBlocks * blockSize);
+				chunks.set(chunkNumber, chunk);
+			}
+			return chunk;
+		}
+
+	}
+
+}
@@ -14,6 +14,10 @@ package org.lumongo.storage.lucene;
  */
 
 import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.store.BaseDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -22,14 +26,28 @@ import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.LockFactory;
 import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.util.IOUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class DistributedDirectory extends BaseDirectory {
 
+	/** Extensions of the files loaded by {@link #warmUp}, in the order the byte budget is spent on them */
+	private static final List<String> WARM_UP_EXTENSIONS = Arrays.asList("si", "fnm", "liv", "tip", "nvm", "nvd", "dvm", "dvd");
+
 	/** Used to generate temp file names in {@link #createTempOutput}. */
 	private final AtomicLong nextTempFileCounter = new AtomicLong();
 
@@ -45,15 +63,28 @@ public class DistributedDirectory extends BaseDirectory {
 	}
 
 	/**
-	 * ignore IOContext
+	 * IOContext is only used to estimate the size of the new file
 	 */
 	@Override
 	public IndexOutput createOutput(String name, IOContext context) throws IOException {
 		ensureOpen();
-		NosqlFile nosqlFile = nosqlDirectory.getFileHandle(name, true);
+		NosqlFile nosqlFile = nosqlDirectory.getFileHandle(name, true, getExpectedSize(context));
 		return new DistributedIndexOutput(nosqlFile);
 	}
 
+	/**
+	 * @return the estimated size of the segment being flushed or merged, -1 if unknown
+	 */
+	private static long getExpectedSize(IOContext context) {
+		if (context.mergeInfo != null) {
+			return context.mergeInfo.estimatedMergeBytes;
+		}
+		if (context.flushInfo != null) {
+			return context.flushInfo.estimatedSegmentSize;
+		}
+		return -1;
+	}
+
 	@Override
 	public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) throws IOException {
 
@@ -70,7 +101,7 @@ public class DistributedDirectory extends BaseDirectory {
 	public void sync(Collection<String> names) throws IOException {
 		for (String name : names) {
 			NosqlFile nosqlFile = nosqlDirectory.getFileHandle(name, true);
-			nosqlFile.flush();
+			nosqlFile.sync();
 		}
 
 	}
@@ -87,13 +118,14 @@ public class DistributedDirectory extends BaseDirectory {
 	}
 
 	/**
-	 * ignore IOContext
+	 * IOContext is only used to start reading ahead immediately for merges and read once files
 	 */
 	@Override
 	public IndexInput openInput(String name, IOContext context) throws IOException {
 		ensureOpen();
 		NosqlFile nosqlFile = nosqlDirectory.getFileHandle(name);
-		return new DistributedIndexInput(nosqlFile.getFileName(), nosqlFile);
+		boolean sequential = context.readOnce || IOContext.Context.MERGE.equals(context.context);
+		return new DistributedIndexInput(nosqlFile.getFileName(), nosqlFile, sequential);
 	}
 
 	@Override
@@ -116,6 +148,91 @@ public class DistributedDirectory extends BaseDirectory {
 		nosqlDirectory.deleteFile(nosqlFile);
 	}
 
+	/**
+	 * Loads the live docs, terms index, norms and doc values of the latest commit so the first queries do not fetch them block by block.
+	 * Files of compound segments are loaded from their range of the compound file.
+	 * @param maxBytes - maximum number of bytes loaded for all files
+	 * @param executor - loads the files in parallel
+	 * @return the number of bytes loaded
+	 */
+	public long warmUp(long maxBytes, ExecutorService executor) throws IOException {
+		ensureOpen();
+
+		SegmentInfos segmentInfos;
+		try {
+			segmentInfos = SegmentInfos.readLatestCommit(this);
+		}
+		catch (IndexNotFoundException e) {
+			//nothing committed yet
+			return 0;
+		}
+
+		List<Closeable> toClose = new ArrayList<>();
+		List<Future<Long>> futures = new ArrayList<>();
+		try {
+			//the directory holding each file, the compound reader for files inside a compound file
+			Map<String, Directory> fileToDirectory = new HashMap<>();
+			for (SegmentCommitInfo segmentCommitInfo : segmentInfos) {
+				for (String fileName : segmentCommitInfo.files()) {
+					fileToDirectory.put(fileName, this);
+				}
+				SegmentInfo segmentInfo = segmentCommitInfo.info;
+				if (segmentInfo.getUseCompoundFile()) {
+					Directory compoundReader = segmentInfo.getCodec().compoundFormat().getCompoundReader(this, segmentInfo, IOContext.READ);
+					toClose.add(compoundReader);
+					for (String fileName : compoundReader.listAll()) {
+						fileToDirectory.put(fileName, compoundReader);
+					}
+				}
+			}
+
+			List<DistributedIndexInput> inputs = new ArrayList<>();
+			for (String extension : WARM_UP_EXTENSIONS) {
+				for (Map.Entry<String, Directory> entry : fileToDirectory.entrySet()) {
+					if (extension.equals(IndexFileNames.getExtension(entry.getKey()))) {
+						IndexInput indexInput = entry.getValue().openInput(entry.getKey(), IOContext.READ);
+						toClose.add(indexInput);
+						inputs.add((DistributedIndexInput) indexInput);
+					}
+				}
+			}
+
+			long remainingBytes = maxBytes;
+			for (DistributedIndexInput input : inputs) {
+				if (remainingBytes <= 0) {
+					break;
+				}
+				long inputBytes = Math.min(remainingBytes, input.length());
+				futures.add(executor.submit(() -> input.preload(inputBytes)));
+				remainingBytes -= inputBytes;
+			}
+
+			long bytesLoaded = 0;
+			for (Future<Long> future : futures) {
+				bytesLoaded += future.get();
+			}
+			return bytesLoaded;
+		}
+		catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted warming up <" + this + ">");
+		}
+		catch (ExecutionException e) {
+			cancel(futures);
+			throw new IOException("Failed to warm up <" + this + ">", e.getCause());
+		}
+		finally {
+			IOUtils.close(toClose);
+		}
+	}
+
+	private static void cancel(List<Future<Long>> futures) {
+		for (Future<Long> future : futures) {
+			future.cancel(true);
+		}
+	}
+
 	public void copyToFSDirectory(Path path) throws IOException {
 		copyToDirectory(FSDirectory.open(path));
 	}
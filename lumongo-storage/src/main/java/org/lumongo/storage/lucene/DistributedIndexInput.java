@@ -18,26 +18,124 @@ package org.lumongo.storage.lucene;
  */
 
 import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a {@link NosqlFile} through a local view of the block being read, so primitive reads inside a block do not go
+ * through the file or the block cache.
+ */
+public class DistributedIndexInput extends IndexInput implements RandomAccessInput {
+
+	/** number of consecutive blocks read before the following blocks are read ahead */
+	private static final int SEQUENTIAL_BLOCKS_FOR_READ_AHEAD = 2;
 
-public class DistributedIndexInput extends IndexInput {
 	private final NosqlFile nosqlFile;
+	private final int blockSize;
 
 	protected long position;
 	protected long sliceOffset;
 	protected long length;
 
+	//view of the block holding the last read, file positions of its start and of the end of its readable bytes
+	private ByteBuffer buffer;
+	private long bufferStart;
+	private long bufferEnd;
+
+	//file positions of the block last read, used to detect sequential access
+	private long currentBlock;
+	private long currentBlockStart;
+	private long currentBlockEnd;
+	private int sequentialBlocks;
+
+	//file positions of the current read ahead window and the point where the next window is requested
+	private long readAheadEnd;
+	private long readAheadTrigger;
+
 	public DistributedIndexInput(String name, NosqlFile nosqlFile) {
+		this(name, nosqlFile, false);
+	}
+
+	/**
+	 * @param sequential - true if the file is known to be read front to back (merges and read once files) so blocks are read ahead from the start
+	 */
+	public DistributedIndexInput(String name, NosqlFile nosqlFile, boolean sequential) {
 		this(name, nosqlFile, 0, nosqlFile.getFileLength());
+		if (sequential) {
+			//treat the first block as a continuation of a sequential read
+			this.currentBlock = -1;
+			this.sequentialBlocks = SEQUENTIAL_BLOCKS_FOR_READ_AHEAD;
+		}
 	}
 
 	public DistributedIndexInput(String name, NosqlFile nosqlFile, long sliceOffset, long length) {
 		super(DistributedIndexInput.class.getSimpleName() + "(" + name + ")");
 		this.nosqlFile = nosqlFile;
+		this.blockSize = nosqlFile.getBlockSize();
 		this.sliceOffset = sliceOffset;
 		this.length = length;
+		this.currentBlock = -2;
+		this.bufferStart = -1;
+		this.bufferEnd = -1;
+	}
+
+	private void trackBlock(long block) {
+		if (block != currentBlock) {
+			if (block == currentBlock + 1) {
+				sequentialBlocks++;
+			}
+			else {
+				sequentialBlocks = 0;
+				readAheadEnd = 0;
+				readAheadTrigger = 0;
+			}
+			setCurrentBlock(block);
+			readAheadIfSequential();
+		}
+	}
+
+	private void setCurrentBlock(long block) {
+		currentBlock = block;
+		currentBlockStart = block * blockSize;
+		currentBlockEnd = currentBlockStart + blockSize;
+	}
+
+	private void readAheadIfSequential() {
+		if (sequentialBlocks >= SEQUENTIAL_BLOCKS_FOR_READ_AHEAD && currentBlockEnd >= readAheadTrigger) {
+			long readAheadStart = Math.max(currentBlockEnd, readAheadEnd);
+			readAheadEnd = nosqlFile.readAhead(readAheadStart);
+			//request the next window once the reader is half way through this one
+			readAheadTrigger = readAheadStart + (readAheadEnd - readAheadStart) / 2;
+			if (readAheadEnd <= readAheadStart) {
+				//nothing left to read ahead
+				readAheadTrigger = Long.MAX_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Makes the block holding the file position the current buffer
+	 * @param sequential - false for positional reads that should not affect read ahead
+	 * @return the offset of the file position in the buffer
+	 */
+	private int loadBlock(long filePosition, boolean sequential) throws IOException {
+		if (filePosition < bufferStart || filePosition >= bufferEnd) {
+			long block = filePosition / blockSize;
+			if (sequential) {
+				trackBlock(block);
+			}
+			buffer = nosqlFile.getBlockBuffer(filePosition);
+			bufferStart = block * blockSize;
+			//bytes past the end of the slice are not readable through the buffer
+			bufferEnd = Math.min(bufferStart + blockSize, sliceOffset + length);
+		}
+		else if (sequential) {
+			trackBlock(filePosition / blockSize);
+		}
+		return (int) (filePosition - bufferStart);
 	}
 
 	@Override
@@ -67,23 +165,91 @@ public class DistributedIndexInput extends IndexInput {
 			throw new EOFException("read past EOF: " + this);
 		}
 
-		byte result = nosqlFile.readByte(position + sliceOffset);
+		int offset = loadBlock(position + sliceOffset, true);
+		byte result = buffer.get(offset);
 		position += 1;
 		return result;
 	}
 
+	@Override
+	public short readShort() throws IOException {
+		long filePosition = position + sliceOffset;
+		if (filePosition >= bufferStart && filePosition + 2 <= bufferEnd) {
+			short result = buffer.getShort((int) (filePosition - bufferStart));
+			position += 2;
+			return result;
+		}
+		return super.readShort();
+	}
+
 	@Override
 	public int readInt() throws IOException {
-		int result = nosqlFile.readInt(position + sliceOffset);
-		position += 4;
-		return result;
+		long filePosition = position + sliceOffset;
+		if (filePosition >= bufferStart && filePosition + 4 <= bufferEnd) {
+			int result = buffer.getInt((int) (filePosition - bufferStart));
+			position += 4;
+			return result;
+		}
+		return super.readInt();
 	}
 
 	@Override
 	public long readLong() throws IOException {
-		long result = nosqlFile.readLong(position + sliceOffset);
-		position += 8;
-		return result;
+		long filePosition = position + sliceOffset;
+		if (filePosition >= bufferStart && filePosition + 8 <= bufferEnd) {
+			long result = buffer.getLong((int) (filePosition - bufferStart));
+			position += 8;
+			return result;
+		}
+		return super.readLong();
+	}
+
+	@Override
+	public int readVInt() throws IOException {
+		long filePosition = position + sliceOffset;
+		if (filePosition < bufferStart || filePosition + 5 > bufferEnd) {
+			return super.readVInt();
+		}
+
+		int offset = (int) (filePosition - bufferStart);
+		int start = offset;
+		byte b = buffer.get(offset++);
+		int i = b & 0x7F;
+		for (int shift = 7; b < 0 && shift < 28; shift += 7) {
+			b = buffer.get(offset++);
+			i |= (b & 0x7F) << shift;
+		}
+		if (b < 0) {
+			b = buffer.get(offset++);
+			if ((b & 0xF0) != 0) {
+				throw new IOException("Invalid vInt detected (too many bits)");
+			}
+			i |= (b & 0x0F) << 28;
+		}
+		position += offset - start;
+		return i;
+	}
+
+	@Override
+	public long readVLong() throws IOException {
+		long filePosition = position + sliceOffset;
+		if (filePosition < bufferStart || filePosition + 9 > bufferEnd) {
+			return super.readVLong();
+		}
+
+		int offset = (int) (filePosition - bufferStart);
+		int start = offset;
+		byte b = buffer.get(offset++);
+		long i = b & 0x7FL;
+		for (int shift = 7; b < 0 && shift <= 56; shift += 7) {
+			b = buffer.get(offset++);
+			i |= (b & 0x7FL) << shift;
+		}
+		if (b < 0) {
+			throw new IOException("Invalid vLong detected (negative values disallowed)");
+		}
+		position += offset - start;
+		return i;
 	}
 
 	@Override
@@ -93,8 +259,80 @@ public class DistributedIndexInput extends IndexInput {
 			throw new EOFException("read past EOF: " + this);
 		}
 
-		nosqlFile.readBytes(position + sliceOffset, b, offset, length);
-		position += length;
+		long filePosition = position + sliceOffset;
+		if (filePosition / blockSize != (filePosition + length - 1) / blockSize) {
+			//a read spanning blocks is sequential by definition
+			sequentialBlocks = Math.max(sequentialBlocks, SEQUENTIAL_BLOCKS_FOR_READ_AHEAD);
+		}
+
+		while (length > 0) {
+			int bufferOffset = loadBlock(filePosition, true);
+			int readSize = (int) Math.min(length, bufferEnd - filePosition);
+			buffer.position(bufferOffset);
+			buffer.get(b, offset, readSize);
+
+			filePosition += readSize;
+			offset += readSize;
+			length -= readSize;
+			position += readSize;
+		}
+	}
+
+	@Override
+	public byte readByte(long pos) throws IOException {
+		checkRandomAccess(pos, 1);
+		int offset = loadBlock(pos + sliceOffset, false);
+		return buffer.get(offset);
+	}
+
+	@Override
+	public short readShort(long pos) throws IOException {
+		checkRandomAccess(pos, 2);
+		int offset = loadBlock(pos + sliceOffset, false);
+		if (offset + 2 <= bufferEnd - bufferStart) {
+			return buffer.getShort(offset);
+		}
+		return (short) (((readByte(pos) & 0xFF) << 8) | (readByte(pos + 1) & 0xFF));
+	}
+
+	@Override
+	public int readInt(long pos) throws IOException {
+		checkRandomAccess(pos, 4);
+		int offset = loadBlock(pos + sliceOffset, false);
+		if (offset + 4 <= bufferEnd - bufferStart) {
+			return buffer.getInt(offset);
+		}
+		return ((readShort(pos) & 0xFFFF) << 16) | (readShort(pos + 2) & 0xFFFF);
+	}
+
+	@Override
+	public long readLong(long pos) throws IOException {
+		checkRandomAccess(pos, 8);
+		int offset = loadBlock(pos + sliceOffset, false);
+		if (offset + 8 <= bufferEnd - bufferStart) {
+			return buffer.getLong(offset);
+		}
+		return (((long) readInt(pos)) << 32) | (readInt(pos + 4) & 0xFFFFFFFFL);
+	}
+
+	private void checkRandomAccess(long pos, int size) throws EOFException {
+		if (pos < 0 || pos + size > length) {
+			throw new EOFException("read of <" + size + "> bytes at <" + pos + "> past EOF: " + this);
+		}
+	}
+
+	/**
+	 * Loads the blocks of this input that are not cached yet
+	 * @param maxBytes - maximum number of bytes from the start of the input to load
+	 * @return the number of bytes loaded
+	 */
+	public long preload(long maxBytes) throws IOException {
+		return nosqlFile.preload(sliceOffset, Math.min(length, maxBytes));
+	}
+
+	@Override
+	public RandomAccessInput randomAccessSlice(long offset, long length) throws IOException {
+		return (RandomAccessInput) slice("randomaccess", offset, length);
 	}
 
 	@Override
@@ -118,4 +356,4 @@ public class DistributedIndexInput extends IndexInput {
 
 		return ii;
 	}
-}
\ No newline at end of file
+}
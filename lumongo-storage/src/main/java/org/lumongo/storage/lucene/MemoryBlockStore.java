@@ -0,0 +1,212 @@
+package org.lumongo.storage.lucene;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * {@link BlockStore} that keeps the file and block documents in memory, used to run and measure a {@link MongoDirectory}
+ * with its block cache, read ahead and write behind without a mongo server.
+ *
+ * Every request pays a configurable latency plus a transfer time for the bytes moved.  Read preferences and write
+ * concerns are ignored, every read sees every write.  The store outlives the directories opened on it so an index can
+ * be opened again with a new {@link MongoDirectory}.
+ */
+public class MemoryBlockStore implements BlockStore {
+
+	private static final AtomicInteger storeCount = new AtomicInteger();
+
+	private final String databaseName;
+	private final String indexName;
+
+	private final ConcurrentHashMap<Short, Document> files;
+	private final ConcurrentHashMap<Long, Document> blocks;
+
+	private final LongAdder requests;
+	private final LongAdder bytesTransferred;
+
+	private volatile long requestLatencyNanos;
+	private volatile long transferNanosPerKB;
+
+	public MemoryBlockStore(String indexName) {
+		//every store is its own database so directories of different stores never share an index number
+		this.databaseName = "memory" + storeCount.incrementAndGet();
+		this.indexName = indexName;
+		this.files = new ConcurrentHashMap<>();
+		this.blocks = new ConcurrentHashMap<>();
+		this.requests = new LongAdder();
+		this.bytesTransferred = new LongAdder();
+	}
+
+	/**
+	 * Sets the simulated cost of a request to the store
+	 * @param requestLatencyMicros - time of every request
+	 * @param transferMicrosPerMB - additional time for every megabyte moved, 0 for unlimited bandwidth
+	 */
+	public void setLatency(long requestLatencyMicros, long transferMicrosPerMB) {
+		this.requestLatencyNanos = TimeUnit.MICROSECONDS.toNanos(requestLatencyMicros);
+		this.transferNanosPerKB = TimeUnit.MICROSECONDS.toNanos(transferMicrosPerMB) / 1024;
+	}
+
+	/**
+	 * @return the number of requests made to the store
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return the number of block bytes loaded from and stored to the store
+	 */
+	public long getBytesTransferred() {
+		return bytesTransferred.sum();
+	}
+
+	/**
+	 * @return the names of the stored files
+	 */
+	public String[] getFileNames() {
+		return files.values().stream().map(file -> file.getString(MongoDirectory.FILE_NAME)).toArray(String[]::new);
+	}
+
+	@Override
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	@Override
+	public String getIndexName() {
+		return indexName;
+	}
+
+	@Override
+	public List<Document> getFiles() throws IOException {
+		simulateRequest(0);
+		return new ArrayList<>(files.values());
+	}
+
+	@Override
+	public void storeFile(Document file, WriteConcern writeConcern) throws IOException {
+		simulateRequest(0);
+		short fileNumber = ((Number) file.get(MongoDirectory.FILE_NUMBER)).shortValue();
+		Document existing = files.putIfAbsent(fileNumber, file);
+		if (existing != null) {
+			//same as the unique file number index of the mongo block store
+			Number fileId = (Number) file.get(MongoDirectory.FILE_ID);
+			Number existingFileId = (Number) existing.get(MongoDirectory.FILE_ID);
+			if (fileId != null && existingFileId != null && fileId.longValue() != existingFileId.longValue()) {
+				throw new IOException("File number <" + fileNumber + "> of file <" + file.get(MongoDirectory.FILE_NAME) + "> is used by another file of index <"
+						+ indexName + ">");
+			}
+			files.put(fileNumber, file);
+		}
+	}
+
+	@Override
+	public void deleteFile(short fileNumber) throws IOException {
+		simulateRequest(0);
+		files.remove(fileNumber);
+		blocks.keySet().removeIf(blockKey -> (short) (blockKey >>> 32) == fileNumber);
+	}
+
+	@Override
+	public Document getBlock(short fileNumber, int blockNumber, ReadPreference readPreference) throws IOException {
+		Document block = blocks.get(getBlockKey(fileNumber, blockNumber));
+		simulateRequest(block != null ? getStoredLength(block) : 0);
+		return block;
+	}
+
+	@Override
+	public Iterable<Document> getBlocks(short fileNumber, List<Integer> blockNumbers, ReadPreference readPreference) throws IOException {
+		List<Document> results = new ArrayList<>();
+		long bytes = 0;
+		for (Integer blockNumber : blockNumbers) {
+			Document block = blocks.get(getBlockKey(fileNumber, blockNumber));
+			if (block != null) {
+				results.add(block);
+				bytes += getStoredLength(block);
+			}
+		}
+		simulateRequest(bytes);
+		return results;
+	}
+
+	@Override
+	public void storeBlocks(List<Document> blocksToStore, WriteConcern writeConcern) throws IOException {
+		long bytes = 0;
+		for (Document block : blocksToStore) {
+			bytes += getStoredLength(block);
+		}
+		simulateRequest(bytes);
+
+		for (Document block : blocksToStore) {
+			short fileNumber = ((Number) block.get(MongoDirectory.FILE_NUMBER)).shortValue();
+			int blockNumber = ((Number) block.get(MongoDirectory.BLOCK_NUMBER)).intValue();
+			blocks.put(getBlockKey(fileNumber, blockNumber), block);
+		}
+	}
+
+	@Override
+	public long getBlockCount() {
+		return blocks.size();
+	}
+
+	private static long getBlockKey(short fileNumber, int blockNumber) {
+		return ((0xFFFF & (long) fileNumber) << 32) | (blockNumber & 0xffffffffL);
+	}
+
+	private static int getStoredLength(Document block) {
+		return ((Binary) block.get(MongoDirectory.BYTES)).length();
+	}
+
+	/**
+	 * Waits for the simulated cost of one request moving the given number of bytes
+	 */
+	private void simulateRequest(long bytes) throws InterruptedIOException {
+		requests.increment();
+		bytesTransferred.add(bytes);
+
+		long nanos = requestLatencyNanos + (bytes * transferNanosPerKB) / 1024;
+		if (nanos > 0) {
+			long deadline = System.nanoTime() + nanos;
+			long remaining;
+			while ((remaining = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remaining);
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for <" + this + ">");
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryBlockStore [databaseName=" + databaseName + ", indexName=" + indexName + "]";
+	}
+
+}
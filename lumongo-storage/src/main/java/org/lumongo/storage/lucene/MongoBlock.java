@@ -1,5 +1,7 @@
 package org.lumongo.storage.lucene;
 
+import java.nio.ByteBuffer;
+
 /**
  * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
  * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
@@ -21,19 +23,52 @@ public class MongoBlock {
 
 	protected final Object lock;
 
-	protected byte[] bytes;
+	//direct buffer so block payloads live outside of the java heap
+	protected final ByteBuffer buffer;
+
+	protected volatile long lastAccess;
 
 	private boolean dirty;
 
-	public MongoBlock(MongoFile mongoFile, int blockNumber, byte[] bytes) {
+	public MongoBlock(MongoFile mongoFile, int blockNumber, int blockSize) {
 		this.mongoFile = mongoFile;
 		this.blockNumber = blockNumber;
-		this.bytes = bytes;
+		this.buffer = ByteBuffer.allocateDirect(blockSize);
 		this.dirty = false;
 		this.blockKey = computeBlockKey(mongoFile, blockNumber);
 		this.lock = new Object();
 	}
 
+	public MongoBlock(MongoFile mongoFile, int blockNumber, byte[] bytes) {
+		this(mongoFile, blockNumber, bytes.length);
+		buffer.put(bytes);
+	}
+
+	public int getSizeInBytes() {
+		return buffer.capacity();
+	}
+
+	public void readBytes(int blockOffset, byte[] b, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(blockOffset);
+		duplicate.get(b, offset, length);
+	}
+
+	public void writeBytes(int blockOffset, byte[] b, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(blockOffset);
+		duplicate.put(b, offset, length);
+	}
+
+	/**
+	 * @return a heap copy of the block contents for storing
+	 */
+	public byte[] getBytes() {
+		byte[] bytes = new byte[buffer.capacity()];
+		readBytes(0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
@@ -59,12 +94,38 @@ public class MongoBlock {
 		}
 	}
 
+	public boolean isDirty() {
+		synchronized (lock) {
+			return dirty;
+		}
+	}
+
+	public void markClean() {
+		synchronized (lock) {
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Queues the block to be written behind if it has changes that are not stored
+	 */
 	public void flushIfDirty() {
+		if (isDirty()) {
+			mongoFile.queueBlock(this);
+		}
+	}
+
+	/**
+	 * Copies the contents for storing and marks the block clean
+	 * @return the contents or null if the block is not dirty
+	 */
+	public byte[] takeSnapshotIfDirty() {
 		synchronized (lock) {
 			if (dirty) {
-				mongoFile.storeBlock(this);
 				dirty = false;
+				return getBytes();
 			}
+			return null;
 		}
 	}
 
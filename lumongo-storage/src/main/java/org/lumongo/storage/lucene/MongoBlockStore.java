@@ -0,0 +1,196 @@
+package org.lumongo.storage.lucene;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.lumongo.storage.constants.MongoConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * {@link BlockStore} of an index in the files and blocks collections of a mongo database
+ */
+public class MongoBlockStore implements BlockStore {
+
+	//mongo error code when an index exists with the same keys but different options
+	private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+	private final MongoClient mongo;
+	private final String dbname;
+	private final String indexName;
+
+	public MongoBlockStore(MongoClient mongo, String dbname, String indexName, boolean sharded) throws MongoException {
+		this.mongo = mongo;
+		this.dbname = dbname;
+		this.indexName = indexName;
+
+		createFileNumberIndex();
+
+		Document indexes = new Document();
+		indexes.put(MongoDirectory.FILE_NUMBER, 1);
+		indexes.put(MongoDirectory.BLOCK_NUMBER, 1);
+		getBlocksCollection().createIndex(indexes);
+
+		if (sharded) {
+			String blockCollectionName = getBlocksCollection().getNamespace().getFullName();
+			MongoDatabase db = mongo.getDatabase(MongoConstants.StandardDBs.ADMIN);
+			Document shardCommand = new Document();
+			shardCommand.put(MongoConstants.Commands.SHARD_COLLECTION, blockCollectionName);
+			shardCommand.put(MongoConstants.Commands.SHARD_KEY, indexes);
+			db.runCommand(shardCommand);
+		}
+	}
+
+	/**
+	 * A unique file number index makes the metadata upsert of a file fail if another directory on the same index has
+	 * already given the number to a different file
+	 */
+	private void createFileNumberIndex() throws MongoException {
+		Document fileNumberIndex = new Document(MongoDirectory.FILE_NUMBER, 1);
+		try {
+			getFilesCollection().createIndex(fileNumberIndex, new IndexOptions().unique(true));
+		}
+		catch (MongoCommandException e) {
+			if (e.getErrorCode() != INDEX_OPTIONS_CONFLICT) {
+				throw e;
+			}
+			//index created without the unique option by an older version
+			getFilesCollection().dropIndex(fileNumberIndex);
+			getFilesCollection().createIndex(fileNumberIndex, new IndexOptions().unique(true));
+		}
+	}
+
+	@Override
+	public String getDatabaseName() {
+		return dbname;
+	}
+
+	@Override
+	public String getIndexName() {
+		return indexName;
+	}
+
+	public MongoCollection<Document> getFilesCollection() {
+		MongoDatabase db = mongo.getDatabase(dbname);
+		MongoCollection<Document> c = db.getCollection(indexName + MongoDirectory.FILES_SUFFIX);
+		return c;
+	}
+
+	public MongoCollection<Document> getBlocksCollection() {
+		MongoDatabase db = mongo.getDatabase(dbname);
+		MongoCollection<Document> c = db.getCollection(indexName + MongoDirectory.BLOCKS_SUFFIX);
+		return c;
+	}
+
+	@Override
+	public List<Document> getFiles() throws MongoException {
+		return getFilesCollection().find().into(new ArrayList<>());
+	}
+
+	@Override
+	public void storeFile(Document file, WriteConcern writeConcern) throws IOException, MongoException {
+		MongoCollection<Document> c = getFilesCollection();
+		if (writeConcern != null) {
+			c = c.withWriteConcern(writeConcern);
+		}
+
+		Document query = new Document();
+		query.put(MongoDirectory.FILE_NUMBER, file.get(MongoDirectory.FILE_NUMBER));
+		//files stored before files had ids have none and are only matched by number
+		Number fileId = (Number) file.get(MongoDirectory.FILE_ID);
+		if (fileId != null && fileId.longValue() != 0) {
+			query.put(MongoDirectory.FILE_ID, fileId);
+		}
+
+		try {
+			c.replaceOne(query, file, new UpdateOptions().upsert(true));
+		}
+		catch (MongoWriteException e) {
+			if (ErrorCategory.fromErrorCode(e.getError().getCode()) == ErrorCategory.DUPLICATE_KEY) {
+				throw new IOException(
+						"File number <" + file.get(MongoDirectory.FILE_NUMBER) + "> of file <" + file.get(MongoDirectory.FILE_NAME) + "> is used by another file of index <"
+								+ indexName + ">", e);
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void deleteFile(short fileNumber) throws MongoException {
+		Document query = new Document();
+		query.put(MongoDirectory.FILE_NUMBER, fileNumber);
+		getFilesCollection().deleteMany(query);
+		getBlocksCollection().deleteMany(query);
+	}
+
+	@Override
+	public Document getBlock(short fileNumber, int blockNumber, ReadPreference readPreference) throws MongoException {
+		Document query = new Document();
+		query.put(MongoDirectory.FILE_NUMBER, fileNumber);
+		query.put(MongoDirectory.BLOCK_NUMBER, blockNumber);
+		return getBlocksCollection().withReadPreference(readPreference).find(query).first();
+	}
+
+	@Override
+	public Iterable<Document> getBlocks(short fileNumber, List<Integer> blockNumbers, ReadPreference readPreference) throws MongoException {
+		Document query = new Document();
+		query.put(MongoDirectory.FILE_NUMBER, fileNumber);
+		query.put(MongoDirectory.BLOCK_NUMBER, new Document(MongoConstants.Operators.IN, blockNumbers));
+		return getBlocksCollection().withReadPreference(readPreference).find(query);
+	}
+
+	@Override
+	public void storeBlocks(List<Document> blocks, WriteConcern writeConcern) throws MongoException {
+		List<WriteModel<Document>> writes = new ArrayList<>();
+		for (Document block : blocks) {
+			Document query = new Document();
+			query.put(MongoDirectory.FILE_NUMBER, block.get(MongoDirectory.FILE_NUMBER));
+			query.put(MongoDirectory.BLOCK_NUMBER, block.get(MongoDirectory.BLOCK_NUMBER));
+			writes.add(new ReplaceOneModel<>(query, block, new UpdateOptions().upsert(true)));
+		}
+
+		MongoCollection<Document> c = getBlocksCollection();
+		if (writeConcern != null) {
+			c = c.withWriteConcern(writeConcern);
+		}
+		c.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+	}
+
+	@Override
+	public long getBlockCount() throws MongoException {
+		return getBlocksCollection().count();
+	}
+
+	@Override
+	public String toString() {
+		return "MongoBlockStore [dbname=" + dbname + ", indexName=" + indexName + "]";
+	}
+
+}
@@ -2,18 +2,24 @@ package org.lumongo.storage.lucene;
 
 import com.mongodb.MongoClient;
 import com.mongodb.MongoException;
-import com.mongodb.client.FindIterable;
-import com.mongodb.client.MongoCollection;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.UpdateOptions;
+import org.apache.lucene.index.IndexFileNames;
 import org.bson.Document;
-import org.lumongo.storage.constants.MongoConstants;
+import org.lumongo.util.Compression.CompressionLevel;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.TreeSet;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
@@ -36,6 +42,10 @@ public class MongoDirectory implements NosqlDirectory {
 	public static final String LENGTH = "length";
 	public static final String FILE_NAME = "fileName";
 	public static final String FILE_NUMBER = "fileNumber";
+	public static final String FILE_ID = "fileId";
+	public static final String COMPRESSION = "compression";
+
+	public static final String ZLIB_COMPRESSION = "zlib";
 
 	public static String BYTES = "bytes";
 
@@ -44,21 +54,66 @@ public class MongoDirectory implements NosqlDirectory {
 
 	public static final int DEFAULT_BLOCK_SIZE = 1024 * 128;
 	public static final int DEFAULT_BLOCK_MAX = 12500;
+	public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+
+	/** small files use the block size divided by this */
+	public static final int SMALL_BLOCK_DIVISOR = 8;
+	/** large files use the block size multiplied by this */
+	public static final int LARGE_BLOCK_MULTIPLIER = 4;
+
+	private static final int MIN_BLOCK_SIZE = 1024;
+	private static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+	//files of segments expected to be at least this many blocks get large blocks
+	private static final int LARGE_FILE_BLOCKS = 256;
+
+	//per segment metadata that stays small whatever the size of the segment, other files are sized by the expected size
+	private static final Set<String> SMALL_FILE_EXTENSIONS = new HashSet<>(Arrays.asList("si", "fnm", "cfe"));
+	//files that are mostly read sequentially in long runs
+	private static final Set<String> LARGE_FILE_EXTENSIONS = new HashSet<>(Arrays.asList("fdt", "doc", "pos", "pay", "tvd", "cfs"));
 
 	private static short indexCount = 0;
 	private static final ConcurrentHashMap<String, Short> indexNameToNumberMap = new ConcurrentHashMap<>();
 
-	private final MongoClient mongo;
-	private final String dbname;
+	private final BlockStore blockStore;
 	protected final String indexName;
 	private final int blockSize;
 	protected final short indexNumber;
 	private final ConcurrentHashMap<String, MongoFile> nameToFileMap;
 
+	//file numbers in use, guarded by this, numbers are handed out round robin so a deleted number is reused as late as possible
+	private final BitSet usedFileNumbers;
+	private int nextFileNumber;
+
+	private volatile int readAheadBlocks;
+	private volatile CompressionLevel blockCompression;
+	private volatile DiskBlockCache diskBlockCache;
+	private volatile boolean blockSizeByFileType;
+	private volatile ReadPreference blockReadPreference;
+	private volatile WriteConcern blockFlushWriteConcern;
+	private volatile WriteConcern blockCommitWriteConcern;
+
+	private final BlockFlusher blockFlusher;
+
 	public static void setMaxIndexBlocks(int blocks) {
 		MongoFile.setMaxIndexBlocks(blocks);
 	}
 
+	/**
+	 * Sets the byte budget of the block cache shared by all directories
+	 * @param maxSizeInBytes - total size of the cached blocks
+	 * @param overflowPercent - percent of the total shared between directories that exceed their even share
+	 */
+	public static void setMaxBlockCacheSize(long maxSizeInBytes, int overflowPercent) {
+		MongoFile.setMaxCacheSize(maxSizeInBytes, overflowPercent);
+	}
+
+	/**
+	 * Sets the byte budget of the local disk tier shared by all directories with the disk block cache enabled
+	 */
+	public static void setMaxDiskBlockCacheSize(long maxSizeInBytes) {
+		DiskBlockCache.setMaxSize(maxSizeInBytes);
+	}
+
 	/**
 	 * Removes an index from a database
 	 * @param mongo
@@ -80,16 +135,28 @@ public class MongoDirectory implements NosqlDirectory {
 	}
 
 	public MongoDirectory(MongoClient mongo, String ddName, String indexName, boolean sharded, int blockSize) throws MongoException, IOException {
+		this(new MongoBlockStore(mongo, ddName, indexName, sharded), blockSize);
+	}
+
+	/**
+	 * @param blockStore - store of the files and blocks of the index
+	 */
+	public MongoDirectory(BlockStore blockStore, int blockSize) throws IOException {
 
-		this.mongo = mongo;
-		this.dbname = ddName;
-		this.indexName = indexName;
+		this.blockStore = blockStore;
+		this.indexName = blockStore.getIndexName();
 		this.blockSize = blockSize;
+		this.readAheadBlocks = DEFAULT_READ_AHEAD_BLOCKS;
+		this.blockSizeByFileType = true;
+		this.blockReadPreference = ReadPreference.primary();
+		this.blockFlushWriteConcern = WriteConcern.ACKNOWLEDGED;
+		this.blockCommitWriteConcern = WriteConcern.ACKNOWLEDGED;
+		this.blockFlusher = new BlockFlusher(this, BlockFlusher.DEFAULT_MAX_PENDING_BYTES);
 
 		synchronized (MongoDirectory.class) {
 			//get back a index number to use instead of the string
 			//this is not a persisted number and is just in memory
-			String key = dbname + "-" + indexName;
+			String key = blockStore.getDatabaseName() + "-" + indexName;
 			Short indexNumber = indexNameToNumberMap.get(key);
 			if (indexNumber == null) {
 				indexNameToNumberMap.put(key, indexCount);
@@ -99,23 +166,10 @@ public class MongoDirectory implements NosqlDirectory {
 			this.indexNumber = indexNumber;
 		}
 
-		getFilesCollection().createIndex(new Document(FILE_NUMBER, 1));
-
-		Document indexes = new Document();
-		indexes.put(FILE_NUMBER, 1);
-		indexes.put(BLOCK_NUMBER, 1);
-		getBlocksCollection().createIndex(indexes);
-
-		if (sharded) {
-			String blockCollectionName = getBlocksCollection().getNamespace().getFullName();
-			MongoDatabase db = mongo.getDatabase(MongoConstants.StandardDBs.ADMIN);
-			Document shardCommand = new Document();
-			shardCommand.put(MongoConstants.Commands.SHARD_COLLECTION, blockCollectionName);
-			shardCommand.put(MongoConstants.Commands.SHARD_KEY, indexes);
-			db.runCommand(shardCommand);
-		}
+		MongoFile.getCache().registerDirectory(indexNumber);
 
 		nameToFileMap = new ConcurrentHashMap<>();
+		usedFileNumbers = new BitSet();
 
 		fetchInitialContents();
 	}
@@ -124,26 +178,167 @@ public class MongoDirectory implements NosqlDirectory {
 		return indexName;
 	}
 
-	private void fetchInitialContents() throws MongoException, IOException {
-		MongoCollection<Document> c = getFilesCollection();
+	public BlockStore getBlockStore() {
+		return blockStore;
+	}
 
-		FindIterable<Document> cur = c.find();
-		for (Document d : cur) {
-			MongoFile mf = loadFileFromDBObject(d);
-			nameToFileMap.put(mf.getFileName(), mf);
+	/**
+	 * Drops the cached blocks of the directory so the next reads go to the store, dirty blocks are flushed first
+	 */
+	public void clearCache() {
+		MongoFile.getCache().unregisterDirectory(indexNumber);
+		MongoFile.getCache().registerDirectory(indexNumber);
+		for (MongoFile mongoFile : nameToFileMap.values()) {
+			mongoFile.clearReadBlock();
 		}
 	}
 
-	public MongoCollection<Document> getFilesCollection() {
-		MongoDatabase db = mongo.getDatabase(dbname);
-		MongoCollection<Document> c = db.getCollection(indexName + FILES_SUFFIX);
-		return c;
+	public BlockFlusher getBlockFlusher() {
+		return blockFlusher;
 	}
 
-	public MongoCollection<Document> getBlocksCollection() {
-		MongoDatabase db = mongo.getDatabase(dbname);
-		MongoCollection<Document> c = db.getCollection(indexName + BLOCKS_SUFFIX);
-		return c;
+	public int getReadAheadBlocks() {
+		return readAheadBlocks;
+	}
+
+	/**
+	 * Sets how many blocks are fetched in one query ahead of a sequential reader
+	 * @param readAheadBlocks - number of blocks, 0 disables read ahead
+	 */
+	public void setReadAheadBlocks(int readAheadBlocks) {
+		this.readAheadBlocks = readAheadBlocks;
+	}
+
+	public CompressionLevel getBlockCompression() {
+		return blockCompression;
+	}
+
+	/**
+	 * Sets the zlib level used for blocks stored from now on, blocks already stored keep the codec they were stored with
+	 * @param blockCompression - compression level or null to store blocks uncompressed
+	 */
+	public void setBlockCompression(CompressionLevel blockCompression) {
+		this.blockCompression = blockCompression;
+	}
+
+	public boolean isBlockSizeByFileType() {
+		return blockSizeByFileType;
+	}
+
+	/**
+	 * Sets whether new files get a block size chosen from their type and expected size or always the directory block size.
+	 * Existing files keep the block size they were created with.
+	 */
+	public void setBlockSizeByFileType(boolean blockSizeByFileType) {
+		this.blockSizeByFileType = blockSizeByFileType;
+	}
+
+	/**
+	 * @param expectedSize - estimated size of the segment the file belongs to, -1 if unknown
+	 * @return the block size for a new file
+	 */
+	public int getBlockSize(String fileName, long expectedSize) {
+		if (!blockSizeByFileType) {
+			return blockSize;
+		}
+
+		int smallBlockSize = Math.max(MIN_BLOCK_SIZE, blockSize / SMALL_BLOCK_DIVISOR);
+		String extension = IndexFileNames.getExtension(fileName);
+
+		if (fileName.startsWith(IndexFileNames.SEGMENTS) || fileName.startsWith(IndexFileNames.PENDING_SEGMENTS) || SMALL_FILE_EXTENSIONS.contains(extension)
+				|| (expectedSize >= 0 && expectedSize <= smallBlockSize)) {
+			return Math.min(blockSize, smallBlockSize);
+		}
+
+		if (LARGE_FILE_EXTENSIONS.contains(extension) && expectedSize >= (long) LARGE_FILE_BLOCKS * blockSize) {
+			return Math.max(blockSize, (int) Math.min(MAX_BLOCK_SIZE, (long) blockSize * LARGE_BLOCK_MULTIPLIER));
+		}
+
+		return blockSize;
+	}
+
+	public ReadPreference getBlockReadPreference() {
+		return blockReadPreference;
+	}
+
+	/**
+	 * Sets where blocks of committed files are read from.  Committed files are never changed again so they can be read from
+	 * secondaries, files that are still being written or were only flushed are always read from the primary.  Blocks a
+	 * secondary does not have yet or still has from a deleted file with the same number are read again from the primary,
+	 * set a max staleness on the read preference so secondaries that are far behind are not used at all.
+	 */
+	public void setBlockReadPreference(ReadPreference blockReadPreference) {
+		this.blockReadPreference = blockReadPreference;
+	}
+
+	public WriteConcern getBlockFlushWriteConcern() {
+		return blockFlushWriteConcern;
+	}
+
+	/**
+	 * Sets the write concern of the blocks written behind while a file is written, it must be acknowledged so a block is on
+	 * the primary before the metadata of its file is stored on sync
+	 * @throws IllegalArgumentException - for an unacknowledged write concern
+	 */
+	public void setBlockFlushWriteConcern(WriteConcern blockFlushWriteConcern) {
+		if (!blockFlushWriteConcern.isAcknowledged()) {
+			throw new IllegalArgumentException("Block flush write concern <" + blockFlushWriteConcern + "> must be acknowledged");
+		}
+		this.blockFlushWriteConcern = blockFlushWriteConcern;
+	}
+
+	public WriteConcern getBlockCommitWriteConcern() {
+		return blockCommitWriteConcern;
+	}
+
+	/**
+	 * Sets the write concern of the file metadata stored when a file is synced on commit.  The metadata is stored after the
+	 * primary acknowledged every block of the file and secondaries apply writes in the order of the primary, so a majority
+	 * commit concern also waits for the blocks to reach a majority.
+	 */
+	public void setBlockCommitWriteConcern(WriteConcern blockCommitWriteConcern) {
+		this.blockCommitWriteConcern = blockCommitWriteConcern;
+	}
+
+	public DiskBlockCache getDiskBlockCache() {
+		return diskBlockCache;
+	}
+
+	/**
+	 * Keeps blocks fetched from mongo in a local disk tier that is reused when the directory is opened again on this node
+	 * @param path - local path used only by this directory
+	 */
+	public void enableDiskBlockCache(Path path) throws IOException {
+		synchronized (this) {
+			if (diskBlockCache == null) {
+				diskBlockCache = new DiskBlockCache(path, nameToFileMap.values());
+			}
+		}
+	}
+
+	/**
+	 * Loads the file table once, afterwards the in memory table is authoritative and mongo is only written to
+	 */
+	private void fetchInitialContents() throws MongoException, IOException {
+		List<Document> files = blockStore.getFiles();
+		synchronized (this) {
+			for (Document d : files) {
+				MongoFile mf = fromDocument(d);
+				//files left from a previous open are only read through the latest commit, which synced them
+				mf.markCommitted();
+				nameToFileMap.put(mf.getFileName(), mf);
+				usedFileNumbers.set(mf.fileNumber);
+			}
+			nextFileNumber = usedFileNumbers.length();
+		}
+	}
+
+	/**
+	 * @param committed - whether the blocks belong to a file that was synced and is not changed any more
+	 * @return the read preference for the blocks of the file
+	 */
+	public ReadPreference getBlockReadPreference(boolean committed) {
+		return committed ? blockReadPreference : ReadPreference.primary();
 	}
 
 	@Override
@@ -160,71 +355,66 @@ public class MongoDirectory implements NosqlDirectory {
 
 	@Override
 	public MongoFile getFileHandle(String filename, boolean createIfNotFound) throws IOException {
-		if (nameToFileMap.containsKey(filename)) {
-			return nameToFileMap.get(filename);
-		}
-
-		MongoCollection<Document> c = getFilesCollection();
-
-		Document query = new Document();
-		query.put(FILE_NAME, filename);
-
-		Document doc = c.find(query).first();
+		return getFileHandle(filename, createIfNotFound, -1);
+	}
 
-		if (doc != null) {
-			return loadFileFromDBObject(doc);
+	@Override
+	public MongoFile getFileHandle(String filename, boolean createIfNotFound, long expectedSize) throws IOException {
+		//the directory is only opened by the node that owns the segment so the file table does not need to be checked against mongo
+		MongoFile mongoFile = nameToFileMap.get(filename);
+		if (mongoFile != null) {
+			return mongoFile;
 		}
-		else if (createIfNotFound) {
-			return createFile(filename);
+
+		if (createIfNotFound) {
+			return createFile(filename, expectedSize);
 		}
 
 		throw new FileNotFoundException(filename);
 
 	}
 
-	private MongoFile createFile(String fileName) throws IOException {
+	private MongoFile createFile(String fileName, long expectedSize) throws IOException {
 		synchronized (this) {
-
-			TreeSet<Short> fileNumbers = nameToFileMap.values().stream().map(mongoFile -> mongoFile.fileNumber).collect(Collectors.toCollection(TreeSet::new));
-
-			FindIterable<Document> documents = getFilesCollection().find();
-			for (Document document : documents) {
-				fileNumbers.add(((Number) document.get(FILE_NUMBER)).shortValue());
+			MongoFile mongoFile = nameToFileMap.get(fileName);
+			if (mongoFile != null) {
+				return mongoFile;
 			}
 
-			Short fileNumber = null;
-			for (short i = 0; i < Short.MAX_VALUE; i++) {
-				if (!fileNumbers.contains(i)) {
-					fileNumber = i;
-					break;
-				}
-			}
+			mongoFile = new MongoFile(this, fileName, allocateFileNumber(), ThreadLocalRandom.current().nextLong(), getBlockSize(fileName, expectedSize));
 
-			if (fileNumber == null) {
-				throw new IOException("There are more than <" + Short.MAX_VALUE + "> files in the index");
+			try {
+				updateFileMetadata(mongoFile);
+			}
+			catch (IOException | MongoException e) {
+				usedFileNumbers.clear(mongoFile.fileNumber);
+				throw e;
 			}
 
-			MongoFile mongoFile = new MongoFile(this, fileName, fileNumber, blockSize);
-
-			updateFileMetadata(mongoFile);
-
-			nameToFileMap.putIfAbsent(mongoFile.getFileName(), mongoFile);
-			return nameToFileMap.get(mongoFile.getFileName());
+			nameToFileMap.put(fileName, mongoFile);
+			return mongoFile;
 		}
 	}
 
-	private MongoFile loadFileFromDBObject(Document document) throws IOException {
-		MongoFile mongoFile = fromDocument(document);
-
-		nameToFileMap.putIfAbsent(mongoFile.getFileName(), mongoFile);
-		return nameToFileMap.get(mongoFile.getFileName());
-
+	private short allocateFileNumber() throws IOException {
+		int fileNumber = usedFileNumbers.nextClearBit(nextFileNumber);
+		if (fileNumber >= Short.MAX_VALUE) {
+			fileNumber = usedFileNumbers.nextClearBit(0);
+			if (fileNumber >= Short.MAX_VALUE) {
+				throw new IOException("There are more than <" + Short.MAX_VALUE + "> files in the index");
+			}
+		}
+		usedFileNumbers.set(fileNumber);
+		nextFileNumber = fileNumber + 1;
+		return (short) fileNumber;
 	}
 
 	public MongoFile fromDocument(Document document) throws IOException {
 		try {
+			//files stored before files had ids have none
+			Number fileId = (Number) document.get(FILE_ID);
 			MongoFile mongoFile = new MongoFile(this, (String) document.get(FILE_NAME), ((Number) document.get(FILE_NUMBER)).shortValue(),
-					((Number) document.get(BLOCK_SIZE)).intValue());
+					fileId != null ? fileId.longValue() : 0, ((Number) document.get(BLOCK_SIZE)).intValue());
 			mongoFile.setFileLength(((Number) document.get(LENGTH)).longValue());
 			mongoFile.setLastModified(((Number) document.get(LAST_MODIFIED)).longValue());
 			return mongoFile;
@@ -235,18 +425,19 @@ public class MongoDirectory implements NosqlDirectory {
 		}
 	}
 
-	public static Document toDocument(NosqlFile nosqlFile) throws IOException {
+	public static Document toDocument(MongoFile mongoFile) throws IOException {
 		try {
 			Document document = new Document();
-			document.put(FILE_NUMBER, nosqlFile.getFileNumber());
-			document.put(FILE_NAME, nosqlFile.getFileName());
-			document.put(LENGTH, nosqlFile.getFileLength());
-			document.put(LAST_MODIFIED, nosqlFile.getLastModified());
-			document.put(BLOCK_SIZE, nosqlFile.getBlockSize());
+			document.put(FILE_NUMBER, mongoFile.getFileNumber());
+			document.put(FILE_ID, mongoFile.getFileId());
+			document.put(FILE_NAME, mongoFile.getFileName());
+			document.put(LENGTH, mongoFile.getFileLength());
+			document.put(LAST_MODIFIED, mongoFile.getLastModified());
+			document.put(BLOCK_SIZE, mongoFile.getBlockSize());
 			return document;
 		}
 		catch (Exception e) {
-			throw new IOException("Unable to serialize file descriptor for " + nosqlFile.getFileName(), e);
+			throw new IOException("Unable to serialize file descriptor for " + mongoFile.getFileName(), e);
 		}
 	}
 
@@ -257,57 +448,75 @@ public class MongoDirectory implements NosqlDirectory {
 
 	@Override
 	public void updateFileMetadata(NosqlFile nosqlFile) throws IOException {
-		MongoCollection<Document> c = getFilesCollection();
-
-		Document query = new Document();
-		query.put(FILE_NUMBER, nosqlFile.getFileNumber());
-
-		Document object = toDocument(nosqlFile);
-		c.replaceOne(query, object, new UpdateOptions().upsert(true));
+		blockStore.storeFile(toDocument((MongoFile) nosqlFile), null);
+	}
 
+	/**
+	 * Stores the metadata of a file whose blocks are all stored with the commit write concern
+	 */
+	public void commitFileMetadata(MongoFile mongoFile) throws IOException {
+		blockStore.storeFile(toDocument(mongoFile), blockCommitWriteConcern);
 	}
 
 	@Override
 	public void deleteFile(NosqlFile nosqlFile) throws IOException {
-		MongoCollection<Document> c = getFilesCollection();
+		blockFlusher.discardFile(nosqlFile.getFileNumber());
+		if (diskBlockCache != null) {
+			diskBlockCache.removeFile(nosqlFile.getFileNumber());
+		}
 
-		Document query = new Document();
-		query.put(FILE_NUMBER, nosqlFile.getFileNumber());
-		c.deleteMany(query);
+		blockStore.deleteFile(nosqlFile.getFileNumber());
 
-		MongoCollection<Document> b = getBlocksCollection();
-		b.deleteMany(query);
+		//cached blocks would be served to a new file that reuses the number
+		((MongoFile) nosqlFile).evictBlocks();
 
-		nameToFileMap.remove(nosqlFile.getFileName());
+		synchronized (this) {
+			nameToFileMap.remove(nosqlFile.getFileName());
+			usedFileNumbers.clear(nosqlFile.getFileNumber());
+		}
 
 		nosqlFile.close();
 
 	}
 
 	@Override
-	public void close() {
+	public void close() throws IOException {
+		List<MongoFile> mongoFiles = new ArrayList<>(nameToFileMap.values());
 		nameToFileMap.clear();
-		synchronized (MongoDirectory.class) {
-			//avoid cache conflicts on segment fail back over to node which had it loaded before
-			indexNameToNumberMap.remove(dbname + "-" + indexName);
+		try {
+			MongoFile.getCache().unregisterDirectory(indexNumber);
+			blockFlusher.awaitAll();
+			BlockStats.removeStats(indexName);
+			if (diskBlockCache != null) {
+				//only recorded once every block is stored so the local copies match mongo
+				diskBlockCache.close(mongoFiles);
+			}
+		}
+		finally {
+			synchronized (MongoDirectory.class) {
+				//avoid cache conflicts on segment fail back over to node which had it loaded before
+				indexNameToNumberMap.remove(blockStore.getDatabaseName() + "-" + indexName);
+			}
 		}
 	}
 
 	@Override
 	public void rename(String source, String dest) throws IOException {
-		MongoFile mongoFile = getFileHandle(source, false);
-		mongoFile.setFileName(dest);
+		synchronized (this) {
+			MongoFile mongoFile = getFileHandle(source, false);
+			mongoFile.setFileName(dest);
 
-		updateFileMetadata(mongoFile);
+			updateFileMetadata(mongoFile);
 
-		nameToFileMap.remove(source);
-		nameToFileMap.put(dest, mongoFile);
+			nameToFileMap.remove(source);
+			nameToFileMap.put(dest, mongoFile);
+		}
 
 	}
 
 	@Override
 	public String toString() {
-		return "MongoDirectory [dbname=" + dbname + ", indexName=" + indexName + ", blockSize=" + blockSize + "]";
+		return "MongoDirectory [dbname=" + blockStore.getDatabaseName() + ", indexName=" + indexName + ", blockSize=" + blockSize + "]";
 	}
 
 }
@@ -1,20 +1,25 @@
 package org.lumongo.storage.lucene;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.UpdateOptions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.ReadPreference;
+import org.apache.log4j.Logger;
 import org.bson.Document;
 import org.bson.types.Binary;
+import org.lumongo.util.Compression;
+import org.lumongo.util.Compression.CompressionLevel;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.zip.CRC32;
 
 /**
@@ -32,10 +37,14 @@ import java.util.zip.CRC32;
 
 public class MongoFile implements NosqlFile {
 
+	private final static Logger log = Logger.getLogger(MongoFile.class);
+
 	private final MongoDirectory mongoDirectory;
 
 	protected final short indexNumber;
 	protected final short fileNumber;
+	//identifies the file among the files that had the same number, stored with every block
+	protected final long fileId;
 	private final String indexName;
 	private final int blockSize;
 
@@ -46,54 +55,50 @@ public class MongoFile implements NosqlFile {
 	private MongoBlock currentReadBlock;
 	private MongoBlock currentWriteBlock;
 
-	private ConcurrentMap<Long, Boolean> dirtyBlocks;
+	//set once the file is synced, lucene never changes a file after that so its blocks can be read from any member
+	private volatile boolean committed;
+
+	private final ConcurrentMap<Integer, Future<?>> pendingReadAheads;
+
+	private final BlockStats blockStats;
 
 	private final CRC32 crc;
 
-	private static Cache<Long, MongoBlock> cache;
-	private static RemovalListener<Long, MongoBlock> removalListener;
+	private static final BlockCache cache = new BlockCache((long) MongoDirectory.DEFAULT_BLOCK_MAX * MongoDirectory.DEFAULT_BLOCK_SIZE,
+			BlockCache.DEFAULT_OVERFLOW_PERCENT);
 
-	static {
+	private static final int READ_AHEAD_THREADS = 4;
 
-		createCache();
+	private static final int PRELOAD_BATCH_BLOCKS = 16;
 
-	}
+	private static final ExecutorService readAheadPool = Executors
+			.newFixedThreadPool(READ_AHEAD_THREADS, new ThreadFactoryBuilder().setNameFormat("mongoFileReadAhead-%d").setDaemon(true).build());
 
-	private static void createCache() {
-		removalListener = notification -> {
-			/*
-			ReadWriteLock lock = lockHandler.getLock(notification.getKey());
-			Lock wLock = lock.writeLock();
-			wLock.lock();
-			try {
-			*/
-			MongoBlock mongoBlock = notification.getValue();
-			mongoBlock.flushIfDirty();
-			/*
-			}
-			finally {
-				wLock.unlock();
-			}
-			*/
-		};
-		cache = CacheBuilder.newBuilder().concurrencyLevel(32).maximumSize(MongoDirectory.DEFAULT_BLOCK_MAX).removalListener(removalListener).build();
+	public static BlockCache getCache() {
+		return cache;
 	}
 
 	public static void clearCache() {
-		createCache();
+		cache.clear();
 	}
 
 	public static long getCacheSize() {
-		return cache.size();
+		return cache.getBlockCount();
+	}
+
+	public static long getCacheSizeInBytes() {
+		return cache.getSizeInBytes();
 	}
 
 	public static void setMaxIndexBlocks(int blocks) {
-		Cache<Long, MongoBlock> oldCache = cache;
-		cache = CacheBuilder.newBuilder().concurrencyLevel(32).maximumSize(blocks).removalListener(removalListener).build();
-		cache.putAll(oldCache.asMap());
+		setMaxCacheSize((long) blocks * MongoDirectory.DEFAULT_BLOCK_SIZE, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+	}
+
+	public static void setMaxCacheSize(long maxSizeInBytes, int overflowPercent) {
+		cache.setMaxSize(maxSizeInBytes, overflowPercent);
 	}
 
-	protected MongoFile(MongoDirectory mongoDirectory, String fileName, short fileNumber, int blockSize) {
+	protected MongoFile(MongoDirectory mongoDirectory, String fileName, short fileNumber, long fileId, int blockSize) {
 
 		this.crc = new CRC32();
 
@@ -102,13 +107,28 @@ public class MongoFile implements NosqlFile {
 		this.indexName = mongoDirectory.indexName;
 		this.fileName = fileName;
 		this.fileNumber = fileNumber;
+		this.fileId = fileId;
 		this.fileLength = 0;
 		this.lastModified = System.currentTimeMillis();
 
 		this.blockSize = blockSize;
 
-		this.dirtyBlocks = new ConcurrentHashMap<>();
+		this.pendingReadAheads = new ConcurrentHashMap<>();
+
+		this.blockStats = BlockStats.getStats(indexName, fileName);
+
+	}
 
+	public BlockStats getBlockStats() {
+		return blockStats;
+	}
+
+	public boolean isCommitted() {
+		return committed;
+	}
+
+	protected void markCommitted() {
+		committed = true;
 	}
 
 	@Override
@@ -154,7 +174,7 @@ public class MongoFile implements NosqlFile {
 			currentReadBlock = mb = getMongoBlock(block);
 		}
 
-		return mb.bytes[blockOffset];
+		return mb.buffer.get(blockOffset);
 
 	}
 
@@ -162,16 +182,64 @@ public class MongoFile implements NosqlFile {
 
 		long blockKey = MongoBlock.computeBlockKey(this, block);
 
-		Callable<MongoBlock> loadBlockIfNeeded = () -> fetchBlock(block, true);
+		MongoBlock cached = cache.getIfPresent(blockKey);
+		if (cached != null) {
+			blockStats.recordHit();
+			return cached;
+		}
+		blockStats.recordMiss();
+
+		Callable<MongoBlock> loadBlockIfNeeded = () -> {
+			//a block evicted before its write finished is newer than the stored copy
+			MongoBlock pendingWrite = mongoDirectory.getBlockFlusher().getPending(blockKey);
+			if (pendingWrite != null) {
+				return pendingWrite;
+			}
+
+			Future<?> pendingReadAhead = pendingReadAheads.get(block);
+			if (pendingReadAhead != null) {
+				//block is already being fetched by a read ahead, wait for it instead of fetching it twice
+				try {
+					pendingReadAhead.get();
+				}
+				catch (ExecutionException e) {
+					//fall through and fetch the block on its own
+				}
+				MongoBlock mongoBlock = cache.getIfPresent(blockKey);
+				if (mongoBlock != null) {
+					return mongoBlock;
+				}
+			}
+
+			DiskBlockCache diskBlockCache = mongoDirectory.getDiskBlockCache();
+			if (diskBlockCache != null) {
+				long start = System.nanoTime();
+				MongoBlock mongoBlock = diskBlockCache.getBlock(this, block);
+				if (mongoBlock != null) {
+					blockStats.recordLoad(1, mongoBlock.getSizeInBytes(), System.nanoTime() - start);
+					return mongoBlock;
+				}
+			}
+
+			return fetchBlock(block);
+		};
 		try {
 			return cache.get(blockKey, loadBlockIfNeeded);
 		}
 		catch (ExecutionException e) {
-			throw new IOException("Failed to load block <" + block + "> for file <" + fileName + "> of index <" + indexName + ">");
+			throw new IOException("Failed to load block <" + block + "> for file <" + fileName + "> of index <" + indexName + ">", e.getCause());
 		}
 
 	}
 
+	@Override
+	public ByteBuffer getBlockBuffer(long position) throws IOException {
+		int block = (int) (position / blockSize);
+		ByteBuffer view = getMongoBlock(block).buffer.asReadOnlyBuffer();
+		view.clear();
+		return view;
+	}
+
 	public void readBytes(long position, byte[] b, int offset, int length) throws IOException {
 
 		while (length > 0) {
@@ -186,7 +254,7 @@ public class MongoFile implements NosqlFile {
 				currentReadBlock = mb = getMongoBlock(block);
 			}
 
-			System.arraycopy(mb.bytes, blockOffset, b, offset, readSize);
+			mb.readBytes(blockOffset, b, offset, readSize);
 
 			position += readSize;
 			offset += readSize;
@@ -212,7 +280,7 @@ public class MongoFile implements NosqlFile {
 			currentWriteBlock = mb = getMongoBlock(block);
 		}
 
-		mb.bytes[blockOffset] = b;
+		mb.buffer.put(blockOffset, b);
 		mb.markDirty();
 
 		fileLength = Math.max(position + 1, fileLength);
@@ -238,7 +306,7 @@ public class MongoFile implements NosqlFile {
 				currentWriteBlock = mb = getMongoBlock(block);
 			}
 
-			System.arraycopy(b, offset, mb.bytes, blockOffset, writeSize);
+			mb.writeBytes(blockOffset, b, offset, writeSize);
 			mb.markDirty();
 			position += writeSize;
 			offset += writeSize;
@@ -250,10 +318,21 @@ public class MongoFile implements NosqlFile {
 
 	private void markDirty(MongoBlock mb) {
 		mb.markDirty();
-		cache.put(mb.blockKey, mb);
-		dirtyBlocks.put(mb.blockKey, true);
+		cache.put(mb);
+		queueBlock(mb);
 	}
 
+	protected void queueBlock(MongoBlock mb) {
+		DiskBlockCache diskBlockCache = mongoDirectory.getDiskBlockCache();
+		if (diskBlockCache != null) {
+			diskBlockCache.invalidateBlock(this, mb.blockNumber);
+		}
+		mongoDirectory.getBlockFlusher().queue(mb);
+	}
+
+	/**
+	 * Queues the block being written and stores the file metadata, blocks are written behind until {@link #sync()}
+	 */
 	@Override
 	public void flush() throws IOException {
 
@@ -261,68 +340,251 @@ public class MongoFile implements NosqlFile {
 			currentWriteBlock.flushIfDirty();
 		}
 
-		if (!dirtyBlocks.isEmpty()) {
-			Set<Long> dirtyBlockKeys = new HashSet<>(dirtyBlocks.keySet());
+		mongoDirectory.updateFileMetadata(this);
+
+	}
+
+	/**
+	 * Waits for the blocks of the file to be stored then stores the metadata with the commit write concern
+	 */
+	@Override
+	public void sync() throws IOException {
+		if (currentWriteBlock != null) {
+			currentWriteBlock.flushIfDirty();
+		}
+		mongoDirectory.getBlockFlusher().awaitFile(fileNumber);
+		mongoDirectory.commitFileMetadata(this);
+		committed = true;
+	}
 
-			for (Long key : dirtyBlockKeys) {
+	@Override
+	public long readAhead(long position) {
+		int readAheadBlocks = mongoDirectory.getReadAheadBlocks();
+		if (readAheadBlocks <= 0 || position >= fileLength) {
+			return position;
+		}
 
-				dirtyBlocks.remove(key);
+		int startBlock = (int) (position / blockSize);
+		int endBlock = (int) Math.min((fileLength - 1) / blockSize, (long) startBlock + readAheadBlocks - 1);
 
-				MongoBlock mb = cache.getIfPresent(key);
-				if (mb != null) {
-					mb.flushIfDirty();
+		List<Integer> blockNumbers = new ArrayList<>();
+		FutureTask<Void> readAheadTask = new FutureTask<>(() -> {
+			try {
+				fetchBlocks(blockNumbers);
+			}
+			finally {
+				for (Integer blockNumber : blockNumbers) {
+					pendingReadAheads.remove(blockNumber);
 				}
 			}
+			return null;
+		});
 
+		for (int block = startBlock; block <= endBlock; block++) {
+			if (!cache.containsKey(MongoBlock.computeBlockKey(this, block)) && pendingReadAheads.putIfAbsent(block, readAheadTask) == null) {
+				blockNumbers.add(block);
+			}
 		}
 
-		mongoDirectory.updateFileMetadata(this);
+		if (!blockNumbers.isEmpty()) {
+			readAheadPool.execute(readAheadTask);
+		}
 
+		return Math.min(fileLength, (long) (endBlock + 1) * blockSize);
 	}
 
-	private MongoBlock fetchBlock(Integer blockNumber, boolean createIfNotExist) throws IOException {
+	@Override
+	public long preload(long offset, long length) throws IOException {
+		long end = Math.min(offset + length, fileLength);
+		if (offset >= end) {
+			return 0;
+		}
+		int firstBlock = (int) (offset / blockSize);
+		int lastBlock = (int) ((end - 1) / blockSize);
+		long bytesLoaded = 0;
+
+		List<Integer> blockNumbers = new ArrayList<>();
+		for (int block = firstBlock; block <= lastBlock; block++) {
+			long blockKey = MongoBlock.computeBlockKey(this, block);
+			if (!cache.containsKey(blockKey) && !pendingReadAheads.containsKey(block) && !mongoDirectory.getBlockFlusher().isPending(blockKey)) {
+				blockNumbers.add(block);
+				bytesLoaded += blockSize;
+				if (blockNumbers.size() == PRELOAD_BATCH_BLOCKS) {
+					fetchBlocks(blockNumbers);
+					blockNumbers = new ArrayList<>();
+				}
+			}
+		}
+		if (!blockNumbers.isEmpty()) {
+			fetchBlocks(blockNumbers);
+		}
 
-		MongoCollection<Document> c = mongoDirectory.getBlocksCollection();
+		return bytesLoaded;
+	}
 
-		Document query = new Document();
-		query.put(MongoDirectory.FILE_NUMBER, fileNumber);
-		query.put(MongoDirectory.BLOCK_NUMBER, blockNumber);
+	private void fetchBlocks(List<Integer> blockNumbers) throws IOException {
 
-		Document result = c.find(query).first();
+		List<Integer> remoteBlockNumbers = blockNumbers;
 
-		byte[] bytes;
-		if (result != null) {
-			bytes = ((Binary) result.get(MongoDirectory.BYTES)).getData();
-			return new MongoBlock(this, blockNumber, bytes);
+		DiskBlockCache diskBlockCache = mongoDirectory.getDiskBlockCache();
+		if (diskBlockCache != null) {
+			remoteBlockNumbers = new ArrayList<>();
+			long start = System.nanoTime();
+			int localBlocks = 0;
+			for (Integer blockNumber : blockNumbers) {
+				MongoBlock mongoBlock = diskBlockCache.getBlock(this, blockNumber);
+				if (mongoBlock == null) {
+					remoteBlockNumbers.add(blockNumber);
+				}
+				else {
+					localBlocks++;
+					if (!mongoDirectory.getBlockFlusher().isPending(mongoBlock.blockKey)) {
+						cache.putIfAbsent(mongoBlock);
+					}
+				}
+			}
+			if (localBlocks > 0) {
+				blockStats.recordLoad(localBlocks, (long) localBlocks * blockSize, System.nanoTime() - start);
+			}
+			if (remoteBlockNumbers.isEmpty()) {
+				return;
+			}
 		}
 
-		if (createIfNotExist) {
-			bytes = new byte[blockSize];
-			MongoBlock mongoBlock = new MongoBlock(this, blockNumber, bytes);
-			storeBlock(mongoBlock);
-			return mongoBlock;
+		BlockStore blockStore = mongoDirectory.getBlockStore();
+		ReadPreference readPreference = mongoDirectory.getBlockReadPreference(committed);
+
+		long start = System.nanoTime();
+		List<Document> results = new ArrayList<>();
+		List<Integer> staleBlockNumbers = new ArrayList<>();
+		for (Document result : blockStore.getBlocks(fileNumber, remoteBlockNumbers, readPreference)) {
+			if (!ReadPreference.primary().equals(readPreference) && isStale(result)) {
+				staleBlockNumbers.add(((Number) result.get(MongoDirectory.BLOCK_NUMBER)).intValue());
+			}
+			else {
+				results.add(result);
+			}
+		}
+		if (!staleBlockNumbers.isEmpty()) {
+			for (Document result : blockStore.getBlocks(fileNumber, staleBlockNumbers, ReadPreference.primary())) {
+				results.add(result);
+			}
 		}
 
-		return null;
+		int blocks = 0;
+		long bytesRead = 0;
+		for (Document result : results) {
+			int blockNumber = ((Number) result.get(MongoDirectory.BLOCK_NUMBER)).intValue();
+			blocks++;
+			bytesRead += getStoredLength(result);
+			MongoBlock mongoBlock = new MongoBlock(this, blockNumber, getBlockBytes(result));
+			if (!mongoDirectory.getBlockFlusher().isPending(mongoBlock.blockKey)) {
+				storeLocally(mongoBlock);
+				cache.putIfAbsent(mongoBlock);
+			}
+		}
+		if (blocks > 0) {
+			blockStats.recordLoad(blocks, bytesRead, System.nanoTime() - start);
+		}
 
 	}
 
-	public static void storeBlock(MongoBlock mongoBlock) {
-		// System.out.println("Store: " + mongoBlock.getBlockNumber());
+	/**
+	 * Keeps a copy of a block fetched from mongo in the disk tier if it is enabled
+	 */
+	private void storeLocally(MongoBlock mongoBlock) {
+		DiskBlockCache diskBlockCache = mongoDirectory.getDiskBlockCache();
+		if (diskBlockCache != null && !mongoDirectory.getBlockFlusher().isPending(mongoBlock.blockKey)) {
+			try {
+				diskBlockCache.putBlock(mongoBlock);
+			}
+			catch (IOException e) {
+				//the disk tier is only a cache, the block is still served from memory and mongo
+				log.warn("Failed to store block <" + mongoBlock.blockNumber + "> of file <" + fileName + "> of index <" + indexName + "> locally: " + e);
+			}
+		}
+	}
+
+	/**
+	 * @return the stored block or a new empty block if it was never stored, empty blocks are only stored once they are written to
+	 */
+	private MongoBlock fetchBlock(int blockNumber) throws IOException {
+
+		BlockStore blockStore = mongoDirectory.getBlockStore();
+		ReadPreference readPreference = mongoDirectory.getBlockReadPreference(committed);
+
+		long start = System.nanoTime();
+		Document result = blockStore.getBlock(fileNumber, blockNumber, readPreference);
+
+		if (!ReadPreference.primary().equals(readPreference) && (result == null || isStale(result))) {
+			//a secondary that is behind may not have the block yet or still have the block of a deleted file with the same number
+			result = blockStore.getBlock(fileNumber, blockNumber, ReadPreference.primary());
+		}
+
+		if (result != null) {
+			blockStats.recordLoad(1, getStoredLength(result), System.nanoTime() - start);
+			MongoBlock mongoBlock = new MongoBlock(this, blockNumber, getBlockBytes(result));
+			storeLocally(mongoBlock);
+			return mongoBlock;
+		}
+
+		return new MongoBlock(this, blockNumber, blockSize);
 
-		MongoCollection<Document> c = mongoBlock.mongoFile.mongoDirectory.getBlocksCollection();
+	}
 
-		Document query = new Document();
-		query.put(MongoDirectory.FILE_NUMBER, mongoBlock.mongoFile.fileNumber);
-		query.put(MongoDirectory.BLOCK_NUMBER, mongoBlock.blockNumber);
+	/**
+	 * A secondary that is behind can still hold the block of a deleted file that had the same number
+	 * @return true if a block read from a secondary belongs to another file
+	 */
+	private boolean isStale(Document result) {
+		//blocks stored before files had ids have none, as do the files they belong to
+		Number blockFileId = (Number) result.get(MongoDirectory.FILE_ID);
+		return (blockFileId != null ? blockFileId.longValue() : 0) != fileId;
+	}
 
+	protected static Document toDocument(MongoBlock mongoBlock, byte[] bytes) {
 		Document object = new Document();
 		object.put(MongoDirectory.FILE_NUMBER, mongoBlock.mongoFile.fileNumber);
+		object.put(MongoDirectory.FILE_ID, mongoBlock.mongoFile.fileId);
 		object.put(MongoDirectory.BLOCK_NUMBER, mongoBlock.blockNumber);
-		object.put(MongoDirectory.BYTES, new Binary(mongoBlock.bytes));
 
-		c.replaceOne(query, object, new UpdateOptions().upsert(true));
+		CompressionLevel compressionLevel = mongoBlock.mongoFile.mongoDirectory.getBlockCompression();
+		if (compressionLevel != null) {
+			byte[] compressed = Compression.compressZlib(bytes, compressionLevel);
+			//incompressible blocks are stored as is so they do not pay for decompression on every fetch
+			if (compressed.length < bytes.length) {
+				object.put(MongoDirectory.COMPRESSION, MongoDirectory.ZLIB_COMPRESSION);
+				object.put(MongoDirectory.BYTES, new Binary(compressed));
+				return object;
+			}
+		}
 
+		object.put(MongoDirectory.BYTES, new Binary(bytes));
+		return object;
+	}
+
+	/**
+	 * @return the number of bytes stored for a block, smaller than the block size if it is compressed
+	 */
+	private static int getStoredLength(Document result) {
+		return ((Binary) result.get(MongoDirectory.BYTES)).length();
+	}
+
+	/**
+	 * @return the uncompressed block contents of a stored block, blocks without a codec are stored uncompressed
+	 */
+	private byte[] getBlockBytes(Document result) throws IOException {
+		byte[] bytes = ((Binary) result.get(MongoDirectory.BYTES)).getData();
+
+		String compression = result.getString(MongoDirectory.COMPRESSION);
+		if (compression == null) {
+			return bytes;
+		}
+		if (MongoDirectory.ZLIB_COMPRESSION.equals(compression)) {
+			return Compression.uncompressZlib(bytes, blockSize);
+		}
+		throw new IOException("Unknown compression <" + compression + "> for block <" + result.get(MongoDirectory.BLOCK_NUMBER) + "> of file <" + fileName
+				+ "> of index <" + indexName + ">");
 	}
 
 	@Override
@@ -330,6 +592,10 @@ public class MongoFile implements NosqlFile {
 		return fileNumber;
 	}
 
+	public long getFileId() {
+		return fileId;
+	}
+
 	@Override
 	public int getBlockSize() {
 		return blockSize;
@@ -345,6 +611,34 @@ public class MongoFile implements NosqlFile {
 		crc.reset();
 	}
 
+	protected void clearReadBlock() {
+		currentReadBlock = null;
+	}
+
+	/**
+	 * Waits for the read aheads of the file and removes its blocks from the cache, called when the file is deleted
+	 * before its number can be reused
+	 */
+	protected void evictBlocks() {
+		for (Future<?> pendingReadAhead : pendingReadAheads.values()) {
+			try {
+				pendingReadAhead.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				//the blocks of a failed read ahead were never cached
+			}
+		}
+
+		int blockCount = (int) ((fileLength + blockSize - 1) / blockSize);
+		if (currentWriteBlock != null) {
+			blockCount = Math.max(blockCount, currentWriteBlock.blockNumber + 1);
+		}
+		cache.removeFile(MongoBlock.computeBlockKey(this, 0), blockCount);
+	}
+
 	@Override
 	public void close() {
 		currentWriteBlock = null;
@@ -355,7 +649,7 @@ public class MongoFile implements NosqlFile {
 	public String toString() {
 		return "MongoFile{" + "mongoDirectory=" + mongoDirectory + ", indexNumber=" + indexNumber + ", fileNumber=" + fileNumber + ", indexName='" + indexName
 				+ '\'' + ", blockSize=" + blockSize + ", fileLength=" + fileLength + ", lastModified=" + lastModified + ", fileName='" + fileName + '\''
-				+ ", currentReadBlock=" + currentReadBlock + ", currentWriteBlock=" + currentWriteBlock + ", dirtyBlocks=" + dirtyBlocks + ", crc=" + crc + '}';
+				+ ", currentReadBlock=" + currentReadBlock + ", currentWriteBlock=" + currentWriteBlock + ", crc=" + crc + '}';
 	}
 
 	@Override
@@ -373,9 +667,7 @@ public class MongoFile implements NosqlFile {
 		}
 
 		if (readSize == 4) {
-			byte[] buffer = mb.bytes;
-			return ((buffer[blockOffset++] & 0xFF) << 24) | ((buffer[blockOffset++] & 0xFF) << 16) | ((buffer[blockOffset++] & 0xFF) << 8) | (
-					buffer[blockOffset++] & 0xFF);
+			return mb.buffer.getInt(blockOffset);
 		}
 		return ((readByte(position++) & 0xFF) << 24) | ((readByte(position++) & 0xFF) << 16) | ((readByte(position++) & 0xFF) << 8) | (readByte(position++)
 				& 0xFF);
@@ -395,12 +687,7 @@ public class MongoFile implements NosqlFile {
 		}
 
 		if (readSize == 8) {
-			byte[] buffer = mb.bytes;
-			final int i1 = ((buffer[blockOffset++] & 0xff) << 24) | ((buffer[blockOffset++] & 0xff) << 16) | ((buffer[blockOffset++] & 0xff) << 8) | (
-					buffer[blockOffset++] & 0xff);
-			final int i2 = ((buffer[blockOffset++] & 0xff) << 24) | ((buffer[blockOffset++] & 0xff) << 16) | ((buffer[blockOffset++] & 0xff) << 8) | (
-					buffer[blockOffset++] & 0xff);
-			return (((long) i1) << 32) | (i2 & 0xFFFFFFFFL);
+			return mb.buffer.getLong(blockOffset);
 		}
 		return (((long) readInt(position)) << 32) | (readInt(position + 4) & 0xFFFFFFFFL);
 	}
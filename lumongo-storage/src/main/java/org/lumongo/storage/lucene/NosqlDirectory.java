@@ -26,6 +26,11 @@ public interface NosqlDirectory {
 	NosqlFile getFileHandle(String fileName) throws IOException;
 	
 	NosqlFile getFileHandle(String fileName, boolean createIfNotFound) throws IOException;
+
+	/**
+	 * @param expectedSize - estimated size used to pick the block size of a new file, -1 if unknown
+	 */
+	NosqlFile getFileHandle(String fileName, boolean createIfNotFound, long expectedSize) throws IOException;
 	
 	int getBlockSize();
 	
@@ -33,7 +38,7 @@ public interface NosqlDirectory {
 	
 	void deleteFile(NosqlFile nosqlFile) throws IOException;
 	
-	void close();
+	void close() throws IOException;
 
 	void rename(String source, String dest) throws IOException;
 }
\ No newline at end of file
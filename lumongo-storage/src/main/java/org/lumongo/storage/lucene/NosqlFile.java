@@ -18,6 +18,7 @@ package org.lumongo.storage.lucene;
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface NosqlFile {
 
@@ -41,6 +42,11 @@ public interface NosqlFile {
 
 	void flush() throws IOException;
 
+	/**
+	 * Flushes and waits until the contents of the file are durably stored
+	 */
+	void sync() throws IOException;
+
 	byte readByte(long position) throws IOException;
 
 	void readBytes(long position, byte[] b, int offset, int length) throws IOException;
@@ -49,6 +55,25 @@ public interface NosqlFile {
 
 	long readLong(long position) throws IOException;
 
+	/**
+	 * @return a read only view of the whole block containing the position, positioned at the start of the block
+	 */
+	ByteBuffer getBlockBuffer(long position) throws IOException;
+
+	/**
+	 * Hint that the file is being read sequentially from the given position so upcoming blocks can be fetched ahead of time
+	 * @return the file position up to which blocks are read ahead
+	 */
+	long readAhead(long position);
+
+	/**
+	 * Loads the blocks holding a range of the file that are not cached yet
+	 * @param offset - file position of the start of the range
+	 * @param length - number of bytes in the range
+	 * @return the number of bytes loaded
+	 */
+	long preload(long offset, long length) throws IOException;
+
 	int getBlockSize();
 
 	long getChecksum();
@@ -0,0 +1,531 @@
+package org.lumongo.storage.lucene;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+/**
+ * Directory that writes and reads an index on local disk and replicates it into a remote directory, usually a
+ * {@link DistributedDirectory} over mongo.  Synced files are copied to the remote directory in the background and a
+ * commit point is only copied after every file it references, so the remote directory always holds a complete commit.
+ *
+ * Files that are not on local disk are read from the remote directory.  When the directory is opened the files of the
+ * latest remote commit missing locally are copied down in the background and the files of a newer local commit missing
+ * remotely are copied up, so a segment moving between nodes only moves the files that changed.  Lucene never writes a
+ * file name twice in one index, but a node that crashed before its commit was replicated can hold files another node
+ * wrote again under the same names.  Local files are therefore checked against the checksums of the remote commit
+ * when the directory is opened and the local commit is discarded if it differs.
+ */
+public class TieredDirectory extends Directory {
+	private final static Logger log = Logger.getLogger(TieredDirectory.class);
+
+	/** Suffix of local files still being copied from the remote directory, they are hidden from {@link #listAll()} */
+	private static final String LOCALIZING_SUFFIX = ".localizing";
+
+	/** Replications still pending after this long on close are done the next time the directory is opened */
+	private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+	private final FSDirectory localDirectory;
+	private final Directory remoteDirectory;
+
+	//copies to and deletes from the remote directory, run one at a time in the order requested
+	private final ExecutorService replicationExecutor;
+	private final ExecutorService localizationExecutor;
+
+	//files deleted locally that can still be in the remote directory
+	private final Set<String> pendingRemoteDeletes;
+	private final AtomicInteger pendingReplications;
+
+	//only used on the replication thread, while the last commit failed to replicate the remote commit can still
+	//reference the files deleted locally so their remote deletes wait for the next commit replicated
+	private boolean remoteCommitBehind;
+	private final List<String> deferredRemoteDeletes;
+
+	private volatile boolean isOpen;
+
+	public TieredDirectory(FSDirectory localDirectory, Directory remoteDirectory) throws IOException {
+		this.localDirectory = localDirectory;
+		this.remoteDirectory = remoteDirectory;
+		this.replicationExecutor = Executors
+				.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("tieredReplication-%d").setDaemon(true).build());
+		this.localizationExecutor = Executors
+				.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("tieredLocalization-%d").setDaemon(true).build());
+		this.pendingRemoteDeletes = ConcurrentHashMap.newKeySet();
+		this.pendingReplications = new AtomicInteger();
+		this.deferredRemoteDeletes = new ArrayList<>();
+		this.isOpen = true;
+
+		for (String fileName : localDirectory.listAll()) {
+			if (fileName.endsWith(LOCALIZING_SUFFIX)) {
+				localDirectory.deleteFile(fileName);
+			}
+		}
+
+		reconcile();
+	}
+
+	/**
+	 * Copies up a local commit newer than the remote one, left by a close that timed out or a crash, and copies down the
+	 * files of the latest commit that are only in the remote directory
+	 */
+	private void reconcile() throws IOException {
+		String localSegmentsFileName = SegmentInfos.getLastCommitSegmentsFileName(localDirectory.listAll());
+		String remoteSegmentsFileName = SegmentInfos.getLastCommitSegmentsFileName(remoteDirectory.listAll());
+
+		if (localSegmentsFileName != null && remoteSegmentsFileName != null && !isSameCommit(localSegmentsFileName, remoteSegmentsFileName)) {
+			List<String> divergedFiles = getDivergedFiles(remoteSegmentsFileName);
+			if (!divergedFiles.isEmpty()) {
+				//the remote commit is the one the index continued from, local files not in it can not be trusted
+				log.warn("Local commit <" + localSegmentsFileName + "> diverged from remote commit <" + remoteSegmentsFileName + "> in files <" + divergedFiles
+						+ ">, discarding local files not in the remote commit for <" + this + ">");
+				discardLocalFiles(remoteSegmentsFileName);
+				localSegmentsFileName = SegmentInfos.getLastCommitSegmentsFileName(localDirectory.listAll());
+			}
+		}
+		long localGeneration = localSegmentsFileName != null ? SegmentInfos.generationFromSegmentsFileName(localSegmentsFileName) : -1;
+		long remoteGeneration = remoteSegmentsFileName != null ? SegmentInfos.generationFromSegmentsFileName(remoteSegmentsFileName) : -1;
+
+		if (localGeneration > remoteGeneration) {
+			replicateCommit(localSegmentsFileName);
+		}
+
+		String segmentsFileName = localGeneration > remoteGeneration ? localSegmentsFileName : remoteSegmentsFileName;
+		if (segmentsFileName != null) {
+			localizationExecutor.execute(() -> {
+				try {
+					int copied = 0;
+					for (String fileName : SegmentInfos.readCommit(this, segmentsFileName).files(true)) {
+						if (!existsLocally(fileName) && copyToLocal(fileName)) {
+							copied++;
+						}
+					}
+					if (copied > 0) {
+						log.info("Copied <" + copied + "> files of commit <" + segmentsFileName + "> to local disk for <" + this + ">");
+					}
+				}
+				catch (Exception e) {
+					//files not copied keep being read from the remote directory
+					log.warn("Failed to copy commit <" + segmentsFileName + "> to local disk for <" + this + ">: " + e.getMessage());
+				}
+			});
+		}
+	}
+
+	private boolean isSameCommit(String localSegmentsFileName, String remoteSegmentsFileName) throws IOException {
+		return localSegmentsFileName.equals(remoteSegmentsFileName) && retrieveChecksum(localDirectory, localSegmentsFileName) == retrieveChecksum(
+				remoteDirectory, remoteSegmentsFileName);
+	}
+
+	/**
+	 * @return the files of the remote commit that are on local disk with different contents
+	 */
+	private List<String> getDivergedFiles(String remoteSegmentsFileName) throws IOException {
+		List<String> divergedFiles = new ArrayList<>();
+		for (String fileName : SegmentInfos.readCommit(remoteDirectory, remoteSegmentsFileName).files(true)) {
+			if (existsLocally(fileName) && retrieveChecksum(localDirectory, fileName) != retrieveChecksum(remoteDirectory, fileName)) {
+				divergedFiles.add(fileName);
+			}
+		}
+		return divergedFiles;
+	}
+
+	/**
+	 * Deletes every local file that is not the same as a file of the remote commit, they are read from the remote
+	 * directory and copied down again
+	 */
+	private void discardLocalFiles(String remoteSegmentsFileName) throws IOException {
+		Set<String> remoteFiles = new HashSet<>(SegmentInfos.readCommit(remoteDirectory, remoteSegmentsFileName).files(true));
+		for (String fileName : localDirectory.listAll()) {
+			if (fileName.equals(IndexWriter.WRITE_LOCK_NAME)) {
+				continue;
+			}
+			if (!remoteFiles.contains(fileName) || retrieveChecksum(localDirectory, fileName) != retrieveChecksum(remoteDirectory, fileName)) {
+				localDirectory.deleteFile(fileName);
+			}
+		}
+	}
+
+	private static long retrieveChecksum(Directory directory, String name) throws IOException {
+		try (IndexInput indexInput = directory.openInput(name, IOContext.READONCE)) {
+			return CodecUtil.retrieveChecksum(indexInput);
+		}
+	}
+
+	@Override
+	public String[] listAll() throws IOException {
+		ensureOpen();
+		Set<String> fileNames = new TreeSet<>();
+		for (String fileName : localDirectory.listAll()) {
+			if (!fileName.endsWith(LOCALIZING_SUFFIX)) {
+				fileNames.add(fileName);
+			}
+		}
+		for (String fileName : remoteDirectory.listAll()) {
+			if (!pendingRemoteDeletes.contains(fileName)) {
+				fileNames.add(fileName);
+			}
+		}
+		return fileNames.toArray(new String[fileNames.size()]);
+	}
+
+	@Override
+	public void deleteFile(String name) throws IOException {
+		ensureOpen();
+		synchronized (this) {
+			boolean local = existsLocally(name);
+			if (!local && (pendingRemoteDeletes.contains(name) || getRemoteLength(name) < 0)) {
+				throw new NoSuchFileException(name);
+			}
+			if (local) {
+				localDirectory.deleteFile(name);
+			}
+			deleteRemote(name);
+		}
+	}
+
+	@Override
+	public long fileLength(String name) throws IOException {
+		ensureOpen();
+		if (existsLocally(name)) {
+			return localDirectory.fileLength(name);
+		}
+		if (pendingRemoteDeletes.contains(name)) {
+			throw new NoSuchFileException(name);
+		}
+		return remoteDirectory.fileLength(name);
+	}
+
+	@Override
+	public IndexOutput createOutput(String name, IOContext context) throws IOException {
+		ensureOpen();
+		return localDirectory.createOutput(name, context);
+	}
+
+	@Override
+	public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) throws IOException {
+		ensureOpen();
+		return localDirectory.createTempOutput(prefix, suffix, context);
+	}
+
+	/**
+	 * Syncs the local files and starts copying them to the remote directory, files only in the remote directory are
+	 * already durable
+	 */
+	@Override
+	public void sync(Collection<String> names) throws IOException {
+		ensureOpen();
+		List<String> localNames = new ArrayList<>(names.size());
+		for (String name : names) {
+			if (existsLocally(name)) {
+				localNames.add(name);
+			}
+		}
+		localDirectory.sync(localNames);
+
+		for (String name : localNames) {
+			//the commit point is copied once it is renamed to its final name
+			if (!name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+				replicateFile(name);
+			}
+		}
+	}
+
+	@Override
+	public void rename(String source, String dest) throws IOException {
+		ensureOpen();
+		localDirectory.rename(source, dest);
+		deleteRemote(source);
+		if (dest.startsWith(IndexFileNames.SEGMENTS)) {
+			replicateCommit(dest);
+		}
+		else {
+			replicateFile(dest);
+		}
+	}
+
+	@Override
+	public void syncMetaData() throws IOException {
+		ensureOpen();
+		localDirectory.syncMetaData();
+	}
+
+	@Override
+	public IndexInput openInput(String name, IOContext context) throws IOException {
+		ensureOpen();
+		if (existsLocally(name)) {
+			return localDirectory.openInput(name, context);
+		}
+		if (pendingRemoteDeletes.contains(name)) {
+			throw new NoSuchFileException(name);
+		}
+		return remoteDirectory.openInput(name, context);
+	}
+
+	@Override
+	public Lock obtainLock(String name) throws IOException {
+		ensureOpen();
+		return localDirectory.obtainLock(name);
+	}
+
+	/**
+	 * @return the number of copies and deletes not done in the remote directory yet
+	 */
+	public int getPendingReplications() {
+		return pendingReplications.get();
+	}
+
+	/**
+	 * Waits for the copies and deletes requested so far to be done in the remote directory
+	 */
+	public void awaitReplication() throws IOException {
+		await(replicationExecutor);
+	}
+
+	/**
+	 * Waits for the files of the latest remote commit to be copied to local disk
+	 */
+	public void awaitLocalization() throws IOException {
+		await(localizationExecutor);
+	}
+
+	private void await(ExecutorService executor) throws IOException {
+		ensureOpen();
+		try {
+			executor.submit(() -> {
+			}).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for <" + this + ">");
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Failed waiting for <" + this + ">", e.getCause());
+		}
+	}
+
+	private boolean existsLocally(String name) {
+		return Files.exists(localDirectory.getDirectory().resolve(name));
+	}
+
+	/**
+	 * @return the length of the file in the remote directory or -1 if it is not there
+	 */
+	private long getRemoteLength(String name) throws IOException {
+		try {
+			return remoteDirectory.fileLength(name);
+		}
+		catch (FileNotFoundException | NoSuchFileException e) {
+			return -1;
+		}
+	}
+
+	private void replicateFile(String name) {
+		submitReplication("file <" + name + ">", () -> copyToRemote(name));
+	}
+
+	/**
+	 * Copies every file of the commit and then the commit point, the commit point is not copied if a file is missing
+	 * so the next commit copies it again.  Remote deletes requested while a commit failed to replicate run once a commit
+	 * is replicated.
+	 */
+	private void replicateCommit(String segmentsFileName) {
+		submitReplication("commit <" + segmentsFileName + ">", () -> {
+			try {
+				for (String fileName : SegmentInfos.readCommit(this, segmentsFileName).files(false)) {
+					if (!copyToRemote(fileName) && getRemoteLength(fileName) < 0) {
+						throw new IOException("File <" + fileName + "> is neither on local disk nor in the remote directory");
+					}
+				}
+				copyToRemote(segmentsFileName);
+			}
+			catch (IOException e) {
+				remoteCommitBehind = true;
+				throw e;
+			}
+
+			remoteCommitBehind = false;
+			for (String name : deferredRemoteDeletes) {
+				try {
+					deleteRemoteNow(name);
+				}
+				catch (IOException e) {
+					log.error("Failed to replicate delete of <" + name + "> for <" + this + ">: " + e.getMessage(), e);
+				}
+			}
+			deferredRemoteDeletes.clear();
+		});
+	}
+
+	private void deleteRemote(String name) {
+		pendingRemoteDeletes.add(name);
+		submitReplication("delete of <" + name + ">", () -> {
+			if (remoteCommitBehind) {
+				deferredRemoteDeletes.add(name);
+			}
+			else {
+				deleteRemoteNow(name);
+			}
+		});
+	}
+
+	private void deleteRemoteNow(String name) throws IOException {
+		try {
+			if (getRemoteLength(name) >= 0) {
+				remoteDirectory.deleteFile(name);
+			}
+		}
+		finally {
+			pendingRemoteDeletes.remove(name);
+		}
+	}
+
+	private void submitReplication(String description, ReplicationTask task) {
+		pendingReplications.incrementAndGet();
+		replicationExecutor.execute(() -> {
+			try {
+				task.run();
+			}
+			catch (Exception e) {
+				log.error("Failed to replicate " + description + " for <" + this + ">: " + e.getMessage(), e);
+			}
+			finally {
+				pendingReplications.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Copies a local file to the remote directory unless the remote directory already has it
+	 * @return false if the file is not on local disk
+	 */
+	private boolean copyToRemote(String name) throws IOException {
+		long localLength;
+		try {
+			localLength = localDirectory.fileLength(name);
+		}
+		catch (FileNotFoundException | NoSuchFileException e) {
+			return false;
+		}
+
+		long remoteLength = getRemoteLength(name);
+		if (remoteLength == localLength) {
+			return true;
+		}
+		if (remoteLength >= 0) {
+			remoteDirectory.deleteFile(name);
+		}
+		remoteDirectory.copyFrom(localDirectory, name, name, IOContext.DEFAULT);
+		remoteDirectory.sync(Collections.singleton(name));
+		return true;
+	}
+
+	/**
+	 * Copies a remote file to local disk under a temporary name and moves it in place if it was not deleted meanwhile
+	 * @return false if the file was deleted during the copy
+	 */
+	private boolean copyToLocal(String name) throws IOException {
+		String tempName = name + LOCALIZING_SUFFIX;
+		try {
+			localDirectory.copyFrom(remoteDirectory, name, tempName, IOContext.READONCE);
+		}
+		catch (FileNotFoundException | NoSuchFileException e) {
+			IOUtils.deleteFilesIgnoringExceptions(localDirectory, tempName);
+			return false;
+		}
+		localDirectory.sync(Collections.singleton(tempName));
+
+		synchronized (this) {
+			if (!pendingRemoteDeletes.contains(name) && getRemoteLength(name) >= 0 && !existsLocally(name)) {
+				localDirectory.rename(tempName, name);
+				return true;
+			}
+		}
+		localDirectory.deleteFile(tempName);
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!isOpen) {
+			return;
+		}
+
+		//the directory stays open for the replications still reading commits through it
+		localizationExecutor.shutdownNow();
+		replicationExecutor.shutdown();
+		try {
+			if (!replicationExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				log.warn("Closing <" + this + "> with <" + pendingReplications.get() + "> replications pending");
+				replicationExecutor.shutdownNow();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			replicationExecutor.shutdownNow();
+		}
+		finally {
+			isOpen = false;
+			IOUtils.close(localDirectory, remoteDirectory);
+		}
+	}
+
+	@Override
+	protected void ensureOpen() {
+		if (!isOpen) {
+			throw new AlreadyClosedException("this Directory is closed");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TieredDirectory [local=" + localDirectory.getDirectory() + ", remote=" + remoteDirectory + "]";
+	}
+
+	private interface ReplicationTask {
+		void run() throws IOException;
+	}
+
+}
@@ -0,0 +1,49 @@
+package org.lumongo.storage.util;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers stats as MBeans with the platform MBean server, a failure is logged and the stats are just not exposed
+ */
+public class JmxUtil {
+	private final static Logger log = Logger.getLogger(JmxUtil.class);
+
+	private JmxUtil() {
+
+	}
+
+	/**
+	 * @param name - object name of the MBean, values that can hold any character must be quoted with {@link ObjectName#quote(String)}
+	 * @return the name the MBean is registered under or null if it could not be registered
+	 */
+	public static ObjectName register(Object mBean, String name) {
+		try {
+			ObjectName objectName = new ObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mBean, objectName);
+			return objectName;
+		}
+		catch (JMException e) {
+			log.warn("Failed to register MBean <" + name + ">: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param objectName - name returned by {@link #register(Object, String)}, nothing is done for null
+	 */
+	public static void unregister(ObjectName objectName) {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+			catch (JMException e) {
+				log.warn("Failed to unregister MBean <" + objectName + ">: " + e.getMessage());
+			}
+		}
+	}
+
+}
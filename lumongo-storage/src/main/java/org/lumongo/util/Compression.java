@@ -55,17 +55,56 @@ public class Compression {
 		inflater.setInput(bytes);
 		ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
 		byte[] buf = new byte[1024];
-		while (!inflater.finished()) {
-			try {
+		try {
+			while (!inflater.finished()) {
 				int count = inflater.inflate(buf);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated zlib data");
+				}
 				bos.write(buf, 0, count);
 			}
-			catch (DataFormatException e) {
-			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Invalid zlib data", e);
+		}
+		finally {
+			inflater.end();
 		}
 		bos.close();
-		inflater.end();
 		return bos.toByteArray();
 	}
 
+	/**
+	 * Uncompresses directly into an array of a known size
+	 * @param bytes - zlib compressed bytes
+	 * @param uncompressedLength - exact length of the uncompressed bytes
+	 */
+	public static byte[] uncompressZlib(byte[] bytes, int uncompressedLength) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(bytes);
+		byte[] uncompressed = new byte[uncompressedLength];
+		try {
+			int offset = 0;
+			while (!inflater.finished()) {
+				int count = inflater.inflate(uncompressed, offset, uncompressedLength - offset);
+				if (count == 0 && (offset == uncompressedLength || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Expected <" + uncompressedLength + "> uncompressed bytes but zlib data " + (offset == uncompressedLength ?
+							"is longer" :
+							"ended after <" + offset + ">"));
+				}
+				offset += count;
+			}
+			if (offset != uncompressedLength) {
+				throw new IOException("Expected <" + uncompressedLength + "> uncompressed bytes but zlib data ended after <" + offset + ">");
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Invalid zlib data", e);
+		}
+		finally {
+			inflater.end();
+		}
+		return uncompressed;
+	}
+
 }
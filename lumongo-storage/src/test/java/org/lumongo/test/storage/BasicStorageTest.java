@@ -24,9 +24,13 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortedSetSortField;
 import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.BytesRef;
 import org.lumongo.storage.lucene.DistributedDirectory;
 import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
 import org.lumongo.util.TestHelper;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -47,6 +51,7 @@ import static org.testng.AssertJUnit.assertEquals;
 
 public class BasicStorageTest {
 	private static final String STORAGE_TEST_INDEX = "storageTest";
+	private static final String REUSE_TEST_INDEX = "storageReuseTest";
 	private static Directory directory;
 
 	@BeforeClass
@@ -267,4 +272,41 @@ public class BasicStorageTest {
 			d.close();
 		}
 	}
+
+	@Test
+	public void test4DeleteReusesFileNumber() throws IOException {
+		MongoClient mongo = TestHelper.getMongo();
+		MongoDirectory mongoDirectory = new MongoDirectory(mongo, TestHelper.TEST_DATABASE_NAME, REUSE_TEST_INDEX, false, 1024);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		byte[] bytes = new byte[4096];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = 1;
+		}
+		try (IndexOutput indexOutput = directory.createOutput("deleted.bin", IOContext.DEFAULT)) {
+			indexOutput.writeBytes(bytes, 0, bytes.length);
+		}
+		try (IndexInput indexInput = directory.openInput("deleted.bin", IOContext.READONCE)) {
+			indexInput.readBytes(new byte[bytes.length], 0, bytes.length);
+		}
+		MongoFile deletedFile = mongoDirectory.getFileHandle("deleted.bin");
+		short fileNumber = deletedFile.getFileNumber();
+		int blockSize = deletedFile.getBlockSize();
+		directory.deleteFile("deleted.bin");
+
+		//a second handle on the index shares its cache partition and starts numbering from the files that are left
+		MongoDirectory reopenedDirectory = new MongoDirectory(mongo, TestHelper.TEST_DATABASE_NAME, REUSE_TEST_INDEX, false, 1024);
+		DistributedDirectory reopened = new DistributedDirectory(reopenedDirectory);
+		try (IndexOutput indexOutput = reopened.createOutput("reused.bin", IOContext.DEFAULT)) {
+			indexOutput.writeBytes(new byte[] { 2, 2, 2, 2 }, 0, 4);
+		}
+
+		MongoFile reusedFile = reopenedDirectory.getFileHandle("reused.bin");
+		assertEquals("Expected the file number to be reused", fileNumber, reusedFile.getFileNumber());
+		assertEquals("Expected written byte", 2, reusedFile.readByte(3));
+		assertEquals("Expected block of the deleted file to be gone", 0, reusedFile.readByte(blockSize + 3));
+
+		reopened.close();
+		directory.close();
+	}
 }
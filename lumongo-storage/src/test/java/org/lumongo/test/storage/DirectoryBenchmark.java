@@ -0,0 +1,148 @@
+package org.lumongo.test.storage;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.lumongo.storage.lucene.BlockCache;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures indexing, cold and warm search of the distributed directory stack on the in memory block store for combinations
+ * of block size and block cache size.  Run with:
+ *
+ * java -cp ... org.lumongo.test.storage.DirectoryBenchmark [docs] [requestLatencyMicros] [transferMicrosPerMB]
+ *
+ * Each configuration is indexed once, then searched with a cold cache and again with a warm cache.  Search runs are
+ * repeated and the best time is reported to reduce noise from the JIT and garbage collection.
+ */
+public class DirectoryBenchmark {
+
+	private static final int[] BLOCK_SIZES = { 16 * 1024, 32 * 1024, 128 * 1024, 512 * 1024 };
+	private static final long[] CACHE_SIZES = { 0, 4L * 1024 * 1024, 64L * 1024 * 1024 };
+
+	private static final int QUERIES = 200;
+	private static final int RUNS = 5;
+
+	private static final String[] WORDS = { "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet", "kilo", "lima",
+			"mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango" };
+
+	public static void main(String[] args) throws Exception {
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		long requestLatencyMicros = args.length > 1 ? Long.parseLong(args[1]) : 500;
+		long transferMicrosPerMB = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+
+		System.out.println("docs=" + docs + " requestLatencyMicros=" + requestLatencyMicros + " transferMicrosPerMB=" + transferMicrosPerMB);
+		System.out.println(String.format("%10s %10s %10s %12s %10s %12s %10s %12s", "blockSize", "cacheMB", "indexMs", "coldMs", "coldReqs", "coldMB",
+				"warmMs", "warmReqs"));
+
+		for (int blockSize : BLOCK_SIZES) {
+			for (long cacheSize : CACHE_SIZES) {
+				run(docs, blockSize, cacheSize, requestLatencyMicros, transferMicrosPerMB);
+			}
+		}
+	}
+
+	private static void run(int docs, int blockSize, long cacheSize, long requestLatencyMicros, long transferMicrosPerMB) throws IOException {
+		MemoryBlockStore blockStore = new MemoryBlockStore("benchmark");
+		blockStore.setLatency(requestLatencyMicros, transferMicrosPerMB);
+		MongoFile.setMaxCacheSize(cacheSize, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+
+		long start = System.nanoTime();
+		MongoDirectory mongoDirectory = new MongoDirectory(blockStore, blockSize);
+		mongoDirectory.setBlockSizeByFileType(false);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+		index(directory, docs);
+		long indexMs = (System.nanoTime() - start) / 1000000;
+
+		long coldMs = Long.MAX_VALUE;
+		long coldRequests = 0;
+		long coldBytes = 0;
+		for (int i = 0; i < RUNS; i++) {
+			mongoDirectory.clearCache();
+			long requests = blockStore.getRequests();
+			long bytes = blockStore.getBytesTransferred();
+			long runMs = search(directory, docs);
+			if (runMs < coldMs) {
+				coldMs = runMs;
+				coldRequests = blockStore.getRequests() - requests;
+				coldBytes = blockStore.getBytesTransferred() - bytes;
+			}
+		}
+
+		long warmMs = Long.MAX_VALUE;
+		long warmRequests = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long requests = blockStore.getRequests();
+			long runMs = search(directory, docs);
+			if (runMs < warmMs) {
+				warmMs = runMs;
+				warmRequests = blockStore.getRequests() - requests;
+			}
+		}
+
+		directory.close();
+
+		System.out.println(String.format("%10d %10d %10d %12d %10d %12.1f %10d %12d", blockSize, cacheSize / (1024 * 1024), indexMs, coldMs, coldRequests,
+				coldBytes / (1024.0 * 1024), warmMs, warmRequests));
+	}
+
+	private static void index(DistributedDirectory directory, int docs) throws IOException {
+		Random random = new Random(1234);
+		IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+		for (int i = 0; i < docs; i++) {
+			StringBuilder title = new StringBuilder();
+			for (int j = 0; j < 20; j++) {
+				title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			Document doc = new Document();
+			doc.add(new StringField("uid", "id-" + i, Field.Store.YES));
+			doc.add(new TextField("title", title.toString(), Field.Store.YES));
+			doc.add(new NumericDocValuesField("number", random.nextInt(docs)));
+			w.addDocument(doc);
+		}
+		w.commit();
+		w.close();
+	}
+
+	/**
+	 * Runs the same mix of term queries, sorted queries and stored field fetches every time
+	 * @return time in ms
+	 */
+	private static long search(DistributedDirectory directory, int docs) throws IOException {
+		Random random = new Random(5678);
+		long start = System.nanoTime();
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+			Sort sort = new Sort(new SortField("number", SortField.Type.LONG));
+			for (int i = 0; i < QUERIES; i++) {
+				TermQuery query = new TermQuery(new Term("title", WORDS[random.nextInt(WORDS.length)]));
+				TopDocs topDocs = i % 2 == 0 ? searcher.search(query, 10) : searcher.search(query, 10, sort);
+				for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+					searcher.doc(scoreDoc.doc);
+				}
+				searcher.search(new TermQuery(new Term("uid", "id-" + random.nextInt(docs))), 1);
+			}
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.lumongo.test.storage;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.lumongo.storage.lucene.DiskBlockCache;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Runs the local disk tier of a directory on the in memory block store with a byte budget of a few blocks
+ */
+public class DiskBlockCacheTest {
+	private static final String DISK_TEST_INDEX = "diskBlockCacheTest";
+	private static final int BLOCK_SIZE = 1024;
+	private static final int FILE_BLOCKS = 6;
+
+	private Path path;
+	private MemoryBlockStore blockStore;
+
+	@BeforeMethod
+	public void init() throws IOException {
+		path = Files.createTempDirectory(DISK_TEST_INDEX);
+		blockStore = new MemoryBlockStore(DISK_TEST_INDEX);
+		DiskBlockCache.setMaxSize(8 * BLOCK_SIZE);
+	}
+
+	@AfterMethod
+	public void cleanUp() throws IOException {
+		DiskBlockCache.setMaxSize(Long.MAX_VALUE);
+		DiskBlockCache.delete(path);
+	}
+
+	private MongoDirectory openDirectory() throws IOException {
+		MongoDirectory mongoDirectory = new MongoDirectory(blockStore, BLOCK_SIZE);
+		mongoDirectory.setBlockSizeByFileType(false);
+		mongoDirectory.enableDiskBlockCache(path);
+		return mongoDirectory;
+	}
+
+	private static void writeFile(DistributedDirectory directory, String fileName, byte value) throws IOException {
+		byte[] bytes = new byte[FILE_BLOCKS * BLOCK_SIZE];
+		Arrays.fill(bytes, value);
+		try (IndexOutput indexOutput = directory.createOutput(fileName, IOContext.DEFAULT)) {
+			indexOutput.writeBytes(bytes, 0, bytes.length);
+		}
+		directory.sync(Arrays.asList(fileName));
+	}
+
+	private static void readFile(DistributedDirectory directory, String fileName, byte value) throws IOException {
+		try (IndexInput indexInput = directory.openInput(fileName, IOContext.DEFAULT)) {
+			byte[] read = new byte[(int) indexInput.length()];
+			indexInput.readBytes(read, 0, read.length);
+			for (int i = 0; i < read.length; i++) {
+				assertEquals("Expected byte <" + i + "> of <" + fileName + ">", value, read[i]);
+			}
+		}
+	}
+
+	private int countDataFiles() throws IOException {
+		int dataFiles = 0;
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(path, "*.data")) {
+			for (Path ignored : directoryStream) {
+				dataFiles++;
+			}
+		}
+		return dataFiles;
+	}
+
+	@Test
+	public void evictsToBudget() throws IOException {
+		MongoDirectory mongoDirectory = openDirectory();
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+		writeFile(directory, "first.bin", (byte) 1);
+		writeFile(directory, "second.bin", (byte) 2);
+
+		mongoDirectory.clearCache();
+		readFile(directory, "first.bin", (byte) 1);
+		assertEquals("Expected the blocks of the first file on disk", FILE_BLOCKS * BLOCK_SIZE, DiskBlockCache.getTotalSizeInBytes());
+
+		readFile(directory, "second.bin", (byte) 2);
+		assertTrue("Expected the disk tier to stay in its budget", DiskBlockCache.getTotalSizeInBytes() <= DiskBlockCache.getMaxSize());
+		assertEquals("Expected the least recently used file to be removed from disk", 1, countDataFiles());
+
+		//the second file is now served from disk
+		mongoDirectory.clearCache();
+		long requests = blockStore.getRequests();
+		readFile(directory, "second.bin", (byte) 2);
+		assertEquals("Expected the blocks to be read from disk", requests, blockStore.getRequests());
+
+		directory.deleteFile("second.bin");
+		assertEquals("Expected the blocks of a deleted file not to count", 0, DiskBlockCache.getTotalSizeInBytes());
+		assertEquals("Expected the data file of a deleted file to be removed", 0, countDataFiles());
+
+		directory.close();
+	}
+
+	@Test
+	public void reusedAfterReopen() throws IOException {
+		MongoDirectory mongoDirectory = openDirectory();
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+		writeFile(directory, "reused.bin", (byte) 3);
+		mongoDirectory.clearCache();
+		readFile(directory, "reused.bin", (byte) 3);
+		directory.close();
+		assertEquals("Expected the blocks of a closed directory not to count", 0, DiskBlockCache.getTotalSizeInBytes());
+
+		mongoDirectory = openDirectory();
+		directory = new DistributedDirectory(mongoDirectory);
+		assertEquals("Expected the blocks kept on close to count again", FILE_BLOCKS * BLOCK_SIZE, DiskBlockCache.getTotalSizeInBytes());
+		long requests = blockStore.getRequests();
+		readFile(directory, "reused.bin", (byte) 3);
+		assertEquals("Expected the blocks to be read from disk", requests, blockStore.getRequests());
+
+		//a file recreated with the same name and number has a new file id, the old blocks are not served for it
+		directory.deleteFile("reused.bin");
+		writeFile(directory, "reused.bin", (byte) 4);
+		mongoDirectory.clearCache();
+		readFile(directory, "reused.bin", (byte) 4);
+
+		directory.close();
+	}
+
+}
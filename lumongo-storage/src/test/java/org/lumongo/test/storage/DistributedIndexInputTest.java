@@ -0,0 +1,270 @@
+package org.lumongo.test.storage;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Reads random primitives back through the buffered fast paths of the distributed index input, values are written
+ * so every type straddles block edges at every offset
+ */
+public class DistributedIndexInputTest {
+	private static final String INPUT_TEST_INDEX = "distributedIndexInputTest";
+	private static final String FILE_NAME = "values.bin";
+	private static final int BLOCK_SIZE = 1024;
+	private static final int RANDOM_VALUES = 5000;
+
+	private enum Type {
+		BYTE(1),
+		SHORT(2),
+		INT(4),
+		LONG(8),
+		VINT(5),
+		VLONG(9);
+
+		private final int maxSize;
+
+		Type(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		private boolean isFixedSize() {
+			return this != VINT && this != VLONG;
+		}
+	}
+
+	private static class Value {
+		private final Type type;
+		private final long position;
+		private final long value;
+		private long end;
+
+		private Value(Type type, long position, long value) {
+			this.type = type;
+			this.position = position;
+			this.value = value;
+		}
+	}
+
+	private static DistributedDirectory directory;
+	private static List<Value> values;
+
+	@BeforeClass
+	public static void init() throws Exception {
+		MongoDirectory mongoDirectory = new MongoDirectory(new MemoryBlockStore(INPUT_TEST_INDEX), BLOCK_SIZE);
+		mongoDirectory.setBlockSizeByFileType(false);
+		directory = new DistributedDirectory(mongoDirectory);
+
+		Random random = new Random(1234);
+		values = new ArrayList<>();
+		try (IndexOutput indexOutput = directory.createOutput(FILE_NAME, IOContext.DEFAULT)) {
+			long blockEdge = BLOCK_SIZE;
+			for (Type type : Type.values()) {
+				for (int beforeEdge = 1; beforeEdge <= type.maxSize; beforeEdge++) {
+					//start the value the given number of bytes before the edge of a block
+					while (indexOutput.getFilePointer() < blockEdge - beforeEdge) {
+						indexOutput.writeByte((byte) random.nextInt());
+					}
+					write(indexOutput, type, getLargest(type, random));
+					blockEdge += BLOCK_SIZE;
+				}
+			}
+
+			Type[] types = Type.values();
+			for (int i = 0; i < RANDOM_VALUES; i++) {
+				Type type = types[random.nextInt(types.length)];
+				write(indexOutput, type, getRandom(type, random));
+			}
+		}
+	}
+
+	@AfterClass
+	public static void cleanUp() throws IOException {
+		directory.close();
+	}
+
+	/**
+	 * @return a value that is written with the maximum number of bytes of the type
+	 */
+	private static long getLargest(Type type, Random random) {
+		switch (type) {
+			case VINT:
+				return -1 - random.nextInt(Integer.MAX_VALUE);
+			case VLONG:
+				return Long.MAX_VALUE - random.nextInt(Integer.MAX_VALUE);
+			default:
+				return getRandom(type, random);
+		}
+	}
+
+	private static long getRandom(Type type, Random random) {
+		switch (type) {
+			case BYTE:
+				return (byte) random.nextInt();
+			case SHORT:
+				return (short) random.nextInt();
+			case INT:
+			case VINT:
+				//spread the values over every encoded length
+				return random.nextInt() >> random.nextInt(32);
+			case LONG:
+				return random.nextLong();
+			case VLONG:
+				return (random.nextLong() & Long.MAX_VALUE) >> random.nextInt(64);
+			default:
+				throw new IllegalArgumentException("Unknown type <" + type + ">");
+		}
+	}
+
+	private static void write(IndexOutput indexOutput, Type type, long value) throws IOException {
+		Value v = new Value(type, indexOutput.getFilePointer(), value);
+		switch (type) {
+			case BYTE:
+				indexOutput.writeByte((byte) value);
+				break;
+			case SHORT:
+				indexOutput.writeShort((short) value);
+				break;
+			case INT:
+				indexOutput.writeInt((int) value);
+				break;
+			case LONG:
+				indexOutput.writeLong(value);
+				break;
+			case VINT:
+				indexOutput.writeVInt((int) value);
+				break;
+			case VLONG:
+				indexOutput.writeVLong(value);
+				break;
+		}
+		v.end = indexOutput.getFilePointer();
+		values.add(v);
+	}
+
+	private static long read(IndexInput indexInput, Type type) throws IOException {
+		switch (type) {
+			case BYTE:
+				return indexInput.readByte();
+			case SHORT:
+				return indexInput.readShort();
+			case INT:
+				return indexInput.readInt();
+			case LONG:
+				return indexInput.readLong();
+			case VINT:
+				return indexInput.readVInt();
+			case VLONG:
+				return indexInput.readVLong();
+			default:
+				throw new IllegalArgumentException("Unknown type <" + type + ">");
+		}
+	}
+
+	private static long read(RandomAccessInput randomAccessInput, Type type, long pos) throws IOException {
+		switch (type) {
+			case BYTE:
+				return randomAccessInput.readByte(pos);
+			case SHORT:
+				return randomAccessInput.readShort(pos);
+			case INT:
+				return randomAccessInput.readInt(pos);
+			case LONG:
+				return randomAccessInput.readLong(pos);
+			default:
+				throw new IllegalArgumentException("Type <" + type + "> is not fixed size");
+		}
+	}
+
+	/**
+	 * Reads the values starting in the range of the file from the input that starts at the given file offset
+	 */
+	private static void readValues(IndexInput indexInput, long offset, long start, long end) throws IOException {
+		for (Value v : values) {
+			if (v.position >= start && v.end <= end) {
+				if (indexInput.getFilePointer() != v.position - offset) {
+					indexInput.seek(v.position - offset);
+				}
+				assertEquals("Expected " + v.type + " at <" + v.position + ">", v.value, read(indexInput, v.type));
+				assertEquals("Expected the position after the " + v.type + " at <" + v.position + ">", v.end - offset, indexInput.getFilePointer());
+			}
+		}
+	}
+
+	@Test
+	public void sequentialReads() throws IOException {
+		try (IndexInput indexInput = directory.openInput(FILE_NAME, IOContext.DEFAULT)) {
+			readValues(indexInput, 0, 0, indexInput.length());
+		}
+		try (IndexInput indexInput = directory.openInput(FILE_NAME, IOContext.READONCE)) {
+			readValues(indexInput, 0, 0, indexInput.length());
+		}
+	}
+
+	@Test
+	public void randomAccessReads() throws IOException {
+		List<Value> shuffled = new ArrayList<>(values);
+		Collections.shuffle(shuffled, new Random(5678));
+
+		try (IndexInput indexInput = directory.openInput(FILE_NAME, IOContext.DEFAULT)) {
+			RandomAccessInput randomAccessInput = (RandomAccessInput) indexInput;
+			for (Value v : shuffled) {
+				if (v.type.isFixedSize()) {
+					assertEquals("Expected " + v.type + " at <" + v.position + ">", v.value, read(randomAccessInput, v.type, v.position));
+				}
+			}
+
+			//an offset that is not aligned to a block moves every value relative to the block edges of the slice
+			long offset = BLOCK_SIZE / 2 + 3;
+			RandomAccessInput slice = indexInput.randomAccessSlice(offset, indexInput.length() - offset);
+			for (Value v : shuffled) {
+				if (v.type.isFixedSize() && v.position >= offset) {
+					assertEquals("Expected " + v.type + " at <" + v.position + "> of the slice", v.value, read(slice, v.type, v.position - offset));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void sliceAndClonePositions() throws IOException {
+		try (IndexInput indexInput = directory.openInput(FILE_NAME, IOContext.DEFAULT)) {
+			long offset = 3 * BLOCK_SIZE - 5;
+			long length = 10 * BLOCK_SIZE + 7;
+			IndexInput slice = indexInput.slice("values", offset, length);
+			assertEquals("Expected the slice length", length, slice.length());
+			readValues(slice, offset, offset, offset + length);
+
+			//a slice of a slice is relative to the slice
+			IndexInput nested = slice.slice("nested", 11, length - 11);
+			readValues(nested, offset + 11, offset + 11, offset + length);
+
+			Value middle = values.get(values.size() / 2);
+			indexInput.seek(middle.position);
+			IndexInput clone = indexInput.clone();
+			assertEquals("Expected the clone at the position of the input", middle.position, clone.getFilePointer());
+			readValues(clone, 0, middle.position, indexInput.length());
+			assertEquals("Expected reads of the clone not to move the input", middle.position, indexInput.getFilePointer());
+			assertEquals("Expected " + middle.type + " at <" + middle.position + ">", middle.value, read(indexInput, middle.type));
+
+			slice.seek(0);
+			IndexInput sliceClone = slice.clone();
+			readValues(sliceClone, offset, offset, offset + length);
+		}
+	}
+
+}
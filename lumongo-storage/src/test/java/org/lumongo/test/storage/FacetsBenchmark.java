@@ -0,0 +1,228 @@
+package org.lumongo.test.storage;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetField;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.lumongo.storage.lucene.BlockCache;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares indexing throughput and facet counting latency of taxonomy facets against sorted set doc values facets,
+ * the two ways a segment can store facets.  Both indexes are written the way a segment writes them, the taxonomy to a
+ * second directory committed alongside the index.  Run with:
+ *
+ * java -cp ... org.lumongo.test.storage.FacetsBenchmark [docs] [commitInterval]
+ *
+ * Facet latency is measured on a searcher that is already open, the time to build the ordinals of the sorted set
+ * facets is reported on its own since a segment builds them once per searcher when the searcher is opened.
+ */
+public class FacetsBenchmark {
+
+	private static final int QUERIES = 500;
+	private static final int RUNS = 5;
+	private static final int TOP_N = 10;
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final long CACHE_SIZE = 256L * 1024 * 1024;
+
+	private static final String[] DIMS = { "journal", "year", "author", "keyword" };
+	private static final int[] DIM_CARDINALITY = { 50, 40, 20000, 500 };
+	private static final int[] DIM_VALUES_PER_DOC = { 1, 1, 4, 6 };
+
+	private static final String[] WORDS = { "patient", "clinical", "study", "cell", "protein", "expression", "treatment", "disease", "gene", "receptor",
+			"analysis", "response", "tumor", "cancer", "activity", "effect", "therapy", "blood", "human", "acute" };
+
+	public static void main(String[] args) throws Exception {
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int commitInterval = args.length > 1 ? Integer.parseInt(args[1]) : 3200;
+
+		System.out.println("docs=" + docs + " commitInterval=" + commitInterval);
+		System.out.println(String.format("%22s %10s %12s %8s %10s %12s %12s", "facets", "indexMs", "docsPerSec", "files", "indexMB", "stateMs",
+				"usPerQuery"));
+
+		MongoFile.setMaxCacheSize(CACHE_SIZE, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+
+		FacetsConfig facetsConfig = new FacetsConfig();
+		for (String dim : DIMS) {
+			facetsConfig.setMultiValued(dim, true);
+		}
+
+		runTaxonomy(facetsConfig, docs, commitInterval);
+		runSortedSet(facetsConfig, docs, commitInterval);
+	}
+
+	private static void runTaxonomy(FacetsConfig facetsConfig, int docs, int commitInterval) throws IOException {
+		DistributedDirectory indexDirectory = new DistributedDirectory(new MongoDirectory(new MemoryBlockStore("facetsBenchmarkTaxonomy"), BLOCK_SIZE));
+		DistributedDirectory taxonomyDirectory = new DistributedDirectory(
+				new MongoDirectory(new MemoryBlockStore("facetsBenchmarkTaxonomyFacets"), BLOCK_SIZE));
+
+		long start = System.nanoTime();
+		try (IndexWriter w = new IndexWriter(indexDirectory, new IndexWriterConfig(new StandardAnalyzer()));
+				DirectoryTaxonomyWriter taxoWriter = new DirectoryTaxonomyWriter(taxonomyDirectory)) {
+			Random random = new Random(1234);
+			for (int i = 0; i < docs; i++) {
+				Document doc = newDocument(random, i, false);
+				w.addDocument(facetsConfig.build(taxoWriter, doc));
+				if ((i + 1) % commitInterval == 0) {
+					w.commit();
+					taxoWriter.commit();
+				}
+			}
+			w.commit();
+			taxoWriter.commit();
+		}
+		long indexMs = (System.nanoTime() - start) / 1000000;
+
+		double usPerQuery;
+		try (DirectoryReader reader = DirectoryReader.open(indexDirectory); TaxonomyReader taxoReader = new DirectoryTaxonomyReader(taxonomyDirectory)) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+			usPerQuery = time(() -> {
+				Random random = new Random(5678);
+				for (int i = 0; i < QUERIES; i++) {
+					FacetsCollector facetsCollector = new FacetsCollector();
+					FacetsCollector.search(searcher, randomQuery(random), TOP_N, facetsCollector);
+					Facets facets = new FastTaxonomyFacetCounts(taxoReader, facetsConfig, facetsCollector);
+					countDims(facets);
+				}
+			});
+		}
+
+		print("taxonomy", docs, indexMs, new DistributedDirectory[] { indexDirectory, taxonomyDirectory }, 0, usPerQuery);
+		indexDirectory.close();
+		taxonomyDirectory.close();
+	}
+
+	private static void runSortedSet(FacetsConfig facetsConfig, int docs, int commitInterval) throws IOException {
+		DistributedDirectory indexDirectory = new DistributedDirectory(new MongoDirectory(new MemoryBlockStore("facetsBenchmarkSortedSet"), BLOCK_SIZE));
+
+		long start = System.nanoTime();
+		try (IndexWriter w = new IndexWriter(indexDirectory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			Random random = new Random(1234);
+			for (int i = 0; i < docs; i++) {
+				Document doc = newDocument(random, i, true);
+				w.addDocument(facetsConfig.build(doc));
+				if ((i + 1) % commitInterval == 0) {
+					w.commit();
+				}
+			}
+			w.commit();
+		}
+		long indexMs = (System.nanoTime() - start) / 1000000;
+
+		double stateMs;
+		double usPerQuery;
+		try (DirectoryReader reader = DirectoryReader.open(indexDirectory)) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+
+			long stateStart = System.nanoTime();
+			SortedSetDocValuesReaderState state = new DefaultSortedSetDocValuesReaderState(reader, FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+			stateMs = (System.nanoTime() - stateStart) / 1000000.0;
+
+			usPerQuery = time(() -> {
+				Random random = new Random(5678);
+				for (int i = 0; i < QUERIES; i++) {
+					FacetsCollector facetsCollector = new FacetsCollector();
+					FacetsCollector.search(searcher, randomQuery(random), TOP_N, facetsCollector);
+					Facets facets = new SortedSetDocValuesFacetCounts(state, facetsCollector);
+					countDims(facets);
+				}
+			});
+		}
+
+		print("sortedSetDocValues", docs, indexMs, new DistributedDirectory[] { indexDirectory }, stateMs, usPerQuery);
+		indexDirectory.close();
+	}
+
+	private interface QueryRun {
+		void run() throws IOException;
+	}
+
+	/**
+	 * @return best average time per query in microseconds over the runs
+	 */
+	private static double time(QueryRun queryRun) throws IOException {
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			queryRun.run();
+			best = Math.min(best, (System.nanoTime() - start) / 1000.0 / QUERIES);
+		}
+		return best;
+	}
+
+	private static void countDims(Facets facets) throws IOException {
+		for (String dim : DIMS) {
+			if (facets.getTopChildren(TOP_N, dim) == null) {
+				throw new IllegalStateException("Expected counts for facet <" + dim + ">");
+			}
+		}
+	}
+
+	private static Query randomQuery(Random random) {
+		return new TermQuery(new Term("title", WORDS[random.nextInt(WORDS.length)]));
+	}
+
+	private static Document newDocument(Random random, int id, boolean sortedSet) {
+		Document doc = new Document();
+		doc.add(new StringField("uid", "id-" + id, Field.Store.YES));
+		StringBuilder title = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		doc.add(new TextField("title", title.toString(), Field.Store.NO));
+
+		for (int d = 0; d < DIMS.length; d++) {
+			for (int v = 0; v < DIM_VALUES_PER_DOC[d]; v++) {
+				String value = DIMS[d] + "-" + random.nextInt(DIM_CARDINALITY[d]);
+				if (sortedSet) {
+					doc.add(new SortedSetDocValuesFacetField(DIMS[d], value));
+				}
+				else {
+					doc.add(new FacetField(DIMS[d], value));
+				}
+			}
+		}
+		return doc;
+	}
+
+	private static void print(String name, int docs, long indexMs, Directory[] directories, double stateMs, double usPerQuery) throws IOException {
+		int files = 0;
+		long bytes = 0;
+		for (Directory directory : directories) {
+			for (String fileName : directory.listAll()) {
+				files++;
+				bytes += directory.fileLength(fileName);
+			}
+		}
+		System.out.println(String.format("%22s %10d %12.0f %8d %10.1f %12.1f %12.1f", name, indexMs, docs * 1000.0 / Math.max(indexMs, 1), files,
+				bytes / (1024.0 * 1024), stateMs, usPerQuery));
+	}
+
+}
@@ -0,0 +1,188 @@
+package org.lumongo.test.storage;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.lumongo.storage.lucene.BlockCache;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares primitive, vInt and positional reads of the distributed index input against an {@link MMapDirectory} on the
+ * same files.  Run with:
+ *
+ * java -cp ... org.lumongo.test.storage.IndexInputBenchmark [values]
+ *
+ * The in memory block store has no latency and the block cache holds every block so only the cost of the index input
+ * itself is measured.  Runs are repeated and the best time is reported to reduce noise from the JIT and garbage
+ * collection.
+ */
+public class IndexInputBenchmark {
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int RUNS = 10;
+
+	private static final String LONGS = "longs.bin";
+	private static final String INTS = "ints.bin";
+	private static final String VINTS = "vints.bin";
+
+	private static long checksum;
+
+	public static void main(String[] args) throws Exception {
+		int values = args.length > 0 ? Integer.parseInt(args[0]) : 4 * 1024 * 1024;
+
+		long cacheSize = 4L * values * 8;
+		MongoFile.setMaxCacheSize(cacheSize, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+		MongoDirectory mongoDirectory = new MongoDirectory(new MemoryBlockStore("indexInputBenchmark"), BLOCK_SIZE);
+		mongoDirectory.setBlockSizeByFileType(false);
+		DistributedDirectory distributedDirectory = new DistributedDirectory(mongoDirectory);
+
+		Path path = Files.createTempDirectory("indexInputBenchmark");
+		MMapDirectory mmapDirectory = new MMapDirectory(path);
+
+		try {
+			write(distributedDirectory, values);
+			write(mmapDirectory, values);
+
+			System.out.println("values=" + values + " blockSize=" + BLOCK_SIZE);
+			System.out.println(String.format("%16s %14s %14s", "read", "distributedNs", "mmapNs"));
+
+			print("readLong", readLongs(distributedDirectory, values), readLongs(mmapDirectory, values));
+			print("readInt", readInts(distributedDirectory, values), readInts(mmapDirectory, values));
+			print("readVInt", readVInts(distributedDirectory, values), readVInts(mmapDirectory, values));
+			print("randomReadLong", randomReadLongs(distributedDirectory, values), randomReadLongs(mmapDirectory, values));
+			print("randomReadInt", randomReadInts(distributedDirectory, values), randomReadInts(mmapDirectory, values));
+			System.out.println("checksum=" + checksum);
+		}
+		finally {
+			distributedDirectory.close();
+			for (String fileName : mmapDirectory.listAll()) {
+				mmapDirectory.deleteFile(fileName);
+			}
+			mmapDirectory.close();
+			Files.delete(path);
+			MongoFile.setMaxCacheSize((long) MongoDirectory.DEFAULT_BLOCK_MAX * MongoDirectory.DEFAULT_BLOCK_SIZE, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+		}
+	}
+
+	private static void print(String read, double distributedNs, double mmapNs) {
+		System.out.println(String.format("%16s %14.2f %14.2f", read, distributedNs, mmapNs));
+	}
+
+	private static void write(Directory directory, int values) throws IOException {
+		Random random = new Random(1234);
+		try (IndexOutput longs = directory.createOutput(LONGS, IOContext.DEFAULT);
+				IndexOutput ints = directory.createOutput(INTS, IOContext.DEFAULT);
+				IndexOutput vInts = directory.createOutput(VINTS, IOContext.DEFAULT)) {
+			for (int i = 0; i < values; i++) {
+				longs.writeLong(random.nextLong());
+				ints.writeInt(random.nextInt());
+				//spread the values over every vInt length
+				vInts.writeVInt(random.nextInt() >>> random.nextInt(32));
+			}
+		}
+		directory.sync(Arrays.asList(LONGS, INTS, VINTS));
+	}
+
+	/**
+	 * @return best time in ns per value
+	 */
+	private static double readLongs(Directory directory, int values) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			try (IndexInput indexInput = directory.openInput(LONGS, IOContext.READ)) {
+				long sum = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < values; i++) {
+					sum += indexInput.readLong();
+				}
+				best = Math.min(best, System.nanoTime() - start);
+				checksum += sum;
+			}
+		}
+		return (double) best / values;
+	}
+
+	private static double readInts(Directory directory, int values) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			try (IndexInput indexInput = directory.openInput(INTS, IOContext.READ)) {
+				long sum = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < values; i++) {
+					sum += indexInput.readInt();
+				}
+				best = Math.min(best, System.nanoTime() - start);
+				checksum += sum;
+			}
+		}
+		return (double) best / values;
+	}
+
+	private static double readVInts(Directory directory, int values) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			try (IndexInput indexInput = directory.openInput(VINTS, IOContext.READ)) {
+				long sum = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < values; i++) {
+					sum += indexInput.readVInt();
+				}
+				best = Math.min(best, System.nanoTime() - start);
+				checksum += sum;
+			}
+		}
+		return (double) best / values;
+	}
+
+	/**
+	 * Reads longs at random positions through a random access slice, like doc values lookups do
+	 */
+	private static double randomReadLongs(Directory directory, int values) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			Random random = new Random(5678);
+			try (IndexInput indexInput = directory.openInput(LONGS, IOContext.READ)) {
+				RandomAccessInput randomAccessInput = indexInput.randomAccessSlice(0, indexInput.length());
+				long sum = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < values; i++) {
+					sum += randomAccessInput.readLong(8L * random.nextInt(values));
+				}
+				best = Math.min(best, System.nanoTime() - start);
+				checksum += sum;
+			}
+		}
+		return (double) best / values;
+	}
+
+	private static double randomReadInts(Directory directory, int values) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			Random random = new Random(5678);
+			try (IndexInput indexInput = directory.openInput(INTS, IOContext.READ)) {
+				RandomAccessInput randomAccessInput = indexInput.randomAccessSlice(0, indexInput.length());
+				long sum = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < values; i++) {
+					sum += randomAccessInput.readInt(4L * random.nextInt(values));
+				}
+				best = Math.min(best, System.nanoTime() - start);
+				checksum += sum;
+			}
+		}
+		return (double) best / values;
+	}
+
+}
@@ -0,0 +1,639 @@
+package org.lumongo.test.storage;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.lumongo.storage.lucene.BlockCache;
+import org.lumongo.storage.lucene.BlockStats;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
+import org.lumongo.util.Compression;
+import org.lumongo.util.Compression.CompressionLevel;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.bson.types.Binary;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * Runs the distributed directory stack on the in memory block store, does not need a mongo server
+ */
+public class MemoryStorageTest {
+	private static final String MEMORY_TEST_INDEX = "memoryStorageTest";
+	private static final int DOC_COUNT = 2000;
+	private static MemoryBlockStore blockStore;
+
+	@BeforeClass
+	public static void init() throws Exception {
+		//small blocks and cache so reads cross blocks, blocks are evicted and read back from the store
+		MongoFile.setMaxCacheSize(16 * 1024, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+		blockStore = new MemoryBlockStore(MEMORY_TEST_INDEX);
+
+		DistributedDirectory directory = new DistributedDirectory(new MongoDirectory(blockStore, 1024));
+		IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+		for (int i = 0; i < DOC_COUNT; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("uid", "id-" + i, Field.Store.YES));
+			doc.add(new TextField("title", "Memory storage title " + (i % 2 == 0 ? "even" : "odd") + " number " + i, Field.Store.YES));
+			doc.add(new NumericDocValuesField("number", i));
+			w.addDocument(doc);
+		}
+		w.commit();
+		w.close();
+		directory.close();
+	}
+
+	@AfterClass
+	public static void resetCacheSize() {
+		MongoFile.setMaxCacheSize((long) MongoDirectory.DEFAULT_BLOCK_MAX * MongoDirectory.DEFAULT_BLOCK_SIZE, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+	}
+
+	@Test
+	public void searchAfterReopen() throws IOException {
+		long requests = blockStore.getRequests();
+
+		DistributedDirectory directory = new DistributedDirectory(new MongoDirectory(blockStore, 1024));
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals("Expected all docs", DOC_COUNT, reader.numDocs());
+
+			IndexSearcher searcher = new IndexSearcher(reader);
+			TopDocs topDocs = searcher.search(new TermQuery(new Term("title", "even")), DOC_COUNT);
+			assertEquals("Expected half of the docs", DOC_COUNT / 2, topDocs.totalHits);
+
+			for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+				Document d = searcher.doc(scoreDoc.doc);
+				int number = Integer.parseInt(d.get("uid").substring("id-".length()));
+				assertEquals("Expected even uid", 0, number % 2);
+				assertTrue("Expected stored title", d.get("title").endsWith(" " + number));
+			}
+
+			topDocs = searcher.search(new TermQuery(new Term("uid", "id-1234")), 1);
+			assertEquals("Expected 1 hit", 1, topDocs.totalHits);
+			int docId = topDocs.scoreDocs[0].doc;
+			NumericDocValues numbers = MultiDocValues.getNumericValues(reader, "number");
+			assertEquals("Expected doc value", 1234, numbers.get(docId));
+		}
+		directory.close();
+
+		assertTrue("Expected cold reads to go to the store", blockStore.getRequests() > requests);
+	}
+
+	@Test
+	public void warmUpLoadsCompoundFiles() throws Exception {
+		MemoryBlockStore compoundStore = new MemoryBlockStore(MEMORY_TEST_INDEX + "Compound");
+		DistributedDirectory directory = new DistributedDirectory(new MongoDirectory(compoundStore, 1024));
+		IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+		config.setUseCompoundFile(true);
+		IndexWriter w = new IndexWriter(directory, config);
+		for (int i = 0; i < DOC_COUNT; i++) {
+			Document doc = new Document();
+			doc.add(new TextField("title", "Compound title number " + i, Field.Store.NO));
+			doc.add(new NumericDocValuesField("number", i));
+			w.addDocument(doc);
+		}
+		w.commit();
+		w.close();
+		directory.close();
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		directory = new DistributedDirectory(new MongoDirectory(compoundStore, 1024));
+		try {
+			boolean compound = false;
+			for (String fileName : directory.listAll()) {
+				compound |= fileName.endsWith(".cfs");
+			}
+			assertTrue("Expected a compound segment", compound);
+
+			//norms and doc values take more than two blocks and are only found inside the compound file
+			long bytesLoaded = directory.warmUp(Long.MAX_VALUE, executor);
+			assertTrue("Expected the hot files of the compound file to be loaded", bytesLoaded > 2 * 1024);
+		}
+		finally {
+			executor.shutdownNow();
+			directory.close();
+		}
+	}
+
+	@Test
+	public void blockSizeByFileType() throws IOException {
+		int blockSize = MongoDirectory.DEFAULT_BLOCK_SIZE;
+		int smallBlockSize = blockSize / MongoDirectory.SMALL_BLOCK_DIVISOR;
+		long largeSegment = 1024L * 1024 * 1024;
+
+		MongoDirectory mongoDirectory = new MongoDirectory(new MemoryBlockStore(MEMORY_TEST_INDEX + "BlockSize"), blockSize);
+		try {
+			assertEquals(smallBlockSize, mongoDirectory.getBlockSize("segments_5", -1));
+			assertEquals(smallBlockSize, mongoDirectory.getBlockSize("_0.si", largeSegment));
+			assertEquals(smallBlockSize, mongoDirectory.getBlockSize("_0.fnm", largeSegment));
+			assertEquals(smallBlockSize, mongoDirectory.getBlockSize("_0.cfe", largeSegment));
+
+			//files that grow with the segment are sized by the segment
+			for (String fileName : new String[] { "_0.liv", "_0.fdx", "_0.tvx", "_0_Lucene54_0.dvm", "_0.nvm" }) {
+				assertEquals(blockSize, mongoDirectory.getBlockSize(fileName, largeSegment));
+				assertEquals(blockSize, mongoDirectory.getBlockSize(fileName, -1));
+				assertEquals(smallBlockSize, mongoDirectory.getBlockSize(fileName, 1000));
+			}
+
+			assertEquals(blockSize * MongoDirectory.LARGE_BLOCK_MULTIPLIER, mongoDirectory.getBlockSize("_0.fdt", largeSegment));
+			assertEquals(blockSize, mongoDirectory.getBlockSize("_0.fdt", -1));
+		}
+		finally {
+			mongoDirectory.close();
+		}
+	}
+
+	@Test
+	public void blockCompression() throws IOException {
+		int blockSize = 1024;
+		MemoryBlockStore compressionStore = new MemoryBlockStore(MEMORY_TEST_INDEX + "Compression");
+		MongoDirectory mongoDirectory = new MongoDirectory(compressionStore, blockSize);
+		mongoDirectory.setBlockSizeByFileType(false);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		//three full blocks and a partially filled last block
+		int length = 3 * blockSize + 100;
+		byte[] compressible = new byte[length];
+		for (int i = 0; i < length; i++) {
+			compressible[i] = (byte) (i % 7);
+		}
+		byte[] incompressible = new byte[length];
+		new Random(1234).nextBytes(incompressible);
+
+		try {
+			//blocks stored before compression is enabled
+			writeFile(directory, "before.bin", compressible);
+
+			mongoDirectory.setBlockCompression(CompressionLevel.NORMAL);
+			writeFile(directory, "compressible.bin", compressible);
+			writeFile(directory, "incompressible.bin", incompressible);
+
+			int blocks = (length + blockSize - 1) / blockSize;
+			for (int blockNumber = 0; blockNumber < blocks; blockNumber++) {
+				org.bson.Document before = getStoredBlock(mongoDirectory, "before.bin", blockNumber);
+				assertEquals("Expected block <" + blockNumber + "> stored before compression to be uncompressed", null, before.get(MongoDirectory.COMPRESSION));
+
+				org.bson.Document compressed = getStoredBlock(mongoDirectory, "compressible.bin", blockNumber);
+				assertEquals("Expected block <" + blockNumber + "> to be compressed", MongoDirectory.ZLIB_COMPRESSION, compressed.get(MongoDirectory.COMPRESSION));
+				assertTrue("Expected block <" + blockNumber + "> to be stored smaller than the block size",
+						((Binary) compressed.get(MongoDirectory.BYTES)).length() < blockSize);
+
+				//compressing would make it larger so it is stored as is
+				org.bson.Document uncompressed = getStoredBlock(mongoDirectory, "incompressible.bin", blockNumber);
+				assertEquals("Expected incompressible block <" + blockNumber + "> to be uncompressed", null, uncompressed.get(MongoDirectory.COMPRESSION));
+			}
+
+			//read back from the block store
+			mongoDirectory.clearCache();
+			assertFileEquals(directory, "before.bin", compressible);
+			assertFileEquals(directory, "compressible.bin", compressible);
+			assertFileEquals(directory, "incompressible.bin", incompressible);
+
+			//compressed blocks decompress to exactly the block size
+			byte[] block = Arrays.copyOf(compressible, blockSize);
+			byte[] zlib = Compression.compressZlib(block, CompressionLevel.NORMAL);
+			assertTrue("Expected block contents", Arrays.equals(block, Compression.uncompressZlib(zlib, blockSize)));
+			for (int wrongLength : new int[] { blockSize - 1, blockSize + 1 }) {
+				try {
+					Compression.uncompressZlib(zlib, wrongLength);
+					fail("Expected a block that does not uncompress to <" + wrongLength + "> bytes to fail");
+				}
+				catch (IOException e) {
+					//expected
+				}
+			}
+		}
+		finally {
+			directory.close();
+		}
+	}
+
+	private static void writeFile(DistributedDirectory directory, String fileName, byte[] bytes) throws IOException {
+		try (IndexOutput indexOutput = directory.createOutput(fileName, IOContext.DEFAULT)) {
+			indexOutput.writeBytes(bytes, 0, bytes.length);
+		}
+		directory.sync(Collections.singletonList(fileName));
+	}
+
+	private static void assertFileEquals(DistributedDirectory directory, String fileName, byte[] bytes) throws IOException {
+		assertEquals("Expected file length of <" + fileName + ">", bytes.length, directory.fileLength(fileName));
+		try (IndexInput indexInput = directory.openInput(fileName, IOContext.DEFAULT)) {
+			byte[] read = new byte[bytes.length];
+			indexInput.readBytes(read, 0, read.length);
+			assertTrue("Expected contents of <" + fileName + ">", Arrays.equals(bytes, read));
+		}
+	}
+
+	private static org.bson.Document getStoredBlock(MongoDirectory mongoDirectory, String fileName, int blockNumber) throws IOException {
+		short fileNumber = mongoDirectory.getFileHandle(fileName).getFileNumber();
+		org.bson.Document block = mongoDirectory.getBlockStore().getBlock(fileNumber, blockNumber, ReadPreference.primary());
+		assertTrue("Expected block <" + blockNumber + "> of <" + fileName + "> to be stored", block != null);
+		return block;
+	}
+
+	@Test
+	public void sequentialReadFetchesAheadInBatches() throws Exception {
+		int blockSize = 1024;
+		int blocks = 10;
+		RecordingBlockStore recordingStore = new RecordingBlockStore(MEMORY_TEST_INDEX + "ReadAhead");
+		MongoDirectory mongoDirectory = new MongoDirectory(recordingStore, blockSize);
+		mongoDirectory.setBlockSizeByFileType(false);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		byte[] bytes = new byte[blocks * blockSize];
+		new Random(5678).nextBytes(bytes);
+
+		try {
+			writeFile(directory, "readAhead.bin", bytes);
+			mongoDirectory.clearCache();
+			recordingStore.clear();
+
+			try (IndexInput indexInput = directory.openInput("readAhead.bin", IOContext.READ)) {
+				byte[] read = new byte[bytes.length];
+				for (int block = 0; block < blocks; block++) {
+					indexInput.readBytes(read, block * blockSize, blockSize);
+					if (block == 2) {
+						//the third sequential block starts the read ahead of the next blocks
+						recordingStore.awaitBatches(1);
+					}
+				}
+				assertTrue("Expected file contents", Arrays.equals(bytes, read));
+
+				long requests = recordingStore.getRequests();
+				try {
+					indexInput.readByte();
+					fail("Expected a read past the end of the file to fail");
+				}
+				catch (EOFException e) {
+					//expected
+				}
+				assertEquals("Expected no fetch at the end of the file", requests, recordingStore.getRequests());
+			}
+
+			assertEquals("Expected the blocks before the read ahead to be fetched one by one", Arrays.asList(0, 1, 2), recordingStore.getSingleBlocks());
+			List<List<Integer>> expectedBatches = Arrays.asList(Arrays.asList(3, 4, 5, 6), Arrays.asList(7, 8, 9));
+			assertEquals("Expected the following blocks to be fetched in batches that stop at the end of the file", expectedBatches,
+					recordingStore.getBatches());
+		}
+		finally {
+			directory.close();
+		}
+	}
+
+	@Test
+	public void blockStatsCounters() throws IOException {
+		int blockSize = 1024;
+		MongoDirectory mongoDirectory = new MongoDirectory(new MemoryBlockStore(MEMORY_TEST_INDEX + "Stats"), blockSize);
+		mongoDirectory.setBlockSizeByFileType(false);
+		//only the reads of the test fetch blocks
+		mongoDirectory.setReadAheadBlocks(0);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		byte[] bytes = new byte[4 * blockSize];
+		new Random(4321).nextBytes(bytes);
+
+		try {
+			IndexOutput indexOutput = directory.createOutput("stats.bin", IOContext.DEFAULT);
+			BlockStats blockStats = mongoDirectory.getFileHandle("stats.bin").getBlockStats();
+			long flushes = blockStats.getFlushes();
+			long flushedBytes = blockStats.getFlushedBytes();
+
+			indexOutput.writeBytes(bytes, 0, bytes.length);
+			indexOutput.close();
+			directory.sync(Collections.singletonList("stats.bin"));
+
+			assertEquals("Expected every block to be flushed once", flushes + 4, blockStats.getFlushes());
+			assertEquals("Expected the flushed bytes of every block", flushedBytes + 4 * blockSize, blockStats.getFlushedBytes());
+
+			mongoDirectory.clearCache();
+			flushes = blockStats.getFlushes();
+			long hits = blockStats.getHits();
+			long misses = blockStats.getMisses();
+			long loads = blockStats.getLoads();
+			long loadedBytes = blockStats.getLoadedBytes();
+
+			try (IndexInput indexInput = directory.openInput("stats.bin", IOContext.READ)) {
+				//two blocks fetched from the store
+				indexInput.seek(0);
+				indexInput.readByte();
+				indexInput.seek(blockSize);
+				indexInput.readByte();
+				assertEquals("Expected a miss for each block", misses + 2, blockStats.getMisses());
+				assertEquals("Expected no hits", hits, blockStats.getHits());
+				assertEquals("Expected a load for each miss", loads + 2, blockStats.getLoads());
+				assertEquals("Expected the bytes of the loaded blocks", loadedBytes + 2 * blockSize, blockStats.getLoadedBytes());
+
+				//and read again from the cache
+				indexInput.seek(0);
+				indexInput.readByte();
+				indexInput.seek(blockSize);
+				indexInput.readByte();
+				assertEquals("Expected a hit for each cached block", hits + 2, blockStats.getHits());
+				assertEquals("Expected no more misses", misses + 2, blockStats.getMisses());
+				assertEquals("Expected no more loads", loads + 2, blockStats.getLoads());
+			}
+
+			assertEquals("Expected no flushes for reads", flushes, blockStats.getFlushes());
+		}
+		finally {
+			directory.close();
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void unacknowledgedFlushIsRejected() throws IOException {
+		MongoDirectory mongoDirectory = new MongoDirectory(blockStore, 1024);
+		try {
+			mongoDirectory.setBlockFlushWriteConcern(WriteConcern.UNACKNOWLEDGED);
+		}
+		finally {
+			mongoDirectory.close();
+		}
+	}
+
+	@Test
+	public void writeReadDeleteFile() throws IOException {
+		MongoDirectory mongoDirectory = new MongoDirectory(blockStore, 1024);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		byte[] bytes = new byte[10000];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+
+		try (IndexOutput indexOutput = directory.createOutput("test.bin", IOContext.DEFAULT)) {
+			indexOutput.writeBytes(bytes, 0, 100);
+			indexOutput.writeInt(123456789);
+			indexOutput.writeLong(-987654321987654321L);
+			indexOutput.writeBytes(bytes, 100, bytes.length - 100);
+		}
+		directory.rename("test.bin", "renamed.bin");
+		assertEquals("Expected file length", bytes.length + 12, directory.fileLength("renamed.bin"));
+
+		mongoDirectory.clearCache();
+		try (IndexInput indexInput = directory.openInput("renamed.bin", IOContext.DEFAULT)) {
+			byte[] read = new byte[bytes.length];
+			indexInput.readBytes(read, 0, 100);
+			assertEquals("Expected int", 123456789, indexInput.readInt());
+			assertEquals("Expected long", -987654321987654321L, indexInput.readLong());
+			indexInput.readBytes(read, 100, bytes.length - 100);
+			for (int i = 0; i < bytes.length; i++) {
+				assertEquals("Expected byte <" + i + ">", bytes[i], read[i]);
+			}
+		}
+
+		directory.deleteFile("renamed.bin");
+		for (String fileName : directory.listAll()) {
+			assertTrue("Expected deleted file to be gone", !fileName.equals("renamed.bin"));
+		}
+		directory.close();
+	}
+
+	@Test
+	public void fileNumberCollisionFails() throws IOException {
+		MemoryBlockStore sharedStore = new MemoryBlockStore(MEMORY_TEST_INDEX + "Collision");
+		DistributedDirectory first = new DistributedDirectory(new MongoDirectory(sharedStore, 1024));
+		//opened before the first directory creates a file so both hand out the same number
+		DistributedDirectory second = new DistributedDirectory(new MongoDirectory(sharedStore, 1024));
+
+		try (IndexOutput indexOutput = first.createOutput("first.bin", IOContext.DEFAULT)) {
+			indexOutput.writeInt(1);
+		}
+
+		try (IndexOutput indexOutput = second.createOutput("second.bin", IOContext.DEFAULT)) {
+			indexOutput.writeInt(2);
+			fail("Expected the file number of the second file to collide");
+		}
+		catch (IOException e) {
+			//expected
+		}
+
+		//the file of the first directory is untouched
+		assertEquals("Expected one file", 1, sharedStore.getFiles().size());
+		try (IndexInput indexInput = first.openInput("first.bin", IOContext.DEFAULT)) {
+			assertEquals("Expected int", 1, indexInput.readInt());
+		}
+
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void staleSecondaryBlocksAreNotRead() throws IOException {
+		LaggingBlockStore laggingStore = new LaggingBlockStore(MEMORY_TEST_INDEX + "Lagging");
+		MongoDirectory mongoDirectory = new MongoDirectory(laggingStore, 1024);
+		mongoDirectory.setBlockReadPreference(ReadPreference.secondaryPreferred());
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		byte[] bytes = new byte[4096];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = 2;
+		}
+		try (IndexOutput indexOutput = directory.createOutput("current.bin", IOContext.DEFAULT)) {
+			indexOutput.writeBytes(bytes, 0, bytes.length);
+		}
+		directory.sync(Collections.singleton("current.bin"));
+
+		mongoDirectory.clearCache();
+		try (IndexInput indexInput = directory.openInput("current.bin", IOContext.DEFAULT)) {
+			byte[] read = new byte[bytes.length];
+			indexInput.readBytes(read, 0, read.length);
+			for (int i = 0; i < read.length; i++) {
+				assertEquals("Expected byte <" + i + "> of the current file", 2, read[i]);
+			}
+		}
+		assertTrue("Expected committed blocks to be read from the secondary", laggingStore.secondaryReads.get() > 0);
+
+		directory.close();
+	}
+
+	@Test
+	public void failedFlushKeepsBlocksQueued() throws IOException {
+		FailingBlockStore failingStore = new FailingBlockStore(MEMORY_TEST_INDEX + "Failing");
+		MongoDirectory mongoDirectory = new MongoDirectory(failingStore, 1024);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		byte[] bytes = new byte[4096];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		try (IndexOutput indexOutput = directory.createOutput("failing.bin", IOContext.DEFAULT)) {
+			indexOutput.writeBytes(bytes, 0, bytes.length);
+		}
+
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				mongoDirectory.getBlockFlusher().awaitAll();
+				fail("Expected the failed flush to be reported");
+			}
+			catch (IOException e) {
+				assertTrue("Expected the unchecked cause", e.getCause() instanceof IllegalStateException);
+			}
+			assertTrue("Expected blocks to stay queued", mongoDirectory.getBlockFlusher().getPendingBytes() > 0);
+			assertEquals("Expected no stored blocks", 0, failingStore.getBlockCount());
+		}
+
+		failingStore.failing = false;
+		mongoDirectory.getBlockFlusher().awaitAll();
+		assertEquals("Expected no queued blocks", 0, mongoDirectory.getBlockFlusher().getPendingBytes());
+		assertTrue("Expected blocks to be stored", failingStore.getBlockCount() > 0);
+
+		mongoDirectory.clearCache();
+		try (IndexInput indexInput = directory.openInput("failing.bin", IOContext.DEFAULT)) {
+			byte[] read = new byte[bytes.length];
+			indexInput.readBytes(read, 0, read.length);
+			for (int i = 0; i < read.length; i++) {
+				assertEquals("Expected stored byte <" + i + ">", bytes[i], read[i]);
+			}
+		}
+
+		directory.close();
+	}
+
+	/**
+	 * Fails block writes with an unchecked exception like the driver does once the client is closed
+	 */
+	private static class FailingBlockStore extends MemoryBlockStore {
+
+		private volatile boolean failing = true;
+
+		FailingBlockStore(String indexName) {
+			super(indexName);
+		}
+
+		@Override
+		public void storeBlocks(List<org.bson.Document> blocksToStore, WriteConcern writeConcern) throws IOException {
+			if (failing) {
+				throw new IllegalStateException("state should be: open");
+			}
+			super.storeBlocks(blocksToStore, writeConcern);
+		}
+	}
+
+	/**
+	 * Records the block numbers of single block and batch fetches
+	 */
+	private static class RecordingBlockStore extends MemoryBlockStore {
+
+		private final List<Integer> singleBlocks = Collections.synchronizedList(new ArrayList<>());
+		private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+
+		RecordingBlockStore(String indexName) {
+			super(indexName);
+		}
+
+		@Override
+		public org.bson.Document getBlock(short fileNumber, int blockNumber, ReadPreference readPreference) throws IOException {
+			singleBlocks.add(blockNumber);
+			return super.getBlock(fileNumber, blockNumber, readPreference);
+		}
+
+		@Override
+		public Iterable<org.bson.Document> getBlocks(short fileNumber, List<Integer> blockNumbers, ReadPreference readPreference) throws IOException {
+			batches.add(new ArrayList<>(blockNumbers));
+			return super.getBlocks(fileNumber, blockNumbers, readPreference);
+		}
+
+		void clear() {
+			singleBlocks.clear();
+			batches.clear();
+		}
+
+		List<Integer> getSingleBlocks() {
+			return new ArrayList<>(singleBlocks);
+		}
+
+		List<List<Integer>> getBatches() {
+			return new ArrayList<>(batches);
+		}
+
+		void awaitBatches(int count) throws InterruptedException {
+			long timeout = System.currentTimeMillis() + 10000;
+			while (batches.size() < count && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+			//give the read ahead time to put the fetched blocks in the cache
+			Thread.sleep(100);
+		}
+	}
+
+	/**
+	 * Answers reads that are not from the primary with the blocks of a deleted file that had the same number
+	 */
+	private static class LaggingBlockStore extends MemoryBlockStore {
+
+		private final AtomicInteger secondaryReads = new AtomicInteger();
+
+		LaggingBlockStore(String indexName) {
+			super(indexName);
+		}
+
+		private org.bson.Document toDeletedFileBlock(org.bson.Document block) {
+			org.bson.Document deletedFileBlock = new org.bson.Document(block);
+			deletedFileBlock.put(MongoDirectory.FILE_ID, block.getLong(MongoDirectory.FILE_ID) + 1);
+			byte[] bytes = new byte[((Binary) block.get(MongoDirectory.BYTES)).length()];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = 1;
+			}
+			deletedFileBlock.put(MongoDirectory.BYTES, new Binary(bytes));
+			return deletedFileBlock;
+		}
+
+		@Override
+		public org.bson.Document getBlock(short fileNumber, int blockNumber, ReadPreference readPreference) throws IOException {
+			org.bson.Document block = super.getBlock(fileNumber, blockNumber, readPreference);
+			if (block != null && !ReadPreference.primary().equals(readPreference)) {
+				secondaryReads.incrementAndGet();
+				return toDeletedFileBlock(block);
+			}
+			return block;
+		}
+
+		@Override
+		public Iterable<org.bson.Document> getBlocks(short fileNumber, List<Integer> blockNumbers, ReadPreference readPreference) throws IOException {
+			List<org.bson.Document> blocks = new ArrayList<>();
+			for (org.bson.Document block : super.getBlocks(fileNumber, blockNumbers, readPreference)) {
+				if (!ReadPreference.primary().equals(readPreference)) {
+					secondaryReads.incrementAndGet();
+					block = toDeletedFileBlock(block);
+				}
+				blocks.add(block);
+			}
+			return blocks;
+		}
+	}
+
+}
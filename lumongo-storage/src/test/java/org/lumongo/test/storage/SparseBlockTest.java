@@ -0,0 +1,106 @@
+package org.lumongo.test.storage;
+
+import com.mongodb.MongoClient;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.lumongo.storage.lucene.BlockStats;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
+import org.lumongo.util.TestHelper;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Read only use of a stored index must not write to the blocks collection, even when reading blocks that were never written
+ */
+public class SparseBlockTest {
+	private static final String SPARSE_TEST_INDEX = "sparseBlockTest";
+	private static MongoClient mongo;
+
+	@BeforeClass
+	public static void cleanDatabaseAndInit() throws Exception {
+		mongo = TestHelper.getMongo();
+		mongo.dropDatabase(TestHelper.TEST_DATABASE_NAME);
+
+		DistributedDirectory directory = new DistributedDirectory(new MongoDirectory(mongo, TestHelper.TEST_DATABASE_NAME, SPARSE_TEST_INDEX, false));
+		IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+		for (int i = 0; i < 100; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("uid", "id-" + i, Field.Store.YES));
+			doc.add(new TextField("title", "Sparse block title " + (i % 2 == 0 ? "even" : "odd"), Field.Store.YES));
+			doc.add(new NumericDocValuesField("number", i));
+			w.addDocument(doc);
+		}
+		w.commit();
+		w.close();
+		directory.close();
+	}
+
+	@Test
+	public void readOnlyDoesNotWrite() throws IOException {
+		MongoDirectory mongoDirectory = new MongoDirectory(mongo, TestHelper.TEST_DATABASE_NAME, SPARSE_TEST_INDEX, false);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		long storedBlocks = mongoDirectory.getBlockStore().getBlockCount();
+
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+			TopDocs topDocs = searcher.search(new TermQuery(new Term("title", "even")), 100);
+			assertEquals("Expected 50 hits", 50, topDocs.totalHits);
+			for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+				searcher.doc(scoreDoc.doc);
+			}
+		}
+
+		for (String fileName : directory.listAll()) {
+			try (IndexInput indexInput = directory.openInput(fileName, IOContext.READONCE)) {
+				byte[] bytes = new byte[(int) indexInput.length()];
+				indexInput.readBytes(bytes, 0, bytes.length);
+			}
+
+			//a block past the end of the file was never written and reads as zeros
+			MongoFile mongoFile = mongoDirectory.getFileHandle(fileName);
+			long sparsePosition = mongoFile.getFileLength() + 10L * mongoFile.getBlockSize();
+			assertEquals("Expected sparse block to read as zero", 0, mongoFile.readByte(sparsePosition));
+		}
+
+		assertEquals("Expected read only use to leave the blocks collection unchanged", storedBlocks, mongoDirectory.getBlockStore().getBlockCount());
+
+		//the stats are dropped when the directory closes, keep them to count the flushes done while closing
+		List<BlockStats> blockStats = BlockStats.getAllStats().stream().filter(stats -> SPARSE_TEST_INDEX.equals(stats.getDirectoryName()))
+				.collect(Collectors.toList());
+		assertEquals("Expected read only use to flush no blocks", 0, getFlushes(blockStats));
+
+		directory.close();
+
+		assertEquals("Expected closing after read only use to leave the blocks collection unchanged", storedBlocks,
+				mongoDirectory.getBlockStore().getBlockCount());
+		assertEquals("Expected closing after read only use to flush no blocks", 0, getFlushes(blockStats));
+	}
+
+	private static long getFlushes(List<BlockStats> blockStats) {
+		return blockStats.stream().mapToLong(BlockStats::getFlushes).sum();
+	}
+
+}
@@ -0,0 +1,200 @@
+package org.lumongo.test.storage;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.util.BytesRef;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.lumongo.storage.lucene.BlockCache;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.MongoFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures index size against stored document fetch latency for the stored fields modes an index can choose.  Documents
+ * are stored as BSON in a stored field the same way a segment stores them when storeDocumentInIndex is set.  Run with:
+ *
+ * java -cp ... org.lumongo.test.storage.StoredFieldsBenchmark [docs] [jsonFile]
+ *
+ * The json file holds one document per line, for example the medline example documents exported with mongoexport.
+ * Without one, documents shaped like medline citations are generated.  Fetches run on the in memory store with the
+ * latency of a mongo request so smaller stored fields show up as fewer and shorter loads.
+ */
+public class StoredFieldsBenchmark {
+
+	private static final int FETCHES = 2000;
+	private static final int RUNS = 5;
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final long CACHE_SIZE = 16L * 1024 * 1024;
+	private static final long REQUEST_LATENCY_MICROS = 500;
+	private static final long TRANSFER_MICROS_PER_MB = 10000;
+
+	private static final String[] WORDS = { "patient", "clinical", "study", "cell", "protein", "expression", "treatment", "disease", "gene", "receptor",
+			"analysis", "response", "tumor", "cancer", "activity", "effect", "therapy", "blood", "human", "acute", "chronic", "risk", "factor", "dose",
+			"infection", "virus", "cardiac", "renal", "hepatic", "neural", "brain", "muscle", "growth", "signal", "pathway", "mutation", "trial", "outcome",
+			"survival", "mortality", "children", "adult", "mice", "rat", "model", "level", "increased", "decreased", "significant", "associated" };
+
+	private static final String[] JOURNALS = { "Journal of Clinical Investigation", "The New England journal of medicine", "Lancet", "Nature medicine",
+			"Journal of Biological Chemistry", "Proceedings of the National Academy of Sciences", "Cancer research", "Circulation" };
+
+	public static void main(String[] args) throws Exception {
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		List<org.bson.Document> corpus = args.length > 1 ? readCorpus(args[1], docs) : generateCorpus(docs);
+
+		MongoFile.setMaxCacheSize(CACHE_SIZE, BlockCache.DEFAULT_OVERFLOW_PERCENT);
+
+		System.out.println("docs=" + corpus.size() + " blockSize=" + BLOCK_SIZE + " cacheMB=" + CACHE_SIZE / (1024 * 1024));
+		System.out.println(String.format("%18s %10s %12s %12s %14s %14s", "mode", "indexMs", "indexMB", "storedMB", "coldUsPerDoc", "warmUsPerDoc"));
+
+		for (Lucene50StoredFieldsFormat.Mode mode : Lucene50StoredFieldsFormat.Mode.values()) {
+			run(corpus, mode);
+		}
+	}
+
+	private static void run(List<org.bson.Document> corpus, Lucene50StoredFieldsFormat.Mode mode) throws IOException {
+		MemoryBlockStore blockStore = new MemoryBlockStore("storedFieldsBenchmark");
+		MongoDirectory mongoDirectory = new MongoDirectory(blockStore, BLOCK_SIZE);
+		DistributedDirectory directory = new DistributedDirectory(mongoDirectory);
+
+		long start = System.nanoTime();
+		IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+		config.setCodec(new Lucene62Codec(mode));
+		try (IndexWriter w = new IndexWriter(directory, config)) {
+			int id = 0;
+			for (org.bson.Document mongoDocument : corpus) {
+				Document doc = new Document();
+				doc.add(new StringField("uid", "id-" + (id++), Field.Store.YES));
+				doc.add(new StoredField("_doc_", new BytesRef(toBytes(mongoDocument))));
+				w.addDocument(doc);
+			}
+			w.forceMerge(1);
+			w.commit();
+		}
+		long indexMs = (System.nanoTime() - start) / 1000000;
+
+		long indexBytes = 0;
+		long storedBytes = 0;
+		for (String fileName : directory.listAll()) {
+			long length = directory.fileLength(fileName);
+			indexBytes += length;
+			if (fileName.endsWith(".fdt")) {
+				storedBytes += length;
+			}
+		}
+
+		blockStore.setLatency(REQUEST_LATENCY_MICROS, TRANSFER_MICROS_PER_MB);
+
+		double coldUs = Double.MAX_VALUE;
+		double warmUs = Double.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			mongoDirectory.clearCache();
+			coldUs = Math.min(coldUs, fetch(directory, corpus.size()));
+			warmUs = Math.min(warmUs, fetch(directory, corpus.size()));
+		}
+
+		directory.close();
+
+		System.out.println(String.format("%18s %10d %12.1f %12.1f %14.1f %14.1f", mode, indexMs, indexBytes / (1024.0 * 1024), storedBytes / (1024.0 * 1024),
+				coldUs, warmUs));
+	}
+
+	/**
+	 * Fetches the same random documents every time
+	 * @return average time per document in microseconds
+	 */
+	private static double fetch(DistributedDirectory directory, int docs) throws IOException {
+		Random random = new Random(5678);
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			long start = System.nanoTime();
+			for (int i = 0; i < FETCHES; i++) {
+				Document d = reader.document(random.nextInt(docs));
+				if (d.getBinaryValue("_doc_") == null) {
+					throw new IllegalStateException("Expected stored document for <" + d.get("uid") + ">");
+				}
+			}
+			return (System.nanoTime() - start) / 1000.0 / FETCHES;
+		}
+	}
+
+	private static byte[] toBytes(org.bson.Document mongoDocument) {
+		BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+		new DocumentCodec().encode(new BsonBinaryWriter(outputBuffer), mongoDocument, EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+		return outputBuffer.toByteArray();
+	}
+
+	private static List<org.bson.Document> readCorpus(String jsonFile, int maxDocs) throws IOException {
+		List<org.bson.Document> corpus = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(jsonFile), StandardCharsets.UTF_8)) {
+			String line;
+			while (corpus.size() < maxDocs && (line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					corpus.add(org.bson.Document.parse(line));
+				}
+			}
+		}
+		return corpus;
+	}
+
+	private static List<org.bson.Document> generateCorpus(int docs) {
+		Random random = new Random(1234);
+		List<org.bson.Document> corpus = new ArrayList<>(docs);
+		for (int i = 0; i < docs; i++) {
+			org.bson.Document mongoDocument = new org.bson.Document();
+			mongoDocument.put("pmid", String.valueOf(10000000 + i));
+			mongoDocument.put("title", words(random, 8 + random.nextInt(12)));
+			mongoDocument.put("abstractText", words(random, 100 + random.nextInt(200)));
+			String journal = JOURNALS[random.nextInt(JOURNALS.length)];
+			mongoDocument.put("journalTitle", journal);
+			mongoDocument.put("journalIso", journal.substring(0, Math.min(journal.length(), 12)));
+			int year = 1980 + random.nextInt(35);
+			mongoDocument.put("pubYear", String.valueOf(year));
+			mongoDocument.put("publicationDate", new Date((year - 1970) * 365L * 24 * 3600 * 1000));
+			mongoDocument.put("journalVolume", String.valueOf(1 + random.nextInt(300)));
+			mongoDocument.put("journalIssue", String.valueOf(1 + random.nextInt(12)));
+			mongoDocument.put("issn", (1000 + random.nextInt(9000)) + "-" + (1000 + random.nextInt(9000)));
+			String[] authors = new String[1 + random.nextInt(8)];
+			for (int a = 0; a < authors.length; a++) {
+				authors[a] = Character.toUpperCase(WORDS[random.nextInt(WORDS.length)].charAt(0)) + WORDS[random.nextInt(WORDS.length)] + " " + (char) ('A'
+						+ random.nextInt(26));
+			}
+			mongoDocument.put("authors", Arrays.asList(authors));
+			mongoDocument.put("pagination", (1 + random.nextInt(900)) + "-" + (1 + random.nextInt(20)));
+			corpus.add(mongoDocument);
+		}
+		return corpus;
+	}
+
+	private static String words(Random random, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+}
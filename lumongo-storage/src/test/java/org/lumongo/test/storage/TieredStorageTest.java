@@ -0,0 +1,287 @@
+package org.lumongo.test.storage;
+
+import com.mongodb.WriteConcern;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.lumongo.storage.lucene.DistributedDirectory;
+import org.lumongo.storage.lucene.MemoryBlockStore;
+import org.lumongo.storage.lucene.MongoDirectory;
+import org.lumongo.storage.lucene.TieredDirectory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Runs the tiered directory with a directory on the in memory block store as the remote directory, does not need a mongo server
+ */
+public class TieredStorageTest {
+	private static final String TIERED_TEST_INDEX = "tieredStorageTest";
+	private static final int DOC_COUNT = 1000;
+
+	/**
+	 * Fails every write while failing is set
+	 */
+	private static class FailingBlockStore extends MemoryBlockStore {
+		private volatile boolean failing;
+
+		public FailingBlockStore(String indexName) {
+			super(indexName);
+		}
+
+		@Override
+		public void storeFile(org.bson.Document file, WriteConcern writeConcern) throws IOException {
+			checkFailing();
+			super.storeFile(file, writeConcern);
+		}
+
+		@Override
+		public void storeBlocks(List<org.bson.Document> blocksToStore, WriteConcern writeConcern) throws IOException {
+			checkFailing();
+			super.storeBlocks(blocksToStore, writeConcern);
+		}
+
+		private void checkFailing() throws IOException {
+			if (failing) {
+				throw new IOException("Simulated write failure of <" + this + ">");
+			}
+		}
+	}
+
+	private MemoryBlockStore blockStore;
+	private Path firstNode;
+	private Path secondNode;
+
+	@BeforeMethod
+	public void init() throws IOException {
+		blockStore = new MemoryBlockStore(TIERED_TEST_INDEX);
+		firstNode = Files.createTempDirectory(TIERED_TEST_INDEX);
+		secondNode = Files.createTempDirectory(TIERED_TEST_INDEX);
+	}
+
+	@AfterMethod
+	public void cleanup() throws IOException {
+		IOUtils.rm(firstNode, secondNode);
+	}
+
+	private TieredDirectory open(Path node) throws IOException {
+		return new TieredDirectory(FSDirectory.open(node), new DistributedDirectory(new MongoDirectory(blockStore, 1024)));
+	}
+
+	private static void addDocs(IndexWriter w, int start, int end) throws IOException {
+		for (int i = start; i < end; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("uid", "id-" + i, Field.Store.YES));
+			doc.add(new TextField("title", "Tiered storage title " + (i % 2 == 0 ? "even" : "odd") + " number " + i, Field.Store.YES));
+			w.addDocument(doc);
+		}
+	}
+
+	private static Set<String> getCommitFiles(TieredDirectory directory) throws IOException {
+		return new HashSet<>(SegmentInfos.readLatestCommit(directory).files(true));
+	}
+
+	@Test
+	public void commitIsReplicated() throws IOException {
+		Collection<String> commitFiles;
+		try (TieredDirectory directory = open(firstNode)) {
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, 0, DOC_COUNT);
+				w.commit();
+				addDocs(w, DOC_COUNT, 2 * DOC_COUNT);
+				w.forceMerge(1);
+				w.commit();
+			}
+			directory.awaitReplication();
+			assertEquals("Expected no pending replications", 0, directory.getPendingReplications());
+			commitFiles = getCommitFiles(directory);
+		}
+
+		Set<String> remoteFiles = new HashSet<>(Arrays.asList(blockStore.getFileNames()));
+		assertTrue("Expected every file of the commit in the remote directory", remoteFiles.containsAll(commitFiles));
+		remoteFiles.removeAll(commitFiles);
+		remoteFiles.remove("write.lock");
+		assertTrue("Expected files of older commits to be deleted remotely <" + remoteFiles + ">", remoteFiles.isEmpty());
+	}
+
+	@Test
+	public void moveToEmptyNode() throws IOException {
+		try (TieredDirectory directory = open(firstNode)) {
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, 0, DOC_COUNT);
+				w.commit();
+			}
+		}
+
+		try (TieredDirectory directory = open(secondNode)) {
+			//readable before the files are on local disk
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				assertEquals("Expected all docs", DOC_COUNT, reader.numDocs());
+				IndexSearcher searcher = new IndexSearcher(reader);
+				assertEquals("Expected half of the docs", DOC_COUNT / 2, searcher.count(new TermQuery(new Term("title", "even"))));
+			}
+
+			directory.awaitLocalization();
+			for (String fileName : getCommitFiles(directory)) {
+				assertTrue("Expected <" + fileName + "> on local disk", Files.exists(secondNode.resolve(fileName)));
+			}
+		}
+	}
+
+	@Test
+	public void moveBackShipsDelta() throws IOException {
+		try (TieredDirectory directory = open(firstNode)) {
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, 0, DOC_COUNT);
+				w.commit();
+			}
+		}
+
+		Set<String> firstCommitFiles;
+		try (TieredDirectory directory = open(secondNode)) {
+			firstCommitFiles = getCommitFiles(directory);
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, DOC_COUNT, DOC_COUNT + 10);
+				w.commit();
+			}
+		}
+
+		long bytesBefore = blockStore.getBytesTransferred();
+		try (TieredDirectory directory = open(firstNode)) {
+			directory.awaitLocalization();
+			Set<String> secondCommitFiles = getCommitFiles(directory);
+			for (String fileName : secondCommitFiles) {
+				assertTrue("Expected <" + fileName + "> on local disk", Files.exists(firstNode.resolve(fileName)));
+			}
+
+			long newBytes = 0;
+			for (String fileName : secondCommitFiles) {
+				if (!firstCommitFiles.contains(fileName)) {
+					newBytes += directory.fileLength(fileName);
+				}
+			}
+			long bytesCopied = blockStore.getBytesTransferred() - bytesBefore;
+			assertTrue("Expected only the new files to be copied <" + bytesCopied + "> for <" + newBytes + "> new bytes", bytesCopied < 2 * newBytes + 4096);
+
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				assertEquals("Expected all docs", DOC_COUNT + 10, reader.numDocs());
+			}
+
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				w.forceMerge(1);
+				w.commit();
+			}
+			directory.awaitReplication();
+			for (String fileName : firstCommitFiles) {
+				if (!fileName.startsWith("segments")) {
+					assertFalse("Expected merged file <" + fileName + "> to be deleted locally", Files.exists(firstNode.resolve(fileName)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void divergedLocalCommitIsDiscarded() throws IOException {
+		try (TieredDirectory directory = open(firstNode)) {
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, 0, DOC_COUNT);
+				w.commit();
+			}
+		}
+
+		//the first node commits on local disk only and crashes before the commit is replicated
+		try (IndexWriter w = new IndexWriter(FSDirectory.open(firstNode), new IndexWriterConfig(new StandardAnalyzer()))) {
+			addDocs(w, DOC_COUNT, DOC_COUNT + 10);
+			w.commit();
+		}
+
+		//the second node continues from the remote commit and writes files with the same names
+		try (TieredDirectory directory = open(secondNode)) {
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, DOC_COUNT + 10, DOC_COUNT + 30);
+				w.commit();
+			}
+		}
+
+		try (TieredDirectory directory = open(firstNode)) {
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				assertEquals("Expected the docs of the remote commit", DOC_COUNT + 20, reader.numDocs());
+				IndexSearcher searcher = new IndexSearcher(reader);
+				assertEquals("Expected the docs written by the second node", 1, searcher.count(new TermQuery(new Term("uid", "id-" + (DOC_COUNT + 29)))));
+				assertEquals("Expected no docs of the discarded commit", 0, searcher.count(new TermQuery(new Term("uid", "id-" + DOC_COUNT))));
+			}
+
+			directory.awaitLocalization();
+			for (String fileName : getCommitFiles(directory)) {
+				assertTrue("Expected <" + fileName + "> on local disk", Files.exists(firstNode.resolve(fileName)));
+			}
+		}
+	}
+
+	@Test
+	public void failedCommitKeepsRemoteCommit() throws IOException {
+		FailingBlockStore failingBlockStore = new FailingBlockStore(TIERED_TEST_INDEX);
+		blockStore = failingBlockStore;
+
+		try (TieredDirectory directory = open(firstNode)) {
+			try (IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				addDocs(w, 0, DOC_COUNT);
+				w.commit();
+				directory.awaitReplication();
+
+				//the next commit replaces every file of the first one but fails to replicate
+				failingBlockStore.failing = true;
+				w.deleteAll();
+				addDocs(w, DOC_COUNT, DOC_COUNT + 10);
+				w.commit();
+				directory.awaitReplication();
+
+				try (DistributedDirectory remote = new DistributedDirectory(new MongoDirectory(blockStore, 1024));
+						DirectoryReader reader = DirectoryReader.open(remote)) {
+					assertEquals("Expected the remote directory to keep the first commit", DOC_COUNT, reader.numDocs());
+				}
+
+				failingBlockStore.failing = false;
+				addDocs(w, DOC_COUNT + 10, DOC_COUNT + 20);
+				w.commit();
+			}
+			directory.awaitReplication();
+			assertEquals("Expected no pending replications", 0, directory.getPendingReplications());
+
+			Set<String> remoteFiles = new HashSet<>(Arrays.asList(blockStore.getFileNames()));
+			remoteFiles.removeAll(getCommitFiles(directory));
+			remoteFiles.remove("write.lock");
+			assertTrue("Expected deferred deletes to run once a commit was replicated <" + remoteFiles + ">", remoteFiles.isEmpty());
+		}
+
+		try (DistributedDirectory remote = new DistributedDirectory(new MongoDirectory(blockStore, 1024));
+				DirectoryReader reader = DirectoryReader.open(remote)) {
+			assertEquals("Expected the docs of the last commit", 20, reader.numDocs());
+		}
+	}
+
+}